@@ -15,8 +15,10 @@
  */
 package com.openddal.command;
 
+import java.sql.BatchUpdateException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.List;
 
 import com.openddal.command.expression.ParameterInterface;
 import com.openddal.engine.Constants;
@@ -26,6 +28,7 @@ import com.openddal.message.DbException;
 import com.openddal.message.ErrorCode;
 import com.openddal.message.Trace;
 import com.openddal.result.ResultInterface;
+import com.openddal.value.Value;
 
 /**
  * Represents a SQL statement. This object is only used on the server side.
@@ -45,6 +48,10 @@ public abstract class Command implements CommandInterface {
      * The last start time.
      */
     protected long startTime;
+    /**
+     * The last start time in nanoseconds, if query statistics are enabled.
+     */
+    protected long startNanos;
     /**
      * If this query was canceled.
      */
@@ -129,6 +136,7 @@ public abstract class Command implements CommandInterface {
         if (trace.isInfoEnabled()) {
             startTime = System.currentTimeMillis();
         }
+        startNanos = session.getDatabase().getQueryStatistics() ? System.nanoTime() : 0;
     }
 
     /**
@@ -233,6 +241,42 @@ public abstract class Command implements CommandInterface {
         }
     }
 
+    @Override
+    public int[] executeBatchUpdate(List<Value[]> batchParameters) {
+        Database database = session.getDatabase();
+        Object sync = session;
+        synchronized (sync) {
+            session.setCurrentCommand(this);
+            try {
+                return updateBatch(batchParameters);
+            } catch (DbException e) {
+                if (e.getSQLException() instanceof BatchUpdateException) {
+                    // the statement is already added to the cause
+                    throw e;
+                }
+                throw e.addSQL(sql);
+            } catch (OutOfMemoryError e) {
+                database.shutdownImmediately();
+                throw DbException.convert(e);
+            } catch (Throwable e) {
+                throw DbException.convert(e).addSQL(sql);
+            } finally {
+                stop();
+            }
+        }
+    }
+
+    /**
+     * Execute the statement for each set of parameter values in one go, if
+     * this is supported by the statement.
+     *
+     * @param batchParameters the parameter values of each execution
+     * @return the update counts, or null if not supported
+     */
+    protected int[] updateBatch(List<Value[]> batchParameters) {
+        return null;
+    }
+
     @Override
     public void close() {
         canReuse = true;
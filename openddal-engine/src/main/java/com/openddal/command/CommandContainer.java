@@ -15,13 +15,18 @@
  */
 package com.openddal.command;
 
+import com.openddal.command.dml.Insert;
 import com.openddal.command.expression.Parameter;
 import com.openddal.command.expression.ParameterInterface;
+import com.openddal.message.DbException;
 import com.openddal.result.ResultInterface;
 import com.openddal.value.Value;
 import com.openddal.value.ValueNull;
 
+import java.sql.BatchUpdateException;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Represents a single SQL statements.
@@ -81,17 +86,45 @@ class CommandContainer extends Command {
         session.setLastScopeIdentity(ValueNull.INSTANCE);
         prepared.checkParameters();
         int updateCount = prepared.update();
-        prepared.trace(startTime, updateCount);
+        prepared.trace(startTime, startNanos, updateCount);
         return updateCount;
     }
 
+    @Override
+    protected int[] updateBatch(List<Value[]> batchParameters) {
+        recompileIfRequired();
+        if (!(prepared instanceof Insert) || !((Insert) prepared).isBatchable(batchParameters)) {
+            return null;
+        }
+        start();
+        session.setLastScopeIdentity(ValueNull.INSTANCE);
+        Insert insert = (Insert) prepared;
+        int updateCount;
+        try {
+            updateCount = insert.updateBatch(batchParameters);
+        } catch (DbException e) {
+            int[] result = insert.getBatchResult();
+            if (result == null) {
+                throw e;
+            }
+            // some executions may have succeeded
+            SQLException cause = e.addSQL(prepared.getSQL()).getSQLException();
+            BatchUpdateException b = new BatchUpdateException(cause.getMessage(), cause.getSQLState(),
+                    cause.getErrorCode(), result);
+            b.setNextException(cause);
+            throw DbException.convert(b);
+        }
+        prepared.trace(startTime, startNanos, updateCount);
+        return insert.getBatchResult();
+    }
+
     @Override
     public ResultInterface query(int maxrows) {
         recompileIfRequired();
         start();
         prepared.checkParameters();
         ResultInterface result = prepared.query(maxrows);
-        prepared.trace(startTime, result.getRowCount());
+        prepared.trace(startTime, startNanos, result.getRowCount());
         return result;
     }
 
@@ -16,9 +16,11 @@
 package com.openddal.command;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import com.openddal.command.expression.ParameterInterface;
 import com.openddal.result.ResultInterface;
+import com.openddal.value.Value;
 
 /**
  * Represents a SQL statement.
@@ -436,6 +438,11 @@ public interface CommandInterface {
      */
     int BEGIN = 83;
 
+    /**
+     * The type of a ALTER TABLE MOVE BUCKET statement.
+     */
+    int ALTER_TABLE_MOVE_BUCKET = 84;
+
     /**
      * Get command type.
      *
@@ -473,6 +480,16 @@ public interface CommandInterface {
      */
     int executeUpdate();
 
+    /**
+     * Execute the statement once for each set of parameter values, combining
+     * the executions to one statement per shard.
+     *
+     * @param batchParameters the parameter values of each execution
+     * @return the update count of each execution, or null if the executions
+     *         of this statement can not be combined
+     */
+    int[] executeBatchUpdate(List<Value[]> batchParameters);
+
     /**
      * Close the statement.
      */
@@ -26,6 +26,7 @@ import com.openddal.command.ddl.AlterSchemaRename;
 import com.openddal.command.ddl.AlterTableAddConstraint;
 import com.openddal.command.ddl.AlterTableAlterColumn;
 import com.openddal.command.ddl.AlterTableDropConstraint;
+import com.openddal.command.ddl.AlterTableMoveBucket;
 import com.openddal.command.ddl.AlterTableRename;
 import com.openddal.command.ddl.AlterTableRenameColumn;
 import com.openddal.command.ddl.AlterUser;
@@ -4785,6 +4786,15 @@ public class Parser {
                 command.setCheckExisting(false);
             }
             return command;
+        } else if (readIf("MOVE")) {
+            read("BUCKET");
+            AlterTableMoveBucket command = new AlterTableMoveBucket(session,
+                    table.getSchema());
+            command.setTable(table);
+            command.setBucket(readInt());
+            read("TO");
+            command.setTarget(readInt());
+            return command;
         } else if (readIf("RENAME")) {
             read("TO");
             String newName = readIdentifierWithSchema(table.getSchema()
@@ -19,13 +19,17 @@ import java.util.ArrayList;
 
 import com.openddal.command.expression.Expression;
 import com.openddal.command.expression.Parameter;
+import com.openddal.engine.QueryStatisticsData;
 import com.openddal.engine.Session;
 import com.openddal.executor.Executor;
 import com.openddal.executor.ExecutorFactory;
 import com.openddal.message.DbException;
 import com.openddal.message.ErrorCode;
 import com.openddal.message.Trace;
+import com.openddal.repo.SQLTranslated;
 import com.openddal.result.ResultInterface;
+import com.openddal.route.rule.ObjectNode;
+import com.openddal.util.SmallLRUCache;
 import com.openddal.util.StatementBuilder;
 import com.openddal.value.Value;
 
@@ -63,8 +67,11 @@ public abstract class Prepared {
 
     private Command command;
     private int objectId;
+    private long modificationMetaId;
     private int currentRowNumber;
     private int rowScanCount;
+    private String fingerprint;
+    private SmallLRUCache<ObjectNode, SQLTranslated> translatedCache;
 
     /**
      * Create a new object.
@@ -73,6 +80,7 @@ public abstract class Prepared {
      */
     public Prepared(Session session) {
         this.session = session;
+        modificationMetaId = session.getDatabase().getModificationMetaId();
     }
 
     /**
@@ -146,7 +154,7 @@ public abstract class Prepared {
      * @return true if it must
      */
     public boolean needRecompile() {
-        return false;
+        return modificationMetaId != session.getDatabase().getModificationMetaId();
     }
 
     /**
@@ -345,19 +353,53 @@ public abstract class Prepared {
      * enabled.
      *
      * @param startTime when the statement was started
+     * @param startNanos when the statement was started, in nanoseconds
      * @param rowCount  the query or update row count
      */
-    void trace(long startTime, int rowCount) {
+    void trace(long startTime, long startNanos, int rowCount) {
         if (session.getTrace().isInfoEnabled() && startTime > 0) {
             long deltaTime = System.currentTimeMillis() - startTime;
             String params = Trace.formatParams(parameters);
             session.getTrace().infoSQL(sqlStatement, params, rowCount, deltaTime);
         }
-        if (session.getDatabase().getQueryStatistics()) {
-            long deltaTime = System.currentTimeMillis() - startTime;
-            session.getDatabase().getQueryStatisticsData().
-                    update(toString(), deltaTime, rowCount);
+        QueryStatisticsData statistics = session.getDatabase().getQueryStatisticsData();
+        if (statistics != null && startNanos != 0) {
+            if (fingerprint == null) {
+                fingerprint = QueryStatisticsData.getFingerprint(toString());
+            }
+            statistics.update(fingerprint, System.nanoTime() - startNanos, rowCount,
+                    session.getShardStatementCount(), session.getShardRowCount());
+        }
+    }
+
+    /**
+     * Get the statement translated for the given node by an earlier
+     * execution of this statement.
+     *
+     * @param node the node the statement is executed on
+     * @return the translated statement, or null
+     */
+    public synchronized SQLTranslated getTranslated(ObjectNode node) {
+        return translatedCache == null ? null : translatedCache.get(node);
+    }
+
+    /**
+     * Keep the statement translated for the given node, so that it can be
+     * reused by the next execution of this statement. The cache lives as long
+     * as this prepared statement, that is until it needs to be re-compiled.
+     *
+     * @param node the node the statement is executed on
+     * @param translated the translated statement
+     */
+    public synchronized void setTranslated(ObjectNode node, SQLTranslated translated) {
+        if (translatedCache == null) {
+            int size = session.getDatabase().getSettings().translatedCacheSize;
+            if (size <= 0) {
+                return;
+            }
+            translatedCache = SmallLRUCache.newInstance(size);
         }
+        translatedCache.put(node, translated);
     }
 
     /**
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.command.ddl;
+
+import com.openddal.command.CommandInterface;
+import com.openddal.dbobject.schema.Schema;
+import com.openddal.dbobject.table.Table;
+import com.openddal.engine.Session;
+
+/**
+ * This class represents the statement ALTER TABLE MOVE BUCKET
+ */
+public class AlterTableMoveBucket extends SchemaCommand {
+
+    private Table table;
+    private int bucket;
+    private int target;
+
+    public AlterTableMoveBucket(Session session, Schema schema) {
+        super(session, schema);
+    }
+
+    @Override
+    public int getType() {
+        return CommandInterface.ALTER_TABLE_MOVE_BUCKET;
+    }
+
+    public Table getTable() {
+        return table;
+    }
+
+    public void setTable(Table table) {
+        this.table = table;
+    }
+
+    public int getBucket() {
+        return bucket;
+    }
+
+    public void setBucket(int bucket) {
+        this.bucket = bucket;
+    }
+
+    public int getTarget() {
+        return target;
+    }
+
+    public void setTarget(int target) {
+        this.target = target;
+    }
+
+}
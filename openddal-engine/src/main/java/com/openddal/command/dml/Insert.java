@@ -17,12 +17,14 @@ package com.openddal.command.dml;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import com.openddal.command.Command;
 import com.openddal.command.CommandInterface;
 import com.openddal.command.Prepared;
 import com.openddal.command.expression.Expression;
 import com.openddal.command.expression.Parameter;
+import com.openddal.command.expression.ValueExpression;
 import com.openddal.dbobject.table.Column;
 import com.openddal.dbobject.table.Table;
 import com.openddal.engine.Session;
@@ -30,6 +32,7 @@ import com.openddal.message.DbException;
 import com.openddal.message.ErrorCode;
 import com.openddal.result.ResultInterface;
 import com.openddal.util.New;
+import com.openddal.value.Value;
 
 /**
  * This class represents the statement
@@ -44,6 +47,8 @@ public class Insert extends Prepared {
     private boolean sortedInsertMode;
     private int rowNumber;
     private boolean insertFromSelect;
+    private List<Value[]> batchParameters;
+    private int[] batchResult;
 
     /**
      * For MySQL-style INSERT ... ON DUPLICATE KEY UPDATE ....
@@ -193,6 +198,81 @@ public class Insert extends Prepared {
         this.insertFromSelect = value;
     }
 
+    /**
+     * Check if the executions of a batch can be combined. This is the case
+     * for INSERT ... VALUES if all values are parameters or constants, so
+     * nothing is evaluated twice, and the parameter values of all executions
+     * can be converted, otherwise each execution should report its own error.
+     *
+     * @param batchParameters the parameter values of each execution
+     * @return true if updateBatch can be used
+     */
+    public boolean isBatchable(List<Value[]> batchParameters) {
+        if (query != null || list.isEmpty()) {
+            return false;
+        }
+        for (Expression[] expr : list) {
+            for (Expression e : expr) {
+                if (e != null && !(e instanceof Parameter) && !(e instanceof ValueExpression)) {
+                    return false;
+                }
+            }
+        }
+        try {
+            for (Expression[] expr : list) {
+                for (int i = 0; i < expr.length; i++) {
+                    if (expr[i] instanceof ValueExpression) {
+                        columns[i].convert(expr[i].getValue(session));
+                    } else if (expr[i] != null) {
+                        int index = ((Parameter) expr[i]).getIndex();
+                        for (Value[] set : batchParameters) {
+                            columns[i].convert(set[index]);
+                        }
+                    }
+                }
+            }
+            return true;
+        } catch (DbException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Insert the rows of all sets of parameter values at once, so each shard
+     * gets a single multi-row statement.
+     *
+     * @param batchParameters the parameter values of each execution
+     * @return the update count
+     */
+    public int updateBatch(List<Value[]> batchParameters) {
+        this.batchParameters = batchParameters;
+        this.batchResult = null;
+        try {
+            return update();
+        } finally {
+            this.batchParameters = null;
+        }
+    }
+
+    public List<Value[]> getBatchParameters() {
+        return batchParameters;
+    }
+
+    /**
+     * Get the update count of each execution of the last batch, as set by the
+     * executor. This is also set if the batch failed, then the executions
+     * whose rows were not all written are Statement.EXECUTE_FAILED.
+     *
+     * @return the update counts, or null if the rows were not written
+     */
+    public int[] getBatchResult() {
+        return batchResult;
+    }
+
+    public void setBatchResult(int[] batchResult) {
+        this.batchResult = batchResult;
+    }
+
     public HashMap<Column, Expression> getDuplicateKeyAssignmentMap() {
         return duplicateKeyAssignmentMap;
     }
@@ -74,6 +74,7 @@ public class Select extends Query {
     private SortOrder sort;
     private int currentGroupRowId;
     private boolean isDirectLookupQuery;
+    private boolean isSortedMergingQuery;
 
     public Select(Session session) {
         super(session);
@@ -319,7 +320,7 @@ public class Select extends Query {
             }
             result.addRow(row);
             rowNumber++;
-            if (sort == null && limitRows > 0 && result.getRowCount() >= limitRows) {
+            if ((sort == null || isSortedMergingQuery) && limitRows > 0 && result.getRowCount() >= limitRows) {
                 break;
             }
         }
@@ -426,7 +427,7 @@ public class Select extends Query {
         if (target == null || !session.getDatabase().getSettings().optimizeInsertFromSelect) {
             result = createLocalResult(result);
         }
-        if (sort != null) {
+        if (sort != null && !isSortedMergingQuery) {
             result = createLocalResult(result);
             result.setSortOrder(sort);
         }
@@ -671,6 +672,7 @@ public class Select extends Query {
             }
         }
         isDirectLookupQuery = DirectLookupCursor.isDirectLookupQuery(this);
+        isSortedMergingQuery = isDirectLookupQuery && DirectLookupCursor.isSortedMergingQuery(this);
         cost = preparePlan();
         expressionArray = new Expression[expressions.size()];
         expressions.toArray(expressionArray);
@@ -161,6 +161,7 @@ public class Aggregate extends Expression {
     private long precision;
     private int displaySize;
     private int lastGroupRowId;
+    private Expression[] partialExpressions;
 
     /**
      * Create a new aggregate object.
@@ -618,22 +619,108 @@ public class Aggregate extends Expression {
     
     }
 
+    /**
+     * Get the expressions the shards calculate for this aggregate when it is
+     * calculated in two phases. The partial results are merged by this
+     * aggregate: COUNT is merged as the sum of the counts, AVG is split into
+     * SUM and COUNT, and the variance and standard deviation are split into
+     * COUNT, SUM and VAR_POP. For DISTINCT aggregates, the aggregated
+     * expression is returned; it is added to the GROUP BY of the shards, so
+     * that each distinct value is only sent once per shard.
+     *
+     * @return the partial expressions
+     */
+    public Expression[] getPartialExpressions() {
+        if (partialExpressions == null) {
+            if (getDistinctGroupExpression() != null) {
+                partialExpressions = new Expression[] { on };
+            } else {
+                switch (type) {
+                    case AVG:
+                        partialExpressions = new Expression[] { partial(SUM), partial(COUNT) };
+                        break;
+                    case STDDEV_POP:
+                    case STDDEV_SAMP:
+                    case VAR_POP:
+                    case VAR_SAMP:
+                        partialExpressions = new Expression[] { partial(COUNT), partial(SUM), partial(VAR_POP) };
+                        break;
+                    default:
+                        partialExpressions = new Expression[] { this };
+                }
+            }
+        }
+        return partialExpressions;
+    }
+
+    /**
+     * Get the expression the shards need to group by for this aggregate, if
+     * it is a DISTINCT aggregate that is merged from the distinct values.
+     *
+     * @return the aggregated expression, or null
+     */
+    public Expression getDistinctGroupExpression() {
+        if (!distinct) {
+            return null;
+        }
+        switch (type) {
+            case COUNT:
+            case SUM:
+            case AVG:
+            case STDDEV_POP:
+            case STDDEV_SAMP:
+            case VAR_POP:
+            case VAR_SAMP:
+                return on;
+            default:
+                // MIN, MAX and BOOL_* don't depend on the duplicates,
+                // the others are merged as before
+                return null;
+        }
+    }
+
+    private Aggregate partial(int partialType) {
+        Aggregate a = new Aggregate(partialType, on, select, false);
+        a.dataType = partialType == COUNT ? Value.LONG : dataType;
+        return a;
+    }
+
     private void updateAggregate0(Session session) {
         HashMap<Expression, Object> group = select.getCurrentGroup();
+        HashMap<Expression, Value> currentValues = select.getCurrentValues();
+        Expression[] partials = getPartialExpressions();
         AggregateData data = (AggregateData) group.get(this);
-        if (data == null) {
-            switch (type) {
-                case COUNT:
-                case COUNT_ALL:
-                    data = AggregateData.create(SUM);
-                    break;
-                default:
-                    data = AggregateData.create(type);
+        if (getDistinctGroupExpression() != null) {
+            if (data == null) {
+                data = AggregateData.create(type);
+                group.put(this, data);
             }
-            group.put(this, data);
+            data.add(session.getDatabase(), dataType, true, currentValues.get(on));
+        } else if (partials.length > 1) {
+            if (data == null) {
+                data = new AggregateDataPartial(type);
+                group.put(this, data);
+            }
+            Value[] list = new Value[partials.length];
+            for (int i = 0; i < partials.length; i++) {
+                list[i] = currentValues.get(partials[i]);
+            }
+            data.add(session.getDatabase(), dataType, false, ValueArray.get(list));
+        } else {
+            if (data == null) {
+                switch (type) {
+                    case COUNT:
+                    case COUNT_ALL:
+                        data = AggregateData.create(SUM);
+                        break;
+                    default:
+                        data = AggregateData.create(type);
+                }
+                group.put(this, data);
+            }
+            Value v = currentValues.get(this);
+            data.add(session.getDatabase(), dataType, distinct, v);
         }
-        Value v = select.getCurrentValues().get(this);
-        data.add(session.getDatabase(), dataType, distinct, v);
     }
 
 }
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.command.expression;
+
+import com.openddal.engine.Database;
+import com.openddal.message.DbException;
+import com.openddal.value.DataType;
+import com.openddal.value.Value;
+import com.openddal.value.ValueArray;
+import com.openddal.value.ValueDouble;
+import com.openddal.value.ValueLong;
+import com.openddal.value.ValueNull;
+
+/**
+ * Data stored while merging the partial results of an aggregate that was
+ * split into several shard side aggregates. Each value that is added is an
+ * array of the partial results of one shard, as returned by
+ * {@link Aggregate#getPartialExpressions()}.
+ */
+class AggregateDataPartial extends AggregateData {
+    private final int aggregateType;
+    private long count;
+    private Value value;
+    private double m2, mean;
+
+    /**
+     * @param aggregateType the type of the aggregate operation
+     */
+    AggregateDataPartial(int aggregateType) {
+        this.aggregateType = aggregateType;
+    }
+
+    @Override
+    void add(Database database, int dataType, boolean distinct, Value v) {
+        Value[] partial = ((ValueArray) v).getList();
+        switch (aggregateType) {
+            case Aggregate.AVG: {
+                // SUM(x), COUNT(x)
+                long n = partial[1].getLong();
+                Value sum = partial[0];
+                if (n == 0 || sum == ValueNull.INSTANCE) {
+                    return;
+                }
+                if (value == null) {
+                    value = sum.convertTo(DataType.getAddProofType(dataType));
+                } else {
+                    value = value.add(sum.convertTo(value.getType()));
+                }
+                count += n;
+                break;
+            }
+            case Aggregate.STDDEV_POP:
+            case Aggregate.STDDEV_SAMP:
+            case Aggregate.VAR_POP:
+            case Aggregate.VAR_SAMP: {
+                // COUNT(x), SUM(x), VAR_POP(x)
+                long n = partial[0].getLong();
+                if (n == 0) {
+                    return;
+                }
+                double m = partial[1].getDouble() / n;
+                double m2n = partial[2] == ValueNull.INSTANCE ? 0 : partial[2].getDouble() * n;
+                if (count == 0) {
+                    mean = m;
+                    m2 = m2n;
+                    count = n;
+                } else {
+                    // combine the two sets (Chan et al.)
+                    long total = count + n;
+                    double delta = m - mean;
+                    mean += delta * n / total;
+                    m2 += m2n + delta * delta * count * n / total;
+                    count = total;
+                }
+                break;
+            }
+            default:
+                DbException.throwInternalError("type=" + aggregateType);
+        }
+    }
+
+    @Override
+    Value getValue(Database database, int dataType, boolean distinct) {
+        Value v = null;
+        switch (aggregateType) {
+            case Aggregate.AVG:
+                if (value != null) {
+                    int type = Value.getHigherOrder(value.getType(), Value.LONG);
+                    v = value.convertTo(type).divide(ValueLong.get(count).convertTo(type));
+                }
+                break;
+            case Aggregate.STDDEV_POP:
+                if (count < 1) {
+                    return ValueNull.INSTANCE;
+                }
+                v = ValueDouble.get(Math.sqrt(m2 / count));
+                break;
+            case Aggregate.STDDEV_SAMP:
+                if (count < 2) {
+                    return ValueNull.INSTANCE;
+                }
+                v = ValueDouble.get(Math.sqrt(m2 / (count - 1)));
+                break;
+            case Aggregate.VAR_POP:
+                if (count < 1) {
+                    return ValueNull.INSTANCE;
+                }
+                v = ValueDouble.get(m2 / count);
+                break;
+            case Aggregate.VAR_SAMP:
+                if (count < 2) {
+                    return ValueNull.INSTANCE;
+                }
+                v = ValueDouble.get(m2 / (count - 1));
+                break;
+            default:
+                DbException.throwInternalError("type=" + aggregateType);
+        }
+        return v == null ? ValueNull.INSTANCE : v.convertTo(dataType);
+    }
+
+}
@@ -569,6 +569,15 @@ public class Comparison extends Condition {
         return getLeft ? this.left : right;
     }
 
+    /**
+     * Get the comparison type.
+     *
+     * @return the comparison type, for example EQUAL
+     */
+    public int getCompareType() {
+        return compareType;
+    }
+
 
     @Override
     public String getPreparedSQL(Session session, List<Value> parameters) {
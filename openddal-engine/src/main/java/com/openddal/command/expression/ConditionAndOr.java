@@ -307,6 +307,15 @@ public class ConditionAndOr extends Condition {
         return getLeft ? this.left : right;
     }
 
+    /**
+     * Get the condition type.
+     *
+     * @return AND or OR
+     */
+    public int getAndOrType() {
+        return andOrType;
+    }
+
 
     @Override
     public String getPreparedSQL(Session session, List<Value> parameters) {
@@ -199,6 +199,7 @@ public class ConditionInSelect extends Condition {
 
     @Override
     public String getPreparedSQL(Session session, List<Value> parameters) {
+        ParameterList.setNotReusable(parameters);
         LocalResult rows = query.query(0);
         if (rows.getRowCount() > 0) {
             StatementBuilder buff = new StatementBuilder();
@@ -330,7 +330,7 @@ public class ExpressionColumn extends Expression {
             return getSQL();
         }
         Value value = getValue(session);
-        parameters.add(value);
+        ParameterList.add(parameters, this, value);
         return "?";
     }
 
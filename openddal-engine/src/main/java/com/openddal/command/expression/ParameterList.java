@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.command.expression;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.openddal.engine.Session;
+import com.openddal.util.New;
+import com.openddal.value.Value;
+
+/**
+ * The parameter values collected by getPreparedSQL, together with the
+ * expressions they come from. A statement translated once can be executed
+ * again by only reading the values of these expressions, as long as the SQL
+ * statement does not depend on the data (as it does for sub-queries that are
+ * evaluated while translating).
+ *
+ * @author jorgie.li
+ */
+public class ParameterList extends ArrayList<Value> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ArrayList<Expression> sources = New.arrayList();
+    private boolean reusable = true;
+
+    /**
+     * Add the value of an expression to the parameter list.
+     *
+     * @param parameters the parameter list
+     * @param source the expression
+     * @param value the value of the expression
+     */
+    public static void add(List<Value> parameters, Expression source, Value value) {
+        if (parameters instanceof ParameterList) {
+            ((ParameterList) parameters).sources.add(source);
+        }
+        parameters.add(value);
+    }
+
+    /**
+     * Mark the statement the parameters were collected for as depending on
+     * the data, so it can not be reused.
+     *
+     * @param parameters the parameter list
+     */
+    public static void setNotReusable(List<Value> parameters) {
+        if (parameters instanceof ParameterList) {
+            ((ParameterList) parameters).reusable = false;
+        }
+    }
+
+    /**
+     * Get the expressions the values come from.
+     *
+     * @return the expressions, or null if the statement can not be reused
+     */
+    public Expression[] getSources() {
+        if (!reusable || sources.size() != size()) {
+            // some values were not added by an expression
+            return null;
+        }
+        return sources.toArray(new Expression[sources.size()]);
+    }
+
+    /**
+     * Read the current values of the given expressions.
+     *
+     * @param session the session
+     * @param sources the expressions
+     * @return the parameter values
+     */
+    public static ArrayList<Value> getValues(Session session, Expression[] sources) {
+        ArrayList<Value> values = New.arrayList(sources.length + 2);
+        for (Expression e : sources) {
+            values.add(e.getValue(session));
+        }
+        return values;
+    }
+
+}
@@ -195,7 +195,7 @@ public class ValueExpression extends Expression {
         if (this == DEFAULT) {
             return "DEFAULT";
         }
-        parameters.add(value);
+        ParameterList.add(parameters, this, value);
         return "?";
     }
 }
@@ -13,6 +13,7 @@ public class Shard implements Serializable {
     
     
     private String name;
+    private String loadBalance;
     private List<ShardItem> shardItems;
 
     /**
@@ -29,6 +30,20 @@ public class Shard implements Serializable {
         this.name = name;
     }
 
+    /**
+     * @return the loadBalance
+     */
+    public String getLoadBalance() {
+        return loadBalance;
+    }
+
+    /**
+     * @param loadBalance the loadBalance to set
+     */
+    public void setLoadBalance(String loadBalance) {
+        this.loadBalance = loadBalance;
+    }
+
     /**
      * @return the shardItems
      */
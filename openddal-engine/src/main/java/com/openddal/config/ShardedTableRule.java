@@ -6,6 +6,7 @@ import java.util.Random;
 import com.openddal.route.algorithm.MultColumnPartitioner;
 import com.openddal.route.algorithm.Partitioner;
 import com.openddal.route.rule.ObjectNode;
+import com.openddal.route.rule.RoutingResult;
 import com.openddal.util.StringUtils;
 
 /**
@@ -25,6 +26,8 @@ public class ShardedTableRule extends TableRule implements Serializable {
     private String[] ruleColumns;
     private Object partitioner; 
     private TableRuleGroup ownerGroup;
+    private transient RoutingResult[] routingResults;
+    private transient RoutingResult fullRoutingResult;
 
 
     public ShardedTableRule(String name) {
@@ -79,6 +82,39 @@ public class ShardedTableRule extends TableRule implements Serializable {
         return objectNodes;
     }
 
+    /**
+     * Get the result of the routing to the node at the given index. The
+     * results are created once and shared.
+     *
+     * @param index the index of the node
+     * @return the routing result
+     */
+    public RoutingResult getRoutingResult(int index) {
+        RoutingResult[] results = routingResults;
+        if (results == null || results.length != objectNodes.length) {
+            results = new RoutingResult[objectNodes.length];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = RoutingResult.fixedResult(objectNodes[i]);
+            }
+            routingResults = results;
+        }
+        return results[index];
+    }
+
+    /**
+     * Get the result of the routing to all nodes.
+     *
+     * @return the routing result
+     */
+    public RoutingResult getFullRoutingResult() {
+        RoutingResult result = fullRoutingResult;
+        if (result == null) {
+            result = RoutingResult.fixedResult(objectNodes);
+            fullRoutingResult = result;
+        }
+        return result;
+    }
+
     public void setObjectNodes(ObjectNode... objectNode) {
         for (ObjectNode item : objectNode) {
             if (StringUtils.isNullOrEmpty(item.getShardName())) {
@@ -90,6 +126,8 @@ public class ShardedTableRule extends TableRule implements Serializable {
 
         }
         this.objectNodes = objectNode;
+        this.routingResults = null;
+        this.fullRoutingResult = null;
     }
 
     public void cloneObjectNodes(ObjectNode... objectNode) {
@@ -102,6 +140,8 @@ public class ShardedTableRule extends TableRule implements Serializable {
             this.objectNodes[i] = new ObjectNode(item.getShardName(), item.getCatalog(), item.getSchema(),
                     this.getName(), item.getSuffix());
         }
+        this.routingResults = null;
+        this.fullRoutingResult = null;
     }
     
     public void cloneMetadataNode(ObjectNode node) {
@@ -43,6 +43,7 @@ import com.openddal.config.Shard.ShardItem;
 import com.openddal.config.ShardedTableRule;
 import com.openddal.config.TableRule;
 import com.openddal.config.TableRuleGroup;
+import com.openddal.repo.ha.SmartDataSource;
 import com.openddal.route.rule.ObjectNode;
 import com.openddal.util.New;
 import com.openddal.util.StringUtils;
@@ -132,6 +133,13 @@ public class XmlConfigParser {
                         "Error parsing ddal-config XML . Cause: element cluster.shard's name required.");
             }
             shard.setName(name);
+            String loadBalance = xNode.getStringAttribute("loadBalance");
+            if (!StringUtils.isNullOrEmpty(loadBalance)) {
+                if (!SmartDataSource.isLoadBalance(loadBalance)) {
+                    throw new ParsingException("Unknown loadBalance '" + loadBalance + "' for shard " + name);
+                }
+                shard.setLoadBalance(loadBalance);
+            }
             List<XNode> children = xNode.evalNodes("member");
             List<ShardItem> shardItems = New.arrayList(children.size());
             for (XNode child : children) {
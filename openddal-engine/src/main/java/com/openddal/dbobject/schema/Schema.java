@@ -135,6 +135,22 @@ public class Schema extends DbObject {
         freeUniqueName(name);
     }
 
+    /**
+     * Replace an object of this schema with a new object of the same name.
+     * The object is replaced in one step, so it is never missing.
+     *
+     * @param old the object to replace
+     * @param obj the new object
+     */
+    public void replace(SchemaObject old, SchemaObject obj) {
+        String name = obj.getName();
+        HashMap<String, SchemaObject> map = getMap(obj.getType());
+        if (SysProperties.CHECK && (map.get(name) != old || obj.getSchema() != this)) {
+            DbException.throwInternalError("not found: " + name);
+        }
+        map.put(name, obj);
+    }
+
     /**
      * Rename an object.
      *
@@ -492,17 +492,22 @@ public class MetaTable extends Table {
             setObjectName("QUERY_STATISTICS");
             cols = createColumns(
                     "SQL_STATEMENT",
-                    "EXECUTION_COUNT INT",
-                    "MIN_EXECUTION_TIME LONG",
-                    "MAX_EXECUTION_TIME LONG",
-                    "CUMULATIVE_EXECUTION_TIME LONG",
+                    "EXECUTION_COUNT LONG",
+                    "MIN_EXECUTION_TIME DOUBLE",
+                    "MAX_EXECUTION_TIME DOUBLE",
+                    "CUMULATIVE_EXECUTION_TIME DOUBLE",
                     "AVERAGE_EXECUTION_TIME DOUBLE",
                     "STD_DEV_EXECUTION_TIME DOUBLE",
-                    "MIN_ROW_COUNT INT",
-                    "MAX_ROW_COUNT INT",
+                    "P50_EXECUTION_TIME DOUBLE",
+                    "P99_EXECUTION_TIME DOUBLE",
+                    "P999_EXECUTION_TIME DOUBLE",
+                    "MIN_ROW_COUNT LONG",
+                    "MAX_ROW_COUNT LONG",
                     "CUMULATIVE_ROW_COUNT LONG",
                     "AVERAGE_ROW_COUNT DOUBLE",
-                    "STD_DEV_ROW_COUNT DOUBLE"
+                    "STD_DEV_ROW_COUNT DOUBLE",
+                    "CUMULATIVE_SHARD_COUNT LONG",
+                    "CUMULATIVE_SHARD_ROW_COUNT LONG"
             );
             break;
         }
@@ -1147,27 +1152,37 @@ public class MetaTable extends Table {
                             // SQL_STATEMENT
                             entry.sqlStatement,
                             // EXECUTION_COUNT
-                            "" + entry.count,
+                            "" + entry.getCount(),
                             // MIN_EXECUTION_TIME
-                            "" + entry.executionTimeMin,
+                            "" + entry.getExecutionTimeMin(),
                             // MAX_EXECUTION_TIME
-                            "" + entry.executionTimeMax,
+                            "" + entry.getExecutionTimeMax(),
                             // CUMULATIVE_EXECUTION_TIME
-                            "" + entry.executionTimeCumulative,
+                            "" + entry.getExecutionTimeCumulative(),
                             // AVERAGE_EXECUTION_TIME
-                            "" + entry.executionTimeMean,
+                            "" + entry.getExecutionTimeMean(),
                             // STD_DEV_EXECUTION_TIME
                             "" + entry.getExecutionTimeStandardDeviation(),
+                            // P50_EXECUTION_TIME
+                            "" + entry.getExecutionTimePercentile(0.5),
+                            // P99_EXECUTION_TIME
+                            "" + entry.getExecutionTimePercentile(0.99),
+                            // P999_EXECUTION_TIME
+                            "" + entry.getExecutionTimePercentile(0.999),
                             // MIN_ROW_COUNT
-                            "" + entry.rowCountMin,
+                            "" + entry.getRowCountMin(),
                             // MAX_ROW_COUNT
-                            "" + entry.rowCountMax,
+                            "" + entry.getRowCountMax(),
                             // CUMULATIVE_ROW_COUNT
-                            "" + entry.rowCountCumulative,
+                            "" + entry.getRowCountCumulative(),
                             // AVERAGE_ROW_COUNT
-                            "" + entry.rowCountMean,
+                            "" + entry.getRowCountMean(),
                             // STD_DEV_ROW_COUNT
-                            "" + entry.getRowCountStandardDeviation()
+                            "" + entry.getRowCountStandardDeviation(),
+                            // CUMULATIVE_SHARD_COUNT
+                            "" + entry.getShardCountCumulative(),
+                            // CUMULATIVE_SHARD_ROW_COUNT
+                            "" + entry.getShardRowCountCumulative()
                     );
                 }
             }
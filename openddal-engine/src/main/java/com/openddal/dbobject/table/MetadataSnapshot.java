@@ -0,0 +1,289 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.dbobject.table;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.openddal.dbobject.index.Index;
+import com.openddal.dbobject.index.IndexType;
+import com.openddal.engine.Constants;
+import com.openddal.engine.Database;
+import com.openddal.message.DbException;
+import com.openddal.message.Trace;
+import com.openddal.util.FileUtils;
+import com.openddal.util.IOUtils;
+import com.openddal.util.New;
+
+/**
+ * A snapshot of the metadata of the tables (columns and indexes), kept in a
+ * file so that the database can be opened without reading the metadata of
+ * every table from the shards. The file starts with a magic number and a
+ * format version, and ends with a checksum; a snapshot of another version or
+ * with a wrong checksum is ignored. A table is only restored if its metadata
+ * node is still the same as in the configuration.
+ *
+ * @author jorgie.li
+ */
+public class MetadataSnapshot {
+
+    private static final int MAGIC = 0x4444414C;
+    private static final int VERSION = 1;
+
+    private static final int PRIMARY_KEY = 1, UNIQUE = 2, SHARDING_KEY = 4;
+
+    private final String fileName;
+    private final Trace trace;
+
+    public MetadataSnapshot(Database database, String fileName) {
+        this.fileName = fileName;
+        this.trace = database.getTrace(Trace.DATABASE);
+    }
+
+    /**
+     * Restore the metadata of the given tables from the snapshot file.
+     *
+     * @param tables the tables
+     * @return the tables that were restored
+     */
+    public List<TableMate> restore(List<TableMate> tables) {
+        List<TableMate> restored = New.arrayList();
+        if (!FileUtils.exists(fileName)) {
+            return restored;
+        }
+        HashMap<String, TableMate> byKey = New.hashMap();
+        for (TableMate table : tables) {
+            byKey.put(getKey(table), table);
+        }
+        FileChannel file = null;
+        try {
+            file = FileUtils.open(fileName, "r");
+            ByteBuffer buff = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+            if (buff.remaining() < 16 || buff.getInt() != MAGIC || buff.getInt() != VERSION) {
+                trace.info("Ignore the metadata snapshot {0} of another version", fileName);
+                return restored;
+            }
+            int length = buff.getInt();
+            if (length < 0 || length + 8 > buff.remaining()) {
+                trace.info("Ignore the truncated metadata snapshot {0}", fileName);
+                return restored;
+            }
+            byte[] body = new byte[length];
+            buff.get(body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if (buff.getLong() != crc.getValue()) {
+                trace.info("Ignore the corrupt metadata snapshot {0}", fileName);
+                return restored;
+            }
+            buff = ByteBuffer.wrap(body);
+            for (int i = 0, count = buff.getInt(); i < count; i++) {
+                String key = readString(buff);
+                TableMate table = byKey.get(key);
+                Column[] columns = readColumns(buff);
+                int indexCount = buff.getInt();
+                if (table == null) {
+                    skipIndexes(buff, indexCount);
+                    continue;
+                }
+                try {
+                    restore(table, columns, buff, indexCount);
+                    restored.add(table);
+                } catch (DbException e) {
+                    // the rule columns don't match any more
+                    trace.info("Ignore the metadata snapshot of {0}: {1}", table.getName(), e.getMessage());
+                }
+            }
+        } catch (Exception e) {
+            trace.error(e, "Fail to read the metadata snapshot {0}", fileName);
+        } finally {
+            IOUtils.closeSilently(file);
+        }
+        return restored;
+    }
+
+    private static void restore(TableMate table, Column[] columns, ByteBuffer buff, int indexCount) {
+        table.setColumns(columns);
+        ArrayList<Index> indexes = New.arrayList(indexCount);
+        for (int i = 0; i < indexCount; i++) {
+            String name = readString(buff);
+            int flags = buff.get();
+            Column[] cols = new Column[buff.getInt()];
+            for (int j = 0; j < cols.length; j++) {
+                cols[j] = columns[buff.getInt()];
+            }
+            IndexType type;
+            if ((flags & PRIMARY_KEY) != 0) {
+                type = IndexType.createPrimaryKey(false);
+            } else if ((flags & UNIQUE) != 0) {
+                type = IndexType.createUnique(false);
+            } else {
+                type = IndexType.createNonUnique();
+            }
+            if ((flags & SHARDING_KEY) != 0) {
+                type.shardingKeyIndex();
+            }
+            indexes.add(new Index(table, name, IndexColumn.wrap(cols), type));
+        }
+        table.restoreMataData(indexes);
+    }
+
+    private static Column[] readColumns(ByteBuffer buff) {
+        Column[] columns = new Column[buff.getInt()];
+        for (int i = 0; i < columns.length; i++) {
+            String name = readString(buff);
+            int type = buff.getInt();
+            long precision = buff.getLong();
+            int scale = buff.getInt();
+            int displaySize = buff.getInt();
+            columns[i] = new Column(name, type, precision, scale, displaySize);
+        }
+        return columns;
+    }
+
+    private static void skipIndexes(ByteBuffer buff, int indexCount) {
+        for (int i = 0; i < indexCount; i++) {
+            readString(buff);
+            buff.get();
+            int count = buff.getInt();
+            buff.position(buff.position() + count * 4);
+        }
+    }
+
+    /**
+     * Write the metadata of the loaded tables to the snapshot file. The file
+     * is written to a temporary file first and then replaces the old one.
+     *
+     * @param tables the tables
+     */
+    public synchronized void save(Collection<TableMate> tables) {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+            ArrayList<TableMate> loaded = New.arrayList(tables.size());
+            for (TableMate table : tables) {
+                if (table.isLoaded() && table.isInited()) {
+                    loaded.add(table);
+                }
+            }
+            out.writeInt(loaded.size());
+            for (TableMate table : loaded) {
+                write(out, table);
+            }
+            out.flush();
+            byte[] bytes = body.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            String tempName = fileName + Constants.SUFFIX_TEMP_FILE;
+            OutputStream file = FileUtils.newOutputStream(tempName, false);
+            try {
+                DataOutputStream fileOut = new DataOutputStream(file);
+                fileOut.writeInt(MAGIC);
+                fileOut.writeInt(VERSION);
+                fileOut.writeInt(bytes.length);
+                fileOut.write(bytes);
+                fileOut.writeLong(crc.getValue());
+                fileOut.flush();
+            } finally {
+                IOUtils.closeSilently(file);
+            }
+            FileUtils.moveAtomicReplace(tempName, fileName);
+            trace.debug("Write the metadata snapshot of {0} tables to {1}", loaded.size(), fileName);
+        } catch (Exception e) {
+            // the snapshot is only an optimization
+            trace.error(e, "Fail to write the metadata snapshot {0}", fileName);
+        }
+    }
+
+    /**
+     * Get the metadata of a table as it is written to the snapshot, to check
+     * if the metadata of two tables is the same.
+     *
+     * @param table the table
+     * @return the serialized metadata
+     */
+    public static byte[] toBytes(TableMate table) {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+            write(out, table);
+            out.flush();
+            return body.toByteArray();
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, null);
+        }
+    }
+
+    private static void write(DataOutputStream out, TableMate table) throws IOException {
+        writeString(out, getKey(table));
+        Column[] columns = table.getColumns();
+        out.writeInt(columns.length);
+        for (Column col : columns) {
+            writeString(out, col.getName());
+            out.writeInt(col.getType());
+            out.writeLong(col.getPrecision());
+            out.writeInt(col.getScale());
+            out.writeInt(col.getDisplaySize());
+        }
+        ArrayList<Index> indexes = table.getIndexes();
+        out.writeInt(indexes.size());
+        for (Index index : indexes) {
+            writeString(out, index.getName());
+            IndexType type = index.getIndexType();
+            int flags = 0;
+            if (type.isPrimaryKey()) {
+                flags |= PRIMARY_KEY;
+            } else if (type.isUnique()) {
+                flags |= UNIQUE;
+            }
+            if (type.isShardingKey()) {
+                flags |= SHARDING_KEY;
+            }
+            out.writeByte(flags);
+            Column[] cols = index.getColumns();
+            out.writeInt(cols.length);
+            for (Column col : cols) {
+                out.writeInt(col.getColumnId());
+            }
+        }
+    }
+
+    private static String getKey(TableMate table) {
+        return table.getName() + "@" + table.getTableRule().getMetadataNode();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(Constants.UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buff) {
+        byte[] bytes = new byte[buff.getInt()];
+        buff.get(bytes);
+        return new String(bytes, Constants.UTF8);
+    }
+
+}
@@ -16,6 +16,7 @@
 package com.openddal.dbobject.table;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import com.openddal.command.Parser;
 import com.openddal.command.dml.Select;
@@ -272,6 +273,7 @@ public class TableFilter implements ColumnResolver {
     public void startQuery(Session s) {
         this.session = s;
         scanCount = 0;
+        cursor.reset();
         if (nestedJoin != null) {
             nestedJoin.startQuery(s);
         }
@@ -428,6 +430,26 @@ public class TableFilter implements ColumnResolver {
         return current;
     }
 
+    /**
+     * Read the next rows of this table filter ahead, without changing the
+     * current row. The rows are returned by next() later on as usual.
+     *
+     * @param count the maximum number of rows to read ahead
+     * @return the rows that are read ahead
+     */
+    public List<Row> readAhead(int count) {
+        return cursor.readAhead(count);
+    }
+
+    /**
+     * Get the number of shards the rows of this table filter are read from.
+     *
+     * @return the number of shards, or 0 if not read from the shards
+     */
+    public int getNodeCount() {
+        return cursor.getNodeCount();
+    }
+
     /**
      * Set the current row.
      *
@@ -43,6 +43,7 @@ import com.openddal.engine.Session;
 import com.openddal.message.DbException;
 import com.openddal.message.ErrorCode;
 import com.openddal.repo.JdbcRepository;
+import com.openddal.result.Row;
 import com.openddal.route.rule.ObjectNode;
 import com.openddal.util.JdbcUtils;
 import com.openddal.util.MathUtils;
@@ -69,6 +70,9 @@ public class TableMate extends Table {
     private boolean storesMixedCase;
     private boolean storesMixedCaseQuoted;
     private boolean supportsMixedCaseIdentifiers;
+    private volatile boolean lazyLoading;
+    private boolean loading;
+    private long rowCountEstimate = -1;
 
     public TableMate(Schema schema, String name, TableRule tableRule) {
         super(schema, name);
@@ -87,7 +91,65 @@ public class TableMate extends Table {
         return tableRule;
     }
 
+    /**
+     * Set if the metadata is loaded when the table is first used.
+     *
+     * @param lazyLoading true to load the metadata on first use
+     */
+    public void setLazyLoading(boolean lazyLoading) {
+        this.lazyLoading = lazyLoading;
+    }
+
+    /**
+     * Load the metadata now if the loading was deferred. Other threads wait
+     * until it is loaded, the calls of the loading thread itself return.
+     */
+    private void ensureLoaded() {
+        if (!lazyLoading) {
+            return;
+        }
+        synchronized (this) {
+            if (!lazyLoading || loading) {
+                return;
+            }
+            loading = true;
+            try {
+                loadMataData(null);
+            } catch (DbException e) {
+                initException = e;
+                throw e;
+            } finally {
+                loading = false;
+                lazyLoading = false;
+            }
+        }
+    }
+
+    /**
+     * Check if the metadata was loaded, that is, if it is not deferred until
+     * the table is first used.
+     *
+     * @return true if loaded
+     */
+    public boolean isLoaded() {
+        return !lazyLoading;
+    }
+
+    /**
+     * Use the metadata restored from a snapshot, the columns are already set.
+     *
+     * @param restored the indexes
+     */
+    void restoreMataData(ArrayList<Index> restored) {
+        indexes.clear();
+        indexes.addAll(restored);
+        initException = null;
+        setRuleColumns();
+        lazyLoading = false;
+    }
+
     public void check() {
+        ensureLoaded();
         if (initException != null) {
             Column[] cols = {};
             setColumns(cols);
@@ -97,6 +159,7 @@ public class TableMate extends Table {
     }
 
     public boolean isInited() {
+        ensureLoaded();
         return initException == null;
     }
 
@@ -112,8 +175,39 @@ public class TableMate extends Table {
         return TABLE;
     }
 
+    @Override
+    public Column[] getColumns() {
+        ensureLoaded();
+        return super.getColumns();
+    }
+
+    @Override
+    public Column getColumn(int index) {
+        ensureLoaded();
+        return super.getColumn(index);
+    }
+
+    @Override
+    public Column getColumn(String columnName) {
+        ensureLoaded();
+        return super.getColumn(columnName);
+    }
+
+    @Override
+    public boolean doesColumnExist(String columnName) {
+        ensureLoaded();
+        return super.doesColumnExist(columnName);
+    }
+
+    @Override
+    public Row getTemplateRow() {
+        ensureLoaded();
+        return super.getTemplateRow();
+    }
+
     @Override
     public Index getUniqueIndex() {
+        ensureLoaded();
         for (Index idx : indexes) {
             if (idx.getIndexType().isUnique()) {
                 return idx;
@@ -124,6 +218,7 @@ public class TableMate extends Table {
 
     @Override
     public ArrayList<Index> getIndexes() {
+        ensureLoaded();
         return indexes;
     }
 
@@ -134,7 +229,23 @@ public class TableMate extends Table {
 
     @Override
     public long getRowCountApproximation() {
-        return Constants.COST_ROW_OFFSET;
+        long rows = getRowCountEstimate();
+        return rows < 0 ? Constants.COST_ROW_OFFSET : rows;
+    }
+
+    /**
+     * Get the number of rows of the table as estimated from the index
+     * statistics of the metadata node, multiplied by the number of nodes.
+     *
+     * @return the estimated row count, or -1 if unknown
+     */
+    public long getRowCountEstimate() {
+        ensureLoaded();
+        long rows = rowCountEstimate;
+        if (rows >= 0 && tableRule instanceof ShardedTableRule) {
+            rows *= ((ShardedTableRule) tableRule).getObjectNodes().length;
+        }
+        return rows;
     }
 
     @Override
@@ -234,9 +345,10 @@ public class TableMate extends Table {
             Column[] cols = {};
             setColumns(cols);
         }
-        if (isInited()) {
+        if (initException == null) {
             setRuleColumns();
         }
+        lazyLoading = false;
     }
 
     /**
@@ -360,6 +472,7 @@ public class TableMate extends Table {
         Column[] cols = new Column[columnList.size()];
         columnList.toArray(cols);
         setColumns(cols);
+        indexes.clear();
         // create scan index
 
         // load primary keys
@@ -398,6 +511,7 @@ public class TableMate extends Table {
             rs.close();
         }
 
+        rowCountEstimate = -1;
         try {
             rs = meta.getIndexInfo(null, null, tableName, false, true);
         } catch (Exception e) {
@@ -410,8 +524,12 @@ public class TableMate extends Table {
         IndexType indexType = null;
         if (rs != null) {
             while (rs.next()) {
-                if (rs.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic) {
-                    // ignore index statistics
+                boolean statistic = rs.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic;
+                if (statistic || !rs.getBoolean("NON_UNIQUE")) {
+                    // the cardinality of a unique index is the row count
+                    rowCountEstimate = Math.max(rowCountEstimate, rs.getLong("CARDINALITY"));
+                }
+                if (statistic) {
                     continue;
                 }
                 String newIndex = rs.getString("INDEX_NAME");
@@ -16,13 +16,20 @@
 package com.openddal.engine;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -35,6 +42,7 @@ import com.openddal.dbobject.schema.Schema;
 import com.openddal.dbobject.schema.SchemaObject;
 import com.openddal.dbobject.schema.Sequence;
 import com.openddal.dbobject.table.MetaTable;
+import com.openddal.dbobject.table.MetadataSnapshot;
 import com.openddal.dbobject.table.Table;
 import com.openddal.dbobject.table.TableMate;
 import com.openddal.engine.spi.Repository;
@@ -82,12 +90,14 @@ public class Database {
     private int maxOperationMemory = Constants.DEFAULT_MAX_OPERATION_MEMORY;
     private boolean queryStatistics;
     private int queryStatisticsMaxEntries = Constants.QUERY_STATISTICS_MAX_ENTRIES;
-    private QueryStatisticsData queryStatisticsData;
+    private volatile QueryStatisticsData queryStatisticsData;
     private RoutingHandler routingHandler;
     private final ThreadPoolExecutor queryExecutor;
     private final Repository repository;
     private final ExecutorFactory executorFactory;
     private final Configuration configuration;
+    private MetadataSnapshot metadataSnapshot;
+    private volatile long modificationMetaId;
 
     public Database(Configuration configuration) {
         this.configuration = configuration;
@@ -146,14 +156,39 @@ public class Database {
 
         Session sysSession = createSession(systemUser);
         try {
+            List<TableMate> tableMates = New.arrayList(configuration.tableRules.size());
             for (TableRule tableRule : configuration.tableRules) {
-                TableMate tableMate = repository.loadMataData(mainSchema, tableRule);
-                tableMate.loadMataData(sysSession);
-                if (configuration.forceLoadTableMate) {
+                tableMates.add(repository.loadMataData(mainSchema, tableRule));
+            }
+            List<TableMate> restored = New.arrayList();
+            if (!StringUtils.isNullOrEmpty(dbSettings.metadataSnapshot)) {
+                metadataSnapshot = new MetadataSnapshot(this, dbSettings.metadataSnapshot);
+                restored = metadataSnapshot.restore(tableMates);
+                trace.info("Restored the metadata of {0} tables from {1}", restored.size(),
+                        dbSettings.metadataSnapshot);
+            }
+            List<TableMate> unloaded = New.arrayList(tableMates);
+            unloaded.removeAll(restored);
+            if (dbSettings.lazyLoadMetadata) {
+                for (TableMate tableMate : unloaded) {
+                    tableMate.setLazyLoading(true);
+                }
+            } else {
+                loadMataData(sysSession, unloaded);
+            }
+            for (TableMate tableMate : tableMates) {
+                if (configuration.forceLoadTableMate && !dbSettings.lazyLoadMetadata) {
                     tableMate.check();
                 }
                 this.addSchemaObject(tableMate);
             }
+            if (metadataSnapshot != null) {
+                if (restored.isEmpty()) {
+                    saveMetadataSnapshot();
+                } else {
+                    validateMetadataSnapshot(restored);
+                }
+            }
 
             for (int type = 0, count = MetaTable.getMetaTableTypeCount(); type < count; type++) {
                 MetaTable m = new MetaTable(infoSchema, type);
@@ -178,6 +213,114 @@ public class Database {
 
     }
     
+    /**
+     * Load the metadata of the tables on the query executor. The tables are
+     * grouped by the shard of their metadata node, and each shard is read by
+     * at most METADATA_LOAD_CONCURRENCY loaders at a time, so that a large
+     * number of tables doesn't exhaust the connections of one shard.
+     *
+     * @param session the system session
+     * @param tableMates the tables to load
+     */
+    private void loadMataData(final Session session, List<TableMate> tableMates) {
+        if (tableMates.size() <= 1) {
+            for (TableMate tableMate : tableMates) {
+                tableMate.loadMataData(session);
+            }
+            return;
+        }
+        Map<String, Queue<TableMate>> shards = New.hashMap();
+        for (TableMate tableMate : tableMates) {
+            String shardName = tableMate.getTableRule().getMetadataNode().getShardName();
+            Queue<TableMate> queue = shards.get(shardName);
+            if (queue == null) {
+                queue = new ConcurrentLinkedQueue<TableMate>();
+                shards.put(shardName, queue);
+            }
+            queue.add(tableMate);
+        }
+        int concurrency = Math.max(1, dbSettings.metadataLoadConcurrency);
+        List<Future<Void>> futures = New.arrayList();
+        try {
+            for (final Queue<TableMate> queue : shards.values()) {
+                for (int i = 0, n = Math.min(concurrency, queue.size()); i < n; i++) {
+                    futures.add(queryExecutor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            for (TableMate tableMate = queue.poll(); tableMate != null; tableMate = queue.poll()) {
+                                tableMate.loadMataData(session);
+                            }
+                            return null;
+                        }
+                    }));
+                }
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw DbException.convert(e);
+        } catch (ExecutionException e) {
+            throw DbException.convert(e.getCause());
+        } finally {
+            for (Future<Void> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Compare the metadata restored from the snapshot with the shards in the
+     * background. The tables whose metadata changed are loaded again, and the
+     * snapshot is written with the current metadata.
+     *
+     * @param restored the tables restored from the snapshot
+     */
+    private void validateMetadataSnapshot(final List<TableMate> restored) {
+        queryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int changed = 0;
+                for (TableMate tableMate : restored) {
+                    try {
+                        TableMate current = new TableMate(tableMate.getSchema(), tableMate.getName(),
+                                tableMate.getTableRule());
+                        current.loadMataData(null);
+                        if (!Arrays.equals(MetadataSnapshot.toBytes(current), MetadataSnapshot.toBytes(tableMate))) {
+                            trace.info("The metadata of {0} changed since the snapshot", tableMate.getName());
+                            // the sessions may be planning against the table,
+                            // so it is replaced instead of reloaded in place
+                            replaceSchemaObject(tableMate, current);
+                            changed++;
+                        }
+                    } catch (Throwable e) {
+                        trace.error(e, "Fail to validate the metadata of {0}", tableMate.getName());
+                    }
+                }
+                if (changed > 0 || restored.size() < configuration.tableRules.size()) {
+                    saveMetadataSnapshot();
+                }
+            }
+        });
+    }
+
+    /**
+     * Write the metadata of the tables to the snapshot, if a snapshot file is
+     * configured. This is called after the metadata was changed by DDL.
+     */
+    public void saveMetadataSnapshot() {
+        if (metadataSnapshot == null) {
+            return;
+        }
+        List<TableMate> tableMates = New.arrayList();
+        for (Table table : getAllTablesAndViews()) {
+            if (table instanceof TableMate) {
+                tableMates.add((TableMate) table);
+            }
+        }
+        metadataSnapshot.save(tableMates);
+    }
+
     public DbSettings getDbSettings(Properties setting) {
         DbSettings defaultSettings = DbSettings.getDefaultSettings();
         HashMap<String, String> s = New.hashMap();
@@ -489,6 +632,28 @@ public class Database {
      * @param obj the object
      * @param newName the new name
      */
+    /**
+     * Replace a schema object with a new object of the same name. The
+     * statements that were prepared with the old object are prepared again.
+     *
+     * @param old the object to replace
+     * @param obj the new object
+     */
+    public synchronized void replaceSchemaObject(SchemaObject old, SchemaObject obj) {
+        old.getSchema().replace(old, obj);
+        modificationMetaId++;
+    }
+
+    /**
+     * Get the version of the schema objects. It is changed whenever a schema
+     * object is replaced.
+     *
+     * @return the version
+     */
+    public long getModificationMetaId() {
+        return modificationMetaId;
+    }
+
     public synchronized void renameSchemaObject(Session session, SchemaObject obj, String newName) {
         obj.getSchema().rename(obj, newName);
     }
@@ -214,6 +214,62 @@ public class DbSettings extends SettingsBase {
      * Use union select for query multi-table in same shard.
      */
     public final boolean optimizeMerging = get("OPTIMIZE_MERGING", true);
+    /**
+     * Database setting <code>JOIN_BATCH_SIZE</code> (default: 100).<br />
+     * The number of outer rows whose join keys are looked up with one query
+     * per shard, for joins that can not be run on the shards directly. Set to
+     * 0 to query the shards once per outer row.
+     */
+    public final int joinBatchSize = get("JOIN_BATCH_SIZE", 100);
+    /**
+     * Database setting <code>JDBC_BATCH_UPDATE</code> (default: false).<br />
+     * Send the rows of a multi-row insert to a shard as a JDBC batch of one
+     * prepared single-row statement, instead of one multi-value statement.
+     * Use together with rewriteBatchedStatements=true of MySQL Connector/J.
+     */
+    public final boolean jdbcBatchUpdate = get("JDBC_BATCH_UPDATE", false);
+    /**
+     * Database setting <code>INSERT_BATCH_SIZE</code> (default: 200).<br />
+     * The initial number of rows of INSERT ... SELECT that are buffered per
+     * shard before they are written, while the query keeps running.
+     */
+    public final int insertBatchSize = get("INSERT_BATCH_SIZE", 200);
+    /**
+     * Database setting <code>METADATA_LOAD_CONCURRENCY</code> (default: 4).<br />
+     * The number of tables whose metadata is loaded at the same time from one
+     * shard when the database is opened.
+     */
+    public final int metadataLoadConcurrency = get("METADATA_LOAD_CONCURRENCY", 4);
+    /**
+     * Database setting <code>LAZY_LOAD_METADATA</code> (default: false).<br />
+     * Load the metadata of a table when it is first used instead of when the
+     * database is opened. Tables that can not be loaded are then only
+     * reported when they are used.
+     */
+    public final boolean lazyLoadMetadata = get("LAZY_LOAD_METADATA", false);
+    /**
+     * Database setting <code>STATEMENT_CACHE_SIZE</code> (default: 0).<br />
+     * The maximum number of prepared statements cached per backend
+     * connection, keyed by the translated SQL statement. Use 0 to disable the
+     * cache.
+     */
+    public final int statementCacheSize = get("STATEMENT_CACHE_SIZE", 0);
+    /**
+     * Database setting <code>TRANSLATED_CACHE_SIZE</code> (default: 16).<br />
+     * The maximum number of shard nodes per prepared statement for which the
+     * translated SQL statement is kept, so that executing the prepared
+     * statement again only reads the new parameter values. Use 0 to disable
+     * the cache.
+     */
+    public final int translatedCacheSize = get("TRANSLATED_CACHE_SIZE", 16);
+    /**
+     * Database setting <code>METADATA_SNAPSHOT</code> (default: null).<br />
+     * The file name of the metadata snapshot. If set, the table metadata is
+     * restored from this file when the database is opened and checked against
+     * the shards in the background, and the file is written again when the
+     * metadata changed.
+     */
+    public final String metadataSnapshot = get("METADATA_SNAPSHOT", null);
     
 
 
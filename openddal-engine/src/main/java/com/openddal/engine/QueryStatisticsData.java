@@ -8,14 +8,18 @@ package com.openddal.engine;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
- * Maintains query statistics.
+ * Maintains query statistics. The statistics are kept by the fingerprint of
+ * the statement (the SQL with literals replaced by '?'), so executions that
+ * only differ by their values are counted together. Updates don't lock: the
+ * entries are in a concurrent map, and the counters of an entry are striped
+ * by thread.
  */
 public class QueryStatisticsData {
 
@@ -27,67 +31,175 @@ public class QueryStatisticsData {
         }
     };
 
-    private final HashMap<String, QueryEntry> map =
-            new HashMap<String, QueryEntry>();
+    private final ConcurrentHashMap<String, QueryEntry> map =
+            new ConcurrentHashMap<String, QueryEntry>();
 
-    private int maxQueryEntries;
+    private final AtomicBoolean agingOut = new AtomicBoolean();
+
+    private volatile int maxQueryEntries;
 
     public QueryStatisticsData(int maxQueryEntries) {
         this.maxQueryEntries = maxQueryEntries;
     }
 
-    public synchronized void setMaxQueryEntries(int maxQueryEntries) {
+    public void setMaxQueryEntries(int maxQueryEntries) {
         this.maxQueryEntries = maxQueryEntries;
     }
 
-    public synchronized List<QueryEntry> getQueries() {
+    public List<QueryEntry> getQueries() {
         // return a copy of the map so we don't have to
         // worry about external synchronization
         ArrayList<QueryEntry> list = new ArrayList<QueryEntry>();
         list.addAll(map.values());
-        // only return the newest 100 entries
+        // only return the newest entries, the list is sorted oldest first
         Collections.sort(list, QUERY_ENTRY_COMPARATOR);
-        return list.subList(0, Math.min(list.size(), maxQueryEntries));
+        return list.subList(Math.max(0, list.size() - maxQueryEntries), list.size());
     }
 
     /**
      * Update query statistics.
      *
-     * @param sqlStatement the statement being executed
-     * @param executionTime the time in milliseconds the query/update took to
+     * @param fingerprint the fingerprint of the statement being executed
+     * @param executionNanos the time in nanoseconds the query/update took to
      *            execute
      * @param rowCount the query or update row count
+     * @param shardCount the number of shard statements executed
+     * @param shardRowCount the number of rows read from the shards
      */
-    public synchronized void update(String sqlStatement, long executionTime,
-            int rowCount) {
-        QueryEntry entry = map.get(sqlStatement);
+    public void update(String fingerprint, long executionNanos, int rowCount,
+            int shardCount, long shardRowCount) {
+        QueryEntry entry = map.get(fingerprint);
         if (entry == null) {
-            entry = new QueryEntry();
-            entry.sqlStatement = sqlStatement;
-            map.put(sqlStatement, entry);
-        }
-        entry.update(executionTime, rowCount);
-
-        // Age-out the oldest entries if the map gets too big.
-        // Test against 1.5 x max-size so we don't do this too often
-        if (map.size() > maxQueryEntries * 1.5f) {
-            // Sort the entries by age
-            ArrayList<QueryEntry> list = new ArrayList<QueryEntry>();
-            list.addAll(map.values());
+            entry = new QueryEntry(fingerprint);
+            QueryEntry old = map.putIfAbsent(fingerprint, entry);
+            if (old != null) {
+                entry = old;
+            } else if (map.size() > maxQueryEntries * 1.5f) {
+                ageOut();
+            }
+        }
+        entry.update(executionNanos, rowCount, shardCount, shardRowCount);
+    }
+
+    /**
+     * Age-out the oldest 1/3 of the entries. This is only done when a new
+     * entry makes the map too big, tested against 1.5 x max-size so it is not
+     * done too often, and only by one thread at a time.
+     */
+    private void ageOut() {
+        if (!agingOut.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            ArrayList<QueryEntry> list = new ArrayList<QueryEntry>(map.values());
             Collections.sort(list, QUERY_ENTRY_COMPARATOR);
-            // Create a set of the oldest 1/3 of the entries
-            HashSet<QueryEntry> oldestSet =
-                    new HashSet<QueryEntry>(list.subList(0, list.size() / 3));
-            // Loop over the map using the set and remove
-            // the oldest 1/3 of the entries.
-            for (Iterator<Entry<String, QueryEntry>> it =
-                    map.entrySet().iterator(); it.hasNext();) {
-                Entry<String, QueryEntry> mapEntry = it.next();
-                if (oldestSet.contains(mapEntry.getValue())) {
-                    it.remove();
+            for (QueryEntry e : list.subList(0, list.size() / 3)) {
+                map.remove(e.sqlStatement, e);
+            }
+        } finally {
+            agingOut.set(false);
+        }
+    }
+
+    /**
+     * Get the fingerprint of a statement: the string and number literals are
+     * replaced by '?', lists of parameters such as IN(?, ?, ?) or multi-row
+     * VALUES are collapsed to a single one, and whitespace is normalized.
+     *
+     * @param sql the SQL statement
+     * @return the fingerprint
+     */
+    public static String getFingerprint(String sql) {
+        int len = sql.length();
+        StringBuilder buff = new StringBuilder(len);
+        for (int i = 0; i < len;) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                while (++i < len && Character.isWhitespace(sql.charAt(i))) {
+                    // skip
                 }
+                if (buff.length() > 0 && i < len) {
+                    buff.append(' ');
+                }
+            } else if (c == '\'') {
+                // string literal, '' is an escaped quote
+                i++;
+                while (i < len) {
+                    char x = sql.charAt(i++);
+                    if (x == '\\' && i < len) {
+                        i++;
+                    } else if (x == '\'') {
+                        if (i < len && sql.charAt(i) == '\'') {
+                            i++;
+                        } else {
+                            break;
+                        }
+                    }
+                }
+                appendParameter(buff);
+            } else if (c == '"' || c == '`') {
+                // quoted identifier
+                int end = sql.indexOf(c, i + 1);
+                end = end < 0 ? len : end + 1;
+                buff.append(sql, i, end);
+                i = end;
+            } else if (Character.isDigit(c) || (c == '.' && i + 1 < len && Character.isDigit(sql.charAt(i + 1)))) {
+                // a number literal, unless it is part of an identifier
+                char last = buff.length() == 0 ? ' ' : buff.charAt(buff.length() - 1);
+                if (Character.isLetterOrDigit(last) || last == '_' || last == '$') {
+                    buff.append(c);
+                    i++;
+                    continue;
+                }
+                while (i < len) {
+                    char x = sql.charAt(i);
+                    if (Character.isLetterOrDigit(x) || x == '.') {
+                        i++;
+                    } else if ((x == '+' || x == '-') && (sql.charAt(i - 1) == 'e' || sql.charAt(i - 1) == 'E')) {
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                appendParameter(buff);
+            } else if (c == '?') {
+                i++;
+                appendParameter(buff);
+            } else if (c == ')' && endsWith(buff, "(?), (?")) {
+                // (?), (?) -> (?)
+                buff.setLength(buff.length() - 5);
+                buff.append(c);
+                i++;
+            } else {
+                buff.append(c);
+                i++;
+            }
+        }
+        return buff.toString();
+    }
+
+    private static void appendParameter(StringBuilder buff) {
+        // ?, ? -> ?
+        if (endsWith(buff, "?, ")) {
+            buff.setLength(buff.length() - 2);
+        } else if (endsWith(buff, "?,")) {
+            buff.setLength(buff.length() - 1);
+        } else {
+            buff.append('?');
+        }
+    }
+
+    private static boolean endsWith(StringBuilder buff, String s) {
+        int start = buff.length() - s.length();
+        if (start < 0) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (buff.charAt(start + i) != s.charAt(i)) {
+                return false;
             }
         }
+        return true;
     }
 
     /**
@@ -95,104 +207,294 @@ public class QueryStatisticsData {
      */
     public static final class QueryEntry {
 
+        private static final int COUNT = 0, TIME = 1, ROWS = 2, SHARDS = 3, SHARD_ROWS = 4, TIME_SQUARES = 5,
+                ROW_SQUARES = 6;
+
         /**
-         * The SQL statement.
+         * The counters of one stripe, the stripes are 64 bytes apart to avoid
+         * false sharing.
          */
-        public String sqlStatement;
+        private static final int FIELDS = 8;
+
+        private static final int STRIPES;
+
+        static {
+            int n = 1;
+            while (n < Math.min(16, Runtime.getRuntime().availableProcessors())) {
+                n <<= 1;
+            }
+            STRIPES = n;
+        }
 
         /**
-         * The number of times the statement was executed.
+         * The fingerprint of the SQL statement.
          */
-        public int count;
+        public final String sqlStatement;
 
         /**
          * The last time the statistics for this entry were updated,
          * in milliseconds since 1970.
          */
-        public long lastUpdateTime;
+        volatile long lastUpdateTime;
+
+        private final AtomicLongArray cells = new AtomicLongArray(STRIPES * FIELDS);
+        private final AtomicLong executionTimeMin = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong executionTimeMax = new AtomicLong();
+        private final AtomicLong rowCountMin = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong rowCountMax = new AtomicLong();
+        private final Histogram executionTimes = new Histogram();
+
+        QueryEntry(String sqlStatement) {
+            this.sqlStatement = sqlStatement;
+            this.lastUpdateTime = System.currentTimeMillis();
+        }
 
         /**
-         * The minimum execution time, in milliseconds.
+         * Update the statistics entry.
+         *
+         * @param nanos the execution time in nanoseconds
+         * @param rows the number of rows
+         * @param shards the number of shard statements
+         * @param shardRows the number of rows read from the shards
          */
-        public long executionTimeMin;
+        void update(long nanos, int rows, int shards, long shardRows) {
+            int base = (int) (Thread.currentThread().getId() & (STRIPES - 1)) * FIELDS;
+            cells.incrementAndGet(base + COUNT);
+            cells.addAndGet(base + TIME, nanos);
+            cells.addAndGet(base + ROWS, rows);
+            cells.addAndGet(base + SHARDS, shards);
+            cells.addAndGet(base + SHARD_ROWS, shardRows);
+            addDouble(base + TIME_SQUARES, (double) nanos * nanos);
+            addDouble(base + ROW_SQUARES, (double) rows * rows);
+            updateMin(executionTimeMin, nanos);
+            updateMax(executionTimeMax, nanos);
+            updateMin(rowCountMin, rows);
+            updateMax(rowCountMax, rows);
+            executionTimes.record(nanos / 1000);
+            lastUpdateTime = System.currentTimeMillis();
+        }
+
+        private void addDouble(int index, double x) {
+            while (true) {
+                long old = cells.get(index);
+                long update = Double.doubleToRawLongBits(Double.longBitsToDouble(old) + x);
+                if (cells.compareAndSet(index, old, update)) {
+                    return;
+                }
+            }
+        }
+
+        private static void updateMin(AtomicLong min, long x) {
+            for (long old = min.get(); x < old; old = min.get()) {
+                if (min.compareAndSet(old, x)) {
+                    return;
+                }
+            }
+        }
+
+        private static void updateMax(AtomicLong max, long x) {
+            for (long old = max.get(); x > old; old = max.get()) {
+                if (max.compareAndSet(old, x)) {
+                    return;
+                }
+            }
+        }
+
+        private long sum(int field) {
+            long sum = 0;
+            for (int i = 0; i < STRIPES; i++) {
+                sum += cells.get(i * FIELDS + field);
+            }
+            return sum;
+        }
+
+        private double sumDouble(int field) {
+            double sum = 0;
+            for (int i = 0; i < STRIPES; i++) {
+                sum += Double.longBitsToDouble(cells.get(i * FIELDS + field));
+            }
+            return sum;
+        }
+
+        private static double standardDeviation(double sum, double sumOfSquares, long count) {
+            if (count == 0) {
+                return 0;
+            }
+            double mean = sum / count;
+            // population standard deviation
+            return Math.sqrt(Math.max(0, sumOfSquares / count - mean * mean));
+        }
 
         /**
-         * The maximum execution time, in milliseconds.
+         * @return the number of times the statement was executed
          */
-        public long executionTimeMax;
+        public long getCount() {
+            return sum(COUNT);
+        }
 
         /**
-         * The total execution time.
+         * @return the minimum execution time, in milliseconds
          */
-        public long executionTimeCumulative;
+        public double getExecutionTimeMin() {
+            long min = executionTimeMin.get();
+            return min == Long.MAX_VALUE ? 0 : min / 1000000d;
+        }
 
         /**
-         * The minimum number of rows.
+         * @return the maximum execution time, in milliseconds
          */
-        public int rowCountMin;
+        public double getExecutionTimeMax() {
+            return executionTimeMax.get() / 1000000d;
+        }
 
         /**
-         * The maximum number of rows.
+         * @return the total execution time, in milliseconds
          */
-        public int rowCountMax;
+        public double getExecutionTimeCumulative() {
+            return sum(TIME) / 1000000d;
+        }
 
         /**
-         * The total number of rows.
+         * @return the mean execution time, in milliseconds
          */
-        public long rowCountCumulative;
+        public double getExecutionTimeMean() {
+            long count = getCount();
+            return count == 0 ? 0 : getExecutionTimeCumulative() / count;
+        }
+
+        public double getExecutionTimeStandardDeviation() {
+            return standardDeviation(sum(TIME), sumDouble(TIME_SQUARES), getCount()) / 1000000d;
+        }
 
         /**
-         * The mean execution time.
+         * Get a percentile of the execution time. The value is accurate to
+         * about 3%.
+         *
+         * @param percentile the percentile, for example 0.99
+         * @return the execution time in milliseconds
          */
-        public double executionTimeMean;
+        public double getExecutionTimePercentile(double percentile) {
+            return executionTimes.getValueAtPercentile(percentile) / 1000d;
+        }
 
         /**
-         * The mean number of rows.
+         * @return the minimum number of rows
          */
-        public double rowCountMean;
+        public long getRowCountMin() {
+            long min = rowCountMin.get();
+            return min == Long.MAX_VALUE ? 0 : min;
+        }
 
-        // Using Welford's method, see also
-        // http://en.wikipedia.org/wiki/Algorithms_for_calculating_variance
-        // http://www.johndcook.com/standard_deviation.html
+        /**
+         * @return the maximum number of rows
+         */
+        public long getRowCountMax() {
+            return rowCountMax.get();
+        }
 
-        private double executionTimeM2;
-        private double rowCountM2;
+        /**
+         * @return the total number of rows
+         */
+        public long getRowCountCumulative() {
+            return sum(ROWS);
+        }
 
         /**
-         * Update the statistics entry.
-         *
-         * @param time the execution time
-         * @param rows the number of rows
+         * @return the mean number of rows
          */
-        void update(long time, int rows) {
-            count++;
-            executionTimeMin = Math.min(time, executionTimeMin);
-            executionTimeMax = Math.max(time, executionTimeMax);
-            rowCountMin = Math.min(rows, rowCountMin);
-            rowCountMax = Math.max(rows, rowCountMax);
+        public double getRowCountMean() {
+            long count = getCount();
+            return count == 0 ? 0 : (double) getRowCountCumulative() / count;
+        }
 
-            double delta = rows - rowCountMean;
-            rowCountMean += delta / count;
-            rowCountM2 += delta * (rows - rowCountMean);
+        public double getRowCountStandardDeviation() {
+            return standardDeviation(sum(ROWS), sumDouble(ROW_SQUARES), getCount());
+        }
 
-            delta = time - executionTimeMean;
-            executionTimeMean += delta / count;
-            executionTimeM2 += delta * (time - executionTimeMean);
+        /**
+         * @return the total number of shard statements executed
+         */
+        public long getShardCountCumulative() {
+            return sum(SHARDS);
+        }
 
-            executionTimeCumulative += time;
-            rowCountCumulative += rows;
-            lastUpdateTime = System.currentTimeMillis();
+        /**
+         * @return the total number of rows read from the shards
+         */
+        public long getShardRowCountCumulative() {
+            return sum(SHARD_ROWS);
+        }
+
+    }
+
+    /**
+     * A histogram of values with a bounded relative error, in the style of a
+     * HDR histogram: the values below 32 have their own bucket, larger values
+     * are grouped by their highest bit into 16 linear sub buckets each.
+     */
+    static final class Histogram {
+
+        private static final int SUB_COUNT = 32;
+        private static final int HALF = SUB_COUNT / 2;
+        private static final int MAX_BITS = 40;
+        private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
 
+        private final AtomicLongArray buckets = new AtomicLongArray(getIndex(MAX_VALUE) + 1);
+
+        /**
+         * Record a value.
+         *
+         * @param value the value, negative values are recorded as 0
+         */
+        void record(long value) {
+            buckets.incrementAndGet(getIndex(Math.min(MAX_VALUE, Math.max(0, value))));
         }
 
-        public double getExecutionTimeStandardDeviation() {
-            // population standard deviation
-            return Math.sqrt(executionTimeM2 / count);
+        private static int getIndex(long value) {
+            if (value < SUB_COUNT) {
+                return (int) value;
+            }
+            // value >>> shift is between HALF and SUB_COUNT - 1
+            int shift = 63 - Long.numberOfLeadingZeros(value) - 4;
+            return SUB_COUNT + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
         }
 
-        public double getRowCountStandardDeviation() {
-            // population standard deviation
-            return Math.sqrt(rowCountM2 / count);
+        private static long getValue(int index) {
+            if (index < SUB_COUNT) {
+                return index;
+            }
+            int shift = (index - SUB_COUNT) / HALF + 1;
+            long sub = (index - SUB_COUNT) % HALF + HALF;
+            // the middle of the bucket
+            return (sub << shift) + (1L << (shift - 1));
+        }
+
+        /**
+         * Get the value at the given percentile.
+         *
+         * @param percentile the percentile, between 0 and 1
+         * @return the value
+         */
+        long getValueAtPercentile(double percentile) {
+            int len = buckets.length();
+            long[] counts = new long[len];
+            long total = 0;
+            for (int i = 0; i < len; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(total * percentile));
+            long seen = 0;
+            for (int i = 0; i < len; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return getValue(i);
+                }
+            }
+            return getValue(len - 1);
         }
 
     }
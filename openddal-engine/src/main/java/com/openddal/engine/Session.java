@@ -38,6 +38,8 @@ import com.openddal.message.ErrorCode;
 import com.openddal.message.Trace;
 import com.openddal.message.TraceSystem;
 import com.openddal.result.LocalResult;
+import com.openddal.route.RoutingHandler;
+import com.openddal.route.RoutingHandlerProxy;
 import com.openddal.util.New;
 import com.openddal.util.SmallLRUCache;
 import com.openddal.value.Value;
@@ -88,11 +90,14 @@ public class Session implements SessionInterface {
     private int queryTimeout;
     private int objectId;
     private SmallLRUCache<String, Command> queryCache;
+    private long modificationMetaID = -1;
     private ArrayList<Value> temporaryLobs;
     private boolean readOnly;
     private int transactionIsolation = Connection.TRANSACTION_READ_COMMITTED;
     private final Transaction transaction;
     private final WorkerFactoryProxy workerHolder;
+    private final RoutingHandlerProxy routingHolder;
+    private long shardRowCount;
 
     public Session(Database database, User user, int id) {
         this.id = id;
@@ -103,6 +108,7 @@ public class Session implements SessionInterface {
         this.currentSchemaName = Constants.SCHEMA_MAIN;
         this.transaction = database.getRepository().newTransaction(this);
         this.workerHolder = new WorkerFactoryProxy(this);
+        this.routingHolder = new RoutingHandlerProxy(this);
     }
 
 
@@ -305,15 +311,13 @@ public class Session implements SessionInterface {
         if (queryCacheSize > 0) {
             if (queryCache == null) {
                 queryCache = SmallLRUCache.newInstance(queryCacheSize);
-                // modificationMetaID = database.getModificationMetaId();
+                modificationMetaID = database.getModificationMetaId();
             } else {
-                // ignore table structure modification
-                /*
-                 * long newModificationMetaID =
-                 * database.getModificationMetaId(); if (newModificationMetaID
-                 * != modificationMetaID) { queryCache.clear();
-                 * modificationMetaID = newModificationMetaID; }
-                 */
+                long newModificationMetaID = database.getModificationMetaId();
+                if (newModificationMetaID != modificationMetaID) {
+                    queryCache.clear();
+                    modificationMetaID = newModificationMetaID;
+                }
                 command = queryCache.get(sql);
                 if (command != null && command.canReuse()) {
                     command.reuse();
@@ -362,6 +366,7 @@ public class Session implements SessionInterface {
     }
 
     private void endTransaction() {
+        routingHolder.endTransaction();
         transactionStart = 0;
         savepoints = null;
         if (temporaryLobs != null) {
@@ -399,6 +404,7 @@ public class Session implements SessionInterface {
                 transaction.close();
                 database.removeSession(this);
             } finally {
+                routingHolder.endTransaction();
                 closed = true;
             }
         }
@@ -694,7 +700,34 @@ public class Session implements SessionInterface {
      */
     public void endStatement() {
         workerHolder.closeWorkers();
+        routingHolder.endStatement();
         closeTemporaryResults();
+        shardRowCount = 0;
+    }
+
+    /**
+     * Get the number of shard statements of the current statement.
+     *
+     * @return the number of shard statements
+     */
+    public int getShardStatementCount() {
+        return workerHolder.getWorkerCount();
+    }
+
+    /**
+     * Count a row read from a shard by the current statement.
+     */
+    public void incrementShardRowCount() {
+        shardRowCount++;
+    }
+
+    /**
+     * Get the number of rows read from the shards by the current statement.
+     *
+     * @return the number of rows
+     */
+    public long getShardRowCount() {
+        return shardRowCount;
     }
 
     @Override
@@ -751,6 +784,10 @@ public class Session implements SessionInterface {
         return workerHolder;
     }
 
+    public RoutingHandler getRoutingHandler() {
+        return routingHolder;
+    }
+
 
     public static class Savepoint {
         String savepointName;
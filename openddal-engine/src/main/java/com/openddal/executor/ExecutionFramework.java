@@ -19,7 +19,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -35,6 +37,7 @@ import com.openddal.engine.Database;
 import com.openddal.engine.Session;
 import com.openddal.executor.cursor.Cursor;
 import com.openddal.executor.cursor.MergedCursor;
+import com.openddal.executor.cursor.SortedMergedCursor;
 import com.openddal.executor.works.QueryWorker;
 import com.openddal.executor.works.UpdateWorker;
 import com.openddal.executor.works.Worker;
@@ -42,6 +45,7 @@ import com.openddal.executor.works.WorkerFactory;
 import com.openddal.message.DbException;
 import com.openddal.message.ErrorCode;
 import com.openddal.result.Row;
+import com.openddal.result.SortOrder;
 import com.openddal.route.RoutingHandler;
 import com.openddal.route.rule.ObjectNode;
 import com.openddal.route.rule.RoutingResult;
@@ -69,7 +73,7 @@ public abstract class ExecutionFramework implements Executor {
         this.session = s;
         this.database = session.getDatabase();
         this.queryExecutor = database.getQueryExecutor();
-        this.routingHandler = database.getRoutingHandler();
+        this.routingHandler = session.getRoutingHandler();
         this.queryHandlerFactory = session.getQueryHandlerFactory();
         doPrepare();
         isPrepared = true;
@@ -106,15 +110,8 @@ public abstract class ExecutionFramework implements Executor {
     }
 
     protected int invokeUpdateWorker(List<UpdateWorker> worker) {
-        session.checkCanceled();
+        List<Future<Integer>> invokeAll = invokeAllUpdateWorker(worker);
         try {
-            int queryTimeout = session.getQueryTimeout();// MILLISECONDS
-            List<Future<Integer>> invokeAll;
-            if (queryTimeout > 0) {
-                invokeAll = queryExecutor.invokeAll(worker, queryTimeout, TimeUnit.MILLISECONDS);
-            } else {
-                invokeAll = queryExecutor.invokeAll(worker);
-            }
             int affectRows = 0;
             for (Future<Integer> future : invokeAll) {
                 affectRows += future.get();
@@ -129,8 +126,53 @@ public abstract class ExecutionFramework implements Executor {
         }
     }
 
+    /**
+     * Run the update workers and wait until all of them are done, or the
+     * query timeout is reached; then the workers still running are
+     * cancelled.
+     *
+     * @param worker the update workers
+     * @return the futures of the workers, in the same order
+     */
+    protected List<Future<Integer>> invokeAllUpdateWorker(List<UpdateWorker> worker) {
+        session.checkCanceled();
+        try {
+            int queryTimeout = session.getQueryTimeout();// MILLISECONDS
+            if (queryTimeout > 0) {
+                return queryExecutor.invokeAll(worker, queryTimeout, TimeUnit.MILLISECONDS);
+            }
+            return queryExecutor.invokeAll(worker);
+        } catch (InterruptedException e) {
+            throw DbException.convert(e);
+        }
+    }
+
     protected Cursor invokeQueryWorker(List<QueryWorker> worker) {
+        return invokeQueryWorker(worker, null);
+    }
+
+    /**
+     * Invoke the query workers and merge their cursors. If the sort order is
+     * not null, the cursors of the workers must be sorted by it, and they are
+     * merged to a cursor that keeps that order. Otherwise the rows of the
+     * workers are returned as the workers complete.
+     *
+     * @param worker the query workers
+     * @param sortOrder the sort order of the worker cursors, or null
+     * @return the merged cursor
+     */
+    protected Cursor invokeQueryWorker(List<QueryWorker> worker, SortOrder sortOrder) {
         session.checkCanceled();
+        if (worker.size() > 1 && sortOrder == null) {
+            // the rows are returned from the shard which answers first, not
+            // waiting for the slowest one
+            CompletionService<Cursor> completionService = new ExecutorCompletionService<Cursor>(queryExecutor);
+            List<Future<Cursor>> futures = New.arrayList(worker.size());
+            for (QueryWorker queryWorker : worker) {
+                futures.add(completionService.submit(queryWorker));
+            }
+            return new MergedCursor(session, completionService, futures);
+        }
         try {
             int queryTimeout = session.getQueryTimeout();// MILLISECONDS
             List<Future<Cursor>> invokeAll;
@@ -139,8 +181,8 @@ public abstract class ExecutionFramework implements Executor {
             } else {
                 invokeAll = queryExecutor.invokeAll(worker);
             }
-            if (invokeAll.size() > 1) {
-                MergedCursor cursor = new MergedCursor();
+            if (invokeAll.size() > 1 && sortOrder != null) {
+                SortedMergedCursor cursor = new SortedMergedCursor(sortOrder);
                 for (Future<Cursor> future : invokeAll) {
                     cursor.addCursor(future.get());
                 }
@@ -173,6 +215,12 @@ public abstract class ExecutionFramework implements Executor {
         }
         return explain.toString();
     }
+
+    protected String explainForWorker(List<? extends Worker> workers, RoutingResult routing) {
+        String explain = explainForWorker(workers);
+        String warning = routing == null ? null : routing.getWarning();
+        return warning == null ? explain : explain + "\nWARNING: " + warning;
+    }
     
     
 
@@ -183,14 +231,7 @@ public abstract class ExecutionFramework implements Executor {
     protected Map<ObjectNode, List<Row>> batchForRoutingNode(TableMate table, List<Row> rows) {
         Map<ObjectNode, List<Row>> batches = New.hashMap();
         for (Row row : rows) {
-            RoutingResult result;
-            if (table.getTableRule().getType() == TableRule.GLOBAL_NODE_TABLE) {
-                GlobalTableRule rule = (GlobalTableRule) table.getTableRule();
-                result = rule.getBroadcastsRoutingResult();
-            } else {
-                result = routingHandler.doRoute(table, row);
-            }
-            ObjectNode[] selectNodes = result.getSelectNodes();
+            ObjectNode[] selectNodes = routeRow(table, row);
             for (ObjectNode objectNode : selectNodes) {
                 List<Row> batch = batches.get(objectNode);
                 if (batch == null) {
@@ -203,6 +244,17 @@ public abstract class ExecutionFramework implements Executor {
         return batches;
     }
 
+    protected ObjectNode[] routeRow(TableMate table, Row row) {
+        RoutingResult result;
+        if (table.getTableRule().getType() == TableRule.GLOBAL_NODE_TABLE) {
+            GlobalTableRule rule = (GlobalTableRule) table.getTableRule();
+            result = rule.getBroadcastsRoutingResult();
+        } else {
+            result = routingHandler.doRoute(table, row);
+        }
+        return result.getSelectNodes();
+    }
+
     protected TableMate getTableMate(String tableName) {
         TableMate table = findTableMate(tableName);
         if (table != null) {
@@ -19,6 +19,7 @@ import com.openddal.command.CommandInterface;
 import com.openddal.command.Prepared;
 import com.openddal.command.ddl.AlterTableAddConstraint;
 import com.openddal.command.ddl.AlterTableAlterColumn;
+import com.openddal.command.ddl.AlterTableMoveBucket;
 import com.openddal.command.ddl.CreateIndex;
 import com.openddal.command.ddl.CreateTable;
 import com.openddal.command.ddl.DropIndex;
@@ -32,6 +33,7 @@ import com.openddal.command.dml.Replace;
 import com.openddal.command.dml.Update;
 import com.openddal.executor.effects.AlterTableAddConstraintExecutor;
 import com.openddal.executor.effects.AlterTableAlterColumnExecutor;
+import com.openddal.executor.effects.AlterTableMoveBucketExecutor;
 import com.openddal.executor.effects.CallExecutor;
 import com.openddal.executor.effects.CreateIndexExecutor;
 import com.openddal.executor.effects.CreateTableExecutor;
@@ -76,6 +78,8 @@ public class ExecutorFactoryImpl implements ExecutorFactory {
         case CommandInterface.ALTER_TABLE_ADD_CONSTRAINT_UNIQUE:
         case CommandInterface.ALTER_TABLE_ADD_CONSTRAINT_CHECK:
             return new AlterTableAddConstraintExecutor((AlterTableAddConstraint) prepared);
+        case CommandInterface.ALTER_TABLE_MOVE_BUCKET:
+            return new AlterTableMoveBucketExecutor((AlterTableMoveBucket) prepared);
         case CommandInterface.TRUNCATE_TABLE:
             return new TruncateTableExecutor((TruncateTable) prepared);
         case CommandInterface.CREATE_INDEX:
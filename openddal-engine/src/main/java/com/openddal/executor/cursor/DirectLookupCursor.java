@@ -46,8 +46,10 @@ public class DirectLookupCursor extends ExecutionFramework implements Cursor {
     private Cursor cursor;
     private Map<ObjectNode, Map<TableFilter, ObjectNode>> consistencyTableNodes;
     private List<QueryWorker> workers;
+    private RoutingResult routing;
     private ArrayList<Expression> expressions;
     private boolean limitPushless;
+    private boolean sortedMerging;
 
     public DirectLookupCursor(Select select) {
         this.prepared = select;
@@ -56,6 +58,7 @@ public class DirectLookupCursor extends ExecutionFramework implements Cursor {
     @Override
     protected void doPrepare() {
         expressions = prepared.getExpressions();
+        sortedMerging = isSortedMergingQuery(prepared);
         if (prepared.isGroupQuery()) {
             ArrayList<Expression> selectExprs = New.arrayList(10);
             int[] groupIndex = prepared.getGroupIndex();
@@ -68,21 +71,27 @@ public class DirectLookupCursor extends ExecutionFramework implements Cursor {
             for (Expression expr : expressions) {
                 expr.isEverything(ExpressionVisitor.getAggregateVisitor(aggregates));
             }
-            selectExprs.addAll(aggregates);
+            // the shards calculate the partial results, merged by the aggregates
+            for (Aggregate aggregate : aggregates) {
+                for (Expression expr : aggregate.getPartialExpressions()) {
+                    selectExprs.add(expr);
+                }
+            }
             expressions = selectExprs;
         }
         Expression[] exprList = expressions.toArray(new Expression[expressions.size()]);
         Integer limit = null, offset = null;
         Expression limitExpr = prepared.getLimit();
         Expression offsetExpr = prepared.getOffset();
-        if (limitExpr != null) {
+        // the groups are only complete after merging, so the limit of a
+        // group query is applied by the local result
+        if (limitExpr != null && !prepared.isGroupQuery()) {
             limit = limitExpr.getValue(session).getInt();
         }
-        if (offsetExpr != null) {
+        if (offsetExpr != null && !prepared.isGroupQuery()) {
             offset = offsetExpr.getValue(session).getInt();
         }
-        
-        
+
         try {
             setEvaluatable(prepared.getTopTableFilter(), false);
             RoutingResult rr = doRoute(prepared);
@@ -91,6 +100,7 @@ public class DirectLookupCursor extends ExecutionFramework implements Cursor {
                 offset = 0;
                 limitPushless = true;
             }
+            routing = rr;
             ObjectNode[] selectNodes = rr.getSelectNodes();
             if (session.getDatabase().getSettings().optimizeMerging) {
                 selectNodes = rr.group();
@@ -108,13 +118,13 @@ public class DirectLookupCursor extends ExecutionFramework implements Cursor {
 
     @Override
     protected Cursor doQuery() {
-        this.cursor = invokeQueryWorker(workers);
+        this.cursor = invokeQueryWorker(workers, sortedMerging ? prepared.getSortOrder() : null);
         return this;
     }
 
     @Override
     public String doExplain() {
-        return explainForWorker(workers);
+        return explainForWorker(workers, routing);
     }
 
     private RoutingResult doRoute(Select prepare) {
@@ -244,8 +254,8 @@ public class DirectLookupCursor extends ExecutionFramework implements Cursor {
                 Expression offsetExpr = prepared.getOffset();
                 SortOrder sortOrder = prepared.getSortOrder();
                 int offset = offsetExpr.getValue(session).getInt();
-                if(sortOrder == null) {
-                    //drop offset rows if sortOrder is null
+                if(sortOrder == null || sortedMerging) {
+                    //drop offset rows if the rows are not sorted again
                     while (offset-- > 0) {
                         if (!next()) {
                             break;
@@ -278,6 +288,51 @@ public class DirectLookupCursor extends ExecutionFramework implements Cursor {
         return estimator.isDirectLookup();
     }
 
+    /**
+     * Check if the rows of the shards are merged in the order of the query,
+     * so that the result need not be sorted again. This is the case if the
+     * query has an order but is neither a group nor a distinct query, as
+     * these ones are reordered when merging the rows of the shards. The
+     * order must also be compared the same way here as in the shards, which
+     * is not the case for strings (the collation of the shard, which often
+     * ignores the case) or binary data (signed bytes here).
+     *
+     * @param select the direct lookup query
+     * @return true if the merged rows are sorted
+     */
+    public static boolean isSortedMergingQuery(Select select) {
+        SortOrder sort = select.getSortOrder();
+        if (sort == null || select.isGroupQuery() || select.isDistinct()) {
+            return false;
+        }
+        ArrayList<Expression> expressions = select.getExpressions();
+        for (int index : sort.getQueryColumnIndexes()) {
+            if (!isSortedByShards(expressions.get(index).getType())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSortedByShards(int type) {
+        switch (type) {
+        case Value.BOOLEAN:
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+        case Value.DECIMAL:
+        case Value.DOUBLE:
+        case Value.FLOAT:
+        case Value.TIME:
+        case Value.DATE:
+        case Value.TIMESTAMP:
+            return true;
+        default:
+            return false;
+        }
+    }
+
     private static class DirectLookupEstimator {
 
         private final ArrayList<TableFilter> filters;
@@ -1,17 +1,56 @@
 package com.openddal.executor.cursor;
 
 import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import com.openddal.engine.Session;
+import com.openddal.message.DbException;
+import com.openddal.message.ErrorCode;
 import com.openddal.result.Row;
 import com.openddal.result.SearchRow;
 import com.openddal.util.New;
 
 public class MergedCursor implements Cursor {
 
+    /**
+     * The time in milliseconds between the checks for a cancelled statement
+     * while waiting for the shards.
+     */
+    private static final long CANCEL_CHECK_INTERVAL = 100;
+
     private Cursor cursor;
     private int index;
     private List<Cursor> cursors = New.arrayList(10);
+    private Session session;
+    private CompletionService<Cursor> completionService;
+    private List<Future<Cursor>> futures;
+    private long deadline;
     
+    public MergedCursor() {
+        // cursors are added by addCursor
+    }
+
+    /**
+     * Create a cursor that returns the rows of the submitted workers in the
+     * order they complete, so the rows of the shard which answers first are
+     * returned first.
+     *
+     * @param session the session
+     * @param completionService the completion service the workers are
+     *            submitted to
+     * @param futures the futures of the submitted workers
+     */
+    public MergedCursor(Session session, CompletionService<Cursor> completionService, List<Future<Cursor>> futures) {
+        this.session = session;
+        this.completionService = completionService;
+        this.futures = futures;
+        int queryTimeout = session.getQueryTimeout();// MILLISECONDS
+        this.deadline = queryTimeout > 0 ? System.currentTimeMillis() + queryTimeout : 0;
+    }
+
     public void addCursor(Cursor cursor) {
         cursors.add(cursor);
     }
@@ -26,6 +65,9 @@ public class MergedCursor implements Cursor {
 
     @Override
     public SearchRow getSearchRow() {
+        if (cursor == null) {
+            return null;
+        }
         return cursor.getSearchRow();
     }
 
@@ -46,9 +88,53 @@ public class MergedCursor implements Cursor {
     }
 
     private void nextCursor() {
-        cursor = index < cursors.size() ? cursors.get(index) : null;
+        if (completionService != null) {
+            cursor = index < futures.size() ? takeCompleted() : null;
+        } else {
+            cursor = index < cursors.size() ? cursors.get(index) : null;
+        }
         ++index;
     }
+
+    private Cursor takeCompleted() {
+        try {
+            Future<Cursor> future = null;
+            while (future == null) {
+                // wait in slices, so a cancelled statement stops waiting
+                // for a shard that does not answer
+                try {
+                    session.checkCanceled();
+                } catch (DbException e) {
+                    cancelAll();
+                    throw e;
+                }
+                long wait = CANCEL_CHECK_INTERVAL;
+                if (deadline > 0) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        cancelAll();
+                        throw DbException.get(ErrorCode.STATEMENT_WAS_CANCELED);
+                    }
+                    wait = Math.min(wait, remaining);
+                }
+                future = completionService.poll(wait, TimeUnit.MILLISECONDS);
+            }
+            return future.get();
+        } catch (InterruptedException e) {
+            cancelAll();
+            throw DbException.convert(e);
+        } catch (ExecutionException e) {
+            cancelAll();
+            throw DbException.convert(e.getCause());
+        }
+    }
+
+    private void cancelAll() {
+        for (Future<Cursor> future : futures) {
+            future.cancel(true);
+        }
+    }
+
     @Override
     public boolean previous() {
         return false;
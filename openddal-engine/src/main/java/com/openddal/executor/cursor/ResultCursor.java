@@ -16,8 +16,10 @@ public class ResultCursor implements Cursor {
     private Row current;
     private final ResultSet rs;
     private final Expression[] cols;
+    private final Session session;
 
     public ResultCursor(Session session, ResultSet rs) {
+        this.session = session;
         this.rs = rs;
         this.cols = Expression.getExpressionColumns(session, rs);
     }
@@ -52,6 +54,7 @@ public class ResultCursor implements Cursor {
             throw DbException.convert(e);
         }
         current = null;
+        session.incrementShardRowCount();
         return true;
     }
 
@@ -15,12 +15,21 @@
  */
 package com.openddal.executor.cursor;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import com.openddal.command.dml.Select;
+import com.openddal.command.expression.Comparison;
+import com.openddal.command.expression.ConditionAndOr;
+import com.openddal.command.expression.ConditionIn;
+import com.openddal.command.expression.Expression;
+import com.openddal.command.expression.ExpressionColumn;
 import com.openddal.command.expression.ExpressionVisitor;
+import com.openddal.command.expression.ValueExpression;
 import com.openddal.config.GlobalTableRule;
 import com.openddal.config.TableRule;
 import com.openddal.dbobject.index.ConditionExtractor;
@@ -40,8 +49,21 @@ import com.openddal.result.SearchRow;
 import com.openddal.route.rule.ObjectNode;
 import com.openddal.route.rule.RoutingResult;
 import com.openddal.util.New;
+import com.openddal.util.ValueHashMap;
+import com.openddal.value.Value;
+import com.openddal.value.ValueNull;
 
 /**
+ * The cursor of a table filter. If the table is joined on an integer key with
+ * the table filter before it, and the join can not be run on the shards
+ * directly, the table is not queried once per outer row. If its estimated
+ * row count fits in memory and is not larger than of the outer table (or,
+ * without statistics, if it is read from no more shards than the outer
+ * table), all its rows are read once into a hash table (a hash join); the
+ * query is limited to one row more than fits in memory. Otherwise, or if the
+ * rows don't fit in memory, the keys of a block of outer rows are looked up
+ * with one query per shard (a batched key lookup).
+ *
  * @author jorgie.li
  */
 public class SearchCursor extends ExecutionFramework implements Cursor {
@@ -51,7 +73,21 @@ public class SearchCursor extends ExecutionFramework implements Cursor {
     private Cursor cursor;
     private boolean alwaysFalse;
     private Column[] searchColumns;
+    private static final int LOOKUP_BATCHED = 1;
+    private static final int LOOKUP_HASH = 2;
+
     private Row current;
+    private ArrayDeque<Row> readAhead;
+    private int nodeCount;
+
+    private TableFilter batchDriver;
+    private ExpressionColumn batchKey;
+    private Expression batchProbe;
+    private Expression batchCondition;
+    private int batchKeyIndex;
+    private int batchSize;
+    private ValueHashMap<ArrayList<Row>> batchRows;
+    private int lookupType;
 
     public SearchCursor(TableFilter tableFilter) {
         this.tableFilter = tableFilter;
@@ -69,17 +105,19 @@ public class SearchCursor extends ExecutionFramework implements Cursor {
 
     @Override
     public Row get() {
-        Row searchRow = cursor.get();
-        if (searchColumns == table.getColumns()) {
-            return searchRow;
-        }
-        current = table.getTemplateRow();
-        for (int i = 0; i < searchColumns.length; i++) {
-            int idx = searchColumns[i].getColumnId();
-            current.setValue(idx, searchRow.getValue(i));
+        if (current == null) {
+            Row searchRow = cursor.get();
+            if (searchColumns == table.getColumns()) {
+                current = searchRow;
+            } else {
+                current = table.getTemplateRow();
+                for (int i = 0; i < searchColumns.length; i++) {
+                    int idx = searchColumns[i].getColumnId();
+                    current.setValue(idx, searchRow.getValue(i));
+                }
+            }
         }
         return current;
-
     }
 
     @Override
@@ -89,6 +127,15 @@ public class SearchCursor extends ExecutionFramework implements Cursor {
 
     @Override
     public boolean next() {
+        current = null;
+        if (readAhead != null && !readAhead.isEmpty()) {
+            current = readAhead.poll();
+            return true;
+        }
+        return nextRow();
+    }
+
+    private boolean nextRow() {
         while (true) {
             if (cursor == null) {
                 nextCursor();
@@ -107,6 +154,45 @@ public class SearchCursor extends ExecutionFramework implements Cursor {
 
     }
 
+    /**
+     * Read the next rows ahead, without changing the current row.
+     *
+     * @param count the maximum number of rows to read ahead
+     * @return the rows that are read ahead
+     */
+    public List<Row> readAhead(int count) {
+        if (readAhead == null) {
+            readAhead = new ArrayDeque<Row>();
+        }
+        if (cursor != null && cursor != this) {
+            Row row = get();
+            while (readAhead.size() < count && nextRow()) {
+                current = null;
+                readAhead.add(get());
+            }
+            current = row;
+        }
+        return New.arrayList(readAhead);
+    }
+
+    /**
+     * Forget the rows of the batched key lookup, they are only valid within
+     * one query.
+     */
+    public void reset() {
+        batchRows = null;
+        lookupType = 0;
+    }
+
+    /**
+     * Get the number of shards the last query of this cursor was sent to.
+     *
+     * @return the number of shards
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
     @Override
     public boolean previous() {
         throw DbException.throwInternalError();
@@ -124,6 +210,9 @@ public class SearchCursor extends ExecutionFramework implements Cursor {
     }
 
     private Cursor find(TableMate tableMate) {
+        if (batchKey != null) {
+            return findBatched(tableMate);
+        }
         try {
             tableFilter.setEvaluatable(false);
             ConditionExtractor extractor = new ConditionExtractor(tableFilter);
@@ -133,6 +222,7 @@ public class SearchCursor extends ExecutionFramework implements Cursor {
             }
             RoutingResult result = doRoute(tableMate, extractor);
             ObjectNode[] selectNodes = result.getSelectNodes();
+            nodeCount = selectNodes.length;
             if (session.getDatabase().getSettings().optimizeMerging) {
                 selectNodes = result.group();
             }
@@ -147,6 +237,154 @@ public class SearchCursor extends ExecutionFramework implements Cursor {
         }
     }
 
+    private Cursor findBatched(TableMate tableMate) {
+        this.alwaysFalse = false;
+        Value key = getProbeValue();
+        if (key == ValueNull.INSTANCE) {
+            return new ListCursor(New.<Row>arrayList());
+        }
+        if (lookupType == 0) {
+            lookupType = LOOKUP_BATCHED;
+            int maxRows = database.getMaxMemoryRows();
+            if (isHashJoinCheaper(tableMate, maxRows)) {
+                batchRows = lookupBatch(tableMate, null, maxRows);
+                if (batchRows != null) {
+                    lookupType = LOOKUP_HASH;
+                }
+            }
+        }
+        if (lookupType == LOOKUP_HASH) {
+            ArrayList<Row> rows = batchRows.get(key);
+            return new ListCursor(rows == null ? New.<Row>arrayList() : rows);
+        }
+        if (batchRows == null || batchRows.get(key) == null) {
+            Set<Value> keys = New.linkedHashSet();
+            keys.add(key);
+            Row row = batchDriver.get();
+            try {
+                for (Row r : batchDriver.readAhead(batchSize - 1)) {
+                    batchDriver.set(r);
+                    Value v = getProbeValue();
+                    if (v != ValueNull.INSTANCE) {
+                        keys.add(v);
+                    }
+                }
+            } finally {
+                batchDriver.set(row);
+            }
+            batchRows = lookupBatch(tableMate, keys, -1);
+        }
+        return new ListCursor(batchRows.get(key));
+    }
+
+    private Value getProbeValue() {
+        Value v = batchProbe.getValue(session);
+        return v == ValueNull.INSTANCE ? v : batchKey.getColumn().convert(v);
+    }
+
+    /**
+     * Check whether to read the whole table into a hash table. This is the
+     * case if the estimated row count of the table fits in memory and is not
+     * larger than of the outer table; without statistics, if the table is
+     * read from no more shards than the outer table.
+     *
+     * @param tableMate the table
+     * @param maxRows the maximum number of rows to keep in memory
+     * @return true to build a hash table
+     */
+    private boolean isHashJoinCheaper(TableMate tableMate, int maxRows) {
+        long buildRows = tableMate.getRowCountEstimate();
+        if (buildRows > maxRows) {
+            return false;
+        }
+        Table driver = batchDriver.getTable();
+        long probeRows = driver instanceof TableMate ? ((TableMate) driver).getRowCountEstimate() : -1;
+        if (buildRows >= 0 && probeRows >= 0) {
+            return buildRows <= probeRows;
+        }
+        return getBuildNodeCount(tableMate) <= Math.max(1, batchDriver.getNodeCount());
+    }
+
+    private int getBuildNodeCount(TableMate tableMate) {
+        if (tableMate.getTableRule().getType() != TableRule.SHARDED_NODE_TABLE) {
+            return 1;
+        }
+        return routingHandler.doRoute(tableMate).getSelectNodes().length;
+    }
+
+    /**
+     * Read the rows of the given keys into a hash table by key.
+     *
+     * @param tableMate the table
+     * @param keys the keys, or null to read all rows
+     * @param maxRows the maximum number of rows to read, or -1
+     * @return the rows by key, or null if there are more than maxRows rows
+     */
+    private ValueHashMap<ArrayList<Row>> lookupBatch(TableMate tableMate, Set<Value> keys, int maxRows) {
+        ValueHashMap<ArrayList<Row>> result = ValueHashMap.newInstance();
+        Expression condition = batchCondition;
+        if (keys != null) {
+            ArrayList<Expression> values = New.arrayList(keys.size());
+            for (Value v : keys) {
+                result.put(v, New.<Row>arrayList());
+                values.add(ValueExpression.get(v));
+            }
+            Expression in = new ConditionIn(database, batchKey, values);
+            condition = condition == null ? in : new ConditionAndOr(ConditionAndOr.AND, condition, in);
+        }
+        try {
+            tableFilter.setEvaluatable(false);
+            RoutingResult rr;
+            if (keys == null) {
+                rr = tableMate.getTableRule().getType() == TableRule.SHARDED_NODE_TABLE ? routingHandler
+                        .doRoute(tableMate) : doRoute(tableMate, new ConditionExtractor(tableFilter));
+            } else if (tableMate.getTableRule().getType() == TableRule.SHARDED_NODE_TABLE) {
+                Map<Column, Set<Value>> inColumns = New.hashMap();
+                inColumns.put(batchKey.getColumn(), keys);
+                rr = routingHandler.doRoute(tableMate, null, null, inColumns);
+            } else {
+                rr = doRoute(tableMate, new ConditionExtractor(tableFilter));
+            }
+            ObjectNode[] selectNodes = rr.getSelectNodes();
+            if (session.getDatabase().getSettings().optimizeMerging) {
+                selectNodes = rr.group();
+            }
+            // one row more than fits tells that the table is too big
+            Integer limit = maxRows >= 0 && maxRows < Integer.MAX_VALUE ? maxRows + 1 : null;
+            List<QueryWorker> workers = New.arrayList(selectNodes.length);
+            for (ObjectNode objectNode : selectNodes) {
+                workers.add(queryHandlerFactory.createQueryWorker(searchColumns, tableFilter, condition, objectNode,
+                        limit));
+            }
+            Cursor c = invokeQueryWorker(workers);
+            int rowCount = 0;
+            while (c.next()) {
+                if (maxRows >= 0 && ++rowCount > maxRows) {
+                    // too big to keep in memory, the remaining rows are
+                    // dropped when the statement ends
+                    return null;
+                }
+                Row row = c.get();
+                Value v = row.getValue(batchKeyIndex);
+                if (v == ValueNull.INSTANCE) {
+                    continue;
+                }
+                v = batchKey.getColumn().convert(v);
+                ArrayList<Row> rows = result.get(v);
+                if (rows == null && keys == null) {
+                    rows = New.arrayList();
+                    result.put(v, rows);
+                }
+                if (rows != null) {
+                    rows.add(row);
+                }
+            }
+        } finally {
+            tableFilter.setEvaluatable(true);
+        }
+        return result;
+    }
+
     private RoutingResult doRoute(TableMate tableMate, ConditionExtractor extractor) {
         RoutingResult result;
         TableRule tableRule = tableMate.getTableRule();
@@ -173,6 +411,10 @@ public class SearchCursor extends ExecutionFramework implements Cursor {
     }
 
     protected Cursor doQuery() {
+        current = null;
+        if (readAhead != null) {
+            readAhead.clear();
+        }
         if (table instanceof RangeTable) {
             RangeTable rangeTable = (RangeTable) table;
             this.cursor = find(rangeTable);
@@ -209,7 +451,139 @@ public class SearchCursor extends ExecutionFramework implements Cursor {
             if(!selected.isEmpty()) {
                 searchColumns = selected.toArray(new Column[selected.size()]);
             }
+            prepareBatchedLookup(select);
+        }
+    }
+
+    private void prepareBatchedLookup(Select select) {
+        batchSize = session.getDatabase().getSettings().joinBatchSize;
+        if (batchSize <= 1 || !(table instanceof TableMate) || select.getTopTableFilter() == null) {
+            return;
+        }
+        TableFilter driver = null;
+        ArrayList<TableFilter> others = New.arrayList();
+        for (TableFilter f = select.getTopTableFilter(); f != null; f = f.getJoin()) {
+            if (f.getNestedJoin() != null) {
+                return;
+            }
+            if (f.getJoin() == tableFilter) {
+                driver = f;
+            }
+            if (f != tableFilter) {
+                others.add(f);
+            }
+        }
+        if (driver == null) {
+            return;
+        }
+        ArrayList<Expression> filterConditions = New.arrayList();
+        addConditions(tableFilter.getFilterCondition(), filterConditions);
+        ArrayList<Expression> joinConditions = New.arrayList();
+        addConditions(tableFilter.getJoinCondition(), joinConditions);
+        Expression keyCondition = null;
+        for (Expression c : filterConditions) {
+            if (keyCondition == null && setBatchKey(c, driver, others)) {
+                keyCondition = c;
+            }
+        }
+        for (Expression c : joinConditions) {
+            if (keyCondition == null && setBatchKey(c, driver, others)) {
+                keyCondition = c;
+            }
+        }
+        if (keyCondition == null) {
+            return;
+        }
+        // the other conditions are sent to the shards, so they may not depend
+        // on the outer rows
+        Expression condition = null;
+        for (Expression c : filterConditions) {
+            if (c == keyCondition) {
+                continue;
+            }
+            if (!isFromFilterOnly(c, tableFilter, others)) {
+                batchKey = null;
+                return;
+            }
+            condition = condition == null ? c : new ConditionAndOr(ConditionAndOr.AND, condition, c);
+        }
+        batchCondition = condition;
+        batchDriver = driver;
+    }
+
+    private boolean setBatchKey(Expression condition, TableFilter driver, ArrayList<TableFilter> others) {
+        if (!(condition instanceof Comparison)) {
+            return false;
+        }
+        Comparison comparison = (Comparison) condition;
+        if (comparison.getCompareType() != Comparison.EQUAL) {
+            return false;
+        }
+        for (int i = 0; i < 2; i++) {
+            Expression key = comparison.getExpression(i == 0);
+            Expression probe = comparison.getExpression(i != 0);
+            if (!(key instanceof ExpressionColumn) || ((ExpressionColumn) key).getTableFilter() != tableFilter) {
+                continue;
+            }
+            // only integer keys, because the rows are matched by value
+            // without the collation of the shards
+            Column column = ((ExpressionColumn) key).getColumn();
+            if (!isIntegerType(column.getType()) || !isIntegerType(probe.getType())) {
+                continue;
+            }
+            int index = -1;
+            for (int j = 0; j < searchColumns.length; j++) {
+                if (searchColumns[j] == column) {
+                    index = j;
+                }
+            }
+            if (index < 0 || !probe.isEverything(ExpressionVisitor.DETERMINISTIC_VISITOR)
+                    || !isFromFilterOnly(probe, driver, others)
+                    || !probe.isEverything(ExpressionVisitor.getNotFromResolverVisitor(tableFilter))) {
+                continue;
+            }
+            batchKey = (ExpressionColumn) key;
+            batchKeyIndex = index;
+            batchProbe = probe;
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isFromFilterOnly(Expression e, TableFilter filter, ArrayList<TableFilter> others) {
+        for (TableFilter f : others) {
+            if (f != filter && !e.isEverything(ExpressionVisitor.getNotFromResolverVisitor(f))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isIntegerType(int type) {
+        switch (type) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private static void addConditions(Expression condition, ArrayList<Expression> list) {
+        if (condition == null) {
+            return;
+        }
+        if (condition instanceof ConditionAndOr) {
+            ConditionAndOr c = (ConditionAndOr) condition;
+            if (c.getAndOrType() == ConditionAndOr.AND) {
+                addConditions(c.getExpression(true), list);
+                addConditions(c.getExpression(false), list);
+                return;
+            }
         }
+        list.add(condition);
     }
 
     @Override
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.executor.cursor;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.openddal.result.Row;
+import com.openddal.result.SearchRow;
+import com.openddal.result.SortOrder;
+import com.openddal.util.New;
+
+/**
+ * A cursor that merges cursors which are already sorted by the same sort
+ * order. The merge is a k-way merge over a heap of the cursors, ordered by
+ * their current row, so no row is buffered and the caller can stop reading
+ * at any time (for example when the limit is reached).
+ *
+ * @author jorgie.li
+ */
+public class SortedMergedCursor implements Cursor {
+
+    private final SortOrder sort;
+    private final List<Cursor> cursors = New.arrayList(10);
+    private PriorityQueue<Cursor> queue;
+    private Cursor cursor;
+
+    public SortedMergedCursor(SortOrder sort) {
+        this.sort = sort;
+    }
+
+    public void addCursor(Cursor cursor) {
+        cursors.add(cursor);
+    }
+
+    @Override
+    public Row get() {
+        if (cursor == null) {
+            return null;
+        }
+        return cursor.get();
+    }
+
+    @Override
+    public SearchRow getSearchRow() {
+        if (cursor == null) {
+            return null;
+        }
+        return cursor.getSearchRow();
+    }
+
+    @Override
+    public boolean next() {
+        if (queue == null) {
+            queue = new PriorityQueue<Cursor>(Math.max(1, cursors.size()), new Comparator<Cursor>() {
+                @Override
+                public int compare(Cursor a, Cursor b) {
+                    return sort.compare(a.get().getValueList(), b.get().getValueList());
+                }
+            });
+            for (Cursor c : cursors) {
+                if (c.next()) {
+                    queue.add(c);
+                }
+            }
+        } else if (cursor != null && cursor.next()) {
+            queue.add(cursor);
+        }
+        cursor = queue.poll();
+        return cursor != null;
+    }
+
+    @Override
+    public boolean previous() {
+        return false;
+    }
+
+}
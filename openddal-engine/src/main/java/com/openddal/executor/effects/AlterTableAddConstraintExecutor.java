@@ -85,6 +85,7 @@ public class AlterTableAddConstraintExecutor extends ExecutionFramework {
         TableMate tableMate = getTableMate(tableName);
         int affectRows = invokeUpdateWorker(workers);
         tableMate.loadMataData(session);
+        database.saveMetadataSnapshot();
         return affectRows;
     }
 
@@ -88,6 +88,7 @@ public class AlterTableAlterColumnExecutor extends ExecutionFramework {
         TableMate table = getTableMate(prepared.getTable().getName());
         int affectRows = invokeUpdateWorker(workers);
         table.loadMataData(session);
+        database.saveMetadataSnapshot();
         return affectRows;
     }
 
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.executor.effects;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import com.openddal.command.ddl.AlterTableMoveBucket;
+import com.openddal.config.ShardedTableRule;
+import com.openddal.config.TableRule;
+import com.openddal.dbobject.table.Table;
+import com.openddal.dbobject.table.TableMate;
+import com.openddal.executor.ExecutionFramework;
+import com.openddal.message.DbException;
+import com.openddal.repo.BucketMigrator;
+import com.openddal.repo.JdbcRepository;
+import com.openddal.route.algorithm.VirtualBucketPartitioner;
+import com.openddal.util.New;
+
+/**
+ * Moves a bucket of a {@link VirtualBucketPartitioner} to another node with
+ * the {@link BucketMigrator}. All tables of the partitioner are moved
+ * together. The statement returns when the bucket is moved, and its update
+ * count is the number of rows copied.
+ *
+ * @author jorgie.li
+ */
+public class AlterTableMoveBucketExecutor extends ExecutionFramework {
+
+    private AlterTableMoveBucket prepared;
+    private List<TableMate> tables;
+    private JdbcRepository repository;
+
+    /**
+     * @param prepared
+     */
+    public AlterTableMoveBucketExecutor(AlterTableMoveBucket prepared) {
+        this.prepared = prepared;
+    }
+
+    @Override
+    protected void doPrepare() {
+        session.getUser().checkAdmin();
+        if (!(database.getRepository() instanceof JdbcRepository)) {
+            throw DbException.getUnsupportedException("MOVE BUCKET on " + database.getRepository().getName());
+        }
+        repository = (JdbcRepository) database.getRepository();
+        TableMate table = toTableMate(prepared.getTable());
+        table.check();
+        VirtualBucketPartitioner partitioner = getPartitioner(table);
+        if (partitioner == null) {
+            throw DbException.getUnsupportedException(table.getName() + " does not use virtual buckets");
+        }
+        if (prepared.getBucket() < 0 || prepared.getBucket() >= partitioner.getBucketCount()) {
+            throw DbException.getInvalidValueException("BUCKET", prepared.getBucket());
+        }
+        if (prepared.getTarget() < 0 || prepared.getTarget() >= partitioner.getTableNodes().length) {
+            throw DbException.getInvalidValueException("TO", prepared.getTarget());
+        }
+        tables = New.arrayList();
+        for (Table t : database.getAllTablesAndViews()) {
+            if (t instanceof TableMate && getPartitioner((TableMate) t) == partitioner) {
+                tables.add((TableMate) t);
+            }
+        }
+    }
+
+    @Override
+    public int doUpdate() {
+        // the rows held by the open transaction would block the migration
+        if (!session.getAutoCommit()) {
+            session.commit();
+        }
+        BucketMigrator migrator = new BucketMigrator(repository, tables, prepared.getBucket(),
+                prepared.getTarget());
+        try {
+            return migrator.call().intValue();
+        } catch (SQLException e) {
+            throw DbException.convert(e);
+        } catch (IllegalArgumentException e) {
+            throw DbException.getUnsupportedException(e.getMessage());
+        } catch (IllegalStateException e) {
+            throw DbException.getUnsupportedException(e.getMessage());
+        }
+    }
+
+    @Override
+    protected String doExplain() {
+        return "move bucket " + prepared.getBucket() + " of " + tables + " to node " + prepared.getTarget();
+    }
+
+    private static VirtualBucketPartitioner getPartitioner(TableMate table) {
+        TableRule rule = table.getTableRule();
+        if (rule instanceof ShardedTableRule) {
+            Object partitioner = ((ShardedTableRule) rule).getPartitioner();
+            if (partitioner instanceof VirtualBucketPartitioner) {
+                return (VirtualBucketPartitioner) partitioner;
+            }
+        }
+        return null;
+    }
+
+}
@@ -70,6 +70,7 @@ public class CreateIndexExecutor extends ExecutionFramework {
         TableMate table = getTableMate(tableName);
         int affectRows = invokeUpdateWorker(workers);
         table.loadMataData(session);
+        database.saveMetadataSnapshot();
         return affectRows;
     
     }
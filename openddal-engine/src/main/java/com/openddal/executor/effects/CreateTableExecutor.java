@@ -131,6 +131,7 @@ public class CreateTableExecutor extends ExecutionFramework {
             asQueryInsert.update();
         }
         tableMate.loadMataData(session);
+        database.saveMetadataSnapshot();
         return affectRows;
     }
     
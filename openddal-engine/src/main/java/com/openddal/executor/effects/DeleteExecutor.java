@@ -33,6 +33,7 @@ import com.openddal.util.New;
 public class DeleteExecutor extends ExecutionFramework {
     
     private List<UpdateWorker> workers;
+    private RoutingResult routing;
     private boolean alwaysFalse;
     private Delete prepared;
 
@@ -50,8 +51,9 @@ public class DeleteExecutor extends ExecutionFramework {
         ConditionExtractor extractor = new ConditionExtractor(tableFilter);
         alwaysFalse = extractor.isAlwaysFalse();
         if(!alwaysFalse) {
-            RoutingResult rr = routingHandler.doRoute(table, 
+            RoutingResult rr = routingHandler.doRouteForUpdate(table,
                     extractor.getStart(),extractor.getEnd(), extractor.getInColumns());
+            routing = rr;
             ObjectNode[] selectNodes = rr.getSelectNodes();
             workers = New.arrayList(selectNodes.length);
             for (ObjectNode objectNode : selectNodes) {
@@ -78,7 +80,7 @@ public class DeleteExecutor extends ExecutionFramework {
         if(this.alwaysFalse) {
             return "always false statement";
         }
-        return explainForWorker(workers);
+        return explainForWorker(workers, routing);
     }
 
 }
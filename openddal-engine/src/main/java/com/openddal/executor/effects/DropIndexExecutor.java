@@ -40,6 +40,7 @@ public class DropIndexExecutor extends ExecutionFramework {
         TableMate table = getTableMate(tableName);
         int affectRows = invokeUpdateWorker(workers);
         table.loadMataData(session);
+        database.saveMetadataSnapshot();
         return affectRows;
     }
 
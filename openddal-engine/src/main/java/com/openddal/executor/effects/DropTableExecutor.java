@@ -75,6 +75,7 @@ public class DropTableExecutor extends ExecutionFramework {
         TableMate table = getTableMate(tableName);
         invokeUpdateWorker(dropWorkers.get(next));
         table.markDeleted();
+        database.saveMetadataSnapshot();
         next = next.getNext();
         if (next != null) {
             executeDrop(next);
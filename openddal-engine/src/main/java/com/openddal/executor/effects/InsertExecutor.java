@@ -15,14 +15,22 @@
  */
 package com.openddal.executor.effects;
 
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import com.openddal.command.Prepared;
 import com.openddal.command.dml.Insert;
 import com.openddal.command.dml.Query;
 import com.openddal.command.expression.Expression;
+import com.openddal.command.expression.Parameter;
 import com.openddal.dbobject.table.Column;
 import com.openddal.dbobject.table.TableMate;
 import com.openddal.executor.ExecutionFramework;
@@ -42,13 +50,28 @@ import com.openddal.value.Value;
  */
 public class InsertExecutor extends ExecutionFramework implements ResultTarget {
 
-    private static final int QUERY_FLUSH_THRESHOLD = 200;
+    /**
+     * The maximum number of placeholders of a backend prepared statement.
+     */
+    private static final int MAX_STATEMENT_PARAMETERS = 65535;
+    private static final int MAX_STATEMENT_ROWS = 1000;
     private int rowNumber;
     private int affectRows;
-    private List<Row> newRows = New.arrayList(10);
+    private final Map<ObjectNode, List<Row>> pendingRows = New.hashMap();
+    private final Map<ObjectNode, Future<Integer>> runningFlushes = New.hashMap();
+    private final Map<ObjectNode, Integer> runningFlushRows = New.hashMap();
+    private int bufferedRows;
+    private final Map<ObjectNode, Integer> batchSizes = New.hashMap();
     private List<UpdateWorker> workers;
     private Insert prepared;
 
+    /**
+     * The execution of the batch each row belongs to, and the executions
+     * each worker writes rows of; null if this is not a batch.
+     */
+    private Map<Row, Integer> rowEntries;
+    private List<BitSet> workerEntries;
+
     /**
      * @param prepared
      */
@@ -62,7 +85,6 @@ public class InsertExecutor extends ExecutionFramework implements ResultTarget {
         table.check();
         prepared.setCurrentRowNumber(0);
         ArrayList<Expression[]> list = prepared.getList();
-        Column[] columns = prepared.getColumns();
         Map<Column, Expression> valueMap = prepared.getDuplicateKeyAssignmentMap();
         if (valueMap != null) {
             Column[] ruleColumns = table.getRuleColumns();
@@ -74,28 +96,26 @@ public class InsertExecutor extends ExecutionFramework implements ResultTarget {
         }
         int listSize = list.size();
         if (listSize > 0) {
-            int columnLen = columns.length;
             List<Row> values = New.arrayList(10);
-            for (int x = 0; x < listSize; x++) {
-                Row newRow = table.getTemplateRow();
-                Expression[] expr = list.get(x);
-                prepared.setCurrentRowNumber(x + 1);
-                for (int i = 0; i < columnLen; i++) {
-                    Column c = columns[i];
-                    int index = c.getColumnId();
-                    Expression e = expr[i];
-                    if (e != null) {
-                        // e can be null (DEFAULT)
-                        e = e.optimize(session);
-                        try {
-                            Value v = c.convert(e.getValue(session));
-                            newRow.setValue(index, v);
-                        } catch (DbException ex) {
-                            throw prepared.setRow(ex, x, Prepared.getSQL(expr));
-                        }
+            List<Value[]> batchParameters = prepared.getBatchParameters();
+            if (batchParameters == null) {
+                evaluateRows(table, values);
+            } else {
+                // the rows of all executions of the batch are inserted at
+                // once, grouped by shard
+                ArrayList<Parameter> params = prepared.getParameters();
+                rowEntries = new IdentityHashMap<Row, Integer>();
+                for (int entry = 0, size = batchParameters.size(); entry < size; entry++) {
+                    Value[] set = batchParameters.get(entry);
+                    for (int i = 0; i < set.length; i++) {
+                        params.get(i).setValue(set[i]);
+                    }
+                    int start = values.size();
+                    evaluateRows(table, values);
+                    for (int i = start; i < values.size(); i++) {
+                        rowEntries.put(values.get(i), entry);
                     }
                 }
-                values.add(newRow);
             }
             prepareInsert(table, values);
         } else {
@@ -104,36 +124,143 @@ public class InsertExecutor extends ExecutionFramework implements ResultTarget {
         }
     }
 
+    private void evaluateRows(TableMate table, List<Row> values) {
+        ArrayList<Expression[]> list = prepared.getList();
+        Column[] columns = prepared.getColumns();
+        int columnLen = columns.length;
+        for (int x = 0, listSize = list.size(); x < listSize; x++) {
+            Row newRow = table.getTemplateRow();
+            Expression[] expr = list.get(x);
+            prepared.setCurrentRowNumber(x + 1);
+            for (int i = 0; i < columnLen; i++) {
+                Column c = columns[i];
+                int index = c.getColumnId();
+                Expression e = expr[i];
+                if (e != null) {
+                    // e can be null (DEFAULT)
+                    e = e.optimize(session);
+                    try {
+                        Value v = c.convert(e.getValue(session));
+                        newRow.setValue(index, v);
+                    } catch (DbException ex) {
+                        throw prepared.setRow(ex, x, Prepared.getSQL(expr));
+                    }
+                }
+            }
+            values.add(newRow);
+        }
+    }
+
     @Override
     public int doUpdate() {
         if (workers != null) {
-            return invokeUpdateWorker(workers);
+            return rowEntries == null ? invokeUpdateWorker(workers) : invokeBatchWorker();
         } else {
-            Query query = prepared.getQuery();
-            if (prepared.isInsertFromSelect()) {
-                query.query(0, this);
-            } else {
-                ResultInterface rows = query.query(0);
-                while (rows.next()) {
-                    Value[] r = rows.currentRow();
-                    addRow(r);
+            boolean success = false;
+            try {
+                Query query = prepared.getQuery();
+                // in a transaction the source query reads with the
+                // connections the rows are written to, so it is read to the
+                // end first
+                if (prepared.isInsertFromSelect() && session.getAutoCommit()) {
+                    query.query(0, this);
+                } else {
+                    ResultInterface rows = query.query(0);
+                    while (rows.next()) {
+                        Value[] r = rows.currentRow();
+                        addRow(r);
+                    }
+                    rows.close();
+                }
+                flushNewRows();
+                success = true;
+                return this.affectRows;
+            } finally {
+                if (!success) {
+                    cancelRunningFlushes();
                 }
-                rows.close();
             }
-            flushNewRows();
-            return this.affectRows;
         }
 
     }
 
+    /**
+     * Run the workers of a batch, and set the update count of each execution
+     * of the batch. An execution failed if a worker that writes one of its
+     * rows failed; the rows of the other executions are written even if the
+     * batch as a whole fails.
+     *
+     * @return the update count
+     */
+    private int invokeBatchWorker() {
+        List<Future<Integer>> futures = invokeAllUpdateWorker(workers);
+        BitSet failed = new BitSet();
+        DbException error = null;
+        int affectRows = 0;
+        for (int i = 0, size = futures.size(); i < size; i++) {
+            try {
+                affectRows += futures.get(i).get();
+                continue;
+            } catch (InterruptedException e) {
+                throw DbException.convert(e);
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = DbException.convert(e.getCause());
+                }
+            } catch (CancellationException e) {
+                // the query timeout is reached
+                if (error == null) {
+                    error = DbException.get(ErrorCode.STATEMENT_WAS_CANCELED);
+                }
+            }
+            failed.or(workerEntries.get(i));
+        }
+        int rowsPerEntry = prepared.getList().size();
+        int[] result = new int[prepared.getBatchParameters().size()];
+        for (int i = 0; i < result.length; i++) {
+            if (failed.get(i)) {
+                result[i] = Statement.EXECUTE_FAILED;
+            } else if (prepared.getDuplicateKeyAssignmentMap() != null) {
+                // ON DUPLICATE KEY UPDATE counts updated rows twice
+                result[i] = Statement.SUCCESS_NO_INFO;
+            } else {
+                result[i] = rowsPerEntry;
+            }
+        }
+        prepared.setBatchResult(result);
+        if (error != null) {
+            throw error;
+        }
+        session.checkCanceled();
+        return affectRows;
+    }
+
     private void prepareInsert(TableMate table, List<Row> rows) {
         session.checkCanceled();
         Map<ObjectNode, List<Row>> batches = batchForRoutingNode(table, rows);
         workers = New.arrayList(batches.size());
+        if (rowEntries != null) {
+            workerEntries = New.arrayList(batches.size());
+        }
         for (Map.Entry<ObjectNode, List<Row>> item : batches.entrySet()) {
-            Row[] values = item.getValue().toArray(new Row[item.getValue().size()]);
-            UpdateWorker worker = queryHandlerFactory.createUpdateWorker(prepared, item.getKey(), values);
-            workers.add(worker);
+            createWorkers(item.getKey(), item.getValue(), workers);
+        }
+    }
+
+    private void createWorkers(ObjectNode node, List<Row> rows, List<UpdateWorker> result) {
+        int columnCount = Math.max(1, prepared.getColumns().length);
+        int maxRows = Math.max(1, Math.min(MAX_STATEMENT_ROWS, MAX_STATEMENT_PARAMETERS / columnCount));
+        for (int i = 0, size = rows.size(); i < size; i += maxRows) {
+            List<Row> part = rows.subList(i, Math.min(size, i + maxRows));
+            Row[] values = part.toArray(new Row[part.size()]);
+            result.add(queryHandlerFactory.createUpdateWorker(prepared, node, values));
+            if (workerEntries != null) {
+                BitSet entries = new BitSet();
+                for (Row row : values) {
+                    entries.set(rowEntries.get(row));
+                }
+                workerEntries.add(entries);
+            }
         }
     }
 
@@ -153,7 +280,7 @@ public class InsertExecutor extends ExecutionFramework implements ResultTarget {
                 throw prepared.setRow(ex, rowNumber, Prepared.getSQL(values));
             }
         }
-        addNewRowFlushIfNeed(newRow);
+        addNewRowFlushIfNeed(table, newRow);
     }
 
     @Override
@@ -161,26 +288,104 @@ public class InsertExecutor extends ExecutionFramework implements ResultTarget {
         return rowNumber;
     }
 
-
-    private synchronized void addNewRowFlushIfNeed(Row newRow) {
-        newRows.add(newRow);
-        if (newRows.size() >= QUERY_FLUSH_THRESHOLD) {
-            flushNewRows();
+    /**
+     * Buffer the row for each shard node it is routed to. A full buffer is
+     * written asynchronously, so the source query keeps producing rows while
+     * the shards are written. Each node has at most one write in flight; if
+     * the previous write of a node is still running when the next buffer is
+     * full, the source waits for it, and the batch size of the node is
+     * doubled to save round trips. The rows buffered and in flight for all
+     * nodes together are limited to MAX_MEMORY_ROWS.
+     */
+    private synchronized void addNewRowFlushIfNeed(TableMate table, Row newRow) {
+        for (ObjectNode node : routeRow(table, newRow)) {
+            List<Row> rows = pendingRows.get(node);
+            if (rows == null) {
+                rows = New.arrayList(10);
+                pendingRows.put(node, rows);
+            }
+            rows.add(newRow);
+            bufferedRows++;
+            Integer batchSize = batchSizes.get(node);
+            if (rows.size() >= (batchSize == null ? database.getSettings().insertBatchSize : batchSize)) {
+                pendingRows.remove(node);
+                flushNode(node, rows);
+            }
+        }
+        int maxRows = database.getMaxMemoryRows();
+        while (bufferedRows > maxRows) {
+            if (!runningFlushes.isEmpty()) {
+                awaitFlush(runningFlushes.keySet().iterator().next());
+                continue;
+            }
+            ObjectNode largest = null;
+            for (Map.Entry<ObjectNode, List<Row>> item : pendingRows.entrySet()) {
+                if (largest == null || item.getValue().size() > pendingRows.get(largest).size()) {
+                    largest = item.getKey();
+                }
+            }
+            flushNode(largest, pendingRows.remove(largest));
         }
     }
 
     private synchronized void flushNewRows() {
-        try {
-            TableMate table = toTableMate(prepared.getTable());
-            if (newRows.isEmpty()) {
-                return;
+        for (Map.Entry<ObjectNode, List<Row>> item : pendingRows.entrySet()) {
+            flushNode(item.getKey(), item.getValue());
+        }
+        pendingRows.clear();
+        for (ObjectNode node : New.arrayList(runningFlushes.keySet())) {
+            awaitFlush(node);
+        }
+    }
+
+    private void flushNode(ObjectNode node, List<Row> rows) {
+        session.checkCanceled();
+        Future<Integer> running = runningFlushes.get(node);
+        if (running != null) {
+            if (!running.isDone()) {
+                int batchSize = Math.max(rows.size(), database.getSettings().insertBatchSize);
+                batchSizes.put(node, Math.min(MAX_STATEMENT_ROWS, batchSize * 2));
+            }
+            awaitFlush(node);
+        }
+        final List<UpdateWorker> nodeWorkers = New.arrayList(1);
+        createWorkers(node, rows, nodeWorkers);
+        runningFlushRows.put(node, rows.size());
+        runningFlushes.put(node, queryExecutor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                int count = 0;
+                for (UpdateWorker worker : nodeWorkers) {
+                    count += worker.executeUpdate();
+                }
+                return count;
             }
-            prepareInsert(table, newRows);
-            affectRows += invokeUpdateWorker(workers);
-        } finally {
-            newRows.clear();
+        }));
+    }
+
+    private void awaitFlush(ObjectNode node) {
+        Future<Integer> running = runningFlushes.remove(node);
+        if (running == null) {
+            return;
         }
+        bufferedRows -= runningFlushRows.remove(node);
+        try {
+            affectRows += running.get();
+        } catch (InterruptedException e) {
+            throw DbException.convert(e);
+        } catch (ExecutionException e) {
+            throw DbException.convert(e.getCause());
+        }
+    }
 
+    private synchronized void cancelRunningFlushes() {
+        for (Future<Integer> running : runningFlushes.values()) {
+            running.cancel(true);
+        }
+        runningFlushes.clear();
+        runningFlushRows.clear();
+        pendingRows.clear();
+        bufferedRows = 0;
     }
 
     @Override
@@ -40,6 +40,7 @@ import com.openddal.value.Value;
 public class UpdateExecutor extends ExecutionFramework {
 
     private List<UpdateWorker> workers;
+    private RoutingResult routing;
     private boolean alwaysFalse;
     private Update prepared;
 
@@ -84,8 +85,9 @@ public class UpdateExecutor extends ExecutionFramework {
         ConditionExtractor extractor = new ConditionExtractor(tableFilter);
         alwaysFalse = extractor.isAlwaysFalse();
         if(!alwaysFalse) {
-            RoutingResult rr = routingHandler.doRoute(table, 
+            RoutingResult rr = routingHandler.doRouteForUpdate(table,
                     extractor.getStart(),extractor.getEnd(), extractor.getInColumns());
+            routing = rr;
             ObjectNode[] selectNodes = rr.getSelectNodes();
             workers = New.arrayList(selectNodes.length);
             for (ObjectNode objectNode : selectNodes) {
@@ -110,7 +112,7 @@ public class UpdateExecutor extends ExecutionFramework {
         if(this.alwaysFalse) {
             return "always false statement";
         }
-        return explainForWorker(workers);
+        return explainForWorker(workers, routing);
     }
 
 
@@ -34,6 +34,7 @@ public class WorkerFactoryProxy implements WorkerFactory {
 
     private final WorkerFactory target;
     private final Set<Worker> workerHolder = New.hashSet();
+    private int workerCount;
 
     public WorkerFactoryProxy(Session session) {
         this.target = session.getDatabase().getRepository().getWorkerFactory();
@@ -54,6 +55,14 @@ public class WorkerFactoryProxy implements WorkerFactory {
         return handler;
     }
 
+    @Override
+    public QueryWorker createQueryWorker(Column[] searchColumns, TableFilter filter, Expression condition,
+            ObjectNode node, Integer limit) {
+        QueryWorker handler = target.createQueryWorker(searchColumns, filter, condition, node, limit);
+        handler = holdeWorker(handler);
+        return handler;
+    }
+
     @Override
     public QueryWorker createQueryWorker(Call call, ObjectNode node) {
         QueryWorker handler = target.createQueryWorker(call, node);
@@ -175,6 +184,7 @@ public class WorkerFactoryProxy implements WorkerFactory {
             }
         }
         workerHolder.clear();
+        workerCount = 0;
     }
 
     public synchronized void cancelWorkers() {
@@ -190,9 +200,20 @@ public class WorkerFactoryProxy implements WorkerFactory {
     public synchronized boolean hasHoldeWorker() {
         return !workerHolder.isEmpty();
     }
+
+    /**
+     * Get the number of workers created since the workers were last closed,
+     * that is the number of shard statements of the current statement.
+     *
+     * @return the number of workers
+     */
+    public synchronized int getWorkerCount() {
+        return workerCount;
+    }
     
     private synchronized <T extends Worker> T holdeWorker(T target) {
         workerHolder.add(target);
+        workerCount++;
         return target;
     }
 
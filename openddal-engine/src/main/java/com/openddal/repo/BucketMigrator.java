@@ -0,0 +1,561 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.repo;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.openddal.config.ShardedTableRule;
+import com.openddal.dbobject.table.Column;
+import com.openddal.dbobject.table.TableMate;
+import com.openddal.engine.Database;
+import com.openddal.message.DbException;
+import com.openddal.message.ErrorCode;
+import com.openddal.message.Trace;
+import com.openddal.route.algorithm.VirtualBucketPartitioner;
+import com.openddal.route.rule.ObjectNode;
+import com.openddal.util.JdbcUtils;
+import com.openddal.util.New;
+import com.openddal.util.StatementBuilder;
+import com.openddal.value.DataType;
+import com.openddal.value.Value;
+import com.openddal.value.ValueNull;
+
+/**
+ * Moves a bucket of a {@link VirtualBucketPartitioner} to another node while
+ * the tables stay online. The rows of the bucket are copied from the old
+ * node to a staging table next to each table on the new node, in chunks of
+ * rows in the order of the primary key. Meanwhile only the writes of the
+ * bucket wait; the reads of the bucket and all other statements go on, and
+ * the queries still read the bucket from the old node, as the staging table
+ * is not seen by them. If the whole old node is written meanwhile, the copy
+ * is repeated.
+ * <p>
+ * Then the migrator blocks the bucket and both nodes for the cut over: the
+ * rows are moved from the staging table into the table on the new node, the
+ * bucket is mapped to the new node, and the rows are removed from the old
+ * node by the keys of the staging table. This takes as long as moving the
+ * rows of the bucket, not as long as scanning the old node. The new mapping
+ * is written to the mapping file of the partitioner before it is used;
+ * without a file it is only logged, and lost on restart.
+ * <p>
+ * If the copy or the move fails, the bucket stays on the old node. If the
+ * rows can not be removed from the old node, the bucket and its staging
+ * table are recorded, and the removal is retried when the bucket is moved
+ * the next time, for example with the same statement again. Until then the
+ * queries of the whole old node see these rows as well.
+ * <p>
+ * The waits for the holds are bounded by the lock timeout of the migrator,
+ * which should be shorter than the lock timeout of the partitioner: a
+ * transaction that holds rows and waits for the migration is released when
+ * the migrator gives up. The tables need a primary key.
+ * <p>
+ * The statement ALTER TABLE tableName MOVE BUCKET bucket TO nodeIndex runs
+ * the migrator for all tables of the partitioner of the table.
+ *
+ * @author jorgie.li
+ */
+public class BucketMigrator implements Callable<Long> {
+
+    private final JdbcRepository repository;
+    private final Database database;
+    private final Trace trace;
+    private final List<TableMate> tables;
+    private final VirtualBucketPartitioner partitioner;
+    private final int bucket;
+    private final int target;
+    private int chunkSize = 1000;
+    private int lockTimeout = 5000;
+    private int copyAttempts = 3;
+
+    /**
+     * Create a migrator.
+     *
+     * @param repository the repository
+     * @param tables all tables that use the partitioner
+     * @param bucket the bucket to move
+     * @param target the index of the node to move to
+     */
+    public BucketMigrator(JdbcRepository repository, List<TableMate> tables, int bucket, int target) {
+        if (tables.isEmpty()) {
+            throw new IllegalArgumentException("no tables to migrate");
+        }
+        Object p = ((ShardedTableRule) tables.get(0).getTableRule()).getPartitioner();
+        if (!(p instanceof VirtualBucketPartitioner)) {
+            throw new IllegalArgumentException(tables.get(0).getName() + " does not use virtual buckets");
+        }
+        for (TableMate table : tables) {
+            if (((ShardedTableRule) table.getTableRule()).getPartitioner() != p) {
+                throw new IllegalArgumentException(table.getName() + " uses another partitioner");
+            }
+            if (table.getRuleColumns().length != 1) {
+                throw new IllegalArgumentException(table.getName() + " has more than one rule column");
+            }
+            // fail early if there is none
+            table.getPrimaryKey();
+        }
+        this.repository = repository;
+        this.database = repository.getDatabase();
+        this.trace = repository.getTrace();
+        this.tables = tables;
+        this.partitioner = (VirtualBucketPartitioner) p;
+        this.bucket = bucket;
+        this.target = target;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public void setLockTimeout(int lockTimeout) {
+        this.lockTimeout = lockTimeout;
+    }
+
+    public void setCopyAttempts(int copyAttempts) {
+        this.copyAttempts = copyAttempts;
+    }
+
+    /**
+     * Move the bucket. The rows left on the old node by an earlier move are
+     * removed first.
+     *
+     * @return the number of rows moved
+     */
+    @Override
+    public Long call() throws SQLException {
+        purgePending();
+        int source = partitioner.getNodeIndex(bucket);
+        if (source == target) {
+            return 0L;
+        }
+        if (!partitioner.startMigration(bucket, target, lockTimeout)) {
+            throw DbException.get(ErrorCode.LOCK_TIMEOUT_1, tables.get(0).getName());
+        }
+        List<TableMate> moved = New.arrayList();
+        boolean cutOver = false;
+        try {
+            for (TableMate table : tables) {
+                createStaging(table);
+            }
+            long rows = 0;
+            for (int attempt = 1;; attempt++) {
+                partitioner.startCopy(bucket);
+                rows = copy(source);
+                if (partitioner.startCutOver(bucket, lockTimeout)) {
+                    if (!partitioner.isDirty(bucket)) {
+                        break;
+                    }
+                    if (attempt >= copyAttempts) {
+                        // the old node is written all the time, so copy
+                        // the bucket again while it is blocked
+                        rows = copy(source);
+                        break;
+                    }
+                    partitioner.cancelCutOver(bucket);
+                } else if (attempt >= copyAttempts) {
+                    throw DbException.get(ErrorCode.LOCK_TIMEOUT_1, tables.get(0).getName());
+                }
+            }
+            for (TableMate table : tables) {
+                moved.add(table);
+                move(table);
+            }
+            partitioner.cutOver(bucket);
+            cutOver = true;
+            trace.info("bucket {0} cut over from node {1} to node {2}, {3} rows moved", bucket, source, target, rows);
+            if (partitioner.getMappingFile() == null) {
+                trace.error(null, "the bucket mapping is not saved, set bucketMapping to {0}",
+                        partitioner.getBucketMapping());
+            }
+            purge(source, target);
+            return rows;
+        } finally {
+            if (!cutOver) {
+                undo(moved);
+            }
+            partitioner.endMigration(bucket);
+        }
+    }
+
+    /**
+     * Remove the rows of the bucket that an earlier move left on the old
+     * node, using the keys in the staging tables on the new node.
+     */
+    private void purgePending() throws SQLException {
+        int node = partitioner.getPurgeNode(bucket);
+        if (node >= 0) {
+            purge(node, partitioner.getNodeIndex(bucket));
+        }
+    }
+
+    private void purge(int source, int owner) throws SQLException {
+        try {
+            for (TableMate table : tables) {
+                ObjectNode[] nodes = getNodes(table);
+                ObjectNode staging = getStaging(nodes[owner]);
+                Connection stagingConn = getConnection(nodes[owner]);
+                try {
+                    Connection conn = getConnection(nodes[source]);
+                    try {
+                        deleteByStagingKeys(table, stagingConn, staging, conn, nodes[source], true);
+                    } finally {
+                        JdbcUtils.closeSilently(conn);
+                    }
+                    execute(stagingConn, "DROP TABLE IF EXISTS " + identifier(staging.getCompositeObjectName()));
+                } finally {
+                    JdbcUtils.closeSilently(stagingConn);
+                }
+            }
+        } catch (SQLException e) {
+            trace.error(e, "can not remove the rows of bucket {0} from node {1}, they are removed"
+                    + " when the bucket is moved again", bucket, source);
+            throw e;
+        }
+        partitioner.purged(bucket);
+    }
+
+    private void undo(List<TableMate> moved) {
+        for (TableMate table : tables) {
+            ObjectNode[] nodes = getNodes(table);
+            ObjectNode staging = getStaging(nodes[target]);
+            try {
+                Connection conn = getConnection(nodes[target]);
+                try {
+                    if (moved.contains(table)) {
+                        deleteByStagingKeys(table, conn, staging, conn, nodes[target], true);
+                    }
+                    execute(conn, "DROP TABLE IF EXISTS " + identifier(staging.getCompositeObjectName()));
+                } finally {
+                    JdbcUtils.closeSilently(conn);
+                }
+            } catch (Exception e) {
+                trace.error(e, "can not remove the copied rows of bucket {0} of {1} from node {2}", bucket,
+                        table.getName(), target);
+            }
+        }
+    }
+
+    private void createStaging(TableMate table) throws SQLException {
+        ObjectNode node = getNodes(table)[target];
+        String tableName = identifier(node.getCompositeObjectName());
+        String stagingName = identifier(getStaging(node).getCompositeObjectName());
+        StatementBuilder buff = new StatementBuilder("ALTER TABLE ");
+        buff.append(stagingName).append(" ADD PRIMARY KEY(");
+        for (Column c : table.getPrimaryKey().getColumns()) {
+            buff.appendExceptFirst(", ");
+            buff.append(identifier(c.getName()));
+        }
+        buff.append(')');
+        Connection conn = getConnection(node);
+        try {
+            execute(conn, "DROP TABLE IF EXISTS " + stagingName);
+            execute(conn, "CREATE TABLE " + stagingName + " AS SELECT * FROM " + tableName + " WHERE 1=0");
+            execute(conn, buff.toString());
+        } finally {
+            JdbcUtils.closeSilently(conn);
+        }
+    }
+
+    private long copy(int source) throws SQLException {
+        long rows = 0;
+        for (TableMate table : tables) {
+            rows += copy(table, source);
+        }
+        return rows;
+    }
+
+    private long copy(TableMate table, int source) throws SQLException {
+        ObjectNode[] nodes = getNodes(table);
+        Column[] columns = table.getColumns();
+        Column[] keys = table.getPrimaryKey().getColumns();
+        Column ruleColumn = table.getRuleColumns()[0];
+        String stagingName = identifier(getStaging(nodes[target]).getCompositeObjectName());
+        String firstPage = getScanSQL(nodes[source], columns, keys, false);
+        String nextPage = getScanSQL(nodes[source], columns, keys, true);
+        Connection sourceConn = getConnection(nodes[source]);
+        Connection targetConn = null;
+        PreparedStatement ins = null;
+        try {
+            targetConn = getConnection(nodes[target]);
+            targetConn.setAutoCommit(false);
+            // an earlier copy of a dirty bucket
+            execute(targetConn, "DELETE FROM " + stagingName);
+            ins = targetConn.prepareStatement(getInsertSQL(stagingName, columns));
+            long rows = 0;
+            Value[] last = null;
+            Value[] row = new Value[columns.length];
+            int count;
+            do {
+                PreparedStatement scan = prepareScan(sourceConn, last == null ? firstPage : nextPage, last);
+                try {
+                    ResultSet rs = scan.executeQuery();
+                    for (count = 0; rs.next(); count++) {
+                        for (int i = 0; i < columns.length; i++) {
+                            row[i] = DataType.readValue(rs, i + 1, columns[i].getType());
+                        }
+                        last = new Value[keys.length];
+                        for (int i = 0; i < keys.length; i++) {
+                            last[i] = row[keys[i].getColumnId()];
+                        }
+                        if (!inBucket(ruleColumn, row[ruleColumn.getColumnId()])) {
+                            continue;
+                        }
+                        for (int i = 0; i < columns.length; i++) {
+                            row[i].set(ins, i + 1);
+                        }
+                        ins.addBatch();
+                        rows++;
+                    }
+                } finally {
+                    JdbcUtils.closeSilently(scan);
+                }
+                flush(targetConn, ins);
+            } while (count == chunkSize);
+            return rows;
+        } catch (SQLException e) {
+            rollbackSilently(targetConn);
+            throw e;
+        } finally {
+            JdbcUtils.closeSilently(ins);
+            JdbcUtils.closeSilently(targetConn);
+            JdbcUtils.closeSilently(sourceConn);
+        }
+    }
+
+    /**
+     * Move the rows of the staging table into the table, in one transaction.
+     * Rows with the same key, left by a move that was interrupted, are
+     * replaced.
+     */
+    private void move(TableMate table) throws SQLException {
+        ObjectNode node = getNodes(table)[target];
+        ObjectNode staging = getStaging(node);
+        Column[] columns = table.getColumns();
+        StatementBuilder buff = new StatementBuilder("INSERT INTO ");
+        buff.append(identifier(node.getCompositeObjectName())).append('(');
+        for (Column c : columns) {
+            buff.appendExceptFirst(", ");
+            buff.append(identifier(c.getName()));
+        }
+        buff.append(") SELECT ");
+        buff.resetCount();
+        for (Column c : columns) {
+            buff.appendExceptFirst(", ");
+            buff.append(identifier(c.getName()));
+        }
+        buff.append(" FROM ").append(identifier(staging.getCompositeObjectName()));
+        Connection conn = getConnection(node);
+        try {
+            conn.setAutoCommit(false);
+            deleteByStagingKeys(table, conn, staging, conn, node, false);
+            execute(conn, buff.toString());
+            conn.commit();
+        } catch (SQLException e) {
+            rollbackSilently(conn);
+            throw e;
+        } finally {
+            JdbcUtils.closeSilently(conn);
+        }
+    }
+
+    /**
+     * Delete the rows with the keys of the staging table from a table.
+     *
+     * @param commit whether to commit each chunk, else the caller commits
+     */
+    private void deleteByStagingKeys(TableMate table, Connection stagingConn, ObjectNode staging,
+            Connection conn, ObjectNode node, boolean commit) throws SQLException {
+        Column[] keys = table.getPrimaryKey().getColumns();
+        String firstPage = getScanSQL(staging, keys, keys, false);
+        String nextPage = getScanSQL(staging, keys, keys, true);
+        PreparedStatement del = null;
+        try {
+            if (commit) {
+                conn.setAutoCommit(false);
+            }
+            del = conn.prepareStatement(getDeleteSQL(identifier(node.getCompositeObjectName()), keys));
+            Value[] last = null;
+            int count;
+            do {
+                PreparedStatement scan = prepareScan(stagingConn, last == null ? firstPage : nextPage, last);
+                try {
+                    ResultSet rs = scan.executeQuery();
+                    for (count = 0; rs.next(); count++) {
+                        last = new Value[keys.length];
+                        for (int i = 0; i < keys.length; i++) {
+                            last[i] = DataType.readValue(rs, i + 1, keys[i].getType());
+                            last[i].set(del, i + 1);
+                        }
+                        del.addBatch();
+                    }
+                } finally {
+                    JdbcUtils.closeSilently(scan);
+                }
+                del.executeBatch();
+                if (commit) {
+                    conn.commit();
+                }
+            } while (count == chunkSize);
+        } catch (SQLException e) {
+            if (commit) {
+                rollbackSilently(conn);
+            }
+            throw e;
+        } finally {
+            JdbcUtils.closeSilently(del);
+        }
+    }
+
+    /**
+     * Get the staging table of the bucket next to a table.
+     */
+    private ObjectNode getStaging(ObjectNode node) {
+        String suffix = node.getSuffix() == null ? "" : node.getSuffix();
+        return new ObjectNode(node.getShardName(), node.getCatalog(), node.getSchema(), node.getObjectName(),
+                suffix + "_bucket" + bucket);
+    }
+
+    private static ObjectNode[] getNodes(TableMate table) {
+        return ((ShardedTableRule) table.getTableRule()).getObjectNodes();
+    }
+
+    private String getInsertSQL(String tableName, Column[] columns) {
+        StatementBuilder buff = new StatementBuilder("INSERT INTO ");
+        buff.append(tableName).append('(');
+        for (Column c : columns) {
+            buff.appendExceptFirst(", ");
+            buff.append(identifier(c.getName()));
+        }
+        buff.append(") VALUES(");
+        buff.resetCount();
+        for (int i = 0; i < columns.length; i++) {
+            buff.appendExceptFirst(", ");
+            buff.append('?');
+        }
+        buff.append(')');
+        return buff.toString();
+    }
+
+    private static void execute(Connection conn, String sql) throws SQLException {
+        Statement stmt = conn.createStatement();
+        try {
+            stmt.executeUpdate(sql);
+        } finally {
+            JdbcUtils.closeSilently(stmt);
+        }
+    }
+
+    /**
+     * Get the query of a page of rows, in the order of the primary key. Not
+     * all drivers stream a result with a fetch size, so the rows are read in
+     * pages of the chunk size, each page after the last key of the page
+     * before.
+     */
+    private String getScanSQL(ObjectNode node, Column[] columns, Column[] keys, boolean next) {
+        StatementBuilder buff = new StatementBuilder("SELECT ");
+        for (Column c : columns) {
+            buff.appendExceptFirst(", ");
+            buff.append(identifier(c.getName()));
+        }
+        buff.append(" FROM ").append(identifier(node.getCompositeObjectName()));
+        if (next) {
+            // (k1, k2) > (?, ?) as k1 > ? OR k1 = ? AND k2 > ?, which can use
+            // the index on all databases
+            buff.append(" WHERE ");
+            buff.resetCount();
+            for (int i = 0; i < keys.length; i++) {
+                buff.appendExceptFirst(" OR ");
+                buff.append('(');
+                for (int j = 0; j < i; j++) {
+                    buff.append(identifier(keys[j].getName())).append("=? AND ");
+                }
+                buff.append(identifier(keys[i].getName())).append(">?)");
+            }
+        }
+        buff.append(" ORDER BY ");
+        buff.resetCount();
+        for (Column c : keys) {
+            buff.appendExceptFirst(", ");
+            buff.append(identifier(c.getName()));
+        }
+        buff.append(" LIMIT ").append(chunkSize);
+        return buff.toString();
+    }
+
+    private static PreparedStatement prepareScan(Connection conn, String sql, Value[] last) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(sql);
+        if (last != null) {
+            int index = 1;
+            for (int i = 0; i < last.length; i++) {
+                for (int j = 0; j <= i; j++) {
+                    last[j].set(stmt, index++);
+                }
+            }
+        }
+        return stmt;
+    }
+
+    private boolean inBucket(Column ruleColumn, Value v) {
+        v = ruleColumn.convert(v);
+        // null values are routed to the default node, not to a bucket
+        return v != null && v != ValueNull.INSTANCE && partitioner.getBucket(v) == bucket;
+    }
+
+    private String getDeleteSQL(String tableName, Column[] keys) {
+        StatementBuilder buff = new StatementBuilder("DELETE FROM ");
+        buff.append(tableName).append(" WHERE ");
+        for (Column c : keys) {
+            buff.appendExceptFirst(" AND ");
+            buff.append(identifier(c.getName())).append("=?");
+        }
+        return buff.toString();
+    }
+
+    private static void flush(Connection conn, PreparedStatement... statements) throws SQLException {
+        for (PreparedStatement stmt : statements) {
+            stmt.executeBatch();
+        }
+        conn.commit();
+    }
+
+    private Connection getConnection(ObjectNode node) {
+        try {
+            return repository.getDataSourceByShardName(node.getShardName()).getConnection();
+        } catch (SQLException e) {
+            throw DbException.convert(e);
+        }
+    }
+
+    private String identifier(String identifier) {
+        return database.identifier(identifier);
+    }
+
+    private static void rollbackSilently(Connection conn) {
+        if (conn != null) {
+            try {
+                conn.rollback();
+            } catch (SQLException e) {
+                // ignore
+            }
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.repo;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+
+import com.openddal.engine.Session;
+import com.openddal.executor.works.UpdateWorker;
+import com.openddal.util.JdbcUtils;
+import com.openddal.util.StatementBuilder;
+import com.openddal.value.Value;
+
+/**
+ * An update worker that executes statements of the same shape with many
+ * sets of parameters. Each statement is prepared once on the shard, all
+ * its parameter sets are added with addBatch and sent with executeBatch.
+ * With rewriteBatchedStatements=true, MySQL Connector/J sends such a batch
+ * of inserts as multi-value inserts.
+ *
+ * @author jorgie.li
+ */
+public class JdbcBatchUpdateWorker extends JdbcWorker implements UpdateWorker {
+
+    private final Map<String, List<List<Value>>> batches;
+    private Connection conn = null;
+    private PreparedStatement stmt = null;
+
+    /**
+     * @param session the session
+     * @param shardName the shard to execute on
+     * @param batches the parameter sets of each statement, in the order
+     *            the statements are executed
+     */
+    public JdbcBatchUpdateWorker(Session session, String shardName, Map<String, List<List<Value>>> batches) {
+        super(session, shardName, batches.keySet().iterator().next(), null);
+        this.batches = batches;
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        return executeUpdate();
+    }
+
+    @Override
+    public int executeUpdate() {
+        String sql = null;
+        try {
+            conn = borrowConnection();
+            int rows = 0;
+            for (Map.Entry<String, List<List<Value>>> batch : batches.entrySet()) {
+                sql = batch.getKey();
+                if (trace.isDebugEnabled()) {
+                    trace.debug("{0} Preparing: {1};", shardName, sql);
+                }
+                stmt = prepareStatement(conn, sql);
+                applyQueryTimeout(stmt);
+                for (List<Value> params : batch.getValue()) {
+                    for (int i = 0, size = params.size(); i < size; i++) {
+                        params.get(i).set(stmt, i + 1);
+                    }
+                    stmt.addBatch();
+                }
+                int[] counts = stmt.executeBatch();
+                for (int count : counts) {
+                    // the driver may not know the count of a rewritten batch
+                    rows += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+                }
+                if (trace.isDebugEnabled()) {
+                    trace.debug("{0} executeBatch: {1} statements, {2} affected.", shardName, counts.length, rows);
+                }
+                releaseStatement(sql, stmt, true);
+                stmt = null;
+            }
+            return rows;
+        } catch (SQLException e) {
+            throw wrapException("executeBatch", shardName, sql, e);
+        } finally {
+            close();
+        }
+    }
+
+    public void cancel() {
+        try {
+            if (stmt != null) {
+                stmt.cancel();
+            }
+        } catch (Exception e) {
+            trace.error(e, "cancel worker error.");
+        }
+    }
+
+    public void close() {
+        JdbcUtils.closeSilently(stmt);
+        returnConnection(conn);
+        stmt = null;
+        conn = null;
+    }
+
+    @Override
+    public String explain() {
+        StatementBuilder buff = new StatementBuilder();
+        buff.append("execute batch on ").append(shardName);
+        for (Map.Entry<String, List<List<Value>>> batch : batches.entrySet()) {
+            buff.append("\n    ").append(batch.getKey());
+            buff.append(" batch size: ").append(batch.getValue().size());
+        }
+        return buff.toString();
+    }
+
+}
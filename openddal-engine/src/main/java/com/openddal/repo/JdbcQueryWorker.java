@@ -25,6 +25,8 @@ import com.openddal.engine.Session;
 import com.openddal.executor.cursor.Cursor;
 import com.openddal.executor.cursor.ResultCursor;
 import com.openddal.executor.works.QueryWorker;
+import com.openddal.message.DbException;
+import com.openddal.message.ErrorCode;
 import com.openddal.util.JdbcUtils;
 import com.openddal.util.StatementBuilder;
 import com.openddal.value.Value;
@@ -38,6 +40,8 @@ public class JdbcQueryWorker extends JdbcWorker implements QueryWorker {
     private Connection conn;
     private PreparedStatement stmt;
     private ResultSet set;
+    private boolean closed;
+    private boolean executing;
     
     public JdbcQueryWorker(Session session, String shardName, String sql, List<Value> params) {
         super(session, shardName, sql, params);
@@ -54,21 +58,52 @@ public class JdbcQueryWorker extends JdbcWorker implements QueryWorker {
             if (trace.isDebugEnabled()) {
                 trace.debug("{0} Preparing: {1};", shardName, sql);
             }
-            conn = borrowConnection();
-            stmt = conn.prepareStatement(sql);
-            applyQueryTimeout(stmt);
-            if (params != null) {
-                for (int i = 0, size = params.size(); i < size; i++) {
-                    Value v = params.get(i);
-                    v.set(stmt, i + 1);
-                    if (trace.isDebugEnabled()) {
-                        trace.debug("{0} setParameter: {1} -> {2};", shardName, i + 1, v.getSQL());
+            // the worker may be closed by the statement end while it is still
+            // waiting in the executor, when the rows of other shards were enough
+            synchronized (this) {
+                if (closed) {
+                    throw DbException.get(ErrorCode.STATEMENT_WAS_CANCELED);
+                }
+                conn = borrowConnection();
+                stmt = prepareStatement(conn, sql);
+                executing = true;
+            }
+            ResultSet rs = null;
+            boolean canceled;
+            try {
+                applyQueryTimeout(stmt);
+                if (params != null) {
+                    for (int i = 0, size = params.size(); i < size; i++) {
+                        Value v = params.get(i);
+                        v.set(stmt, i + 1);
+                        if (trace.isDebugEnabled()) {
+                            trace.debug("{0} setParameter: {1} -> {2};", shardName, i + 1, v.getSQL());
+                        }
+                    }
+                }
+                rs = stmt.executeQuery();
+            } finally {
+                // a close while the query was running only canceled it, the
+                // connection is released here once the driver gave it back
+                synchronized (this) {
+                    executing = false;
+                    set = rs;
+                    canceled = closed;
+                    if (canceled) {
+                        release(false);
                     }
                 }
             }
-            set = stmt.executeQuery();
-            return new ResultCursor(session, set);
+            if (canceled) {
+                throw DbException.get(ErrorCode.STATEMENT_WAS_CANCELED);
+            }
+            return new ResultCursor(session, rs);
         } catch (SQLException e) {
+            synchronized (this) {
+                if (closed) {
+                    throw DbException.get(ErrorCode.STATEMENT_WAS_CANCELED);
+                }
+            }
             close();
             StatementBuilder buff = new StatementBuilder();
             buff.append(sql);
@@ -88,24 +123,43 @@ public class JdbcQueryWorker extends JdbcWorker implements QueryWorker {
 
     }
 
-    public void cancel() {
+    public synchronized void cancel() {
+        if (executing) {
+            cancelStatement();
+        }
+    }
+
+    public synchronized void close() {
+        closed = true;
+        if (executing) {
+            // the connection must not go back to the pool while the query is
+            // still running on it, the executing thread releases it
+            cancelStatement();
+            return;
+        }
+        release(set != null);
+    }
+
+    /**
+     * Cancel the running statement. This is called with the lock held, so
+     * the connection can not be returned to the pool and reused by someone
+     * else in the meantime.
+     */
+    private void cancelStatement() {
         try {
-            if (stmt == null) {
-                stmt.cancel();
-            }
+            stmt.cancel();
         } catch (Exception e) {
             trace.error(e, "cancel worker error.");
         }
     }
 
-    public void close() {
+    private void release(boolean reusable) {
         JdbcUtils.closeSilently(set);
-        JdbcUtils.closeSilently(stmt);
+        releaseStatement(sql, stmt, reusable);
         returnConnection(conn);
         set = null;
         stmt = null;
         conn = null;
     }
 
-
 }
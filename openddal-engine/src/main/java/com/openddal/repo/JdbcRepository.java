@@ -20,7 +20,9 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -46,6 +48,7 @@ import com.openddal.message.ErrorCode;
 import com.openddal.message.Trace;
 import com.openddal.repo.ha.DataSourceMarker;
 import com.openddal.repo.ha.Failover;
+import com.openddal.repo.ha.SmartConnection;
 import com.openddal.repo.ha.SmartDataSource;
 import com.openddal.repo.tx.JdbcTransaction;
 import com.openddal.util.JdbcUtils;
@@ -64,6 +67,7 @@ public abstract class JdbcRepository implements Repository, ConnectionProvider {
 
     private final HashMap<String, DataSource> shardMaping = New.hashMap();
     private final HashMap<String, DataSource> idMapping = New.hashMap();
+    private final ConcurrentMap<Connection, StatementCache> statementCaches = New.concurrentHashMap();
 
     private Database database;
     private String defaultShardName;
@@ -72,6 +76,8 @@ public abstract class JdbcRepository implements Repository, ConnectionProvider {
     private String validationQuery;
     private int validationQueryTimeout;
     private ScheduledExecutorService scheduledExecutor;
+    private int statementCacheSize;
+    private int statementCachePruneSize = 16;
 
     public void init(Database database) {
         // database not init completed
@@ -80,6 +86,7 @@ public abstract class JdbcRepository implements Repository, ConnectionProvider {
         this.defaultShardName = configuration.publicDB;
         this.validationQuery = database.getSettings().validationQuery;
         this.validationQueryTimeout = database.getSettings().validationQueryTimeout;
+        this.statementCacheSize = database.getSettings().statementCacheSize;
         this.dataSourceProvider = configuration.provider;
         if (dataSourceProvider == null) {
             throw new IllegalArgumentException();
@@ -88,8 +95,8 @@ public abstract class JdbcRepository implements Repository, ConnectionProvider {
         for (Shard shardItem : configuration.cluster) {
             List<ShardItem> shardItems = shardItem.getShardItems();
             List<DataSourceMarker> shardDs = New.arrayList(shardItems.size());
-            DataSourceMarker dsMarker = new DataSourceMarker();
             for (ShardItem i : shardItems) {
+                DataSourceMarker dsMarker = new DataSourceMarker();
                 String ref = i.getRef();
                 DataSource dataSource = dataSourceProvider.lookup(ref);
                 if (dataSource == null) {
@@ -108,7 +115,8 @@ public abstract class JdbcRepository implements Repository, ConnectionProvider {
                 throw new DataSourceException("No datasource in " + shardItem.getName());
             }
             registered.addAll(shardDs);
-            DataSource dataSource = shardDs.size() > 1 ? new SmartDataSource(this, shardItem.getName(), shardDs)
+            DataSource dataSource = shardDs.size() > 1
+                    ? new SmartDataSource(this, shardItem.getName(), shardDs, shardItem.getLoadBalance())
                     : shardDs.get(0).getDataSource();
             shardMaping.put(shardItem.getName(), dataSource);
         }
@@ -160,6 +168,20 @@ public abstract class JdbcRepository implements Repository, ConnectionProvider {
         this.validationQueryTimeout = validationQueryTimeout;
     }
 
+    /**
+     * @return the statementCacheSize
+     */
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * @param statementCacheSize the statementCacheSize to set
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
     public Database getDatabase() {
         return database;
     }
@@ -188,6 +210,72 @@ public abstract class JdbcRepository implements Repository, ConnectionProvider {
         if (scheduledExecutor != null) {
             Threads.shutdownGracefully(scheduledExecutor, 1000, 1000, TimeUnit.MILLISECONDS);
         }
+        for (StatementCache cache : statementCaches.values()) {
+            cache.close();
+        }
+        statementCaches.clear();
+    }
+
+    /**
+     * Get the statement cache of the backend connection behind the given
+     * connection. The connections handed out by a pool or by a
+     * {@link SmartConnection} are usually wrappers that are created for each
+     * use, so the cache is attached to the unwrapped connection, which lives
+     * as long as the pool keeps it.
+     *
+     * @param conn the connection
+     * @return the statement cache, or null if the cache is disabled
+     */
+    public StatementCache getStatementCache(Connection conn) throws SQLException {
+        if (statementCacheSize <= 0) {
+            return null;
+        }
+        Connection target = getBackendConnection(conn);
+        StatementCache cache = statementCaches.get(target);
+        if (cache == null) {
+            cache = new StatementCache(target, statementCacheSize);
+            StatementCache old = statementCaches.putIfAbsent(target, cache);
+            if (old != null) {
+                cache = old;
+            } else {
+                pruneStatementCaches();
+            }
+        }
+        return cache;
+    }
+
+    private static Connection getBackendConnection(Connection conn) throws SQLException {
+        if (conn instanceof SmartConnection) {
+            conn = ((SmartConnection) conn).getTargetConnection();
+        }
+        Connection target;
+        try {
+            target = conn.unwrap(Connection.class);
+        } catch (SQLException e) {
+            target = conn;
+        }
+        return target == null ? conn : target;
+    }
+
+    /**
+     * Drop the caches of the connections the pool closed. The caches are
+     * only checked when their number doubled since the last time, so a new
+     * connection does not cost a pass over all of them.
+     */
+    private void pruneStatementCaches() {
+        synchronized (statementCaches) {
+            if (statementCaches.size() < statementCachePruneSize) {
+                return;
+            }
+            for (Iterator<StatementCache> it = statementCaches.values().iterator(); it.hasNext();) {
+                StatementCache c = it.next();
+                if (c.isClosed()) {
+                    c.close();
+                    it.remove();
+                }
+            }
+            statementCachePruneSize = Math.max(16, statementCaches.size() * 2);
+        }
     }
 
     public Connection haGet(DataSourceMarker selected) throws SQLException {
@@ -22,7 +22,6 @@ import java.util.List;
 
 import com.openddal.engine.Session;
 import com.openddal.executor.works.UpdateWorker;
-import com.openddal.util.JdbcUtils;
 import com.openddal.util.StatementBuilder;
 import com.openddal.value.Value;
 
@@ -34,6 +33,7 @@ public class JdbcUpdateWorker extends JdbcWorker implements UpdateWorker {
 
     private Connection conn = null;
     private PreparedStatement stmt = null;
+    private boolean executed;
 
     public JdbcUpdateWorker(Session session, String shardName, String sql, List<Value> params) {
         super(session, shardName, sql, params);
@@ -51,7 +51,7 @@ public class JdbcUpdateWorker extends JdbcWorker implements UpdateWorker {
                 trace.debug("{0} Preparing: {1};", shardName, sql);
             }
             conn = borrowConnection();
-            stmt = conn.prepareStatement(sql);
+            stmt = prepareStatement(conn, sql);
             applyQueryTimeout(stmt);
             if (params != null) {
                 for (int i = 0, size = params.size(); i < size; i++) {
@@ -63,6 +63,7 @@ public class JdbcUpdateWorker extends JdbcWorker implements UpdateWorker {
                 }
             }
             int rows = stmt.executeUpdate();
+            executed = true;
             if (trace.isDebugEnabled()) {
                 trace.debug("{0} executeUpdate: {1} affected.", shardName, rows);
             }
@@ -96,7 +97,7 @@ public class JdbcUpdateWorker extends JdbcWorker implements UpdateWorker {
     }
 
     public void close() {
-        JdbcUtils.closeSilently(stmt);
+        releaseStatement(sql, stmt, executed);
         returnConnection(conn);
         stmt = null;
         conn = null;
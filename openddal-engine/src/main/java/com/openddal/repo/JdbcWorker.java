@@ -16,6 +16,7 @@
 package com.openddal.repo;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
@@ -25,6 +26,7 @@ import com.openddal.message.DbException;
 import com.openddal.message.ErrorCode;
 import com.openddal.message.Trace;
 import com.openddal.repo.tx.JdbcTransaction;
+import com.openddal.util.JdbcUtils;
 import com.openddal.util.StatementBuilder;
 import com.openddal.value.Value;
 
@@ -40,7 +42,9 @@ public abstract class JdbcWorker {
     protected final List<Value> params;
     protected final ConnectionProvider connProvider;
     protected final JdbcTransaction tx;
-
+    protected final JdbcRepository repository;
+    private final Options options;
+    private StatementCache statementCache;
 
     public JdbcWorker(Session session, String shardName, String sql, List<Value> params) {
         super();
@@ -51,8 +55,8 @@ public abstract class JdbcWorker {
         this.trace = session.getDatabase().getTrace(Trace.EXECUTOR);
         this.tx = (JdbcTransaction)session.getTransaction();
         this.connProvider = tx.getConnectionProvider();
-        
-
+        this.repository = (JdbcRepository) session.getDatabase().getRepository();
+        this.options = Options.build().shardName(shardName);
     }
     
     // Create the worker directly apply for connection, performed by the
@@ -60,17 +64,50 @@ public abstract class JdbcWorker {
     // calls. HikariCP If get/close connection is not the same thread ,the
     // connection will leak.
     protected Connection borrowConnection() {
-        Options options = Options.build().shardName(shardName);
         return connProvider.getConnection(options);
     }
     
     protected void returnConnection(Connection conn) {
         if(conn != null) {
-            Options options = Options.build().shardName(shardName);
             connProvider.closeConnection(conn, options);
         }
     }
 
+    /**
+     * Prepare a statement, taken from the statement cache of the backend
+     * connection if the cache is enabled.
+     *
+     * @param conn the connection
+     * @param sql the SQL statement
+     * @return the prepared statement
+     */
+    protected PreparedStatement prepareStatement(Connection conn, String sql) throws SQLException {
+        statementCache = repository.getStatementCache(conn);
+        if (statementCache == null) {
+            return conn.prepareStatement(sql);
+        }
+        return statementCache.prepareStatement(sql);
+    }
+
+    /**
+     * Put a statement back to the statement cache, or close it if it is not
+     * cached or may still be in use.
+     *
+     * @param sql the SQL statement
+     * @param stmt the statement
+     * @param reusable whether the statement completed and can be reused
+     */
+    protected void releaseStatement(String sql, PreparedStatement stmt, boolean reusable) {
+        if (stmt == null) {
+            return;
+        }
+        if (statementCache == null || !reusable) {
+            JdbcUtils.closeSilently(stmt);
+        } else {
+            statementCache.release(sql, stmt);
+        }
+    }
+
     /**
      * Wrap a SQL exception that occurred while data accessing.
      *
@@ -1,5 +1,6 @@
 package com.openddal.repo;
 
+import java.util.List;
 import java.util.Map;
 
 import com.openddal.command.ddl.AlterTableAddConstraint;
@@ -26,6 +27,8 @@ import com.openddal.executor.works.UpdateWorker;
 import com.openddal.executor.works.WorkerFactory;
 import com.openddal.result.Row;
 import com.openddal.route.rule.ObjectNode;
+import com.openddal.util.New;
+import com.openddal.value.Value;
 
 public class JdbcWorkerFactory implements WorkerFactory {
 
@@ -54,6 +57,15 @@ public class JdbcWorkerFactory implements WorkerFactory {
         return handler;
     }
 
+    @Override
+    public QueryWorker createQueryWorker(Column[] searchColumns, TableFilter filter, Expression condition,
+            ObjectNode node, Integer limit) {
+        SQLTranslated translated = repo.getSQLTranslator().translate(searchColumns, filter, condition, node, limit);
+        JdbcQueryWorker handler = new JdbcQueryWorker(filter.getSession(), node.getShardName(), translated.sql,
+                translated.params);
+        return handler;
+    }
+
     @Override
     public QueryWorker createQueryWorker(Call call, ObjectNode node) {
         return null;
@@ -61,6 +73,20 @@ public class JdbcWorkerFactory implements WorkerFactory {
 
     @Override
     public UpdateWorker createUpdateWorker(Insert insert, ObjectNode node, Row ... rows) {
+        if (rows.length > 1 && repo.getDatabase().getSettings().jdbcBatchUpdate) {
+            // rows with the same statement shape share one prepared statement
+            Map<String, List<List<Value>>> batches = New.linkedHashMap();
+            for (Row row : rows) {
+                SQLTranslated translated = repo.getSQLTranslator().translate(insert, node, row);
+                List<List<Value>> batch = batches.get(translated.sql);
+                if (batch == null) {
+                    batch = New.arrayList();
+                    batches.put(translated.sql, batch);
+                }
+                batch.add(translated.params);
+            }
+            return new JdbcBatchUpdateWorker(insert.getSession(), node.getShardName(), batches);
+        }
         SQLTranslated translated = repo.getSQLTranslator().translate(insert, node, rows);
         JdbcUpdateWorker handler = new JdbcUpdateWorker(insert.getSession(), node.getShardName(), translated.sql, translated.params);
         return handler;
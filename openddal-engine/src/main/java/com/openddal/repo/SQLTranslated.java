@@ -2,6 +2,7 @@ package com.openddal.repo;
 
 import java.util.List;
 
+import com.openddal.command.expression.Expression;
 import com.openddal.value.Value;
 
 public class SQLTranslated {
@@ -9,6 +10,18 @@ public class SQLTranslated {
     public String sql;
 
     public List<Value> params;
+
+    /**
+     * The expressions the parameters come from, for a translated statement
+     * that is kept to be reused.
+     */
+    public Expression[] sources;
+
+    /**
+     * What else the translated statement depends on, it is only reused if
+     * this is still the same.
+     */
+    public Object shape;
     
     public static SQLTranslated build() {
         SQLTranslated optional = new SQLTranslated();
@@ -84,4 +84,7 @@ public interface SQLTranslator {
 
     SQLTranslated translate(Column[] searchColumns, TableFilter filter, GroupObjectNode node);
 
+    SQLTranslated translate(Column[] searchColumns, TableFilter filter, Expression condition, ObjectNode node,
+            Integer limit);
+
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.repo;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.openddal.util.JdbcUtils;
+
+/**
+ * A bounded LRU cache of the prepared statements of one backend connection,
+ * keyed by the translated SQL statement. A statement is taken out of the cache
+ * while it is used, so that two workers using the same connection at the same
+ * time never share a statement, and it is reset when it is put back.
+ *
+ * @author jorgie.li
+ */
+public class StatementCache {
+
+    private final Connection conn;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+
+    StatementCache(Connection conn, final int maxSize) {
+        this.conn = conn;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > maxSize) {
+                    JdbcUtils.closeSilently(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Take the cached statement for the given SQL statement, or prepare a new
+     * one if there is none.
+     *
+     * @param sql the SQL statement
+     * @return the prepared statement
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        PreparedStatement stmt;
+        synchronized (this) {
+            stmt = statements.remove(sql);
+        }
+        if (stmt != null && !stmt.isClosed()) {
+            return stmt;
+        }
+        return conn.prepareStatement(sql);
+    }
+
+    /**
+     * Reset the statement and put it back to the cache. If it can not be
+     * reset, it is closed.
+     *
+     * @param sql the SQL statement
+     * @param stmt the statement taken from this cache
+     */
+    public void release(String sql, PreparedStatement stmt) {
+        try {
+            stmt.clearParameters();
+            stmt.clearBatch();
+            stmt.clearWarnings();
+            if (stmt.getQueryTimeout() != 0) {
+                stmt.setQueryTimeout(0);
+            }
+        } catch (SQLException e) {
+            JdbcUtils.closeSilently(stmt);
+            return;
+        }
+        PreparedStatement old;
+        synchronized (this) {
+            old = statements.put(sql, stmt);
+        }
+        if (old != null && old != stmt) {
+            // another worker prepared the same statement at the same time
+            JdbcUtils.closeSilently(old);
+        }
+    }
+
+    /**
+     * Check if the backend connection of this cache is closed, so the cache
+     * can be dropped.
+     *
+     * @return true if closed
+     */
+    boolean isClosed() {
+        try {
+            return conn.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Close all cached statements.
+     */
+    synchronized void close() {
+        for (PreparedStatement stmt : statements.values()) {
+            JdbcUtils.closeSilently(stmt);
+        }
+        statements.clear();
+    }
+
+}
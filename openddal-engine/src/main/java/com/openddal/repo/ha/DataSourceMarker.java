@@ -20,6 +20,7 @@ package com.openddal.repo.ha;
 
 import javax.sql.DataSource;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author jorgie.li
@@ -34,6 +35,8 @@ public class DataSourceMarker {
     private int rWeight;
     private int wWeight;
     private boolean abnormal;
+    private final AtomicInteger activeCount = new AtomicInteger(0);
+    private final AtomicLong latency = new AtomicLong(0);
 
     public String getUid() {
         return uid;
@@ -135,6 +138,50 @@ public class DataSourceMarker {
         failedCount.incrementAndGet();
     }
 
+    /**
+     * Get the number of connections currently taken from this data source.
+     *
+     * @return the number of in-flight requests
+     */
+    public final int getActiveCount() {
+        return activeCount.get();
+    }
+
+    /**
+     * Get the moving average of the time a connection of this data source was
+     * in use, in nanoseconds. This is 0 until the first request completed.
+     *
+     * @return the average latency
+     */
+    public final long getLatency() {
+        return latency.get();
+    }
+
+    /**
+     * Called when a connection was taken from this data source.
+     */
+    public final void requestStarted() {
+        activeCount.incrementAndGet();
+    }
+
+    /**
+     * Called when a connection taken from this data source is released. The
+     * latency is an exponentially weighted moving average with a weight of
+     * 1/8 for the new sample.
+     *
+     * @param nanos the time the connection was in use
+     */
+    public final void requestCompleted(long nanos) {
+        activeCount.decrementAndGet();
+        while (true) {
+            long old = latency.get();
+            long avg = old == 0 ? nanos : old + (nanos - old) / 8;
+            if (latency.compareAndSet(old, Math.max(avg, 1))) {
+                break;
+            }
+        }
+    }
+
     /**
      * @return the abnormal
      */
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.repo.ha;
+
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * Picks two data sources at random and uses the one with the lower cost,
+ * where the cost is the moving average latency multiplied by the number of
+ * in-flight requests (plus one), divided by the weight. Choosing the better
+ * of two random members avoids sending all requests to the same fastest data
+ * source, while a slow or lagging replica gets less and less requests.
+ *
+ * @author jorgie.li
+ */
+public class EwmaLatency implements LoadBalancingStrategy {
+
+    private final DataSourceMarker[] nodes;
+    private final int[] weights;
+    private final Random random = new Random();
+
+    public EwmaLatency(Collection<DataSourceMarker> nodes, boolean readOnly) {
+        if (nodes == null || nodes.isEmpty()) {
+            throw new IllegalArgumentException("The shards can't empty.");
+        }
+        this.nodes = nodes.toArray(new DataSourceMarker[nodes.size()]);
+        this.weights = new int[this.nodes.length];
+        for (int i = 0; i < this.nodes.length; i++) {
+            DataSourceMarker node = this.nodes[i];
+            weights[i] = Math.max(1, readOnly ? node.getrWeight() : node.getwWeight());
+        }
+    }
+
+    @Override
+    public DataSourceMarker next() {
+        int len = nodes.length;
+        if (len == 1) {
+            return nodes[0];
+        }
+        int a = random.nextInt(len);
+        int b = random.nextInt(len - 1);
+        if (b >= a) {
+            b++;
+        }
+        return cost(a) <= cost(b) ? nodes[a] : nodes[b];
+    }
+
+    private double cost(int x) {
+        DataSourceMarker node = nodes[x];
+        // a data source without a sample yet is tried first
+        return (double) node.getLatency() * (node.getActiveCount() + 1) / weights[x];
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.repo.ha;
+
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * Picks the data source with the least in-flight requests relative to its
+ * weight. The scan starts at a random member, so that ties are spread over
+ * the data sources instead of always going to the first one.
+ *
+ * @author jorgie.li
+ */
+public class LeastRequests implements LoadBalancingStrategy {
+
+    private final DataSourceMarker[] nodes;
+    private final int[] weights;
+    private final Random random = new Random();
+
+    public LeastRequests(Collection<DataSourceMarker> nodes, boolean readOnly) {
+        if (nodes == null || nodes.isEmpty()) {
+            throw new IllegalArgumentException("The shards can't empty.");
+        }
+        this.nodes = nodes.toArray(new DataSourceMarker[nodes.size()]);
+        this.weights = new int[this.nodes.length];
+        for (int i = 0; i < this.nodes.length; i++) {
+            DataSourceMarker node = this.nodes[i];
+            weights[i] = Math.max(1, readOnly ? node.getrWeight() : node.getwWeight());
+        }
+    }
+
+    @Override
+    public DataSourceMarker next() {
+        int len = nodes.length;
+        int start = len == 1 ? 0 : random.nextInt(len);
+        int best = start;
+        long bestActive = nodes[start].getActiveCount();
+        for (int i = 1; i < len; i++) {
+            int x = (start + i) % len;
+            long active = nodes[x].getActiveCount();
+            // active / weight < bestActive / bestWeight
+            if (active * weights[best] < bestActive * weights[x]) {
+                best = x;
+                bestActive = active;
+            }
+        }
+        return nodes[best];
+    }
+
+}
@@ -15,33 +15,52 @@
  */
 package com.openddal.repo.ha;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
 import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
 
 import com.openddal.repo.JdbcRepository;
 
 /**
+ * A connection of a shard that fetches the physical connection lazily. The
+ * transaction settings are kept until a statement needs the physical
+ * connection, so that the read-only flag can be used to route the connection
+ * to a readable or writable data source, and to fail over to another one if
+ * it can not be connected. While the physical connection is held, it counts
+ * as an in-flight request of the data source it was taken from.
+ *
  * @author jorgie.li
  */
-public final class SmartConnection extends SmartSupport implements InvocationHandler {
+public final class SmartConnection extends SmartSupport implements Connection {
 
     private String username;
     private String password;
-    private Boolean readOnly = Boolean.FALSE;
+    private boolean readOnly;
     private Integer transactionIsolation;
     private Boolean autoCommit;
-    private boolean closed = false;
+    private boolean closed;
 
     private Connection target;
+    private long acquired;
 
     /**
      * @param database
      * @param dataSource
-     * @throws SQLException
      */
     protected SmartConnection(JdbcRepository database, SmartDataSource dataSource) {
         super(database, dataSource);
@@ -52,7 +71,6 @@ public final class SmartConnection extends SmartSupport implements InvocationHan
      * @param dataSource
      * @param username
      * @param password
-     * @throws SQLException
      */
     protected SmartConnection(JdbcRepository database, SmartDataSource dataSource, String username,
                               String password) {
@@ -62,161 +80,471 @@ public final class SmartConnection extends SmartSupport implements InvocationHan
     }
 
     /**
-     * Creates a exception trace version of a connection
+     * Return the target Connection, fetching it and initializing it if
+     * necessary.
      *
-     * @param conn - the original connection
-     * @return - the connection with exception trace
-     * @throws SQLException
+     * @param operation the name of the operation, for the trace
      */
-    public static Connection newInstance(JdbcRepository database, SmartDataSource dataSource) {
-        InvocationHandler handler = new SmartConnection(database, dataSource);
-        ClassLoader cl = Connection.class.getClassLoader();
-        return (Connection) Proxy.newProxyInstance(cl, new Class[]{Connection.class}, handler);
+    private Connection getTargetConnection(String operation) throws SQLException {
+        if (this.target != null) {
+            // Target Connection already held -> return it.
+            if (isDebugEnabled()) {
+                debug("Using existing database connection for operation '" + operation + "'");
+            }
+            return this.target;
+        }
+        if (this.closed) {
+            // Connection closed, without ever having fetched a
+            // physical JDBC Connection: throw corresponding SQLException.
+            throw new SQLException("Illegal operation: connection is closed");
+        }
+        // No target Connection held -> fetch one.
+        if (isDebugEnabled()) {
+            debug("Connecting to database for operation '" + operation + "'");
+        }
+        // Fetch physical Connection from DataSource.
+        Connection conn = (this.username != null) ? applyConnection(this.readOnly, this.username, this.password)
+                : applyConnection(this.readOnly);
+        // Hold the connection before it is configured, so close() releases
+        // it if a setting fails.
+        this.target = conn;
+        this.acquired = System.nanoTime();
+        this.selected.requestStarted();
+
+        // Apply kept transaction settings, if any.
+        if (this.readOnly) {
+            try {
+                conn.setReadOnly(this.readOnly);
+            } catch (Exception ex) {
+                // "read-only not supported" -> ignore, it's just a hint
+                // anyway
+                if (trace.isDebugEnabled()) {
+                    trace.debug(ex, "Could not set JDBC Connection read-only");
+                }
+            }
+        }
+        if (this.transactionIsolation != null) {
+            conn.setTransactionIsolation(this.transactionIsolation);
+        }
+        if (this.autoCommit != null) {
+            conn.setAutoCommit(this.autoCommit);
+        }
+        return conn;
     }
 
     /**
-     * Creates a exception trace version of a connection
+     * Get the connection taken from the data source of the selected member,
+     * fetching it if necessary.
      *
-     * @param conn - the original connection
-     * @return - the connection with exception trace
-     * @throws SQLException
+     * @return the target connection
      */
-    public static Connection newInstance(JdbcRepository database, SmartDataSource dataSource, String username,
-                                         String password) {
-        InvocationHandler handler = new SmartConnection(database, dataSource, username, password);
-        ClassLoader cl = Connection.class.getClassLoader();
-        return (Connection) Proxy.newProxyInstance(cl, new Class[]{Connection.class}, handler);
-    }
-
-    @Override
-    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-        // Invocation on ConnectionProxy interface coming in...
-
-        if (method.getName().equals("equals")) {
-            // We must avoid fetching a target Connection for "equals".
-            // Only consider equal when proxies are identical.
-            return (proxy == args[0]);
-        } else if (method.getName().equals("hashCode")) {
-            // We must avoid fetching a target Connection for "hashCode",
-            // and we must return the same hash code even when the target
-            // Connection has been fetched: use hashCode of Connection proxy.
-            return System.identityHashCode(proxy);
-        } else if (method.getName().equals("unwrap")) {
-            if (((Class<?>) args[0]).isInstance(proxy)) {
-                return proxy;
-            }
-        } else if (method.getName().equals("isWrapperFor")) {
-            if (((Class<?>) args[0]).isInstance(proxy)) {
-                return true;
-            }
+    public Connection getTargetConnection() throws SQLException {
+        return getTargetConnection("getTargetConnection");
+    }
+
+    /**
+     * Record the time the target was in use as a latency sample of the data
+     * source, the load balancing strategies use it to prefer the faster
+     * members.
+     */
+    private void released() {
+        DataSourceMarker marker = this.selected;
+        if (marker != null) {
+            this.selected = null;
+            marker.requestCompleted(System.nanoTime() - this.acquired);
         }
+    }
 
-        if (!hasTargetConnection()) {
-            // No physical target Connection kept yet ->
-            // resolve transaction demarcation methods without fetching
-            // a physical JDBC Connection until absolutely necessary.
-
-            if (method.getName().equals("toString")) {
-                return "Routing Connection proxy for RoutingDataSource [" + dataSource + "]";
-            } else if (method.getName().equals("isReadOnly")) {
-                return this.readOnly;
-            } else if (method.getName().equals("setReadOnly")) {
-                this.readOnly = (Boolean) args[0];
-                return null;
-            } else if (method.getName().equals("getTransactionIsolation")) {
-                if (this.transactionIsolation != null) {
-                    return this.transactionIsolation;
-                }
-                // Else fetch actual Connection and check there,
-                // because we didn't have a default specified.
-            } else if (method.getName().equals("setTransactionIsolation")) {
-                this.transactionIsolation = (Integer) args[0];
-                return null;
-            } else if (method.getName().equals("getAutoCommit")) {
-                if (this.autoCommit != null) {
-                    return this.autoCommit;
-                }
-                // Else fetch actual Connection and check there,
-                // because we didn't have a default specified.
-            } else if (method.getName().equals("setAutoCommit")) {
-                this.autoCommit = (Boolean) args[0];
-                return null;
-            } else if (method.getName().equals("commit")) {
-                // Ignore: no statements created yet.
-                return null;
-            } else if (method.getName().equals("rollback")) {
-                // Ignore: no statements created yet.
-                return null;
-            } else if (method.getName().equals("getWarnings")) {
-                return null;
-            } else if (method.getName().equals("clearWarnings")) {
-                return null;
-            } else if (method.getName().equals("close")) {
-                // Ignore: no target connection yet.
-                this.closed = true;
-                return null;
-            } else if (method.getName().equals("isClosed")) {
-                return this.closed;
-            } else if (this.closed) {
-                // Connection proxy closed, without ever having fetched a
-                // physical JDBC Connection: throw corresponding SQLException.
-                throw new SQLException("Illegal operation: connection is closed");
+    // The transaction demarcation methods are resolved without fetching a
+    // physical JDBC Connection until absolutely necessary.
+
+    @Override
+    public boolean isReadOnly() throws SQLException {
+        if (this.target == null) {
+            return this.readOnly;
+        }
+        return this.target.isReadOnly();
+    }
+
+    @Override
+    public void setReadOnly(boolean readOnly) throws SQLException {
+        if (this.target == null) {
+            this.readOnly = readOnly;
+        } else {
+            this.target.setReadOnly(readOnly);
+        }
+    }
+
+    @Override
+    public int getTransactionIsolation() throws SQLException {
+        if (this.target == null && this.transactionIsolation != null) {
+            return this.transactionIsolation;
+        }
+        // Else fetch actual Connection and check there,
+        // because we didn't have a default specified.
+        return getTargetConnection("getTransactionIsolation").getTransactionIsolation();
+    }
+
+    @Override
+    public void setTransactionIsolation(int level) throws SQLException {
+        if (this.target == null) {
+            this.transactionIsolation = level;
+        } else {
+            this.target.setTransactionIsolation(level);
+        }
+    }
+
+    @Override
+    public boolean getAutoCommit() throws SQLException {
+        if (this.target == null && this.autoCommit != null) {
+            return this.autoCommit;
+        }
+        // Else fetch actual Connection and check there,
+        // because we didn't have a default specified.
+        return getTargetConnection("getAutoCommit").getAutoCommit();
+    }
+
+    @Override
+    public void setAutoCommit(boolean autoCommit) throws SQLException {
+        if (this.target == null) {
+            this.autoCommit = autoCommit;
+        } else {
+            this.target.setAutoCommit(autoCommit);
+        }
+    }
+
+    @Override
+    public void commit() throws SQLException {
+        // Ignore if there is no target: no statements created yet.
+        if (this.target != null) {
+            this.target.commit();
+        }
+    }
+
+    @Override
+    public void rollback() throws SQLException {
+        // Ignore if there is no target: no statements created yet.
+        if (this.target != null) {
+            this.target.rollback();
+        }
+    }
+
+    @Override
+    public void rollback(Savepoint savepoint) throws SQLException {
+        // Ignore if there is no target: no statements created yet.
+        if (this.target != null) {
+            this.target.rollback(savepoint);
+        }
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        if (this.target == null) {
+            return null;
+        }
+        return this.target.getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        if (this.target != null) {
+            this.target.clearWarnings();
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (this.target == null) {
+            // Ignore: no target connection yet.
+            this.closed = true;
+        } else {
+            try {
+                this.target.close();
+            } finally {
+                released();
             }
         }
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        if (this.target == null) {
+            return this.closed;
+        }
+        return this.target.isClosed();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return (T) this;
+        }
+        return getTargetConnection("unwrap").unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return true;
+        }
+        return getTargetConnection("isWrapperFor").isWrapperFor(iface);
+    }
+
+    /**
+     * Only consider equal when the connections are identical, we must avoid
+     * fetching a target Connection for equals and hashCode.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        return this == obj;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    @Override
+    public String toString() {
+        if (this.target == null) {
+            return "Routing Connection proxy for RoutingDataSource [" + dataSource + "]";
+        }
+        return this.target.toString();
+    }
+
+    // All other operations need the physical JDBC Connection.
+
+    @Override
+    public Statement createStatement() throws SQLException {
+        return getTargetConnection("createStatement").createStatement();
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+        return getTargetConnection("createStatement").createStatement(resultSetType, resultSetConcurrency);
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability)
+            throws SQLException {
+        return getTargetConnection("createStatement").createStatement(resultSetType, resultSetConcurrency,
+                resultSetHoldability);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return getTargetConnection("prepareStatement").prepareStatement(sql);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency)
+            throws SQLException {
+        return getTargetConnection("prepareStatement").prepareStatement(sql, resultSetType,
+                resultSetConcurrency);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency,
+            int resultSetHoldability) throws SQLException {
+        return getTargetConnection("prepareStatement").prepareStatement(sql, resultSetType,
+                resultSetConcurrency, resultSetHoldability);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        return getTargetConnection("prepareStatement").prepareStatement(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+        return getTargetConnection("prepareStatement").prepareStatement(sql, columnIndexes);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+        return getTargetConnection("prepareStatement").prepareStatement(sql, columnNames);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql) throws SQLException {
+        return getTargetConnection("prepareCall").prepareCall(sql);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency)
+            throws SQLException {
+        return getTargetConnection("prepareCall").prepareCall(sql, resultSetType, resultSetConcurrency);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency,
+            int resultSetHoldability) throws SQLException {
+        return getTargetConnection("prepareCall").prepareCall(sql, resultSetType, resultSetConcurrency,
+                resultSetHoldability);
+    }
+
+    @Override
+    public String nativeSQL(String sql) throws SQLException {
+        return getTargetConnection("nativeSQL").nativeSQL(sql);
+    }
+
+    @Override
+    public DatabaseMetaData getMetaData() throws SQLException {
+        return getTargetConnection("getMetaData").getMetaData();
+    }
+
+    @Override
+    public void setCatalog(String catalog) throws SQLException {
+        getTargetConnection("setCatalog").setCatalog(catalog);
+    }
+
+    @Override
+    public String getCatalog() throws SQLException {
+        return getTargetConnection("getCatalog").getCatalog();
+    }
+
+    @Override
+    public Map<String, Class<?>> getTypeMap() throws SQLException {
+        return getTargetConnection("getTypeMap").getTypeMap();
+    }
+
+    @Override
+    public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+        getTargetConnection("setTypeMap").setTypeMap(map);
+    }
+
+    @Override
+    public void setHoldability(int holdability) throws SQLException {
+        getTargetConnection("setHoldability").setHoldability(holdability);
+    }
+
+    @Override
+    public int getHoldability() throws SQLException {
+        return getTargetConnection("getHoldability").getHoldability();
+    }
+
+    @Override
+    public Savepoint setSavepoint() throws SQLException {
+        return getTargetConnection("setSavepoint").setSavepoint();
+    }
+
+    @Override
+    public Savepoint setSavepoint(String name) throws SQLException {
+        return getTargetConnection("setSavepoint").setSavepoint(name);
+    }
+
+    @Override
+    public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+        getTargetConnection("releaseSavepoint").releaseSavepoint(savepoint);
+    }
+
+    @Override
+    public Clob createClob() throws SQLException {
+        return getTargetConnection("createClob").createClob();
+    }
 
-        // Target Connection already fetched,
-        // or target Connection necessary for current operation ->
-        // invoke method on target connection.
+    @Override
+    public Blob createBlob() throws SQLException {
+        return getTargetConnection("createBlob").createBlob();
+    }
+
+    @Override
+    public NClob createNClob() throws SQLException {
+        return getTargetConnection("createNClob").createNClob();
+    }
+
+    @Override
+    public SQLXML createSQLXML() throws SQLException {
+        return getTargetConnection("createSQLXML").createSQLXML();
+    }
+
+    @Override
+    public boolean isValid(int timeout) throws SQLException {
+        return getTargetConnection("isValid").isValid(timeout);
+    }
+
+    @Override
+    public void setClientInfo(String name, String value) throws SQLClientInfoException {
+        getTargetForClientInfo().setClientInfo(name, value);
+    }
+
+    @Override
+    public void setClientInfo(Properties properties) throws SQLClientInfoException {
+        getTargetForClientInfo().setClientInfo(properties);
+    }
+
+    private Connection getTargetForClientInfo() throws SQLClientInfoException {
         try {
-            return method.invoke(getTargetConnection(method), args);
-        } catch (InvocationTargetException ex) {
-            throw ex.getTargetException();
+            return getTargetConnection("setClientInfo");
+        } catch (SQLClientInfoException e) {
+            throw e;
+        } catch (SQLException e) {
+            throw new SQLClientInfoException(e.getMessage(), null, e);
         }
     }
 
+    @Override
+    public String getClientInfo(String name) throws SQLException {
+        return getTargetConnection("getClientInfo").getClientInfo(name);
+    }
+
+    @Override
+    public Properties getClientInfo() throws SQLException {
+        return getTargetConnection("getClientInfo").getClientInfo();
+    }
+
+    @Override
+    public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+        return getTargetConnection("createArrayOf").createArrayOf(typeName, elements);
+    }
+
+    @Override
+    public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+        return getTargetConnection("createStruct").createStruct(typeName, attributes);
+    }
+
     /**
-     * Return whether the proxy currently holds a target Connection.
+     * Java 1.7
      */
-    private boolean hasTargetConnection() {
-        return (this.target != null);
+    public void setSchema(String schema) throws SQLException {
+        getTargetConnection("setSchema").setSchema(schema);
     }
 
     /**
-     * Return the target Connection, fetching it and initializing it if
-     * necessary.
+     * Java 1.7
+     */
+    public String getSchema() throws SQLException {
+        return getTargetConnection("getSchema").getSchema();
+    }
+
+    /**
+     * Java 1.7
      */
-    private Connection getTargetConnection(Method operation) throws SQLException {
+    public void abort(Executor executor) throws SQLException {
         if (this.target == null) {
-            // No target Connection held -> fetch one.
-            debug("Connecting to database for operation '" + operation.getName() + "'");
-            // Fetch physical Connection from DataSource.
-            this.target = (this.username != null) ? applyConnection(this.readOnly, this.username, this.password)
-                    : applyConnection(this.readOnly);
-
-            // Apply kept transaction settings, if any.
-            if (this.readOnly) {
-                try {
-                    this.target.setReadOnly(this.readOnly);
-                } catch (Exception ex) {
-                    // "read-only not supported" -> ignore, it's just a hint
-                    // anyway
-                    if (trace.isDebugEnabled()) {
-                        trace.debug(ex, "Could not set JDBC Connection read-only");
-                    }
-                }
-            }
-            if (this.transactionIsolation != null) {
-                this.target.setTransactionIsolation(this.transactionIsolation);
-            }
-            if (this.autoCommit != null) {
-                this.target.setAutoCommit(this.autoCommit);
-            }
+            this.closed = true;
         } else {
-            // Target Connection already held -> return it.
-            debug("Using existing database connection for operation '" + operation.getName() + "'");
+            try {
+                this.target.abort(executor);
+            } finally {
+                released();
+            }
         }
+    }
 
-        return this.target;
+    /**
+     * Java 1.7
+     */
+    public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+        getTargetConnection("setNetworkTimeout").setNetworkTimeout(executor, milliseconds);
+    }
+
+    /**
+     * Java 1.7
+     */
+    public int getNetworkTimeout() throws SQLException {
+        return getTargetConnection("getNetworkTimeout").getNetworkTimeout();
     }
 
 }
@@ -28,6 +28,7 @@ import java.io.PrintWriter;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
@@ -37,10 +38,30 @@ import java.util.logging.Logger;
  */
 public class SmartDataSource implements DataSource, Failover {
 
+    /**
+     * The default load balance of a shard, a weighted random pick.
+     */
+    public static final String CONSISTENT_HASHING = "consistentHashing";
+
+    /**
+     * Use the data source with the least in-flight requests.
+     */
+    public static final String LEAST_REQUESTS = "leastRequests";
+
+    /**
+     * Use the better of two random data sources by their latency.
+     */
+    public static final String EWMA = "ewma";
+
+    /**
+     * Use the data sources in turn by their weight.
+     */
+    public static final String ROUND_ROBIN = "roundRobin";
 
     private final String shardName;
     private final JdbcRepository database;
     private final List<DataSourceMarker> menbers;
+    private final String loadBalance;
     private final Set<DataSourceMarker> readable = New.copyOnWriteArraySet();
     private final Set<DataSourceMarker> writable = New.copyOnWriteArraySet();
     private volatile LoadBalancingStrategy writableLoadBalance;
@@ -56,6 +77,17 @@ public class SmartDataSource implements DataSource, Failover {
      * @param datasource
      */
     public SmartDataSource(JdbcRepository database, String shardName, List<DataSourceMarker> menbers) {
+        this(database, shardName, menbers, CONSISTENT_HASHING);
+    }
+
+    /**
+     * @param database
+     * @param shardName
+     * @param menbers
+     * @param loadBalance the name of the load balancing strategy
+     */
+    public SmartDataSource(JdbcRepository database, String shardName, List<DataSourceMarker> menbers,
+                           String loadBalance) {
         if (database == null) {
             throw new IllegalArgumentException("No dataSource repository specified");
         }
@@ -65,6 +97,10 @@ public class SmartDataSource implements DataSource, Failover {
         this.database = database;
         this.shardName = shardName;
         this.menbers = menbers;
+        this.loadBalance = StringUtils.isNullOrEmpty(loadBalance) ? CONSISTENT_HASHING : loadBalance;
+        if (!isLoadBalance(this.loadBalance)) {
+            throw new IllegalArgumentException("Unknown loadBalance " + loadBalance);
+        }
         List<DataSourceMarker> writable = New.arrayList();
         List<DataSourceMarker> readable = New.arrayList();
         for (DataSourceMarker item : menbers) {
@@ -83,8 +119,30 @@ public class SmartDataSource implements DataSource, Failover {
         }
         this.writable.addAll(writable);
         this.readable.addAll(readable);
-        this.writableLoadBalance = new ConsistentHashing(writable, false);
-        this.readableLoadBalance = new ConsistentHashing(readable, true);
+        this.writableLoadBalance = newLoadBalance(writable, false);
+        this.readableLoadBalance = newLoadBalance(readable, true);
+    }
+
+    /**
+     * Check if the name is a supported load balancing strategy.
+     *
+     * @param name the name
+     * @return true if supported
+     */
+    public static boolean isLoadBalance(String name) {
+        return CONSISTENT_HASHING.equals(name) || LEAST_REQUESTS.equals(name) || EWMA.equals(name)
+                || ROUND_ROBIN.equals(name);
+    }
+
+    private LoadBalancingStrategy newLoadBalance(Collection<DataSourceMarker> nodes, boolean readOnly) {
+        if (LEAST_REQUESTS.equals(loadBalance)) {
+            return new LeastRequests(nodes, readOnly);
+        } else if (EWMA.equals(loadBalance)) {
+            return new EwmaLatency(nodes, readOnly);
+        } else if (ROUND_ROBIN.equals(loadBalance)) {
+            return new WeightedRoundRobin(nodes, readOnly);
+        }
+        return new ConsistentHashing(nodes, readOnly);
     }
 
     @Override
@@ -140,12 +198,12 @@ public class SmartDataSource implements DataSource, Failover {
 
     @Override
     public Connection getConnection() throws SQLException {
-        return SmartConnection.newInstance(database, this);
+        return new SmartConnection(database, this);
     }
 
     @Override
     public Connection getConnection(String username, String password) throws SQLException {
-        return SmartConnection.newInstance(database, this, username, password);
+        return new SmartConnection(database, this, username, password);
     }
 
     public DataSourceMarker doRoute(boolean readOnly) {
@@ -177,10 +235,10 @@ public class SmartDataSource implements DataSource, Failover {
             throw new IllegalStateException(shardName + "datasource not matched. " + source);
         }
         if (!source.isReadOnly() && writable.remove(source)) {
-            this.writableLoadBalance = new ConsistentHashing(writable, false);
+            this.writableLoadBalance = newLoadBalance(writable, false);
         }
         if (readable.remove(source)) {
-            readableLoadBalance = new ConsistentHashing(readable, true);
+            readableLoadBalance = newLoadBalance(readable, true);
         }
     }
 
@@ -190,10 +248,10 @@ public class SmartDataSource implements DataSource, Failover {
             throw new IllegalStateException(shardName + " datasource not matched. " + source);
         }
         if (!source.isReadOnly() && source.getwWeight() > 0 && writable.add(source)) {
-            this.writableLoadBalance = new ConsistentHashing(writable, false);
+            this.writableLoadBalance = newLoadBalance(writable, false);
         }
         if (source.getrWeight() > 0 && readable.add(source)) {
-            this.readableLoadBalance = new ConsistentHashing(readable, true);
+            this.readableLoadBalance = newLoadBalance(readable, true);
         }
 
     }
@@ -201,7 +259,8 @@ public class SmartDataSource implements DataSource, Failover {
 
     @Override
     public String toString() {
-        return "RoutingDataSource [shardName=" + shardName + ", menbers=" + menbers + "]";
+        return "RoutingDataSource [shardName=" + shardName + ", loadBalance=" + loadBalance + ", menbers=" + menbers
+                + "]";
     }
 
 
@@ -31,6 +31,7 @@ public class SmartSupport {
     protected final JdbcRepository database;
     protected final SmartDataSource dataSource;
     protected final Trace trace;
+    protected DataSourceMarker selected;
 
     /**
      * @param database
@@ -61,14 +62,21 @@ public class SmartSupport {
         return applyConnection(readOnly, null, null);
     }
 
+    /**
+     * Get a connection of the shard, trying the other members if the routed
+     * data source fails. The data source the connection was taken from is
+     * kept in {@link #selected}.
+     */
     protected Connection applyConnection(boolean readOnly, String username, String password) throws SQLException {
         List<DataSourceMarker> tryList = New.arrayList();
         DataSourceMarker selected = dataSource.doRoute(readOnly);
         while (selected != null) {
             try {
                 tryList.add(selected);
-                return (username != null) ? database.haGet(selected, username, password)
+                Connection conn = (username != null) ? database.haGet(selected, username, password)
                         : database.haGet(selected);
+                this.selected = selected;
+                return conn;
             } catch (SQLException e) {
                 selected = dataSource.doRoute(readOnly, tryList);
             }
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.repo.ha;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks the data sources in turn, each as often as its weight. The sequence
+ * is calculated once with the smooth weighted round robin algorithm, so that
+ * the picks of a heavy data source are interleaved with the others instead of
+ * coming in a row, and next() only needs to increment a counter.
+ *
+ * @author jorgie.li
+ */
+public class WeightedRoundRobin implements LoadBalancingStrategy {
+
+    private final DataSourceMarker[] sequence;
+    private final AtomicInteger counter = new AtomicInteger();
+
+    public WeightedRoundRobin(Collection<DataSourceMarker> nodes, boolean readOnly) {
+        if (nodes == null || nodes.isEmpty()) {
+            throw new IllegalArgumentException("The shards can't empty.");
+        }
+        DataSourceMarker[] members = nodes.toArray(new DataSourceMarker[nodes.size()]);
+        int[] weights = new int[members.length];
+        int total = 0;
+        for (int i = 0; i < members.length; i++) {
+            DataSourceMarker node = members[i];
+            weights[i] = Math.max(1, readOnly ? node.getrWeight() : node.getwWeight());
+            total += weights[i];
+        }
+        sequence = new DataSourceMarker[total];
+        int[] current = new int[members.length];
+        for (int i = 0; i < total; i++) {
+            int best = 0;
+            for (int j = 0; j < members.length; j++) {
+                current[j] += weights[j];
+                if (current[j] > current[best]) {
+                    best = j;
+                }
+            }
+            current[best] -= total;
+            sequence[i] = members[best];
+        }
+    }
+
+    @Override
+    public DataSourceMarker next() {
+        int i = counter.getAndIncrement() & Integer.MAX_VALUE;
+        return sequence[i % sequence.length];
+    }
+
+}
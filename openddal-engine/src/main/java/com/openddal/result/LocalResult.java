@@ -18,6 +18,8 @@ package com.openddal.result;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.PriorityQueue;
 
 import com.openddal.command.expression.Expression;
 import com.openddal.engine.Session;
@@ -32,7 +34,8 @@ import com.openddal.value.ValueArray;
  * A local result set contains all row data of a result set. This is the object
  * generated by engine, and it is also used directly by the ResultSet class in
  * the embedded mode. If the result does not fit in memory, it is written to a
- * temporary file.
+ * temporary file. If the result is sorted and limited, only the first
+ * offset + limit rows are kept while adding rows.
  */
 public class LocalResult implements ResultInterface, ResultTarget {
 
@@ -44,6 +47,8 @@ public class LocalResult implements ResultInterface, ResultTarget {
     private ArrayList<Value[]> rows;
     private SortOrder sort;
     private ValueHashMap<Value[]> distinctRows;
+    private ResultExternal external;
+    private PriorityQueue<Value[]> topRows;
     private Value[] currentRow;
     private int offset;
     private int limit = -1;
@@ -118,6 +123,10 @@ public class LocalResult implements ResultInterface, ResultTarget {
      * @return the copy if possible, or null if copying is not possible
      */
     public LocalResult createShallowCopy(Session targetSession) {
+        if (external != null) {
+            // data is in the temporary file and can not be shared
+            return null;
+        }
         if (rows == null || rows.size() < rowCount) {
             return null;
         }
@@ -172,6 +181,9 @@ public class LocalResult implements ResultInterface, ResultTarget {
         if (!distinct) {
             DbException.throwInternalError();
         }
+        if (external != null) {
+            throw DbException.getUnsupportedException("remove from too big result row " + maxMemoryRows);
+        }
         ValueArray array = ValueArray.get(values);
         distinctRows.remove(array);
         rowCount = distinctRows.size();
@@ -185,6 +197,9 @@ public class LocalResult implements ResultInterface, ResultTarget {
      * @return true if the row exists
      */
     public boolean containsDistinct(Value[] values) {
+        if (external != null) {
+            throw DbException.getUnsupportedException("lookup in too big result row " + maxMemoryRows);
+        }
         if (distinctRows == null) {
             distinctRows = ValueHashMap.newInstance();
             for (Value[] row : rows) {
@@ -199,6 +214,12 @@ public class LocalResult implements ResultInterface, ResultTarget {
     @Override
     public void reset() {
         rowId = -1;
+        if (external != null) {
+            external.reset();
+            for (int i = 0; i < offset; i++) {
+                external.next();
+            }
+        }
     }
 
     @Override
@@ -211,7 +232,7 @@ public class LocalResult implements ResultInterface, ResultTarget {
         if (!closed && rowId < rowCount) {
             rowId++;
             if (rowId < rowCount) {
-                currentRow = rows.get(rowId);
+                currentRow = external != null ? external.next() : rows.get(rowId);
                 return true;
             }
             currentRow = null;
@@ -255,19 +276,59 @@ public class LocalResult implements ResultInterface, ResultTarget {
         if (distinct) {
             ValueArray array = getArrayOfVisible(values);
             distinctRows.put(array, values);
-            rowCount = distinctRows.size();
-            if (rowCount > maxMemoryRows) {
-                throw DbException.getUnsupportedException("too big result row " + maxMemoryRows);
+            if (external == null) {
+                rowCount = distinctRows.size();
+            } else {
+                // the spilled rows may repeat each other and the rows in
+                // memory, so until done only a lower bound is known
+                rowCount = Math.max(rowCount, distinctRows.size());
             }
+            if (distinctRows.size() > maxMemoryRows) {
+                // the rows are made distinct again when reading them back
+                if (external == null) {
+                    external = new ResultDistinctDiskBuffer(sort, visibleColumnCount, maxMemoryRows);
+                }
+                external.addRows(distinctRows.values());
+                distinctRows = ValueHashMap.newInstance();
+            }
+            return;
+        }
+        if (sort != null && limit > 0 && (long) Math.max(0, offset) + limit <= maxMemoryRows) {
+            addTopRow(values);
             return;
         }
         rows.add(values);
         rowCount++;
         if (rows.size() > maxMemoryRows) {
-            throw DbException.getUnsupportedException("too big result row " + maxMemoryRows);
+            if (external == null) {
+                external = new ResultDiskBuffer(sort);
+            }
+            external.addRows(rows);
+            rows.clear();
         }
     }
 
+    /**
+     * Add a row to the top rows, which is a heap of the offset + limit first
+     * rows with the last row at the top, so that a row that sorts before it
+     * replaces it.
+     *
+     * @param values the row to add
+     */
+    private void addTopRow(Value[] values) {
+        int size = Math.max(0, offset) + limit;
+        if (topRows == null) {
+            topRows = new PriorityQueue<Value[]>(Math.min(size, 1024) + 1, Collections.reverseOrder(sort));
+        }
+        if (topRows.size() < size) {
+            topRows.add(values);
+        } else if (sort.compare(values, topRows.peek()) < 0) {
+            topRows.poll();
+            topRows.add(values);
+        }
+        rowCount = topRows.size();
+    }
+
     @Override
     public int getVisibleColumnCount() {
         return visibleColumnCount;
@@ -277,9 +338,30 @@ public class LocalResult implements ResultInterface, ResultTarget {
      * This method is called after all rows have been added.
      */
     public void done() {
+        if (external != null) {
+            if (distinct) {
+                external.addRows(distinctRows.values());
+                distinctRows = null;
+            } else {
+                external.addRows(rows);
+            }
+            rows = New.arrayList();
+            external.done();
+            // offset and limit are applied while reading the rows back
+            rowCount = Math.max(0, external.getRowCount() - Math.max(0, offset));
+            if (limit >= 0 && rowCount > limit) {
+                rowCount = limit;
+            }
+            reset();
+            return;
+        }
         if (distinct) {
             rows = distinctRows.values();
         }
+        if (topRows != null) {
+            rows.addAll(topRows);
+            topRows = null;
+        }
         if (sort != null) {
             if (offset > 0 || limit > 0) {
                 sort.sort(rows, offset, limit < 0 ? rows.size() : limit);
@@ -319,11 +401,15 @@ public class LocalResult implements ResultInterface, ResultTarget {
 
     @Override
     public boolean needToClose() {
-        return false;
+        return external != null;
     }
 
     @Override
     public void close() {
+        if (external != null) {
+            external.close();
+            external = null;
+        }
         rows = null;
         closed = true;
     
@@ -0,0 +1,438 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.result;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import com.openddal.engine.Constants;
+import com.openddal.engine.SysProperties;
+import com.openddal.message.DbException;
+import com.openddal.util.DataUtils;
+import com.openddal.util.FileUtils;
+import com.openddal.util.IOUtils;
+import com.openddal.util.New;
+import com.openddal.value.Value;
+import com.openddal.value.ValueArray;
+import com.openddal.value.ValueBoolean;
+import com.openddal.value.ValueByte;
+import com.openddal.value.ValueBytes;
+import com.openddal.value.ValueDate;
+import com.openddal.value.ValueDecimal;
+import com.openddal.value.ValueDouble;
+import com.openddal.value.ValueFloat;
+import com.openddal.value.ValueInt;
+import com.openddal.value.ValueJavaObject;
+import com.openddal.value.ValueLobDb;
+import com.openddal.value.ValueLong;
+import com.openddal.value.ValueNull;
+import com.openddal.value.ValueShort;
+import com.openddal.value.ValueString;
+import com.openddal.value.ValueStringFixed;
+import com.openddal.value.ValueStringIgnoreCase;
+import com.openddal.value.ValueTime;
+import com.openddal.value.ValueTimestamp;
+import com.openddal.value.ValueUuid;
+
+/**
+ * This class implements the disk buffer for the LocalResult class. Each list
+ * of rows that is added is written to a temporary file as one run, sorted by
+ * the sort order if there is one. When reading, the runs of a sorted result
+ * are merged, otherwise they are read one after the other.
+ */
+class ResultDiskBuffer implements ResultExternal {
+
+    private static final int READ_AHEAD = 32 * 1024;
+
+    private final SortOrder sort;
+    private final ArrayList<ResultRun> runs = New.arrayList();
+    private final String fileName;
+    private FileChannel file;
+    private long filePos;
+    private int rowCount;
+    private PriorityQueue<ResultRun> queue;
+    private int runIndex;
+
+    ResultDiskBuffer(SortOrder sort) {
+        this.sort = sort;
+        try {
+            fileName = FileUtils.createTempFile(SysProperties.PREFIX_TEMP_FILE, Constants.SUFFIX_TEMP_FILE, true,
+                    true);
+            file = FileUtils.open(fileName, "rw");
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, SysProperties.PREFIX_TEMP_FILE);
+        }
+    }
+
+    @Override
+    public void addRows(ArrayList<Value[]> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        if (sort != null) {
+            sort.sort(rows);
+        }
+        long start = filePos;
+        ByteArrayOutputStream buff = new ByteArrayOutputStream(READ_AHEAD * 2);
+        DataOutputStream out = new DataOutputStream(buff);
+        try {
+            for (Value[] row : rows) {
+                out.writeInt(row.length);
+                for (Value v : row) {
+                    writeValue(out, v);
+                }
+                if (buff.size() >= READ_AHEAD) {
+                    flush(buff);
+                }
+            }
+            flush(buff);
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, fileName);
+        }
+        runs.add(new ResultRun(start, filePos, rows.size()));
+        rowCount += rows.size();
+    }
+
+    private void flush(ByteArrayOutputStream buff) {
+        if (buff.size() == 0) {
+            return;
+        }
+        ByteBuffer src = ByteBuffer.wrap(buff.toByteArray());
+        DataUtils.writeFully(file, filePos, src);
+        filePos += buff.size();
+        buff.reset();
+    }
+
+    @Override
+    public void done() {
+        if (sort != null) {
+            queue = new PriorityQueue<ResultRun>(Math.max(1, runs.size()), new Comparator<ResultRun>() {
+                @Override
+                public int compare(ResultRun a, ResultRun b) {
+                    return sort.compare(a.current, b.current);
+                }
+            });
+        }
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        runIndex = 0;
+        if (queue != null) {
+            queue.clear();
+        }
+        for (ResultRun run : runs) {
+            run.rewind();
+            if (queue != null && run.next() != null) {
+                queue.add(run);
+            }
+        }
+    }
+
+    @Override
+    public Value[] next() {
+        if (queue != null) {
+            ResultRun run = queue.poll();
+            if (run == null) {
+                return null;
+            }
+            Value[] row = run.current;
+            if (run.next() != null) {
+                queue.add(run);
+            }
+            return row;
+        }
+        while (runIndex < runs.size()) {
+            Value[] row = runs.get(runIndex).next();
+            if (row != null) {
+                return row;
+            }
+            runIndex++;
+        }
+        return null;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public void close() {
+        if (file != null) {
+            IOUtils.closeSilently(file);
+            file = null;
+            FileUtils.tryDelete(fileName);
+        }
+    }
+
+    /**
+     * Write a value to the stream.
+     *
+     * @param out the output stream
+     * @param v the value
+     */
+    static void writeValue(DataOutputStream out, Value v) throws IOException {
+        int type = v.getType();
+        out.writeByte(type);
+        switch (type) {
+        case Value.NULL:
+            break;
+        case Value.BOOLEAN:
+            out.writeBoolean(v.getBoolean().booleanValue());
+            break;
+        case Value.BYTE:
+            out.writeByte(v.getByte());
+            break;
+        case Value.SHORT:
+            out.writeShort(v.getShort());
+            break;
+        case Value.INT:
+            out.writeInt(v.getInt());
+            break;
+        case Value.LONG:
+            out.writeLong(v.getLong());
+            break;
+        case Value.DECIMAL: {
+            BigDecimal x = v.getBigDecimal();
+            out.writeInt(x.scale());
+            writeBytes(out, x.unscaledValue().toByteArray());
+            break;
+        }
+        case Value.DOUBLE:
+            out.writeDouble(v.getDouble());
+            break;
+        case Value.FLOAT:
+            out.writeFloat(v.getFloat());
+            break;
+        case Value.TIME:
+            out.writeLong(((ValueTime) v).getNanos());
+            break;
+        case Value.DATE:
+            out.writeLong(((ValueDate) v).getDateValue());
+            break;
+        case Value.TIMESTAMP: {
+            ValueTimestamp ts = (ValueTimestamp) v;
+            out.writeLong(ts.getDateValue());
+            out.writeLong(ts.getTimeNanos());
+            break;
+        }
+        case Value.BYTES:
+        case Value.JAVA_OBJECT:
+        case Value.BLOB:
+            writeBytes(out, v.getBytesNoCopy());
+            break;
+        case Value.STRING:
+        case Value.STRING_IGNORECASE:
+        case Value.STRING_FIXED:
+        case Value.CLOB:
+            writeBytes(out, v.getString().getBytes(Constants.UTF8));
+            break;
+        case Value.UUID: {
+            ValueUuid uuid = (ValueUuid) v;
+            out.writeLong(uuid.getHigh());
+            out.writeLong(uuid.getLow());
+            break;
+        }
+        case Value.ARRAY: {
+            Value[] list = ((ValueArray) v).getList();
+            out.writeInt(list.length);
+            for (Value x : list) {
+                writeValue(out, x);
+            }
+            break;
+        }
+        default:
+            throw DbException.getUnsupportedException("write to disk buffer, type " + type);
+        }
+    }
+
+    /**
+     * Read a value from the stream.
+     *
+     * @param in the input stream
+     * @return the value
+     */
+    static Value readValue(DataInputStream in) throws IOException {
+        int type = in.readByte();
+        switch (type) {
+        case Value.NULL:
+            return ValueNull.INSTANCE;
+        case Value.BOOLEAN:
+            return ValueBoolean.get(in.readBoolean());
+        case Value.BYTE:
+            return ValueByte.get(in.readByte());
+        case Value.SHORT:
+            return ValueShort.get(in.readShort());
+        case Value.INT:
+            return ValueInt.get(in.readInt());
+        case Value.LONG:
+            return ValueLong.get(in.readLong());
+        case Value.DECIMAL: {
+            int scale = in.readInt();
+            return ValueDecimal.get(new BigDecimal(new BigInteger(readBytes(in)), scale));
+        }
+        case Value.DOUBLE:
+            return ValueDouble.get(in.readDouble());
+        case Value.FLOAT:
+            return ValueFloat.get(in.readFloat());
+        case Value.TIME:
+            return ValueTime.fromNanos(in.readLong());
+        case Value.DATE:
+            return ValueDate.fromDateValue(in.readLong());
+        case Value.TIMESTAMP: {
+            long dateValue = in.readLong();
+            return ValueTimestamp.fromDateValueAndNanos(dateValue, in.readLong());
+        }
+        case Value.BYTES:
+            return ValueBytes.getNoCopy(readBytes(in));
+        case Value.JAVA_OBJECT:
+            return ValueJavaObject.getNoCopy(null, readBytes(in));
+        case Value.BLOB:
+        case Value.CLOB:
+            return ValueLobDb.createSmallLob(type, readBytes(in));
+        case Value.STRING:
+            return ValueString.get(new String(readBytes(in), Constants.UTF8));
+        case Value.STRING_IGNORECASE:
+            return ValueStringIgnoreCase.get(new String(readBytes(in), Constants.UTF8));
+        case Value.STRING_FIXED:
+            return ValueStringFixed.get(new String(readBytes(in), Constants.UTF8));
+        case Value.UUID: {
+            long high = in.readLong();
+            return ValueUuid.get(high, in.readLong());
+        }
+        case Value.ARRAY: {
+            Value[] list = new Value[in.readInt()];
+            for (int i = 0; i < list.length; i++) {
+                list[i] = readValue(in);
+            }
+            return ValueArray.get(list);
+        }
+        default:
+            throw DbException.throwInternalError("type=" + type);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] b) throws IOException {
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return b;
+    }
+
+    /**
+     * A run of rows in the temporary file. The rows are read with a read
+     * ahead buffer, so that only this buffer is kept in memory per run.
+     */
+    private class ResultRun extends InputStream {
+
+        private final long start, end;
+        private final int rowCount;
+        private long pos;
+        private int rowsLeft;
+        private ByteBuffer buff;
+        private DataInputStream in;
+        private Value[] current;
+
+        ResultRun(long start, long end, int rowCount) {
+            this.start = start;
+            this.end = end;
+            this.rowCount = rowCount;
+        }
+
+        void rewind() {
+            pos = start;
+            rowsLeft = rowCount;
+            buff = null;
+            in = new DataInputStream(this);
+            current = null;
+        }
+
+        Value[] next() {
+            if (rowsLeft <= 0) {
+                current = null;
+                return null;
+            }
+            try {
+                Value[] row = new Value[in.readInt()];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = readValue(in);
+                }
+                rowsLeft--;
+                current = row;
+                return row;
+            } catch (IOException e) {
+                throw DbException.convertIOException(e, fileName);
+            }
+        }
+
+        private boolean fill() {
+            if (buff != null && buff.hasRemaining()) {
+                return true;
+            }
+            if (pos >= end) {
+                return false;
+            }
+            int len = (int) Math.min(READ_AHEAD, end - pos);
+            if (buff == null || buff.capacity() < len) {
+                buff = ByteBuffer.allocate(len);
+            }
+            buff.clear();
+            buff.limit(len);
+            DataUtils.readFully(file, pos, buff);
+            pos += len;
+            return true;
+        }
+
+        @Override
+        public int read() {
+            if (!fill()) {
+                return -1;
+            }
+            return buff.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            len = Math.min(len, buff.remaining());
+            buff.get(b, off, len);
+            return len;
+        }
+
+    }
+
+}
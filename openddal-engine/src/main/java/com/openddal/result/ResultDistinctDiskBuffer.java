@@ -0,0 +1,203 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.result;
+
+import java.util.ArrayList;
+
+import com.openddal.util.New;
+import com.openddal.util.ValueHashMap;
+import com.openddal.value.Value;
+import com.openddal.value.ValueArray;
+
+/**
+ * The disk buffer for distinct results. The rows are hash partitioned by
+ * their visible columns to a number of temporary files, so equal rows end up
+ * in the same partition. When all rows are added, each partition is read back
+ * and made distinct in memory on its own, and the remaining rows are written
+ * to a (sorted) disk buffer to be read. A partition with more distinct rows
+ * than fit in memory is partitioned again by the next bits of the hash.
+ */
+class ResultDistinctDiskBuffer implements ResultExternal {
+
+    private static final int PARTITION_BITS = 4;
+    private static final int PARTITIONS = 1 << PARTITION_BITS;
+    private static final int MAX_LEVEL = 32 / PARTITION_BITS - 1;
+
+    private final SortOrder sort;
+    private final int visibleColumnCount;
+    private final int maxMemoryRows;
+    private final ResultDiskBuffer[] partitions = new ResultDiskBuffer[PARTITIONS];
+    private ResultDiskBuffer result;
+    private int rowCount;
+
+    ResultDistinctDiskBuffer(SortOrder sort, int visibleColumnCount, int maxMemoryRows) {
+        this.sort = sort;
+        this.visibleColumnCount = visibleColumnCount;
+        this.maxMemoryRows = Math.max(1, maxMemoryRows);
+    }
+
+    @Override
+    public void addRows(ArrayList<Value[]> rows) {
+        addRows(rows, 0, partitions);
+        rowCount += rows.size();
+    }
+
+    private void addRows(ArrayList<Value[]> rows, int level, ResultDiskBuffer[] target) {
+        ArrayList<ArrayList<Value[]>> parts = New.arrayList(PARTITIONS);
+        for (int i = 0; i < PARTITIONS; i++) {
+            parts.add(New.<Value[]>arrayList());
+        }
+        for (Value[] row : rows) {
+            parts.get(getPartition(row, level)).add(row);
+        }
+        for (int i = 0; i < PARTITIONS; i++) {
+            ArrayList<Value[]> part = parts.get(i);
+            if (part.isEmpty()) {
+                continue;
+            }
+            if (target[i] == null) {
+                target[i] = new ResultDiskBuffer(null);
+            }
+            target[i].addRows(part);
+        }
+    }
+
+    @Override
+    public void done() {
+        result = new ResultDiskBuffer(sort);
+        for (int i = 0; i < PARTITIONS; i++) {
+            ResultDiskBuffer partition = partitions[i];
+            if (partition != null) {
+                partitions[i] = null;
+                distinct(partition, 0);
+            }
+        }
+        result.done();
+        rowCount = result.getRowCount();
+    }
+
+    /**
+     * Add the distinct rows of a partition to the result, and close it.
+     *
+     * @param partition the partition
+     * @param level the number of times the rows were partitioned before
+     */
+    private void distinct(ResultDiskBuffer partition, int level) {
+        try {
+            partition.done();
+            ValueHashMap<Value[]> distinctRows = ValueHashMap.newInstance();
+            for (Value[] row = partition.next(); row != null; row = partition.next()) {
+                distinctRows.put(getArrayOfVisible(row), row);
+                if (distinctRows.size() > maxMemoryRows && level < MAX_LEVEL) {
+                    distinctRows = null;
+                    split(partition, level + 1);
+                    return;
+                }
+            }
+            result.addRows(distinctRows.values());
+        } finally {
+            partition.close();
+        }
+    }
+
+    /**
+     * Partition the rows of a partition again, and add the distinct rows of
+     * each part to the result.
+     *
+     * @param partition the partition
+     * @param level the level of the new parts
+     */
+    private void split(ResultDiskBuffer partition, int level) {
+        ResultDiskBuffer[] parts = new ResultDiskBuffer[PARTITIONS];
+        try {
+            partition.reset();
+            ArrayList<Value[]> rows = New.arrayList();
+            for (Value[] row = partition.next(); row != null; row = partition.next()) {
+                rows.add(row);
+                if (rows.size() > maxMemoryRows) {
+                    addRows(rows, level, parts);
+                    rows.clear();
+                }
+            }
+            addRows(rows, level, parts);
+            partition.close();
+            for (int i = 0; i < PARTITIONS; i++) {
+                ResultDiskBuffer part = parts[i];
+                if (part != null) {
+                    parts[i] = null;
+                    distinct(part, level);
+                }
+            }
+        } finally {
+            for (ResultDiskBuffer part : parts) {
+                if (part != null) {
+                    part.close();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        result.reset();
+    }
+
+    @Override
+    public Value[] next() {
+        return result.next();
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public void close() {
+        for (int i = 0; i < PARTITIONS; i++) {
+            if (partitions[i] != null) {
+                partitions[i].close();
+                partitions[i] = null;
+            }
+        }
+        if (result != null) {
+            result.close();
+            result = null;
+        }
+    }
+
+    private int getPartition(Value[] row, int level) {
+        int hash = getArrayOfVisible(row).hashCode();
+        // spread the hash of small numbers over all bits, each level uses
+        // other bits
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return (hash >>> (level * PARTITION_BITS)) & (PARTITIONS - 1);
+    }
+
+    private ValueArray getArrayOfVisible(Value[] values) {
+        if (values.length > visibleColumnCount) {
+            Value[] v2 = new Value[visibleColumnCount];
+            System.arraycopy(values, 0, v2, 0, visibleColumnCount);
+            values = v2;
+        }
+        return ValueArray.get(values);
+    }
+
+}
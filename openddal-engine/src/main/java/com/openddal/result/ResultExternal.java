@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.result;
+
+import java.util.ArrayList;
+
+import com.openddal.value.Value;
+
+/**
+ * This interface is used to extend the LocalResult class, if data does not fit
+ * in memory.
+ */
+public interface ResultExternal {
+
+    /**
+     * Add a number of rows to the result. The rows may be written to disk and
+     * the list can be reused by the caller afterwards.
+     *
+     * @param rows the list of rows to add
+     */
+    void addRows(ArrayList<Value[]> rows);
+
+    /**
+     * This method is called after all rows have been added.
+     */
+    void done();
+
+    /**
+     * Reset the current position of this object.
+     */
+    void reset();
+
+    /**
+     * Get the next row from the result.
+     *
+     * @return the next row or null
+     */
+    Value[] next();
+
+    /**
+     * Get the number of rows of this result. For distinct results, the
+     * number is only exact after done() was called.
+     *
+     * @return the number of rows
+     */
+    int getRowCount();
+
+    /**
+     * Close this object and delete the temporary file.
+     */
+    void close();
+
+}
@@ -38,4 +38,11 @@ public interface RoutingHandler {
 
     RoutingResult doRoute(TableMate table, SearchRow first, SearchRow last, Map<Column, Set<Value>> inColumns);
 
+    /**
+     * Route the rows that are updated or deleted. The nodes are the same as
+     * of a query, but the rows are held for a write.
+     */
+    RoutingResult doRouteForUpdate(TableMate table, SearchRow first, SearchRow last,
+            Map<Column, Set<Value>> inColumns);
+
 }
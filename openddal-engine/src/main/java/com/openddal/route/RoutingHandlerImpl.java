@@ -86,6 +86,12 @@ public class RoutingHandlerImpl implements RoutingHandler {
     private RoutingResult getRoutingResult(TableMate table, SearchRow row) {
         ShardedTableRule tr = (ShardedTableRule) table.getTableRule();
         Column[] ruleCols = table.getRuleColumns();
+        if (ruleCols.length == 1) {
+            // the common case of a single rule column needs no arguments
+            Column ruleCol = ruleCols[0];
+            Value v = ruleCol.convert(row.getValue(ruleCol.getColumnId()));
+            return trc.calculate(tr, v);
+        }
         List<RoutingArgument> args = New.arrayList(ruleCols.length);
         for (Column ruleCol : ruleCols) {
             Value v = row.getValue(ruleCol.getColumnId());
@@ -112,6 +118,15 @@ public class RoutingHandlerImpl implements RoutingHandler {
         if (tr instanceof ShardedTableRule)
             try {
                 Column[] ruleCols = table.getRuleColumns();
+                if (ruleCols.length == 1 && first != null && last != null) {
+                    // the point lookup of a single rule column
+                    int idx = ruleCols[0].getColumnId();
+                    Value startV = first.getValue(idx);
+                    Value endV = last.getValue(idx);
+                    if (startV != null && endV != null && database.compare(startV, endV) == 0) {
+                        return trc.calculate((ShardedTableRule) tr, ruleCols[0].convert(startV));
+                    }
+                }
                 List<RoutingArgument> args = New.arrayList(ruleCols.length);
                 for (Column ruleCol : ruleCols) {
                     String ruleColName = ruleCol.getName();
@@ -167,6 +182,12 @@ public class RoutingHandlerImpl implements RoutingHandler {
 
     }
 
+    @Override
+    public RoutingResult doRouteForUpdate(TableMate table, SearchRow first, SearchRow last,
+            Map<Column, Set<Value>> inColumns) {
+        return doRoute(table, first, last, inColumns);
+    }
+
     private RoutingResult fixedRoutingResult(ObjectNode... tableNode) {
         RoutingResult result = RoutingResult.fixedResult(tableNode);
         return result;
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.route;
+
+import java.util.Map;
+import java.util.Set;
+
+import com.openddal.config.ShardedTableRule;
+import com.openddal.dbobject.table.Column;
+import com.openddal.dbobject.table.TableMate;
+import com.openddal.engine.Database;
+import com.openddal.engine.Session;
+import com.openddal.message.DbException;
+import com.openddal.message.ErrorCode;
+import com.openddal.result.SearchRow;
+import com.openddal.route.algorithm.VirtualBucketPartitioner;
+import com.openddal.route.algorithm.VirtualBucketPartitioner.Hold;
+import com.openddal.route.rule.ObjectNode;
+import com.openddal.route.rule.RoutingResult;
+import com.openddal.util.New;
+import com.openddal.value.Value;
+import com.openddal.value.ValueNull;
+
+/**
+ * The routing of a session. The tables of a {@link VirtualBucketPartitioner}
+ * are routed with a hold on the rows, so a bucket does not move while the
+ * session uses it. Reads are held until the statement ends, writes until the
+ * transaction ends.
+ *
+ * @author jorgie.li
+ */
+public class RoutingHandlerProxy implements RoutingHandler {
+
+    private final Session session;
+    private final Database database;
+    private final RoutingHandler target;
+    private final Set<Hold> readHolds = New.hashSet();
+    private final Set<Hold> writeHolds = New.hashSet();
+
+    public RoutingHandlerProxy(Session session) {
+        this.session = session;
+        this.database = session.getDatabase();
+        this.target = database.getRoutingHandler();
+    }
+
+    @Override
+    public RoutingResult doRoute(TableMate table) {
+        VirtualBucketPartitioner partitioner = getPartitioner(table);
+        if (partitioner != null) {
+            holdNodes(table, partitioner, false);
+        }
+        return target.doRoute(table);
+    }
+
+    @Override
+    public RoutingResult doRoute(TableMate table, SearchRow row) {
+        VirtualBucketPartitioner partitioner = getPartitioner(table);
+        if (partitioner != null) {
+            Column[] ruleCols = table.getRuleColumns();
+            if (ruleCols.length == 1) {
+                Value v = ruleCols[0].convert(row.getValue(ruleCols[0].getColumnId()));
+                holdBucket(table, partitioner, v, true);
+            } else {
+                holdNodes(table, partitioner, true);
+            }
+        }
+        return target.doRoute(table, row);
+    }
+
+    @Override
+    public RoutingResult doRoute(TableMate table, SearchRow first, SearchRow last, Map<Column, Set<Value>> inColumns) {
+        hold(table, first, last, false);
+        return target.doRoute(table, first, last, inColumns);
+    }
+
+    @Override
+    public RoutingResult doRouteForUpdate(TableMate table, SearchRow first, SearchRow last,
+            Map<Column, Set<Value>> inColumns) {
+        hold(table, first, last, true);
+        return target.doRouteForUpdate(table, first, last, inColumns);
+    }
+
+    /**
+     * Release the holds of the statement. The holds of the writes are kept
+     * until the transaction ends, unless the session is in auto commit mode.
+     */
+    public synchronized void endStatement() {
+        release(readHolds);
+        if (session.getAutoCommit()) {
+            release(writeHolds);
+        }
+    }
+
+    /**
+     * Release all holds.
+     */
+    public synchronized void endTransaction() {
+        release(readHolds);
+        release(writeHolds);
+    }
+
+    private void hold(TableMate table, SearchRow first, SearchRow last, boolean write) {
+        VirtualBucketPartitioner partitioner = getPartitioner(table);
+        if (partitioner == null) {
+            return;
+        }
+        Value v = getPointValue(table, first, last);
+        if (v != null) {
+            holdBucket(table, partitioner, v, write);
+        } else {
+            // the nodes are held before they are selected, so a bucket can
+            // not move away from the selection
+            holdNodes(table, partitioner, write);
+        }
+    }
+
+    private void holdBucket(TableMate table, VirtualBucketPartitioner partitioner, Value v, boolean write) {
+        if (v == ValueNull.INSTANCE) {
+            // null values are routed to the default node, not to a bucket
+            return;
+        }
+        hold(table, partitioner.getBucketHold(partitioner.getBucket(v), write));
+    }
+
+    private void holdNodes(TableMate table, VirtualBucketPartitioner partitioner, boolean write) {
+        ObjectNode[] nodes = ((ShardedTableRule) table.getTableRule()).getObjectNodes();
+        for (ObjectNode node : target.doRoute(table).getSelectNodes()) {
+            for (int i = 0; i < nodes.length; i++) {
+                if (nodes[i].equals(node)) {
+                    hold(table, partitioner.getNodeHold(i, write));
+                }
+            }
+        }
+    }
+
+    private synchronized void hold(TableMate table, Hold hold) {
+        Set<Hold> holds = hold.isWrite() ? writeHolds : readHolds;
+        if (holds.contains(hold)) {
+            return;
+        }
+        if (!hold.acquire(isHolding(hold.getPartitioner()))) {
+            throw DbException.get(ErrorCode.LOCK_TIMEOUT_1, table.getName());
+        }
+        holds.add(hold);
+    }
+
+    private boolean isHolding(VirtualBucketPartitioner partitioner) {
+        for (Hold hold : writeHolds) {
+            if (hold.getPartitioner() == partitioner) {
+                return true;
+            }
+        }
+        for (Hold hold : readHolds) {
+            if (hold.getPartitioner() == partitioner) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Value getPointValue(TableMate table, SearchRow first, SearchRow last) {
+        Column[] ruleCols = table.getRuleColumns();
+        if (ruleCols.length != 1 || first == null || last == null) {
+            return null;
+        }
+        int idx = ruleCols[0].getColumnId();
+        Value startV = first.getValue(idx);
+        Value endV = last.getValue(idx);
+        if (startV == null || endV == null || database.compare(startV, endV) != 0) {
+            return null;
+        }
+        return ruleCols[0].convert(startV);
+    }
+
+    private static VirtualBucketPartitioner getPartitioner(TableMate table) {
+        if (!(table.getTableRule() instanceof ShardedTableRule)) {
+            return null;
+        }
+        Object partitioner = ((ShardedTableRule) table.getTableRule()).getPartitioner();
+        return partitioner instanceof VirtualBucketPartitioner ? (VirtualBucketPartitioner) partitioner : null;
+    }
+
+    private static void release(Set<Hold> holds) {
+        for (Hold hold : holds) {
+            hold.release();
+        }
+        holds.clear();
+    }
+
+}
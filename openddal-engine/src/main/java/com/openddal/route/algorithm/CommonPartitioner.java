@@ -15,8 +15,9 @@
  */
 package com.openddal.route.algorithm;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Set;
 
 import com.openddal.route.rule.ObjectNode;
 import com.openddal.route.rule.RuleEvaluateException;
@@ -36,6 +37,8 @@ public abstract class CommonPartitioner implements Partitioner {
 
     private ObjectNode[] tableNodes;
 
+    private Integer[] allNodes;
+
     protected static int[] toIntArray(String string) {
         String[] split = StringUtils.arraySplit(string, ',', true);
         int[] ints = new int[split.length];
@@ -81,18 +84,51 @@ public abstract class CommonPartitioner implements Partitioner {
 
     @Override
     public Integer[] partition(Value... values) {
-        Set<Integer> result = New.linkedHashSet();
+        // the positions are small, so they are deduplicated with a bit set
+        BitSet seen = new BitSet();
+        Integer[] result = new Integer[values.length];
+        int count = 0;
         for (Value value : values) {
             Integer partition = partition(value);
-            result.add(partition);
+            if (partition != null && partition >= 0) {
+                if (seen.get(partition)) {
+                    continue;
+                }
+                seen.set(partition);
+            }
+            result[count++] = partition;
         }
-        return result.toArray(new Integer[result.size()]);
+        return count == result.length ? result : Arrays.copyOf(result, count);
     }
 
+    /**
+     * Get the positions of all nodes. The array is shared and must not be
+     * modified.
+     *
+     * @return the positions
+     */
     protected Integer[] allNodes() {
-        Integer[] result = new Integer[tableNodes.length];
-        for (int i = 0; i < result.length; i++) {
-            result[i] = i;
+        Integer[] result = allNodes;
+        if (result == null || result.length != tableNodes.length) {
+            result = new Integer[tableNodes.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = i;
+            }
+            allNodes = result;
+        }
+        return result;
+    }
+
+    /**
+     * Get the positions of the set bits.
+     *
+     * @param positions the positions
+     * @return the positions in ascending order
+     */
+    protected static Integer[] toPositions(BitSet positions) {
+        Integer[] result = new Integer[positions.cardinality()];
+        for (int i = positions.nextSetBit(0), j = 0; i >= 0; i = positions.nextSetBit(i + 1)) {
+            result[j++] = i;
         }
         return result;
     }
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.route.algorithm;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.openddal.engine.Constants;
+import com.openddal.route.rule.ObjectNode;
+import com.openddal.util.MurmurHash;
+import com.openddal.util.SourceCompiler;
+import com.openddal.util.StringUtils;
+import com.openddal.value.Value;
+
+/**
+ * A partitioner that evaluates a Java expression, for example
+ * "crc32(user_id) % 1024". The expression is compiled to a class when the
+ * partitioner is initialized, and is called with the plain long or String
+ * value of the rule column.
+ * <p>
+ * The properties are:
+ * <ul>
+ * <li>expression: the expression, which can use the static methods of this
+ * class, such as crc32 and murmur</li>
+ * <li>argumentName: the name of the value in the expression (default:
+ * value)</li>
+ * <li>argumentType: long or string (default: long)</li>
+ * <li>partitionCount and partitionLength: if set, the result of the
+ * expression is mapped to the nodes like in the
+ * {@link HashBucketPartitioner}, otherwise the result is the node index</li>
+ * </ul>
+ *
+ * @author jorgie.li
+ */
+public class ExpressionPartitioner extends CommonPartitioner {
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int c = i;
+            for (int k = 0; k < 8; k++) {
+                c = (c & 1) != 0 ? 0xedb88320 ^ (c >>> 1) : c >>> 1;
+            }
+            CRC_TABLE[i] = c;
+        }
+    }
+
+    private String expression;
+    private String argumentName = "value";
+    private boolean stringArgument;
+    private int[] count;
+    private int[] length;
+    private PartitionUtil partitionUtil;
+    private LongRule longRule;
+    private StringRule stringRule;
+
+    public void setExpression(String expression) {
+        this.expression = expression;
+    }
+
+    public void setArgumentName(String argumentName) {
+        this.argumentName = argumentName;
+    }
+
+    public void setArgumentType(String argumentType) {
+        if ("string".equalsIgnoreCase(argumentType)) {
+            stringArgument = true;
+        } else if ("long".equalsIgnoreCase(argumentType)) {
+            stringArgument = false;
+        } else {
+            throw new IllegalArgumentException("argumentType must be long or string");
+        }
+    }
+
+    public void setPartitionCount(String partitionCount) {
+        this.count = toIntArray(partitionCount);
+    }
+
+    public void setPartitionLength(String partitionLength) {
+        this.length = toIntArray(partitionLength);
+    }
+
+    @Override
+    public void initialize(ObjectNode[] tableNodes) {
+        super.initialize(tableNodes);
+        if (StringUtils.isNullOrEmpty(expression)) {
+            throw new IllegalArgumentException("expression is required");
+        }
+        if (!isIdentifier(argumentName)) {
+            throw new IllegalArgumentException("argumentName " + argumentName + " is not a Java identifier");
+        }
+        if (count != null || length != null) {
+            int segmentLength = 0;
+            for (int i = 0; count != null && length != null && i < Math.min(count.length, length.length); i++) {
+                segmentLength += count[i] * length[i];
+            }
+            partitionUtil = new PartitionUtil(segmentLength, count, length);
+        }
+        Object rule = compile();
+        if (stringArgument) {
+            stringRule = (StringRule) rule;
+        } else {
+            longRule = (LongRule) rule;
+        }
+    }
+
+    private Object compile() {
+        String packageName = ExpressionPartitioner.class.getPackage().getName();
+        String className = "CompiledRule" + NEXT_ID.incrementAndGet();
+        StringBuilder buff = new StringBuilder();
+        buff.append("package ").append(packageName).append(";\n");
+        buff.append("import static ").append(ExpressionPartitioner.class.getName()).append(".*;\n");
+        buff.append("public class ").append(className).append(" extends ExpressionPartitioner.")
+                .append(stringArgument ? "StringRule" : "LongRule").append(" {\n");
+        buff.append("    public long evaluate(").append(stringArgument ? "String " : "long ")
+                .append(argumentName).append(") {\n");
+        buff.append("        return (long) (").append(expression).append(");\n");
+        buff.append("    }\n");
+        buff.append("}\n");
+        SourceCompiler compiler = new SourceCompiler();
+        String name = packageName + "." + className;
+        compiler.setSource(name, buff.toString());
+        try {
+            return compiler.getClass(name).newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("can not compile the expression " + expression, e);
+        }
+    }
+
+    @Override
+    public Integer partition(Value value) {
+        boolean isNull = checkNull(value);
+        if (isNull) {
+            return getDefaultNodeIndex();
+        }
+        long result = stringArgument ? stringRule.evaluate(value.getString()) : longRule.evaluate(value.getLong());
+        if (partitionUtil != null) {
+            return partitionUtil.partition(result);
+        }
+        return (int) result;
+    }
+
+    private static boolean isIdentifier(String s) {
+        if (StringUtils.isNullOrEmpty(s) || !Character.isJavaIdentifierStart(s.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < s.length(); i++) {
+            if (!Character.isJavaIdentifierPart(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the CRC32 checksum of the 8 bytes of a long value, in big endian
+     * order.
+     *
+     * @param x the value
+     * @return the checksum
+     */
+    public static long crc32(long x) {
+        int c = -1;
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            c = CRC_TABLE[(c ^ (int) (x >>> shift)) & 0xff] ^ (c >>> 8);
+        }
+        return ~c & 0xffffffffL;
+    }
+
+    /**
+     * Get the CRC32 checksum of the UTF-8 bytes of a string.
+     *
+     * @param s the string
+     * @return the checksum
+     */
+    public static long crc32(String s) {
+        int c = -1;
+        for (byte b : s.getBytes(Constants.UTF8)) {
+            c = CRC_TABLE[(c ^ b) & 0xff] ^ (c >>> 8);
+        }
+        return ~c & 0xffffffffL;
+    }
+
+    /**
+     * Get the positive 64 bit murmur hash of a long value. The hash is the
+     * same as used by the {@link HashBucketPartitioner}.
+     *
+     * @param x the value
+     * @return the hash
+     */
+    public static long murmur(long x) {
+        return MurmurHash.hash64(x) & Long.MAX_VALUE;
+    }
+
+    /**
+     * Get the positive 64 bit murmur hash of the bytes of a string.
+     *
+     * @param s the string
+     * @return the hash
+     */
+    public static long murmur(String s) {
+        byte[] bytes = s.getBytes(Constants.UTF8);
+        return MurmurHash.hash64(bytes, bytes.length) & Long.MAX_VALUE;
+    }
+
+    /**
+     * The base class of the compiled expressions with a long argument.
+     */
+    public abstract static class LongRule {
+
+        /**
+         * Evaluate the expression.
+         *
+         * @param x the value
+         * @return the result
+         */
+        public abstract long evaluate(long x);
+
+    }
+
+    /**
+     * The base class of the compiled expressions with a string argument.
+     */
+    public abstract static class StringRule {
+
+        /**
+         * Evaluate the expression.
+         *
+         * @param x the value
+         * @return the result
+         */
+        public abstract long evaluate(String x);
+
+    }
+
+}
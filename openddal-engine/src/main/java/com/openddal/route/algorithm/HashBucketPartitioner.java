@@ -15,6 +15,8 @@
  */
 package com.openddal.route.algorithm;
 
+import java.util.BitSet;
+
 import com.openddal.route.rule.ObjectNode;
 import com.openddal.util.MurmurHash;
 import com.openddal.value.Value;
@@ -28,6 +30,11 @@ public class HashBucketPartitioner extends CommonPartitioner {
 
     private static final int HASH_BUCKET_SIZE = 1024;
 
+    /**
+     * The longest range of integers that is enumerated to find the nodes.
+     */
+    static final int MAX_ENUM_RANGE = 4 * HASH_BUCKET_SIZE;
+
     private int[] count;
     private int[] length;
     private PartitionUtil partitionUtil;
@@ -52,13 +59,77 @@ public class HashBucketPartitioner extends CommonPartitioner {
         if (isNull) {
             return getDefaultNodeIndex();
         }
-        byte[] bytes = toBytes(value);
-        long hash64 = MurmurHash.hash64(bytes, bytes.length);
-        return partitionUtil.partition(hash64);
+        return partitionUtil.partition(hash64(value));
+    }
+
+    /**
+     * Get the nodes of a range. A short range of integers is enumerated and
+     * each value is hashed; other ranges touch all nodes, as the hash does
+     * not keep the order of the values.
+     */
+    @Override
+    public Integer[] partition(Value beginValue, Value endValue) {
+        if (isNull(beginValue) || isNull(endValue) || beginValue.getType() != endValue.getType()) {
+            return allNodes();
+        }
+        switch (beginValue.getType()) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+            break;
+        default:
+            return allNodes();
+        }
+        long begin = beginValue.getLong();
+        long end = endValue.getLong();
+        if (end < begin) {
+            return new Integer[0];
+        }
+        long width = end - begin;
+        if (width < 0 || width >= MAX_ENUM_RANGE) {
+            return allNodes();
+        }
+        int nodeCount = getTableNodes().length;
+        BitSet positions = new BitSet(nodeCount);
+        for (long x = begin;; x++) {
+            positions.set(partitionUtil.partition(MurmurHash.hash64(x)));
+            if (x == end || positions.cardinality() == nodeCount) {
+                break;
+            }
+        }
+        return toPositions(positions);
+    }
+
+    /**
+     * Get the 64 bit hash of a value that is not null.
+     *
+     * @param value the value
+     * @return the hash
+     */
+    static long hash64(Value value) {
+        long hash64;
+        switch (value.getType()) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+        case Value.FLOAT:
+        case Value.DECIMAL:
+        case Value.DOUBLE:
+            // the same hash as of the bytes of the long value, without
+            // creating the bytes
+            hash64 = MurmurHash.hash64(value.getLong());
+            break;
+        default:
+            byte[] bytes = toBytes(value);
+            hash64 = MurmurHash.hash64(bytes, bytes.length);
+        }
+        return hash64;
     }
     
     
-    private byte[] toBytes(Value value) {
+    private static byte[] toBytes(Value value) {
         byte[] bytes;
         switch (value.getType()) {
 
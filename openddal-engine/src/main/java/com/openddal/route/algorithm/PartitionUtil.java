@@ -15,6 +15,7 @@
  */
 package com.openddal.route.algorithm;
 
+import java.util.BitSet;
 
 public final class PartitionUtil {
 
@@ -79,4 +80,31 @@ public final class PartitionUtil {
         return segment[index];
     }
 
+    /**
+     * Get the partitions of all hashes from begin to end. The segments are
+     * ordered, so the partitions of a range of hashes are one range of
+     * partitions, or two if the range wraps around the end of the segments.
+     *
+     * @param begin the first hash
+     * @param end the last hash, not smaller than the first hash
+     * @return the partitions, or null if the range covers all segments
+     */
+    public BitSet partition(long begin, long end) {
+        long width = end - begin;
+        if (width < 0 || width >= andValue) {
+            // the range is as long as the segments, or overflows
+            return null;
+        }
+        int first = (int) (begin & andValue);
+        int last = (int) (end & andValue);
+        BitSet result = new BitSet();
+        if (first <= last) {
+            result.set(segment[first], segment[last] + 1);
+        } else {
+            result.set(segment[first], segment[segment.length - 1] + 1);
+            result.set(segment[0], segment[last] + 1);
+        }
+        return result;
+    }
+
 }
@@ -15,10 +15,11 @@
  */
 package com.openddal.route.algorithm;
 
+import java.util.BitSet;
+
 import com.openddal.route.rule.ObjectNode;
 import com.openddal.route.rule.RuleEvaluateException;
 import com.openddal.value.Value;
-import com.openddal.value.ValueNull;
 import com.openddal.value.ValueTimestamp;
 
 /**
@@ -94,9 +95,7 @@ public class RangePartitioner extends CommonPartitioner {
             case Value.DATE:
             case Value.TIME:
             case Value.TIMESTAMP:
-                ValueTimestamp v = (ValueTimestamp) value.convertTo(Value.TIMESTAMP);
-                long toLong = v.getTimestamp().getTime();
-                return partitionUtil.partition(toLong);
+                return partitionUtil.partition(getTime(value));
             case Value.STRING:
             case Value.STRING_FIXED:
             case Value.STRING_IGNORECASE:
@@ -108,10 +107,17 @@ public class RangePartitioner extends CommonPartitioner {
         }
     }
 
+    /**
+     * Get the nodes of a range. The values are laid out on the segments
+     * modulo the chunk, so a range that is open, or at least as long as the
+     * chunk, touches all nodes; otherwise the touched segments are exactly
+     * those between the ends, wrapping around at the end of the chunk.
+     * String values are placed by their hash, which does not keep the order,
+     * so string ranges touch all nodes.
+     */
     @Override
     public Integer[] partition(Value beginValue, Value endValue) {
-        if (beginValue == null || beginValue == ValueNull.INSTANCE
-                || endValue == null || endValue == ValueNull.INSTANCE) {
+        if (isNull(beginValue) || isNull(endValue)) {
             return allNodes();
         }
         if (beginValue.getType() != endValue.getType()) {
@@ -139,37 +145,27 @@ public class RangePartitioner extends CommonPartitioner {
             case Value.DATE:
             case Value.TIME:
             case Value.TIMESTAMP:
-                vBegin = beginValue.getLong();
-                vEnd = endValue.getLong();
+                vBegin = getTime(beginValue);
+                vEnd = getTime(endValue);
                 break;
             case Value.STRING:
             case Value.STRING_FIXED:
             case Value.STRING_IGNORECASE:
-                String str1 = beginValue.getString();
-                String str2 = endValue.getString();
-                vBegin = hash(str1, 0, str1.length());
-                vEnd = hash(str2, 0, str2.length());
-                break;
+                return allNodes();
             default:
                 throw new RuleEvaluateException("Invalid type for " + getClass().getName());
 
         }
-        if ((vEnd - vBegin) >= chunk - 1) {
-            return allNodes();
-        } else if ((vEnd - vBegin) < 0) {
+        if (vEnd < vBegin) {
             return new Integer[0];
-        } else {
-            Integer begin = partition(beginValue);
-            Integer end = partition(endValue);
-            int max = Math.max(begin, end);
-            int min = Math.min(begin, end);
-            Integer[] re = new Integer[(max - min) + 1];
-            int idx = 0;
-            for (Integer i = min; i <= max; i++) {
-                re[idx++] = i;
-            }
-            return re;
         }
+        BitSet positions = partitionUtil.partition(vBegin, vEnd);
+        return positions == null ? allNodes() : toPositions(positions);
+    }
+
+    private static long getTime(Value value) {
+        ValueTimestamp v = (ValueTimestamp) value.convertTo(Value.TIMESTAMP);
+        return v.getTimestamp().getTime();
     }
 
 }
@@ -15,17 +15,27 @@
  */
 package com.openddal.route.algorithm;
 
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
+import java.util.BitSet;
 
 import com.openddal.route.rule.ObjectNode;
 import com.openddal.route.rule.RuleEvaluateException;
+import com.openddal.util.DateTimeUtils;
 import com.openddal.util.StringUtils;
 import com.openddal.value.Value;
+import com.openddal.value.ValueDate;
+import com.openddal.value.ValueTime;
 import com.openddal.value.ValueTimestamp;
 
 /**
+ * Routes numbers by the distance to startBy in steps of rollingBy, and dates
+ * by the hour of the day ('hour'), the day of the month ('day'), the week of
+ * the year counted from the 1st of January ('week'), the month of the year
+ * ('month'), or the number of years since startBy ('year'). The years after
+ * the last node are routed to the last node.
+ * <p>
+ * The dates are routed with the arithmetic on date values of the
+ * {@link DateTimeUtils}, so no calendar is needed.
+ *
  * @author jorgie.li
  */
 public class RollingPartitioner extends CommonPartitioner {
@@ -34,11 +44,18 @@ public class RollingPartitioner extends CommonPartitioner {
     private static final int YEARS_TYPE = 1;
     private static final int MONTHS_TYPE = 2;
     private static final int DAYS_TYPE = 3;
+    private static final int WEEKS_TYPE = 4;
+    private static final int HOURS_TYPE = 5;
+
+    private static final long NANOS_PER_HOUR = 3600L * 1000 * 1000 * 1000;
+    private static final long EPOCH_DATE_VALUE = DateTimeUtils.dateValue(1970, 1, 1);
 
     private String startBy;
     private String rollingBy;
 
     private long startNumber;
+    private long startDateValue;
+    private boolean hasStartDate;
     private long rollingNumber;
     private int rollingType;
 
@@ -54,10 +71,9 @@ public class RollingPartitioner extends CommonPartitioner {
                 if (StringUtils.isNumber(startBy)) {
                     startNumber = Long.parseLong(startBy);
                 } else {
-                    SimpleDateFormat sdf = new SimpleDateFormat();
-                    sdf.applyPattern("yyyy-MM-dd");
-                    Date date = sdf.parse(startBy);
-                    startNumber = date.getTime();
+                    startDateValue = DateTimeUtils.parseDateValue(startBy, 0, startBy.length());
+                    startNumber = DateTimeUtils.convertDateValueToDate(startDateValue).getTime();
+                    hasStartDate = true;
                 }
             } catch (Exception e) {
                 throw new IllegalArgumentException("startBy must be number or date of yyyy-MM-dd");
@@ -67,14 +83,19 @@ public class RollingPartitioner extends CommonPartitioner {
         if (StringUtils.isNumber(rollingBy)) {
             rollingNumber = Long.parseLong(rollingBy);
             rollingType = NUMBER_TYPE;
+        } else if ("hour".equalsIgnoreCase(rollingBy)) {
+            rollingType = HOURS_TYPE;
         } else if ("day".equalsIgnoreCase(rollingBy)) {
             rollingType = DAYS_TYPE;
+        } else if ("week".equalsIgnoreCase(rollingBy)) {
+            rollingType = WEEKS_TYPE;
         } else if ("month".equalsIgnoreCase(rollingBy)) {
             rollingType = MONTHS_TYPE;
         } else if ("year".equalsIgnoreCase(rollingBy)) {
             rollingType = YEARS_TYPE;
         } else {
-            throw new IllegalArgumentException("startBy must be number or string 'day','month','year'.");
+            throw new IllegalArgumentException(
+                    "rollingBy must be number or string 'hour','day','week','month','year'.");
         }
 
     }
@@ -111,27 +132,28 @@ public class RollingPartitioner extends CommonPartitioner {
                         throw new RuleEvaluateException("Invalid type for " + getClass().getName());
                 }
             }
-            case DAYS_TYPE: {
-                Calendar calendar = Calendar.getInstance();
-                calendar.setTimeInMillis(getTime(value));
-                return calendar.get(Calendar.DAY_OF_MONTH) - 1;
-            }
-            case MONTHS_TYPE: {
-                Calendar calendar = Calendar.getInstance();
-                calendar.setTimeInMillis(getTime(value));
-                return calendar.get(Calendar.MONTH);
-            }
+            case HOURS_TYPE:
+                return (int) (getTimeNanos(value) / NANOS_PER_HOUR);
+            default:
+                return partitionOfDate(getDateValue(value));
+        }
+    }
+
+    private int partitionOfDate(long dateValue) {
+        switch (rollingType) {
+            case DAYS_TYPE:
+                return DateTimeUtils.dayFromDateValue(dateValue) - 1;
+            case WEEKS_TYPE:
+                return getDayOfYear(dateValue) / 7;
+            case MONTHS_TYPE:
+                return DateTimeUtils.monthFromDateValue(dateValue) - 1;
             case YEARS_TYPE: {
-                if (startNumber < 1) {
-                    throw new IllegalArgumentException("need to setting startBy date.");
-                }
-                Calendar start = Calendar.getInstance();
-                start.setTimeInMillis(startNumber);
-                Calendar v = Calendar.getInstance();
-                v.setTimeInMillis(getTime(value));
-                int startYear = start.get(Calendar.YEAR);
-                int year = v.get(Calendar.YEAR);
-                return Math.max(year - startYear, 0);
+                checkStartDate();
+                int startYear = DateTimeUtils.yearFromDateValue(startDateValue);
+                int year = DateTimeUtils.yearFromDateValue(dateValue);
+                // the years before the start are on the first node, the
+                // years after the last node on the last one, as in a range
+                return Math.min(Math.max(year - startYear, 0), getTableNodes().length - 1);
             }
             default:
                 throw new IllegalStateException("Invalid rollingType");
@@ -141,38 +163,123 @@ public class RollingPartitioner extends CommonPartitioner {
 
     @Override
     public Integer[] partition(Value beginValue, Value endValue) {
-        Integer begin;
-        if (beginValue == null) {
-            begin = 0;
-        } else {
-            begin = partition(beginValue);
-        }
-        Integer end;
-        if (endValue == null) {
-            end = getTableNodes().length - 1;
-        } else {
-            end = partition(endValue);
+        switch (rollingType) {
+            case NUMBER_TYPE:
+            case YEARS_TYPE:
+                return partitionLinear(beginValue, endValue);
+            default:
+                if (isNull(beginValue) || isNull(endValue)) {
+                    return allNodes();
+                }
+                return partitionCyclic(beginValue, endValue);
         }
+    }
 
-        int max = Math.max(begin, end);
-        int min = Math.min(begin, end);
+    /**
+     * Get the nodes of a range if the node index grows with the value.
+     */
+    private Integer[] partitionLinear(Value beginValue, Value endValue) {
+        int last = getTableNodes().length - 1;
+        int begin = isNull(beginValue) ? 0 : partition(beginValue);
+        int end = isNull(endValue) ? last : partition(endValue);
+        int max = Math.min(Math.max(begin, end), last);
+        int min = Math.max(Math.min(begin, end), 0);
+        if (min > max) {
+            // the range is out of the nodes, so one of the nodes is returned
+            // as the partitioner would for a single value
+            return new Integer[] { Math.min(Math.max(begin, 0), last) };
+        }
         Integer[] re = new Integer[(max - min) + 1];
         int idx = 0;
-        for (Integer i = min; i <= max; i++) {
+        for (int i = min; i <= max; i++) {
             re[idx++] = i;
         }
         return re;
     }
 
-    private long getTime(Value value) {
-        int type;
-        type = value.getType();
-        switch (type) {
+    /**
+     * Get the nodes of a range if the node index repeats in a cycle (of a
+     * day, a month or a year). Only the touched hours, days, weeks or months
+     * are enumerated, and all nodes are returned if the range is at least a
+     * whole cycle.
+     */
+    private Integer[] partitionCyclic(Value beginValue, Value endValue) {
+        BitSet positions = new BitSet();
+        if (rollingType == HOURS_TYPE) {
+            long begin = getAbsoluteHour(beginValue), end = getAbsoluteHour(endValue);
+            if (begin > end) {
+                long t = begin;
+                begin = end;
+                end = t;
+            }
+            if (end - begin >= 23) {
+                return allNodes();
+            }
+            for (long h = begin; h <= end; h++) {
+                positions.set((int) (h % 24 + 24) % 24);
+            }
+        } else {
+            long begin = DateTimeUtils.absoluteDayFromDateValue(getDateValue(beginValue));
+            long end = DateTimeUtils.absoluteDayFromDateValue(getDateValue(endValue));
+            if (begin > end) {
+                long t = begin;
+                begin = end;
+                end = t;
+            }
+            // the longest month, the longest year
+            int cycle = rollingType == DAYS_TYPE ? 31 : 366;
+            if (end - begin >= cycle) {
+                return allNodes();
+            }
+            for (long day = begin; day <= end; day++) {
+                positions.set(partitionOfDate(DateTimeUtils.dateValueFromAbsoluteDay(day)));
+            }
+        }
+        return toPositions(positions);
+    }
+
+    private void checkStartDate() {
+        if (!hasStartDate) {
+            throw new IllegalArgumentException("need to setting startBy date.");
+        }
+    }
+
+    private long getAbsoluteHour(Value value) {
+        long day = DateTimeUtils.absoluteDayFromDateValue(getDateValue(value));
+        return day * 24 + getTimeNanos(value) / NANOS_PER_HOUR;
+    }
+
+    private static int getDayOfYear(long dateValue) {
+        long jan1 = DateTimeUtils.dateValue(DateTimeUtils.yearFromDateValue(dateValue), 1, 1);
+        return (int) (DateTimeUtils.absoluteDayFromDateValue(dateValue)
+                - DateTimeUtils.absoluteDayFromDateValue(jan1));
+    }
+
+    /**
+     * Get the date of a value. A time is on the 1st of January 1970, as if
+     * it was converted to a timestamp.
+     */
+    private long getDateValue(Value value) {
+        switch (value.getType()) {
             case Value.DATE:
+                return ((ValueDate) value).getDateValue();
+            case Value.TIMESTAMP:
+                return ((ValueTimestamp) value).getDateValue();
             case Value.TIME:
+                return EPOCH_DATE_VALUE;
+            default:
+                throw new RuleEvaluateException("Invalid type for " + getClass().getName());
+        }
+    }
+
+    private long getTimeNanos(Value value) {
+        switch (value.getType()) {
+            case Value.DATE:
+                return 0;
             case Value.TIMESTAMP:
-                ValueTimestamp v = (ValueTimestamp) value.convertTo(Value.TIMESTAMP);
-                return v.getTimestamp().getTime();
+                return ((ValueTimestamp) value).getTimeNanos();
+            case Value.TIME:
+                return ((ValueTime) value).getNanos();
             default:
                 throw new RuleEvaluateException("Invalid type for " + getClass().getName());
         }
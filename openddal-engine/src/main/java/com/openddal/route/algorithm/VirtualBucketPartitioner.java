@@ -0,0 +1,729 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.route.algorithm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.openddal.engine.Constants;
+import com.openddal.message.DbException;
+import com.openddal.route.rule.ObjectNode;
+import com.openddal.util.FileUtils;
+import com.openddal.util.IOUtils;
+import com.openddal.util.New;
+import com.openddal.util.StatementBuilder;
+import com.openddal.util.StringUtils;
+import com.openddal.value.Value;
+
+/**
+ * A partitioner that hashes the values to a fixed number of virtual buckets,
+ * and maps the buckets to the nodes with a table that can be changed at
+ * runtime. The hash is the same as of the {@link HashBucketPartitioner}.
+ * <p>
+ * The buckets are mapped with the property bucketMapping, a list of bucket
+ * ranges and node indexes, for example "0-511:0,512-1023:1". Without a
+ * mapping the buckets are spread evenly over the nodes. If the property
+ * mappingFile is set, the mapping is kept in that file: it is read when the
+ * partitioner is initialized, and written when a bucket is moved, so a
+ * restart keeps the buckets where they are. The file replaces the property
+ * bucketMapping once it exists.
+ * <p>
+ * The rows are always read and written on the node the bucket is mapped to,
+ * so the update counts are those of a single node. The statements on the
+ * tables of the partitioner hold the rows they use: the bucket if the rows
+ * have a single value, else the nodes. Writes are held until the transaction
+ * ends, reads until the statement ends. A bucket moves in two phases:
+ * <ul>
+ * <li>While it is copied, only the writes of the bucket wait. Reads are
+ * still served by the old node, and the statements on other rows of both
+ * nodes go on. A write of a whole node marks the copy as dirty, so it is
+ * copied again.</li>
+ * <li>The cut over waits for all holds on the bucket and on both nodes, and
+ * blocks new ones until the bucket is switched, so no statement sees the
+ * rows on both nodes. It takes as long as moving the rows of the bucket
+ * itself, not as long as scanning the node.</li>
+ * </ul>
+ * If the rows could not be removed from the old node after the cut over, the
+ * bucket is recorded in the mapping file, and the removal is retried with the
+ * next move of the bucket. The property lockTimeout is the time in
+ * milliseconds a hold waits for a migration (default 10000).
+ *
+ * @author jorgie.li
+ */
+public class VirtualBucketPartitioner extends CommonPartitioner {
+
+    private static final int DEFAULT_BUCKET_COUNT = 1024;
+    private static final int DEFAULT_LOCK_TIMEOUT = 10000;
+    private static final String PURGE_PREFIX = "purge=";
+
+    /**
+     * The migration waits for the writes of the bucket.
+     */
+    private static final int COPY_WAITING = 0;
+
+    /**
+     * The bucket is copied, its writes wait.
+     */
+    private static final int COPYING = 1;
+
+    /**
+     * The migration waits for the holds on the bucket and its nodes.
+     */
+    private static final int CUT_OVER_WAITING = 2;
+
+    /**
+     * The bucket is switched, all its holds and those of its nodes wait.
+     */
+    private static final int CUTTING_OVER = 3;
+
+    private int bucketCount = DEFAULT_BUCKET_COUNT;
+    private String bucketMapping;
+    private String mappingFile;
+    private int lockTimeout = DEFAULT_LOCK_TIMEOUT;
+
+    /**
+     * The node index of each bucket. The array is replaced, not modified, so
+     * the routing never needs to synchronize.
+     */
+    private volatile int[] buckets;
+
+    /**
+     * The buckets that are moving, the holds of the statements, and the old
+     * nodes of the buckets that still have rows there. They are guarded by
+     * this object.
+     */
+    private final ArrayList<Migration> migrations = New.arrayList();
+    private int[] bucketReaders;
+    private int[] bucketWriters;
+    private int[] nodeReaders;
+    private int[] nodeWriters;
+    private int[] purges;
+
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    public void setBucketCount(int bucketCount) {
+        this.bucketCount = bucketCount;
+    }
+
+    public void setBucketMapping(String bucketMapping) {
+        this.bucketMapping = bucketMapping;
+    }
+
+    public String getMappingFile() {
+        return mappingFile;
+    }
+
+    public void setMappingFile(String mappingFile) {
+        this.mappingFile = mappingFile;
+    }
+
+    public int getLockTimeout() {
+        return lockTimeout;
+    }
+
+    public void setLockTimeout(int lockTimeout) {
+        this.lockTimeout = lockTimeout;
+    }
+
+    /**
+     * Get the current mapping of the buckets, in the format of the property
+     * bucketMapping. Buckets in migration are listed with the node they are
+     * read from.
+     *
+     * @return the mapping
+     */
+    public String getBucketMapping() {
+        return formatMapping(buckets);
+    }
+
+    private static String formatMapping(int[] b) {
+        StatementBuilder buff = new StatementBuilder();
+        for (int i = 0; i < b.length;) {
+            int start = i;
+            while (i < b.length && b[i] == b[start]) {
+                i++;
+            }
+            buff.appendExceptFirst(",");
+            buff.append(start).append('-').append(i - 1).append(':').append(b[start]);
+        }
+        return buff.toString();
+    }
+
+    @Override
+    public void initialize(ObjectNode[] tableNodes) {
+        super.initialize(tableNodes);
+        if (bucketCount < 1 || bucketCount > 32768 || (bucketCount & bucketCount - 1) != 0) {
+            throw new IllegalArgumentException("bucketCount must be 2^n and not larger than 32768");
+        }
+        int[] p = new int[bucketCount];
+        Arrays.fill(p, -1);
+        if (mappingFile != null && FileUtils.exists(mappingFile)) {
+            try {
+                String[] lines = StringUtils.arraySplit(readMapping(), '\n', true);
+                buckets = parseMapping(lines[0]);
+                for (int i = 1; i < lines.length; i++) {
+                    if (!lines[i].startsWith(PURGE_PREFIX)) {
+                        throw new IllegalArgumentException(lines[i]);
+                    }
+                    int[] old = parseMapping(lines[i].substring(PURGE_PREFIX.length()), false);
+                    for (int j = 0; j < bucketCount; j++) {
+                        if (old[j] >= 0) {
+                            p[j] = old[j];
+                        }
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("error,check your bucket mapping file " + mappingFile, e);
+            }
+        } else {
+            buckets = parseMapping(bucketMapping);
+        }
+        synchronized (this) {
+            migrations.clear();
+            bucketReaders = new int[bucketCount];
+            bucketWriters = new int[bucketCount];
+            nodeReaders = new int[tableNodes.length];
+            nodeWriters = new int[tableNodes.length];
+            purges = p;
+        }
+    }
+
+    private String readMapping() {
+        try {
+            return IOUtils.readStringAndClose(IOUtils.getReader(FileUtils.newInputStream(mappingFile)), -1).trim();
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, mappingFile);
+        }
+    }
+
+    /**
+     * Write the mapping and the buckets to purge to the mapping file, before
+     * they are used. The file is replaced atomically, so it always holds a
+     * complete mapping.
+     */
+    private void writeMapping(int[] b, int[] p) {
+        if (mappingFile == null) {
+            return;
+        }
+        StatementBuilder purge = new StatementBuilder(PURGE_PREFIX);
+        for (int i = 0; i < p.length; i++) {
+            if (p[i] >= 0) {
+                purge.appendExceptFirst(",");
+                purge.append(i).append(':').append(p[i]);
+            }
+        }
+        String tempName = mappingFile + Constants.SUFFIX_TEMP_FILE;
+        try {
+            OutputStream out = FileUtils.newOutputStream(tempName, false);
+            Writer writer = IOUtils.getBufferedWriter(out);
+            try {
+                writer.write(formatMapping(b));
+                writer.write('\n');
+                if (purge.length() > PURGE_PREFIX.length()) {
+                    writer.write(purge.toString());
+                    writer.write('\n');
+                }
+                writer.close();
+            } finally {
+                IOUtils.closeSilently(writer);
+            }
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, tempName);
+        }
+        FileUtils.moveAtomicReplace(tempName, mappingFile);
+    }
+
+    private int[] parseMapping(String mapping) {
+        if (StringUtils.isNullOrEmpty(mapping)) {
+            int[] b = new int[bucketCount];
+            for (int i = 0; i < bucketCount; i++) {
+                b[i] = (int) ((long) i * getTableNodes().length / bucketCount);
+            }
+            return b;
+        }
+        return parseMapping(mapping, true);
+    }
+
+    private int[] parseMapping(String mapping, boolean complete) {
+        int[] b = new int[bucketCount];
+        Arrays.fill(b, -1);
+        for (String range : StringUtils.arraySplit(mapping, ',', true)) {
+            int colon = range.indexOf(':');
+            int dash = range.indexOf('-');
+            if (colon < 0) {
+                throw new IllegalArgumentException("error,check your bucketMapping definition " + range);
+            }
+            int first = Integer.parseInt(range.substring(0, dash < 0 ? colon : dash).trim());
+            int last = dash < 0 ? first : Integer.parseInt(range.substring(dash + 1, colon).trim());
+            int node = Integer.parseInt(range.substring(colon + 1).trim());
+            checkNode(node);
+            if (first < 0 || last >= bucketCount || first > last) {
+                throw new IllegalArgumentException("error,check your bucketMapping definition " + range);
+            }
+            for (int i = first; i <= last; i++) {
+                b[i] = node;
+            }
+        }
+        for (int i = 0; complete && i < bucketCount; i++) {
+            if (b[i] < 0) {
+                throw new IllegalArgumentException("bucket " + i + " is not mapped to a node");
+            }
+        }
+        return b;
+    }
+
+    @Override
+    public Integer partition(Value value) {
+        boolean isNull = checkNull(value);
+        if (isNull) {
+            return getDefaultNodeIndex();
+        }
+        return buckets[getBucket(value)];
+    }
+
+    /**
+     * Get the bucket of a value that is not null.
+     *
+     * @param value the value
+     * @return the bucket
+     */
+    public int getBucket(Value value) {
+        return (int) (HashBucketPartitioner.hash64(value) & (bucketCount - 1));
+    }
+
+    /**
+     * Get the node index of a bucket.
+     *
+     * @param bucket the bucket
+     * @return the node index
+     */
+    public int getNodeIndex(int bucket) {
+        return buckets[bucket];
+    }
+
+    /**
+     * Get the node index a bucket is moving to.
+     *
+     * @param bucket the bucket
+     * @return the node index, or -1 if the bucket is not in migration
+     */
+    public synchronized int getMigrationTarget(int bucket) {
+        Migration m = getMigration(bucket);
+        return m == null ? -1 : m.target;
+    }
+
+    /**
+     * Check whether any bucket is in migration.
+     *
+     * @return true if there is a bucket in migration
+     */
+    public synchronized boolean isMigrating() {
+        return !migrations.isEmpty();
+    }
+
+    /**
+     * Get the old node of a bucket whose rows are not yet removed there.
+     *
+     * @param bucket the bucket
+     * @return the node index, or -1 if there are no rows to remove
+     */
+    public synchronized int getPurgeNode(int bucket) {
+        checkBucket(bucket);
+        return purges[bucket];
+    }
+
+    /**
+     * Record that the rows of a bucket were removed from its old node.
+     *
+     * @param bucket the bucket
+     */
+    public synchronized void purged(int bucket) {
+        checkBucket(bucket);
+        if (purges[bucket] >= 0) {
+            int[] p = purges.clone();
+            p[bucket] = -1;
+            writeMapping(buckets, p);
+            purges = p;
+        }
+    }
+
+    /**
+     * Map a bucket to another node at once. The rows of the bucket must
+     * already be on that node.
+     *
+     * @param bucket the bucket
+     * @param node the node index
+     */
+    public synchronized void remap(int bucket, int node) {
+        checkBucket(bucket);
+        checkNode(node);
+        if (getMigration(bucket) != null) {
+            throw new IllegalStateException("bucket " + bucket + " is in migration");
+        }
+        int[] b = buckets.clone();
+        b[bucket] = node;
+        writeMapping(b, purges);
+        buckets = b;
+    }
+
+    /**
+     * Start to move a bucket to another node. From now on the writes of the
+     * bucket wait; this method returns when the writes that hold the bucket
+     * are done, and the rows can be copied.
+     *
+     * @param bucket the bucket
+     * @param node the node index to move to
+     * @param timeoutMillis the time to wait for the holds
+     * @return false if the holds were not released in time, then the bucket
+     *         is not in migration
+     */
+    public synchronized boolean startMigration(int bucket, int node, long timeoutMillis) {
+        checkBucket(bucket);
+        checkNode(node);
+        if (getMigration(bucket) != null) {
+            throw new IllegalStateException("bucket " + bucket + " is in migration");
+        }
+        if (purges[bucket] >= 0) {
+            throw new IllegalStateException("bucket " + bucket + " still has rows on node " + purges[bucket]);
+        }
+        if (buckets[bucket] == node) {
+            throw new IllegalArgumentException("bucket " + bucket + " is already on node " + node);
+        }
+        Migration m = new Migration(bucket, buckets[bucket], node);
+        migrations.add(m);
+        if (!await(m, timeoutMillis)) {
+            migrations.remove(m);
+            notifyAll();
+            return false;
+        }
+        m.phase = COPYING;
+        return true;
+    }
+
+    /**
+     * Start a copy of a bucket in migration. The copy is dirty if the whole
+     * old node is written until the cut over.
+     *
+     * @param bucket the bucket
+     */
+    public synchronized void startCopy(int bucket) {
+        Migration m = getMigration(bucket, COPYING);
+        m.dirty = nodeWriters[m.source] > 0;
+    }
+
+    /**
+     * Check whether the old node of a bucket in migration was written as a
+     * whole since the copy started, so rows of the bucket may have changed.
+     *
+     * @param bucket the bucket
+     * @return true if the bucket must be copied again
+     */
+    public synchronized boolean isDirty(int bucket) {
+        Migration m = getMigration(bucket);
+        return m != null && m.dirty;
+    }
+
+    /**
+     * Wait until no statement holds the bucket in migration or its nodes, and
+     * block the new holds until the migration ends or leaves the cut over.
+     *
+     * @param bucket the bucket
+     * @param timeoutMillis the time to wait for the holds
+     * @return false if the holds were not released in time
+     */
+    public synchronized boolean startCutOver(int bucket, long timeoutMillis) {
+        Migration m = getMigration(bucket, COPYING);
+        m.phase = CUT_OVER_WAITING;
+        if (!await(m, timeoutMillis)) {
+            m.phase = COPYING;
+            notifyAll();
+            return false;
+        }
+        m.phase = CUTTING_OVER;
+        return true;
+    }
+
+    /**
+     * Let the statements go on before the bucket is switched, for example to
+     * copy the bucket again.
+     *
+     * @param bucket the bucket
+     */
+    public synchronized void cancelCutOver(int bucket) {
+        Migration m = getMigration(bucket, CUTTING_OVER);
+        m.phase = COPYING;
+        notifyAll();
+    }
+
+    /**
+     * Map a bucket in migration to the new node, and record that its rows
+     * are still on the old node. The bucket stays blocked until the migration
+     * ends, so the rows can be removed from the old node.
+     *
+     * @param bucket the bucket
+     */
+    public synchronized void cutOver(int bucket) {
+        Migration m = getMigration(bucket, CUTTING_OVER);
+        int[] b = buckets.clone();
+        b[bucket] = m.target;
+        int[] p = purges.clone();
+        p[bucket] = m.source;
+        writeMapping(b, p);
+        buckets = b;
+        purges = p;
+    }
+
+    /**
+     * End the migration of a bucket, and let the statements that wait for it
+     * continue. If the bucket was not cut over, it stays on the old node.
+     *
+     * @param bucket the bucket
+     */
+    public synchronized void endMigration(int bucket) {
+        Migration m = getMigration(bucket);
+        if (m == null) {
+            throw new IllegalStateException("bucket " + bucket + " is not in migration");
+        }
+        migrations.remove(m);
+        notifyAll();
+    }
+
+    /**
+     * Get a hold on the rows of a bucket. The hold is not acquired yet.
+     *
+     * @param bucket the bucket
+     * @param write whether the rows are written
+     * @return the hold
+     */
+    public Hold getBucketHold(int bucket, boolean write) {
+        return new Hold(this, write, bucket, -1);
+    }
+
+    /**
+     * Get a hold on all rows of a node. The hold is not acquired yet.
+     *
+     * @param node the node index
+     * @param write whether the rows are written
+     * @return the hold
+     */
+    public Hold getNodeHold(int node, boolean write) {
+        return new Hold(this, write, -1, node);
+    }
+
+    synchronized boolean acquire(Hold hold, boolean reentrant, long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (isFenced(hold, reentrant)) {
+            if (!await(deadline)) {
+                return false;
+            }
+        }
+        if (hold.bucket >= 0) {
+            (hold.write ? bucketWriters : bucketReaders)[hold.bucket]++;
+        } else {
+            (hold.write ? nodeWriters : nodeReaders)[hold.node]++;
+            if (hold.write) {
+                for (Migration m : migrations) {
+                    if (m.source == hold.node) {
+                        m.dirty = true;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    synchronized void release(Hold hold) {
+        if (hold.bucket >= 0) {
+            (hold.write ? bucketWriters : bucketReaders)[hold.bucket]--;
+        } else {
+            (hold.write ? nodeWriters : nodeReaders)[hold.node]--;
+        }
+        if (!migrations.isEmpty()) {
+            notifyAll();
+        }
+    }
+
+    private boolean isFenced(Hold hold, boolean reentrant) {
+        for (Migration m : migrations) {
+            if (reentrant && (m.phase == COPY_WAITING || m.phase == CUT_OVER_WAITING)) {
+                // the migration waits for the other holds of the session
+                continue;
+            }
+            boolean cutOver = m.phase >= CUT_OVER_WAITING;
+            if (hold.bucket >= 0) {
+                if (hold.bucket == m.bucket && (hold.write || cutOver)) {
+                    return true;
+                }
+            } else if (cutOver && (hold.node == m.source || hold.node == m.target)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isHeld(Migration m) {
+        if (bucketWriters[m.bucket] > 0) {
+            return true;
+        }
+        if (m.phase < CUT_OVER_WAITING) {
+            return false;
+        }
+        return bucketReaders[m.bucket] > 0 || nodeReaders[m.source] > 0 || nodeWriters[m.source] > 0
+                || nodeReaders[m.target] > 0 || nodeWriters[m.target] > 0;
+    }
+
+    private boolean await(Migration m, long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (isHeld(m)) {
+            if (!await(deadline)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean await(long deadline) {
+        long wait = deadline - System.currentTimeMillis();
+        if (wait <= 0) {
+            return false;
+        }
+        try {
+            wait(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    private Migration getMigration(int bucket) {
+        for (Migration m : migrations) {
+            if (m.bucket == bucket) {
+                return m;
+            }
+        }
+        return null;
+    }
+
+    private Migration getMigration(int bucket, int phase) {
+        Migration m = getMigration(bucket);
+        if (m == null || m.phase != phase) {
+            throw new IllegalStateException("bucket " + bucket + " is not in the state of the migration");
+        }
+        return m;
+    }
+
+    private void checkBucket(int bucket) {
+        if (bucket < 0 || bucket >= bucketCount) {
+            throw new IllegalArgumentException("bucket " + bucket + " is out of range");
+        }
+    }
+
+    private void checkNode(int node) {
+        if (node < 0 || node >= getTableNodes().length) {
+            throw new IllegalArgumentException("node index " + node + " is out of range");
+        }
+    }
+
+    /**
+     * A bucket that is moving.
+     */
+    private static class Migration {
+
+        final int bucket;
+        final int source;
+        final int target;
+        int phase = COPY_WAITING;
+        boolean dirty;
+
+        Migration(int bucket, int source, int target) {
+            this.bucket = bucket;
+            this.source = source;
+            this.target = target;
+        }
+
+    }
+
+    /**
+     * A hold of a statement or transaction on the rows of a bucket or of a
+     * node. Holds are equal if they hold the same rows in the same way, so a
+     * session takes each hold only once.
+     */
+    public static final class Hold {
+
+        final VirtualBucketPartitioner partitioner;
+        final boolean write;
+        final int bucket;
+        final int node;
+
+        Hold(VirtualBucketPartitioner partitioner, boolean write, int bucket, int node) {
+            this.partitioner = partitioner;
+            this.write = write;
+            this.bucket = bucket;
+            this.node = node;
+        }
+
+        public VirtualBucketPartitioner getPartitioner() {
+            return partitioner;
+        }
+
+        public boolean isWrite() {
+            return write;
+        }
+
+        /**
+         * Acquire the hold, waiting for the migrations that block it. A
+         * session that already holds rows of the partitioner does not wait
+         * for a migration that is waiting itself, as it may wait for the
+         * session.
+         *
+         * @param reentrant whether the session already holds rows of the
+         *            partitioner
+         * @return false if the lock timeout of the partitioner is reached
+         */
+        public boolean acquire(boolean reentrant) {
+            return partitioner.acquire(this, reentrant, partitioner.lockTimeout);
+        }
+
+        /**
+         * Release the hold.
+         */
+        public void release() {
+            partitioner.release(this);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Hold)) {
+                return false;
+            }
+            Hold h = (Hold) obj;
+            return h.partitioner == partitioner && h.write == write && h.bucket == bucket && h.node == node;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(partitioner) ^ (write ? 1 : 0) ^ bucket << 1 ^ node << 17;
+        }
+
+    }
+
+}
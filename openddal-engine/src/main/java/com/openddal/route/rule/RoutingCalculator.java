@@ -21,6 +21,7 @@ package com.openddal.route.rule;
 import java.util.List;
 
 import com.openddal.config.ShardedTableRule;
+import com.openddal.value.Value;
 
 /**
  * @author jorgie.li
@@ -29,6 +30,16 @@ public interface RoutingCalculator {
 
     RoutingResult calculate(ShardedTableRule tableRule, RoutingArgument arg);
 
+    /**
+     * Route a single value of the rule column, as for the condition
+     * column=xx.
+     *
+     * @param tableRule the table rule
+     * @param value the value
+     * @return the routing result
+     */
+    RoutingResult calculate(ShardedTableRule tableRule, Value value);
+
     RoutingResult calculate(ShardedTableRule tableRule, List<RoutingArgument> arguments);
 
 }
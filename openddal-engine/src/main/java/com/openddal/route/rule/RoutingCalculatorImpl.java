@@ -18,12 +18,12 @@
 
 package com.openddal.route.rule;
 
+import java.util.BitSet;
 import java.util.List;
 
 import com.openddal.config.ShardedTableRule;
 import com.openddal.route.algorithm.MultColumnPartitioner;
 import com.openddal.route.algorithm.Partitioner;
-import com.openddal.util.New;
 import com.openddal.value.Value;
 
 /**
@@ -33,45 +33,40 @@ public class RoutingCalculatorImpl implements RoutingCalculator {
 
     @Override
     public RoutingResult calculate(ShardedTableRule tableRouter, RoutingArgument arg) {
-        ObjectNode[] partition = tableRouter.getObjectNodes();
-        boolean typeof = tableRouter.getPartitioner() instanceof Partitioner;
-        if (!typeof) {
-            String name = tableRouter.getPartitioner().getClass().getName();
-            throw new RuleEvaluateException("Algorithm " + name + " not type of " + Partitioner.class.getName());
-        }
-        Partitioner partitioner = (Partitioner)tableRouter.getPartitioner();
+        Partitioner partitioner = getPartitioner(tableRouter);
         switch (arg.getArgumentType()) {
             case RoutingArgument.NONE_ROUTING_ARGUMENT:
-                return RoutingResult.fixedResult(partition);
+                return tableRouter.getFullRoutingResult();
             case RoutingArgument.FIXED_ROUTING_ARGUMENT:
                 List<Value> values = arg.getValues();
-                Value[] toArray = values.toArray(new Value[values.size()]);
-                Integer[] position = partitioner.partition(toArray);
-                checkReturnValue(tableRouter, position);
-                List<ObjectNode> selected = New.arrayList();
-                for (Integer integer : position) {
-                    ObjectNode tableNode = partition[integer];
-                    selected.add(tableNode);
+                if (values.size() == 1) {
+                    return calculate(tableRouter, values.get(0));
                 }
-                return RoutingResult.fixedResult(selected);
+                Value[] toArray = values.toArray(new Value[values.size()]);
+                return getRoutingResult(tableRouter, partitioner.partition(toArray));
             case RoutingArgument.RANGE_ROUTING_ARGUMENT:
                 Value start = arg.getStart();
                 Value end = arg.getEnd();
-                position = partitioner.partition(start, end);
-                checkReturnValue(tableRouter, position);
-                List<ObjectNode> seleced = New.arrayList();
-                for (Integer integer : position) {
-                    ObjectNode tableNode = partition[integer];
-                    seleced.add(tableNode);
+                RoutingResult result = getRoutingResult(tableRouter, partitioner.partition(start, end));
+                int nodeCount = tableRouter.getObjectNodes().length;
+                if (nodeCount > 1 && result.tableNodeCount() == nodeCount) {
+                    return result.withWarning("the range of " + arg.getColumnName() + " is not pruned by "
+                            + partitioner.getClass().getSimpleName() + ", all nodes are read");
                 }
-                return RoutingResult.fixedResult(seleced);
+                return result;
         }
         return null;
     }
 
+    @Override
+    public RoutingResult calculate(ShardedTableRule tableRouter, Value value) {
+        Integer position = getPartitioner(tableRouter).partition(value);
+        checkReturnValue(tableRouter, position);
+        return tableRouter.getRoutingResult(position);
+    }
+
     @Override
     public RoutingResult calculate(ShardedTableRule tableRouter, List<RoutingArgument> arguments) {
-        ObjectNode[] partition = tableRouter.getObjectNodes();
         Object partitioner = tableRouter.getPartitioner();
         boolean typeof = partitioner instanceof MultColumnPartitioner;
         if (!typeof) {
@@ -79,15 +74,45 @@ public class RoutingCalculatorImpl implements RoutingCalculator {
             throw new RuleEvaluateException("Algorithm " + name + " can't supported multiple rule column.");
         }
         MultColumnPartitioner cp = (MultColumnPartitioner) partitioner;
-        Integer[] position = cp.partition(arguments);
-        checkReturnValue(tableRouter, position);
-        List<ObjectNode> selected = New.arrayList();
-        for (Integer integer : position) {
-            ObjectNode tableNode = partition[integer];
-            selected.add(tableNode);
+        return getRoutingResult(tableRouter, cp.partition(arguments));
+
+    }
+
+    private static Partitioner getPartitioner(ShardedTableRule tableRouter) {
+        Object partitioner = tableRouter.getPartitioner();
+        if (!(partitioner instanceof Partitioner)) {
+            String name = partitioner.getClass().getName();
+            throw new RuleEvaluateException("Algorithm " + name + " not type of " + Partitioner.class.getName());
         }
-        return RoutingResult.fixedResult(selected);
+        return (Partitioner) partitioner;
+    }
 
+    /**
+     * Get the result of the nodes at the given positions. The results of a
+     * single node and of all nodes are shared, the other results are created
+     * from the set of the positions.
+     *
+     * @param tableRouter the table rule
+     * @param positions the positions returned by the partitioner
+     * @return the routing result
+     */
+    private static RoutingResult getRoutingResult(ShardedTableRule tableRouter, Integer[] positions) {
+        checkReturnValue(tableRouter, positions);
+        if (positions.length == 1) {
+            return tableRouter.getRoutingResult(positions[0]);
+        }
+        ObjectNode[] partition = tableRouter.getObjectNodes();
+        BitSet selected = new BitSet(partition.length);
+        for (Integer position : positions) {
+            selected.set(position);
+        }
+        int count = selected.cardinality();
+        if (count == 1) {
+            return tableRouter.getRoutingResult(selected.nextSetBit(0));
+        } else if (count == partition.length) {
+            return tableRouter.getFullRoutingResult();
+        }
+        return RoutingResult.fixedResult(partition, selected);
     }
 
     /**
@@ -95,23 +120,30 @@ public class RoutingCalculatorImpl implements RoutingCalculator {
      * @param positions
      * @throws RuleEvaluateException
      */
-    private void checkReturnValue(ShardedTableRule tableRouter, Integer... positions) throws RuleEvaluateException {
-        ObjectNode[] partition = tableRouter.getObjectNodes();
-        String ptrName = tableRouter.getPartitioner().getClass().getName();
+    private static void checkReturnValue(ShardedTableRule tableRouter, Integer[] positions)
+            throws RuleEvaluateException {
         if (positions == null) {
+            String ptrName = tableRouter.getPartitioner().getClass().getName();
             String msg = String.format("The %s returned a illegal value null.", ptrName);
             throw new RuleEvaluateException(msg);
         }
         for (Integer position : positions) {
-            if (position == null) {
-                String msg = String.format("The %s returned a illegal value null.", ptrName);
-                throw new RuleEvaluateException(msg);
-            }
-            if (position < 0 || position >= partition.length) {
-                String msg = String.format("The %s returned a illegal value %d, it's out of table nodes bounds.",
-                        ptrName, position);
-                throw new RuleEvaluateException(msg);
-            }
+            checkReturnValue(tableRouter, position);
+        }
+    }
+
+    private static void checkReturnValue(ShardedTableRule tableRouter, Integer position)
+            throws RuleEvaluateException {
+        if (position == null) {
+            String ptrName = tableRouter.getPartitioner().getClass().getName();
+            String msg = String.format("The %s returned a illegal value null.", ptrName);
+            throw new RuleEvaluateException(msg);
+        }
+        if (position < 0 || position >= tableRouter.getObjectNodes().length) {
+            String ptrName = tableRouter.getPartitioner().getClass().getName();
+            String msg = String.format("The %s returned a illegal value %d, it's out of table nodes bounds.",
+                    ptrName, position);
+            throw new RuleEvaluateException(msg);
         }
     }
 
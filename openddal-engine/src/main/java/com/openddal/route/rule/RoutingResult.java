@@ -20,27 +20,37 @@ package com.openddal.route.rule;
 
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Set;
 
 import com.openddal.util.New;
 
 /**
+ * The nodes a statement is routed to. The result is immutable, so the results
+ * of the routing that only depend on the table rule are shared.
+ *
  * @author jorgie.li
  */
 public class RoutingResult implements Comparable<RoutingResult>, Serializable {
 
     private static final long serialVersionUID = 1L;
 
-    private List<ObjectNode> all;
+    private static final ObjectNode[] EMPTY = new ObjectNode[0];
+
+    private final ObjectNode[] all;
+
+    private final ObjectNode[] selected;
 
-    private List<ObjectNode> selected;
+    private transient int shardCount;
 
-    RoutingResult(List<ObjectNode> all, List<ObjectNode> selected) {
+    private String warning;
+
+    RoutingResult(ObjectNode[] all, ObjectNode[] selected) {
         if (all == null || selected == null) {
             throw new IllegalArgumentException();
         }
-        if (selected.size() > all.size()) {
+        if (selected.length > all.length) {
             throw new IllegalArgumentException();
         }
         this.all = selected;
@@ -48,76 +58,117 @@ public class RoutingResult implements Comparable<RoutingResult>, Serializable {
     }
 
     public static RoutingResult emptyResult() {
-        List<ObjectNode> nodes = New.arrayList(0);
-        return new RoutingResult(nodes, nodes);
+        return new RoutingResult(EMPTY, EMPTY);
     }
 
     public static RoutingResult fixedResult(List<ObjectNode> nodes) {
-        return new RoutingResult(nodes, nodes);
+        ObjectNode[] array = nodes.toArray(new ObjectNode[nodes.size()]);
+        return new RoutingResult(array, array);
     }
 
     public static RoutingResult fixedResult(ObjectNode ... tableNode) {
-        List<ObjectNode> nodes = Arrays.asList(tableNode);
-        return new RoutingResult(nodes, nodes);
+        return new RoutingResult(tableNode, tableNode);
+    }
+
+    /**
+     * Create a result of the nodes at the set bits.
+     *
+     * @param nodes all nodes
+     * @param selected the indexes of the selected nodes
+     * @return the result
+     */
+    public static RoutingResult fixedResult(ObjectNode[] nodes, BitSet selected) {
+        ObjectNode[] array = new ObjectNode[selected.cardinality()];
+        for (int i = selected.nextSetBit(0), j = 0; i >= 0; i = selected.nextSetBit(i + 1)) {
+            array[j++] = nodes[i];
+        }
+        return new RoutingResult(array, array);
+    }
+
+    /**
+     * Create a copy of this result with a warning for the explain output.
+     *
+     * @param warning the warning
+     * @return the copy
+     */
+    RoutingResult withWarning(String warning) {
+        RoutingResult result = new RoutingResult(all, selected);
+        result.warning = warning;
+        return result;
+    }
+
+    /**
+     * Get the warning for the explain output, for example if a range could
+     * not be pruned.
+     *
+     * @return the warning or null
+     */
+    public String getWarning() {
+        return warning;
     }
 
     public boolean isMultipleNode() {
-        return selected.size() > 1;
+        return selected.length > 1;
     }
 
     public ObjectNode getSingleResult() {
         if (isMultipleNode()) {
             throw new IllegalStateException("The RoutingResult has multiple table node.");
         }
-        return selected.get(0);
+        return selected[0];
     }
 
+    /**
+     * Get the selected nodes. The array is not copied: it is shared by all
+     * users of this result, and the results of a table rule are shared as
+     * well, so callers must not modify it.
+     *
+     * @return the selected nodes
+     */
     public ObjectNode[] getSelectNodes() {
-        return selected.toArray(new ObjectNode[selected.size()]);
+        return selected;
     }
 
     public boolean isFullNode() {
-        return all.equals(selected) && all.size() > 1;
+        return Arrays.equals(all, selected) && all.length > 1;
     }
 
     public int tableNodeCount() {
-        return selected.size();
+        return selected.length;
     }
 
     public ObjectNode[] group() {
-        List<ObjectNode> result;
-        if (isMultipleNode()) {
-            Set<String> shards = shardNames();
-            result = New.arrayList(shards.size());
-            for (String shardName : shardNames()) {
-                List<ObjectNode> groupNodes = New.arrayList(10);
-                List<String> tables = New.arrayList();
-                List<String> suffixes = New.arrayList();
-                for (ObjectNode tableNode : selected) {
-                    String nodeName = tableNode.getShardName();
-                    String tableName = tableNode.getObjectName();
-                    String suffix = tableNode.getSuffix();
-                    if (shardName.equals(nodeName)) {
-                        tables.add(tableName);
-                        suffixes.add(suffix);
-                        groupNodes.add(tableNode);
-                    }
-                }
-                ObjectNode tableNode;
-                if (groupNodes.size() > 1) {
-                    String[] t = tables.toArray(new String[tables.size()]);
-                    String[] s = suffixes.toArray(new String[suffixes.size()]);
-                    ObjectNode[] items = groupNodes.toArray(new ObjectNode[groupNodes.size()]);
-                    GroupObjectNode groupNode = new GroupObjectNode(shardName, items, t, s);
-                    validateGroupNodeItem(groupNode);
-                    tableNode = groupNode;
-                } else {
-                    tableNode = groupNodes.iterator().next();
+        if (!isMultipleNode()) {
+            return selected;
+        }
+        Set<String> shards = shardNames();
+        List<ObjectNode> result = New.arrayList(shards.size());
+        for (String shardName : shards) {
+            List<ObjectNode> groupNodes = New.arrayList(10);
+            List<String> tables = New.arrayList();
+            List<String> suffixes = New.arrayList();
+            for (ObjectNode tableNode : selected) {
+                String nodeName = tableNode.getShardName();
+                String tableName = tableNode.getObjectName();
+                String suffix = tableNode.getSuffix();
+                if (shardName.equals(nodeName)) {
+                    tables.add(tableName);
+                    suffixes.add(suffix);
+                    groupNodes.add(tableNode);
                 }
-                result.add(tableNode);
             }
-        } else {
-            result = selected;
+            ObjectNode tableNode;
+            if (groupNodes.size() > 1) {
+                String[] t = tables.toArray(new String[tables.size()]);
+                String[] s = suffixes.toArray(new String[suffixes.size()]);
+                ObjectNode[] items = groupNodes.toArray(new ObjectNode[groupNodes.size()]);
+                GroupObjectNode groupNode = new GroupObjectNode(shardName, items, t, s);
+                validateGroupNodeItem(groupNode);
+                tableNode = groupNode;
+            } else {
+                tableNode = groupNodes.iterator().next();
+            }
+            result.add(tableNode);
         }
         return result.toArray(new ObjectNode[result.size()]);
     }
@@ -131,11 +182,18 @@ public class RoutingResult implements Comparable<RoutingResult>, Serializable {
         return shards;
     }
 
+    private int getShardCount() {
+        if (shardCount == 0) {
+            shardCount = selected.length > 1 ? shardNames().size() : selected.length;
+        }
+        return shardCount;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
         int result = 1;
-        result = prime * result + ((selected == null) ? 0 : selected.hashCode());
+        result = prime * result + Arrays.hashCode(selected);
         return result;
     }
 
@@ -149,23 +207,16 @@ public class RoutingResult implements Comparable<RoutingResult>, Serializable {
         if (getClass() != obj.getClass())
             return false;
         RoutingResult other = (RoutingResult) obj;
-        if (selected == null) {
-            if (other.selected != null)
-                return false;
-        } else if (!selected.equals(other.selected))
-            return false;
-        return true;
+        return Arrays.equals(selected, other.selected);
     }
 
     @Override
     public int compareTo(RoutingResult o) {
-        Set<String> shards1 = shardNames();
-        Set<String> shards2 = o.shardNames();
-        int len1 = shards1.size();
-        int len2 = shards2.size();
+        int len1 = getShardCount();
+        int len2 = o.getShardCount();
         if(len1 == len2) {
-            len1 = selected.size();
-            len2 = o.selected.size();
+            len1 = selected.length;
+            len2 = o.selected.length;
         }
         return len1 - len2;    
     }
@@ -189,6 +189,35 @@ public final class MurmurHash {
         return hash64(data, length, 0xe17a1465);
     }
 
+    /**
+     * Generates 64 bit hash from the 8 bytes of a long in big-endian order,
+     * with default seed value. This is the same as hashing the bytes, without
+     * creating the byte array.
+     *
+     * @param data the long to hash
+     * @return 64 bit hash of the given long
+     */
+    public static long hash64(long data) {
+        final long m = 0xc6a4a7935bd1e995L;
+        final int r = 47;
+
+        long h = (0xe17a1465 & 0xffffffffl) ^ (8 * m);
+
+        long k = Long.reverseBytes(data);
+        k *= m;
+        k ^= k >>> r;
+        k *= m;
+
+        h ^= k;
+        h *= m;
+
+        h ^= h >>> r;
+        h *= m;
+        h ^= h >>> r;
+
+        return h;
+    }
+
     /**
      * Generates 64 bit hash from a string.
      *
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.repo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.openddal.engine.Session;
+import com.openddal.message.DbException;
+import com.openddal.message.ErrorCode;
+import com.openddal.test.MockJdbc;
+import com.openddal.util.New;
+
+/**
+ * Tests closing and canceling the query workers of a statement while the
+ * queries are running on the shards.
+ *
+ * @author jorgie.li
+ */
+public class JdbcQueryWorkerTest {
+
+    private final List<String> events = Collections.synchronizedList(New.<String> arrayList());
+    private final CountDownLatch started = new CountDownLatch(2);
+    private Session session;
+
+    @Before
+    public void setUp() {
+        session = MockJdbc.openSession(new Properties(), newShard("shard0"), newShard("shard1"));
+    }
+
+    @After
+    public void tearDown() {
+        session.getDatabase().close();
+    }
+
+    @Test
+    public void testCloseWhileExecuting() throws Exception {
+        JdbcQueryWorker[] workers = {
+                new JdbcQueryWorker(session, "shard0", "SELECT 1", null),
+                new JdbcQueryWorker(session, "shard1", "SELECT 1", null) };
+        final RuntimeException[] errors = new RuntimeException[workers.length];
+        Thread[] threads = new Thread[workers.length];
+        for (int i = 0; i < workers.length; i++) {
+            final int index = i;
+            final JdbcQueryWorker worker = workers[i];
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        worker.executeQuery();
+                    } catch (RuntimeException e) {
+                        errors[index] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        // the statement ended before the shards returned, as with a LIMIT
+        for (JdbcQueryWorker worker : workers) {
+            worker.close();
+        }
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+        for (RuntimeException e : errors) {
+            assertEquals(ErrorCode.STATEMENT_WAS_CANCELED, ((DbException) e).getErrorCode());
+        }
+        for (String shard : new String[] { "shard0", "shard1" }) {
+            assertEquals(Arrays.asList(shard + " execute", shard + " cancel", shard + " return", shard + " close"),
+                    eventsOf(shard));
+        }
+    }
+
+    @Test
+    public void testCancelWhileExecuting() throws Exception {
+        final JdbcQueryWorker worker = new JdbcQueryWorker(session, "shard0", "SELECT 1", null);
+        final RuntimeException[] error = new RuntimeException[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    worker.executeQuery();
+                } catch (RuntimeException e) {
+                    error[0] = e;
+                }
+            }
+        };
+        thread.start();
+        started.countDown();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        worker.cancel();
+        thread.join(10000);
+        assertEquals(ErrorCode.ERROR_ACCESSING_DATABASE_TABLE_2, ((DbException) error[0]).getErrorCode());
+        assertEquals(Arrays.asList("shard0 execute", "shard0 cancel", "shard0 return", "shard0 close"),
+                eventsOf("shard0"));
+    }
+
+    @Test
+    public void testCloseBeforeExecute() {
+        JdbcQueryWorker worker = new JdbcQueryWorker(session, "shard0", "SELECT 1", null);
+        worker.close();
+        try {
+            worker.executeQuery();
+            fail();
+        } catch (DbException e) {
+            assertEquals(ErrorCode.STATEMENT_WAS_CANCELED, e.getErrorCode());
+        }
+        assertTrue(events.isEmpty());
+    }
+
+    private List<String> eventsOf(String shard) {
+        List<String> list = New.arrayList();
+        synchronized (events) {
+            for (String e : events) {
+                if (e.startsWith(shard + " ")) {
+                    list.add(e);
+                }
+            }
+        }
+        return list;
+    }
+
+    private DataSource newShard(final String shard) {
+        return MockJdbc.newMock(DataSource.class, new MockJdbc() {
+            @Override
+            protected Object handle(String name, Object[] args) {
+                return "getConnection".equals(name) ? newConnection(shard) : DEFAULT;
+            }
+        });
+    }
+
+    private Connection newConnection(final String shard) {
+        return MockJdbc.newMock(Connection.class, new MockJdbc() {
+            @Override
+            protected Object handle(String name, Object[] args) {
+                if ("prepareStatement".equals(name)) {
+                    return newStatement(shard);
+                } else if ("close".equals(name)) {
+                    events.add(shard + " close");
+                    return null;
+                } else if ("getAutoCommit".equals(name)) {
+                    return true;
+                }
+                return DEFAULT;
+            }
+        });
+    }
+
+    private PreparedStatement newStatement(final String shard) {
+        final CountDownLatch canceled = new CountDownLatch(1);
+        return MockJdbc.newMock(PreparedStatement.class, new MockJdbc() {
+            @Override
+            protected Object handle(String name, Object[] args) throws Exception {
+                if ("executeQuery".equals(name)) {
+                    events.add(shard + " execute");
+                    started.countDown();
+                    canceled.await(10, TimeUnit.SECONDS);
+                    events.add(shard + " return");
+                    throw new SQLException("Query execution was interrupted");
+                } else if ("cancel".equals(name)) {
+                    events.add(shard + " cancel");
+                    canceled.countDown();
+                    return null;
+                }
+                return DEFAULT;
+            }
+        });
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.repo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+
+import com.openddal.executor.works.WorkerFactory;
+import com.openddal.message.Trace;
+import com.openddal.message.TraceSystem;
+import com.openddal.repo.ha.DataSourceMarker;
+import com.openddal.repo.ha.SmartDataSource;
+import com.openddal.util.New;
+
+/**
+ * Tests the statement cache of the backend connections.
+ *
+ * @author jorgie.li
+ */
+public class StatementCacheTest {
+
+    private final AtomicInteger prepared = new AtomicInteger();
+
+    @Test
+    public void testHitAcrossBorrowsOfSmartConnection() throws Exception {
+        JdbcRepository repository = newRepository();
+        Connection physical = newConnection();
+        SmartDataSource shard = newShard(repository, physical);
+
+        Connection first = shard.getConnection();
+        StatementCache cache = repository.getStatementCache(first);
+        PreparedStatement stmt = cache.prepareStatement("SELECT 1");
+        cache.release("SELECT 1", stmt);
+        first.close();
+
+        Connection second = shard.getConnection();
+        assertNotSame(first, second);
+        StatementCache again = repository.getStatementCache(second);
+        assertSame(cache, again);
+        assertSame(stmt, again.prepareStatement("SELECT 1"));
+        assertEquals(1, prepared.get());
+        second.close();
+    }
+
+    @Test
+    public void testOtherConnectionHasOwnCache() throws Exception {
+        JdbcRepository repository = newRepository();
+        StatementCache cache = repository.getStatementCache(newConnection());
+        assertNotSame(cache, repository.getStatementCache(newConnection()));
+    }
+
+    private static JdbcRepository newRepository() {
+        final Trace trace = new TraceSystem().getTrace(Trace.REPOSITORY);
+        JdbcRepository repository = new JdbcRepository() {
+
+            @Override
+            public Trace getTrace() {
+                return trace;
+            }
+
+            @Override
+            public SQLTranslator getSQLTranslator() {
+                return null;
+            }
+
+            @Override
+            public WorkerFactory getWorkerFactory() {
+                return null;
+            }
+
+            @Override
+            public String getName() {
+                return "TEST";
+            }
+        };
+        repository.setStatementCacheSize(8);
+        return repository;
+    }
+
+    private static SmartDataSource newShard(JdbcRepository repository, final Connection physical) {
+        List<DataSourceMarker> members = New.arrayList();
+        for (int i = 0; i < 2; i++) {
+            DataSourceMarker marker = new DataSourceMarker();
+            marker.setDataSource((DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(),
+                    new Class<?>[] { DataSource.class }, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            // a pool that hands out the same backend connection
+                            if ("getConnection".equals(method.getName())) {
+                                return physical;
+                            }
+                            return invokeObjectMethod(proxy, method, args);
+                        }
+                    }));
+            marker.setShardName("shard0");
+            marker.setUid("ds" + i);
+            marker.setwWeight(1);
+            marker.setrWeight(1);
+            members.add(marker);
+        }
+        return new SmartDataSource(repository, "shard0", members);
+    }
+
+    private Connection newConnection() {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if ("unwrap".equals(name)) {
+                            return proxy;
+                        } else if ("prepareStatement".equals(name)) {
+                            prepared.incrementAndGet();
+                            return newStatement();
+                        }
+                        return invokeObjectMethod(proxy, method, args);
+                    }
+                });
+    }
+
+    private static PreparedStatement newStatement() {
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return invokeObjectMethod(proxy, method, args);
+                    }
+                });
+    }
+
+    private static Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        } else if ("equals".equals(name)) {
+            return proxy == args[0];
+        }
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.repo.ha;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Compares the cost of a JDBC call through a shard connection with the cost
+ * of the same call through a java.lang.reflect.Proxy that dispatches by the
+ * method name, as the shard connection did before it implemented Connection
+ * itself. Run it with the main method; the times are per call, after a
+ * warm up, with a backend connection that does nothing.
+ *
+ * @author jorgie.li
+ */
+public class SmartConnectionBenchmark {
+
+    private static final int CALLS = 10000000;
+    private static final int ROUNDS = 5;
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args ignored
+     */
+    public static void main(String... args) throws Exception {
+        Connection physical = newBackend();
+        Connection proxy = newReflective(physical);
+        Connection smart = SmartConnectionTest.newShard(SmartConnectionTest.newMarker(physical)).getConnection();
+        // fetch the physical connection
+        smart.getTransactionIsolation();
+        for (int i = 0; i < ROUNDS; i++) {
+            System.out.println("round " + i + ": backend " + measure(physical) + " ns, reflective proxy "
+                    + measure(proxy) + " ns, smart connection " + measure(smart) + " ns");
+        }
+        smart.close();
+    }
+
+    private static double measure(Connection conn) throws SQLException {
+        long start = System.nanoTime();
+        int x = 0;
+        for (int i = 0; i < CALLS; i++) {
+            conn.setAutoCommit(false);
+            if (conn.getAutoCommit()) {
+                x++;
+            }
+            conn.commit();
+        }
+        if (x != 0) {
+            throw new AssertionError();
+        }
+        return (System.nanoTime() - start) / (CALLS * 3.0);
+    }
+
+    private static Connection newBackend() {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return SmartConnectionTest.invokeObjectMethod(proxy, method, args);
+                    }
+                });
+    }
+
+    /**
+     * A connection that holds its target, with the dispatch of the former
+     * proxy of the shard connection.
+     */
+    private static Connection newReflective(final Connection target) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("equals")) {
+                            return proxy == args[0];
+                        } else if (method.getName().equals("hashCode")) {
+                            return System.identityHashCode(proxy);
+                        } else if (method.getName().equals("unwrap")) {
+                            if (((Class<?>) args[0]).isInstance(proxy)) {
+                                return proxy;
+                            }
+                        } else if (method.getName().equals("isWrapperFor")) {
+                            if (((Class<?>) args[0]).isInstance(proxy)) {
+                                return true;
+                            }
+                        }
+                        try {
+                            return method.invoke(target, args);
+                        } catch (InvocationTargetException ex) {
+                            throw ex.getTargetException();
+                        }
+                    }
+                });
+    }
+
+}
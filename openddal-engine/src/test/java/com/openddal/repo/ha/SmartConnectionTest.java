@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.repo.ha;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+
+import com.openddal.executor.works.WorkerFactory;
+import com.openddal.message.Trace;
+import com.openddal.message.TraceSystem;
+import com.openddal.repo.JdbcRepository;
+import com.openddal.repo.SQLTranslator;
+import com.openddal.util.New;
+
+/**
+ * Tests the lazy physical connection of a shard connection.
+ *
+ * @author jorgie.li
+ */
+public class SmartConnectionTest {
+
+    private final AtomicInteger closed = new AtomicInteger();
+
+    @Test
+    public void testSettingsAreAppliedLazily() throws Exception {
+        DataSourceMarker marker = newMarker(newConnection(false));
+        Connection conn = newShard(marker).getConnection();
+        conn.setAutoCommit(false);
+        assertEquals(0, marker.getActiveCount());
+        conn.commit();
+        conn.close();
+        assertEquals(0, closed.get());
+
+        conn = newShard(marker).getConnection();
+        conn.setAutoCommit(false);
+        conn.createStatement();
+        assertEquals(1, marker.getActiveCount());
+        conn.close();
+        assertEquals(1, closed.get());
+        assertEquals(0, marker.getActiveCount());
+    }
+
+    @Test
+    public void testFailedSettingReleasesConnection() throws Exception {
+        DataSourceMarker marker = newMarker(newConnection(true));
+        Connection conn = newShard(marker).getConnection();
+        conn.setAutoCommit(false);
+        try {
+            conn.createStatement();
+            fail();
+        } catch (SQLException e) {
+            // expected
+        }
+        assertEquals(1, marker.getActiveCount());
+        conn.close();
+        assertEquals(1, closed.get());
+        assertEquals(0, marker.getActiveCount());
+    }
+
+    static JdbcRepository newRepository() {
+        final Trace trace = new TraceSystem().getTrace(Trace.REPOSITORY);
+        return new JdbcRepository() {
+
+            @Override
+            public Trace getTrace() {
+                return trace;
+            }
+
+            @Override
+            public SQLTranslator getSQLTranslator() {
+                return null;
+            }
+
+            @Override
+            public WorkerFactory getWorkerFactory() {
+                return null;
+            }
+
+            @Override
+            public String getName() {
+                return "TEST";
+            }
+        };
+    }
+
+    static DataSourceMarker newMarker(final Connection physical) {
+        DataSourceMarker marker = new DataSourceMarker();
+        marker.setDataSource((DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(),
+                new Class<?>[] { DataSource.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        // a pool that hands out the same backend connection
+                        if ("getConnection".equals(method.getName())) {
+                            return physical;
+                        }
+                        return invokeObjectMethod(proxy, method, args);
+                    }
+                }));
+        marker.setShardName("shard0");
+        marker.setUid("ds0");
+        marker.setwWeight(1);
+        marker.setrWeight(1);
+        return marker;
+    }
+
+    static SmartDataSource newShard(DataSourceMarker marker) {
+        List<DataSourceMarker> members = New.arrayList();
+        members.add(marker);
+        return new SmartDataSource(newRepository(), "shard0", members);
+    }
+
+    private Connection newConnection(final boolean failAutoCommit) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+                        String name = method.getName();
+                        if ("setAutoCommit".equals(name) && failAutoCommit) {
+                            throw new SQLException("connection reset");
+                        } else if ("close".equals(name)) {
+                            closed.incrementAndGet();
+                        }
+                        return invokeObjectMethod(proxy, method, args);
+                    }
+                });
+    }
+
+    static Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        } else if ("equals".equals(name)) {
+            return proxy == args[0];
+        }
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        }
+        return null;
+    }
+
+}
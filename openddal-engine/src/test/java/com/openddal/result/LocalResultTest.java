@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.result;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.openddal.command.expression.Expression;
+import com.openddal.command.expression.ValueExpression;
+import com.openddal.value.ValueInt;
+
+/**
+ * Tests the local result with more rows than fit in memory.
+ *
+ * @author jorgie.li
+ */
+public class LocalResultTest {
+
+    @Test
+    public void testDistinctSpillWithDuplicates() {
+        LocalResult result = newResult();
+        result.setDistinct();
+        Set<Integer> added = new HashSet<Integer>();
+        // each value is added again after the rows in memory were spilled
+        for (int i = 0; i < 60; i++) {
+            int x = i % 7;
+            result.addRow(new ValueInt[] { ValueInt.get(x) });
+            added.add(x);
+            // a query with a limit stops reading once the count reaches it
+            assertTrue(result.getRowCount() <= added.size());
+        }
+        result.done();
+        assertEquals(7, result.getRowCount());
+        Set<Integer> read = new HashSet<Integer>();
+        while (result.next()) {
+            assertTrue(read.add(result.currentRow()[0].getInt()));
+        }
+        assertEquals(added, read);
+        result.close();
+    }
+
+    @Test
+    public void testDistinctSpillWithLimit() {
+        LocalResult result = newResult();
+        result.setDistinct();
+        result.setLimit(5);
+        for (int i = 0; i < 60; i++) {
+            result.addRow(new ValueInt[] { ValueInt.get(i % 7) });
+        }
+        result.done();
+        assertEquals(5, result.getRowCount());
+        int count = 0;
+        while (result.next()) {
+            count++;
+        }
+        assertEquals(5, count);
+        result.close();
+    }
+
+    @Test
+    public void testDistinctSpillLargerThanPartitions() {
+        LocalResult result = newResult();
+        result.setDistinct();
+        // more distinct rows than the first partitions hold in memory
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 500; i++) {
+                result.addRow(new ValueInt[] { ValueInt.get(i) });
+            }
+        }
+        result.done();
+        assertEquals(500, result.getRowCount());
+        Set<Integer> read = new HashSet<Integer>();
+        while (result.next()) {
+            assertTrue(read.add(result.currentRow()[0].getInt()));
+        }
+        assertEquals(500, read.size());
+        result.close();
+    }
+
+    private static LocalResult newResult() {
+        Expression[] expressions = { ValueExpression.get(ValueInt.get(0)) };
+        LocalResult result = new LocalResult(null, expressions, 1);
+        result.setMaxMemoryRows(3);
+        return result;
+    }
+
+}
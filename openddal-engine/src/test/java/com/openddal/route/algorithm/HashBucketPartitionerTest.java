@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.route.algorithm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.openddal.route.rule.ObjectNode;
+import com.openddal.value.Value;
+import com.openddal.value.ValueInt;
+import com.openddal.value.ValueLong;
+
+/**
+ * Tests the nodes of a range of the hash bucket partitioner against the
+ * nodes of each value in the range.
+ *
+ * @author jorgie.li
+ */
+public class HashBucketPartitionerTest {
+
+    private static final int RANGES = 20000;
+
+    @Test
+    public void testRandomRanges() {
+        HashBucketPartitioner p = newPartitioner();
+        Random random = new Random(1);
+        for (int i = 0; i < RANGES; i++) {
+            long begin = random.nextLong() >> random.nextInt(64);
+            // mostly short ranges, which do not touch all nodes
+            int width = random.nextInt(10) == 0 ? random.nextInt(HashBucketPartitioner.MAX_ENUM_RANGE)
+                    : random.nextInt(32);
+            checkRange(p, ValueLong.get(begin), ValueLong.get(begin + width));
+        }
+        for (int i = 0; i < 1000; i++) {
+            int begin = random.nextInt() >> 1;
+            checkRange(p, ValueInt.get(begin), ValueInt.get(begin + random.nextInt(32)));
+        }
+    }
+
+    @Test
+    public void testEnumerationBoundary() {
+        HashBucketPartitioner p = newPartitioner();
+        int max = HashBucketPartitioner.MAX_ENUM_RANGE;
+        checkRange(p, ValueLong.get(100), ValueLong.get(100 + max - 1));
+        checkRange(p, ValueLong.get(100), ValueLong.get(100 + max));
+        checkRange(p, ValueLong.get(100), ValueLong.get(100 + max + 1));
+        assertEquals(16, p.partition(ValueLong.get(100), ValueLong.get(100 + max)).length);
+        // at the ends of the long values, and a range that overflows
+        checkRange(p, ValueLong.get(Long.MAX_VALUE - 20), ValueLong.get(Long.MAX_VALUE));
+        checkRange(p, ValueLong.get(Long.MIN_VALUE), ValueLong.get(Long.MIN_VALUE + 20));
+        assertEquals(16, p.partition(ValueLong.get(Long.MIN_VALUE), ValueLong.get(Long.MAX_VALUE)).length);
+        assertEquals(0, p.partition(ValueLong.get(10), ValueLong.get(9)).length);
+    }
+
+    private static void checkRange(HashBucketPartitioner p, Value begin, Value end) {
+        BitSet expected = new BitSet();
+        for (long x = begin.getLong();; x++) {
+            expected.set(p.partition(ValueLong.get(x)));
+            if (x == end.getLong()) {
+                break;
+            }
+        }
+        BitSet actual = PartitionUtilTest.toBitSet(p.partition(begin, end));
+        String range = begin.getString() + ".." + end.getString();
+        if (end.getLong() - begin.getLong() < HashBucketPartitioner.MAX_ENUM_RANGE) {
+            assertEquals(range, expected, actual);
+        } else {
+            // a long range reads all nodes
+            BitSet missed = (BitSet) expected.clone();
+            missed.andNot(actual);
+            assertEquals(range, new BitSet(), missed);
+        }
+    }
+
+    private static HashBucketPartitioner newPartitioner() {
+        ObjectNode[] nodes = new ObjectNode[16];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new ObjectNode("shard" + i, "t");
+        }
+        HashBucketPartitioner p = new HashBucketPartitioner();
+        p.setPartitionCount("16");
+        p.setPartitionLength("64");
+        p.initialize(nodes);
+        return p;
+    }
+
+}
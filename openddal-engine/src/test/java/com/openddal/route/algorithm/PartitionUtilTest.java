@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.route.algorithm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.openddal.route.rule.ObjectNode;
+import com.openddal.value.ValueLong;
+
+/**
+ * Tests the partitions of a range of hashes against the partitions of each
+ * hash, as a missed partition would drop the rows of a node from a query.
+ *
+ * @author jorgie.li
+ */
+public class PartitionUtilTest {
+
+    private static final int RANGES = 20000;
+
+    private final PartitionUtil util = new PartitionUtil(1024, new int[] { 2, 1, 4 }, new int[] { 256, 256, 64 });
+
+    @Test
+    public void testRandomRanges() {
+        Random random = new Random(1);
+        for (int i = 0; i < RANGES; i++) {
+            long begin = random.nextInt(6000) - 3000;
+            checkRange(begin, begin + random.nextInt(1100));
+        }
+    }
+
+    @Test
+    public void testWrapAround() {
+        // around the end of the segments
+        checkRange(1000, 1030);
+        checkRange(1023, 1024);
+        checkRange(-10, 10);
+        checkRange(2047, 2048 + 255);
+        // as long as the segments, or one less
+        checkRange(5, 5 + 1022);
+        checkRange(5, 5 + 1023);
+        checkRange(5, 5 + 1024);
+        // at the ends of the long values
+        checkRange(Long.MAX_VALUE - 300, Long.MAX_VALUE);
+        checkRange(Long.MIN_VALUE, Long.MIN_VALUE + 300);
+        assertNull(util.partition(Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testRangePartitioner() {
+        ObjectNode[] nodes = new ObjectNode[7];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new ObjectNode("shard" + i, "t");
+        }
+        RangePartitioner p = new RangePartitioner();
+        p.setPartitionCount("2,1,4");
+        p.setPartitionLength("256,256,64");
+        p.initialize(nodes);
+        Random random = new Random(2);
+        for (int i = 0; i < RANGES; i++) {
+            long begin = random.nextInt(6000) - 3000;
+            long end = begin + random.nextInt(1100);
+            BitSet expected = new BitSet();
+            for (long x = begin; x <= end; x++) {
+                expected.set(p.partition(ValueLong.get(x)));
+            }
+            Integer[] actual = p.partition(ValueLong.get(begin), ValueLong.get(end));
+            assertEquals(begin + ".." + end, expected, toBitSet(actual));
+        }
+        assertEquals(0, p.partition(ValueLong.get(10), ValueLong.get(9)).length);
+    }
+
+    private void checkRange(long begin, long end) {
+        BitSet expected = new BitSet();
+        for (long x = begin;; x++) {
+            expected.set(util.partition(x));
+            if (x == end) {
+                break;
+            }
+        }
+        BitSet actual = util.partition(begin, end);
+        if (actual == null) {
+            // all partitions
+            actual = new BitSet();
+            actual.set(0, 7);
+        }
+        assertEquals(begin + ".." + end, expected, actual);
+    }
+
+    static BitSet toBitSet(Integer[] positions) {
+        BitSet set = new BitSet();
+        for (Integer p : positions) {
+            set.set(p);
+        }
+        return set;
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.route.algorithm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import com.openddal.route.rule.ObjectNode;
+import com.openddal.value.Value;
+import com.openddal.value.ValueDate;
+import com.openddal.value.ValueTimestamp;
+
+/**
+ * Tests the routing of dates of the rolling partitioner against the
+ * calendar, for single dates and for ranges.
+ *
+ * @author jorgie.li
+ */
+public class RollingPartitionerTest {
+
+    private static final int DATES = 20000;
+    private static final int RANGES = 2000;
+
+    @Test
+    public void testDayMonthYearAgainstCalendar() {
+        RollingPartitioner days = newPartitioner("day", 31);
+        RollingPartitioner months = newPartitioner("month", 12);
+        RollingPartitioner years = newPartitioner("year", 50);
+        Random random = new Random(1);
+        Calendar calendar = Calendar.getInstance();
+        for (int i = 0; i < DATES; i++) {
+            Value value = randomTimestamp(random);
+            calendar.setTimeInMillis(((ValueTimestamp) value).getTimestamp().getTime());
+            assertEquals(value.getString(), calendar.get(Calendar.DAY_OF_MONTH) - 1,
+                    days.partition(value).intValue());
+            assertEquals(value.getString(), calendar.get(Calendar.MONTH), months.partition(value).intValue());
+            int year = calendar.get(Calendar.YEAR) - 1990;
+            assertEquals(value.getString(), Math.min(Math.max(year, 0), 49), years.partition(value).intValue());
+            Value date = value.convertTo(Value.DATE);
+            assertEquals(days.partition(value), days.partition(date));
+            assertEquals(months.partition(value), months.partition(date));
+            assertEquals(years.partition(value), years.partition(date));
+        }
+    }
+
+    @Test
+    public void testRangeAgainstEachDay() {
+        String[] rollingBy = { "day", "week", "month", "year" };
+        int[] nodes = { 31, 53, 12, 50 };
+        int[] cycles = { 31, 366, 366, Integer.MAX_VALUE };
+        Random random = new Random(2);
+        for (int i = 0; i < rollingBy.length; i++) {
+            RollingPartitioner p = newPartitioner(rollingBy[i], nodes[i]);
+            for (int j = 0; j < RANGES; j++) {
+                Calendar begin = Calendar.getInstance();
+                begin.setTimeInMillis(((ValueTimestamp) randomTimestamp(random)).getTimestamp().getTime());
+                Calendar end = (Calendar) begin.clone();
+                int days = random.nextInt(400);
+                end.add(Calendar.DAY_OF_MONTH, days);
+                Set<Integer> expected = new TreeSet<Integer>();
+                for (Calendar day = (Calendar) begin.clone(); !day.after(end); day.add(Calendar.DAY_OF_MONTH, 1)) {
+                    expected.add(p.partition(toDate(day)));
+                }
+                Value from = toDate(begin), to = toDate(end);
+                String range = rollingBy[i] + " " + from.getString() + " to " + to.getString();
+                Set<Integer> actual = toSet(p.partition(from, to));
+                assertEquals(range, actual, toSet(p.partition(to, from)));
+                // a range of a whole cycle or longer may read all nodes
+                if (days < cycles[i]) {
+                    assertEquals(range, expected, actual);
+                } else {
+                    assertTrue(range, actual.containsAll(expected));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWrapAround() {
+        RollingPartitioner months = newPartitioner("month", 12);
+        assertEquals(toSet(0, 1, 2), toSet(months.partition(date(2016, 1, 5), date(2016, 3, 3))));
+        assertEquals(toSet(10, 11, 0, 1), toSet(months.partition(date(2015, 11, 20), date(2016, 2, 1))));
+
+        RollingPartitioner days = newPartitioner("day", 31);
+        assertEquals(toSet(27, 28, 29, 30, 0, 1, 2), toSet(days.partition(date(2016, 1, 28), date(2016, 2, 3))));
+        assertEquals(toSet(24, 25, 26, 27, 0, 1), toSet(days.partition(date(2015, 2, 25), date(2015, 3, 2))));
+        assertEquals(31, days.partition(date(2016, 1, 5), date(2016, 3, 3)).length);
+
+        RollingPartitioner weeks = newPartitioner("week", 53);
+        assertEquals(toSet(51, 52, 0), toSet(weeks.partition(date(2015, 12, 24), date(2016, 1, 5))));
+
+        RollingPartitioner hours = newPartitioner("hour", 24);
+        assertEquals(toSet(22, 23, 0, 1, 2),
+                toSet(hours.partition(timestamp(2016, 1, 5, 22), timestamp(2016, 1, 6, 2))));
+        assertEquals(24, hours.partition(timestamp(2016, 1, 5, 2), timestamp(2016, 1, 6, 1)).length);
+    }
+
+    @Test
+    public void testYearsAfterLastNode() {
+        RollingPartitioner years = newPartitioner("year", 5);
+        assertEquals(0, years.partition(date(1980, 6, 1)).intValue());
+        assertEquals(4, years.partition(date(1994, 6, 1)).intValue());
+        assertEquals(4, years.partition(date(2016, 6, 1)).intValue());
+        assertEquals(toSet(4), toSet(years.partition(date(2010, 1, 1), date(2016, 6, 1))));
+        assertEquals(toSet(2, 3, 4), toSet(years.partition(date(1992, 1, 1), date(2016, 6, 1))));
+    }
+
+    private static RollingPartitioner newPartitioner(String rollingBy, int nodeCount) {
+        ObjectNode[] nodes = new ObjectNode[nodeCount];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new ObjectNode("shard" + i, "t");
+        }
+        RollingPartitioner p = new RollingPartitioner();
+        p.setRollingBy(rollingBy);
+        p.setStartBy("1990-01-01");
+        p.initialize(nodes);
+        return p;
+    }
+
+    /**
+     * Get a timestamp between 1970 and 2070.
+     */
+    private static Value randomTimestamp(Random random) {
+        long millis = (long) (random.nextDouble() * 100 * 365.25 * 24 * 3600 * 1000);
+        return ValueTimestamp.get(new Timestamp(millis));
+    }
+
+    private static Value toDate(Calendar calendar) {
+        return date(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1,
+                calendar.get(Calendar.DAY_OF_MONTH));
+    }
+
+    private static Value date(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month - 1, day);
+        return ValueDate.fromMillis(calendar.getTimeInMillis());
+    }
+
+    private static Value timestamp(int year, int month, int day, int hour) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, 0);
+        return ValueTimestamp.get(new Timestamp(calendar.getTimeInMillis()));
+    }
+
+    private static Set<Integer> toSet(Integer... positions) {
+        return new TreeSet<Integer>(Arrays.asList(positions));
+    }
+
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.route.algorithm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.openddal.route.algorithm.VirtualBucketPartitioner.Hold;
+import com.openddal.route.rule.ObjectNode;
+import com.openddal.util.FileUtils;
+import com.openddal.value.Value;
+import com.openddal.value.ValueInt;
+
+/**
+ * Tests the routing and the fence of the virtual bucket partitioner.
+ *
+ * @author jorgie.li
+ */
+public class VirtualBucketPartitionerTest {
+
+    private static final Value VALUE = ValueInt.get(7);
+
+    @Test
+    public void testRoutingDuringMigrationAndAfterCutOver() {
+        VirtualBucketPartitioner p = newPartitioner();
+        int bucket = p.getBucket(VALUE);
+        assertEquals(0, p.partition(VALUE).intValue());
+
+        assertTrue(p.startMigration(bucket, 1, 1000));
+        assertTrue(p.isMigrating());
+        assertEquals(1, p.getMigrationTarget(bucket));
+        // the rows are read and written on the old node only
+        assertEquals(0, p.partition(VALUE).intValue());
+
+        p.startCopy(bucket);
+        assertTrue(p.startCutOver(bucket, 1000));
+        p.cutOver(bucket);
+        assertEquals(1, p.partition(VALUE).intValue());
+        assertEquals(0, p.getPurgeNode(bucket));
+        p.purged(bucket);
+        assertEquals(-1, p.getPurgeNode(bucket));
+        p.endMigration(bucket);
+        assertFalse(p.isMigrating());
+        assertEquals(1, p.partition(VALUE).intValue());
+        assertEquals(1, p.getNodeIndex(bucket));
+        assertEquals(0, p.getNodeIndex(bucket ^ 1));
+    }
+
+    @Test
+    public void testCancelledMigrationStaysOnOldNode() {
+        VirtualBucketPartitioner p = newPartitioner();
+        int bucket = p.getBucket(VALUE);
+        assertTrue(p.startMigration(bucket, 1, 1000));
+        p.startCopy(bucket);
+        assertTrue(p.startCutOver(bucket, 1000));
+        p.cancelCutOver(bucket);
+        p.endMigration(bucket);
+        assertEquals(0, p.partition(VALUE).intValue());
+        assertEquals(-1, p.getPurgeNode(bucket));
+        assertEquals("0-15:0", p.getBucketMapping());
+    }
+
+    @Test
+    public void testHoldDelaysMigration() {
+        VirtualBucketPartitioner p = newPartitioner();
+        int bucket = p.getBucket(VALUE);
+        // the copy does not wait for the reads
+        Hold read = p.getNodeHold(0, false);
+        assertTrue(read.acquire(false));
+        assertTrue(p.startMigration(bucket, 1, 50));
+        p.startCopy(bucket);
+        // but the cut over does
+        assertFalse(p.startCutOver(bucket, 50));
+        read.release();
+        assertTrue(p.startCutOver(bucket, 50));
+        p.cancelCutOver(bucket);
+        p.endMigration(bucket);
+
+        Hold write = p.getBucketHold(bucket, true);
+        assertTrue(write.acquire(false));
+        assertFalse(p.startMigration(bucket, 1, 50));
+        // a hold on another bucket of the node does not
+        assertTrue(p.startMigration(bucket ^ 1, 1, 50));
+        p.endMigration(bucket ^ 1);
+        write.release();
+        assertTrue(p.startMigration(bucket, 1, 50));
+    }
+
+    @Test
+    public void testCopyFencesOnlyBucketWrites() {
+        VirtualBucketPartitioner p = newPartitioner();
+        p.setLockTimeout(50);
+        int bucket = p.getBucket(VALUE);
+        assertTrue(p.startMigration(bucket, 1, 1000));
+        p.startCopy(bucket);
+        assertFalse(p.getBucketHold(bucket, true).acquire(false));
+        assertAcquired(p.getBucketHold(bucket, false));
+        assertAcquired(p.getBucketHold(bucket ^ 1, true));
+        assertAcquired(p.getNodeHold(0, false));
+        assertAcquired(p.getNodeHold(1, true));
+        assertFalse(p.isDirty(bucket));
+        // a write of the whole old node may change the bucket
+        assertAcquired(p.getNodeHold(0, true));
+        assertTrue(p.isDirty(bucket));
+        p.startCopy(bucket);
+        assertFalse(p.isDirty(bucket));
+    }
+
+    @Test
+    public void testCutOverFencesBucketAndNodes() {
+        VirtualBucketPartitioner p = new VirtualBucketPartitioner();
+        p.setBucketCount(16);
+        p.setBucketMapping("0-15:0");
+        p.setLockTimeout(50);
+        p.initialize(new ObjectNode[] { new ObjectNode("shard0", "t"), new ObjectNode("shard1", "t"),
+                new ObjectNode("shard2", "t") });
+        int bucket = p.getBucket(VALUE);
+        assertTrue(p.startMigration(bucket, 1, 1000));
+        p.startCopy(bucket);
+        assertTrue(p.startCutOver(bucket, 1000));
+        assertFalse(p.getBucketHold(bucket, false).acquire(false));
+        assertFalse(p.getNodeHold(0, false).acquire(false));
+        assertFalse(p.getNodeHold(1, true).acquire(false));
+        assertAcquired(p.getBucketHold(bucket ^ 1, true));
+        assertAcquired(p.getNodeHold(2, true));
+
+        p.cutOver(bucket);
+        p.purged(bucket);
+        p.endMigration(bucket);
+        assertAcquired(p.getNodeHold(1, false));
+    }
+
+    @Test
+    public void testSessionHoldingRowsIsNotBlockedByWaitingMigration() throws Exception {
+        final VirtualBucketPartitioner p = newPartitioner();
+        p.setLockTimeout(50);
+        final int bucket = p.getBucket(VALUE);
+        assertTrue(p.startMigration(bucket, 1, 1000));
+        p.startCopy(bucket);
+        Hold read = p.getNodeHold(0, false);
+        assertTrue(read.acquire(false));
+        final boolean[] started = new boolean[1];
+        Thread migrator = new Thread() {
+            @Override
+            public void run() {
+                started[0] = p.startCutOver(bucket, 5000);
+            }
+        };
+        migrator.start();
+        // other sessions wait for the cut over once it waits, the holding
+        // session not
+        Hold hold = p.getNodeHold(1, false);
+        while (hold.acquire(false)) {
+            hold.release();
+            Thread.sleep(1);
+        }
+        Hold other = p.getNodeHold(1, false);
+        assertTrue(other.acquire(true));
+        other.release();
+        read.release();
+        migrator.join();
+        assertTrue(started[0]);
+        assertFalse(p.getNodeHold(1, false).acquire(true));
+    }
+
+    @Test
+    public void testMappingFileSurvivesRestart() throws Exception {
+        String fileName = FileUtils.createTempFile("buckets", ".txt", true, true);
+        FileUtils.delete(fileName);
+        try {
+            VirtualBucketPartitioner p = newPartitioner(fileName);
+            int bucket = p.getBucket(VALUE);
+            assertFalse(FileUtils.exists(fileName));
+            assertTrue(p.startMigration(bucket, 1, 1000));
+            p.startCopy(bucket);
+            assertTrue(p.startCutOver(bucket, 1000));
+            p.cutOver(bucket);
+            p.endMigration(bucket);
+            assertTrue(FileUtils.exists(fileName));
+
+            // the file replaces the configured mapping, with the rows that
+            // are still to be removed from the old node
+            VirtualBucketPartitioner restarted = newPartitioner(fileName);
+            assertEquals(1, restarted.partition(VALUE).intValue());
+            assertEquals(p.getBucketMapping(), restarted.getBucketMapping());
+            assertEquals(0, restarted.getPurgeNode(bucket));
+            try {
+                restarted.startMigration(bucket, 0, 1000);
+                fail();
+            } catch (IllegalStateException e) {
+                // expected
+            }
+
+            restarted.purged(bucket);
+            restarted.remap(bucket, 0);
+            VirtualBucketPartitioner reverted = newPartitioner(fileName);
+            assertEquals("0-15:0", reverted.getBucketMapping());
+            assertEquals(-1, reverted.getPurgeNode(bucket));
+        } finally {
+            FileUtils.delete(fileName);
+        }
+    }
+
+    private static void assertAcquired(Hold hold) {
+        assertTrue(hold.acquire(false));
+        hold.release();
+    }
+
+    private static VirtualBucketPartitioner newPartitioner() {
+        return newPartitioner(null);
+    }
+
+    private static VirtualBucketPartitioner newPartitioner(String mappingFile) {
+        VirtualBucketPartitioner p = new VirtualBucketPartitioner();
+        p.setBucketCount(16);
+        p.setBucketMapping("0-15:0");
+        p.setMappingFile(mappingFile);
+        p.initialize(new ObjectNode[] { new ObjectNode("shard0", "t"), new ObjectNode("shard1", "t") });
+        return p;
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.route.rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+import com.openddal.config.ShardedTableRule;
+import com.openddal.route.algorithm.HashBucketPartitioner;
+import com.openddal.value.Value;
+import com.openddal.value.ValueInt;
+import com.openddal.value.ValueLong;
+
+/**
+ * Tests the routing of a single value, which must not allocate.
+ *
+ * @author jorgie.li
+ */
+public class RoutingCalculatorImplTest {
+
+    private static final int LOOKUPS = 100000;
+
+    @Test
+    public void testPointLookupIsShared() {
+        ShardedTableRule rule = newTableRule();
+        RoutingCalculator calculator = new RoutingCalculatorImpl();
+        RoutingResult result = calculator.calculate(rule, ValueInt.get(7));
+        assertEquals(1, result.getSelectNodes().length);
+        assertSame(result, calculator.calculate(rule, ValueLong.get(7)));
+    }
+
+    @Test
+    public void testPointLookupDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        ShardedTableRule rule = newTableRule();
+        RoutingCalculator calculator = new RoutingCalculatorImpl();
+        Value[] values = new Value[1024];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i % 2 == 0 ? ValueInt.get(i * 7919) : ValueLong.get(i * 104729L);
+        }
+        int nodes = lookup(calculator, rule, values);
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        nodes += lookup(calculator, rule, values);
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+        assertEquals(2 * LOOKUPS, nodes);
+        // the measurement itself allocates a few bytes
+        assertTrue("allocated " + allocated + " bytes", allocated < LOOKUPS);
+    }
+
+    private static int lookup(RoutingCalculator calculator, ShardedTableRule rule, Value[] values) {
+        int nodes = 0;
+        for (int i = 0; i < LOOKUPS; i++) {
+            nodes += calculator.calculate(rule, values[i & (values.length - 1)]).getSelectNodes().length;
+        }
+        return nodes;
+    }
+
+    private static ShardedTableRule newTableRule() {
+        ObjectNode[] nodes = new ObjectNode[4];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new ObjectNode("shard" + i, "t");
+        }
+        ShardedTableRule rule = new ShardedTableRule("t", nodes[0], nodes);
+        rule.setRuleColumns(new String[] { "id" });
+        HashBucketPartitioner partitioner = new HashBucketPartitioner();
+        partitioner.setPartitionCount("4");
+        partitioner.setPartitionLength("256");
+        partitioner.initialize(nodes);
+        rule.setPartitioner(partitioner);
+        return rule;
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import com.openddal.config.DataSourceException;
+import com.openddal.config.DataSourceProvider;
+import com.openddal.config.Shard;
+import com.openddal.config.Shard.ShardItem;
+import com.openddal.engine.Engine;
+import com.openddal.engine.Session;
+import com.openddal.engine.SessionFactoryBuilder;
+import com.openddal.util.New;
+
+/**
+ * Creates JDBC objects for the engine tests, and an engine whose shards are
+ * such objects. A mock answers the methods its handler does not know with
+ * the default value of the return type.
+ *
+ * @author jorgie.li
+ */
+public abstract class MockJdbc implements InvocationHandler {
+
+    /**
+     * The result of {@link #handle} for a method the handler does not know.
+     */
+    protected static final Object DEFAULT = new Object();
+
+    /**
+     * Create a mock.
+     *
+     * @param type the interface
+     * @param handler the handler
+     * @return the mock
+     */
+    public static <T> T newMock(Class<T> type, MockJdbc handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+
+    /**
+     * Open a session of an engine without tables. The data sources are the
+     * shards shard0, shard1 and so on, and shard0 is the default shard.
+     *
+     * @param settings the settings
+     * @param shards the data sources of the shards
+     * @return the session
+     */
+    public static Session openSession(Properties settings, final DataSource... shards) {
+        List<Shard> cluster = New.arrayList();
+        for (int i = 0; i < shards.length; i++) {
+            ShardItem item = new ShardItem();
+            item.setRef("ds" + i);
+            item.setwWeight(1);
+            item.setrWeight(1);
+            Shard shard = new Shard();
+            shard.setName("shard" + i);
+            shard.setShardItems(New.arrayList(Collections.singletonList(item)));
+            cluster.add(shard);
+        }
+        Engine engine = (Engine) SessionFactoryBuilder.newBuilder().applySettings(settings).dbCluster(cluster)
+                .dataSourceProvider(new DataSourceProvider() {
+                    @Override
+                    public DataSource lookup(String uid) throws DataSourceException {
+                        return shards[Integer.parseInt(uid.substring(2))];
+                    }
+                }).defaultShardName("shard0").build();
+        return engine.createSession(new Properties());
+    }
+
+    @Override
+    public final Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        Object result = handle(method.getName(), args);
+        if (result != DEFAULT) {
+            return result;
+        }
+        String name = method.getName();
+        if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        } else if ("equals".equals(name)) {
+            return proxy == args[0];
+        } else if ("toString".equals(name)) {
+            return getClass().getSimpleName() + "@" + System.identityHashCode(proxy);
+        }
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    /**
+     * Handle a call of the mock.
+     *
+     * @param name the method name
+     * @param args the arguments
+     * @return the result, or {@link #DEFAULT}
+     */
+    protected abstract Object handle(String name, Object[] args) throws Exception;
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.test;
+
+import com.openddal.engine.Database;
+import com.openddal.executor.works.WorkerFactory;
+import com.openddal.repo.JdbcRepository;
+import com.openddal.repo.JdbcWorkerFactory;
+import com.openddal.repo.SQLTranslator;
+
+/**
+ * The repository of the engine tests. It runs the workers on the JDBC mocks
+ * of {@link MockJdbc}, and has no SQL translator.
+ *
+ * @author jorgie.li
+ */
+public class TestRepository extends JdbcRepository {
+
+    private JdbcWorkerFactory workerFactory;
+
+    @Override
+    public void init(Database database) {
+        super.init(database);
+        workerFactory = new JdbcWorkerFactory(this);
+    }
+
+    @Override
+    public WorkerFactory getWorkerFactory() {
+        return workerFactory;
+    }
+
+    @Override
+    public SQLTranslator getSQLTranslator() {
+        return null;
+    }
+
+    @Override
+    public String getName() {
+        return "TEST_JDBC_REPOSITORY";
+    }
+
+}
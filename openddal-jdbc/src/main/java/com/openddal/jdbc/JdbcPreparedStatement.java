@@ -20,6 +20,7 @@ import java.io.Reader;
 import java.math.BigDecimal;
 import java.net.URL;
 import java.sql.Array;
+import java.sql.BatchUpdateException;
 import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.NClob;
@@ -33,6 +34,7 @@ import java.sql.SQLException;
 import java.sql.SQLXML;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
 
@@ -172,6 +174,18 @@ public class JdbcPreparedStatement extends JdbcStatement implements
         return updateCount;
     }
 
+    private int[] executeBatchUpdateInternal() throws SQLException {
+        closeOldResultSet();
+        synchronized (session) {
+            try {
+                setExecutingStatement(command);
+                return command.executeBatchUpdate(batchParameters);
+            } finally {
+                setExecutingStatement(null);
+            }
+        }
+    }
+
     /**
      * Executes an arbitrary statement. If another result set exists for this
      * statement, this will be closed (even if this statement fails). If auto
@@ -1180,6 +1194,26 @@ public class JdbcPreparedStatement extends JdbcStatement implements
             SQLException next = null;
             checkClosed();
             try {
+                if (size > 1) {
+                    int[] combined;
+                    try {
+                        combined = executeBatchUpdateInternal();
+                    } catch (Exception re) {
+                        batchParameters = null;
+                        SQLException e = logAndConvert(re);
+                        if (e instanceof BatchUpdateException && e.getNextException() != null) {
+                            // the engine knows which executions succeeded
+                            throw new JdbcBatchUpdateException(e.getNextException(),
+                                    ((BatchUpdateException) e).getUpdateCounts());
+                        }
+                        Arrays.fill(result, Statement.EXECUTE_FAILED);
+                        throw new JdbcBatchUpdateException(e, result);
+                    }
+                    if (combined != null) {
+                        batchParameters = null;
+                        return combined;
+                    }
+                }
                 for (int i = 0; i < size; i++) {
                     Value[] set = batchParameters.get(i);
                     ArrayList<? extends ParameterInterface> parameters =
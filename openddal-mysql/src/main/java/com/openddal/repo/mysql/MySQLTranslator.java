@@ -1,12 +1,16 @@
 package com.openddal.repo.mysql;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
 import com.openddal.command.CommandInterface;
 import com.openddal.command.Parser;
+import com.openddal.command.Prepared;
 import com.openddal.command.ddl.AlterTableAddConstraint;
 import com.openddal.command.ddl.AlterTableAlterColumn;
 import com.openddal.command.ddl.CreateIndex;
@@ -21,11 +25,15 @@ import com.openddal.command.dml.Merge;
 import com.openddal.command.dml.Replace;
 import com.openddal.command.dml.Select;
 import com.openddal.command.dml.Update;
+import com.openddal.command.expression.Aggregate;
 import com.openddal.command.expression.Expression;
+import com.openddal.command.expression.ExpressionVisitor;
+import com.openddal.command.expression.ParameterList;
 import com.openddal.dbobject.table.Column;
 import com.openddal.dbobject.table.IndexColumn;
 import com.openddal.dbobject.table.TableFilter;
 import com.openddal.engine.Database;
+import com.openddal.executor.cursor.DirectLookupCursor;
 import com.openddal.message.DbException;
 import com.openddal.message.ErrorCode;
 import com.openddal.repo.SQLTranslated;
@@ -71,7 +79,14 @@ public class MySQLTranslator implements SQLTranslator {
             return translate(select, (GroupObjectNode) executionOn, consistencyTableNodes, selectCols, limit, offset);
         }
         Map<TableFilter, ObjectNode> nodeMapping = consistencyTableNodes.get(executionOn);
-        List<Value> params = New.arrayList(10);
+        Object shape = Arrays.asList(nodeMapping, Arrays.asList(selectCols), limit != null, offset != null);
+        SQLTranslated cached = getTranslated(select, executionOn, shape);
+        if (cached != null) {
+            List<Value> params = ParameterList.getValues(select.getSession(), cached.sources);
+            addLimit(params, limit, offset);
+            return SQLTranslated.build().sql(cached.sql).sqlParams(params);
+        }
+        ParameterList params = new ParameterList();
         ArrayList<Expression> expressions = select.getExpressions();
         Expression[] exprList = expressions.toArray(new Expression[expressions.size()]);
         StatementBuilder buff = new StatementBuilder("SELECT");
@@ -110,22 +125,36 @@ public class MySQLTranslator implements SQLTranslator {
             buff.append(" WHERE ").append(
                     StringUtils.unEnclose(condition.getPreparedSQL(select.getSession(), params)));
         }
+        ArrayList<Expression> groupBy = New.arrayList(10);
         int[] groupIndex = select.getGroupIndex();
         if (groupIndex != null) {
-            buff.append(" GROUP BY ");
-            buff.resetCount();
             for (int gi : groupIndex) {
-                Expression g = exprList[gi];
-                g = g.getNonAliasExpression();
-                buff.appendExceptFirst(", ");
-                buff.append(StringUtils.unEnclose(g.getPreparedSQL(select.getSession(), params)));
+                groupBy.add(exprList[gi].getNonAliasExpression());
             }
         }
         ArrayList<Expression> group = select.getGroupBy();
         if (group != null) {
+            groupBy.addAll(group);
+        }
+        if (select.isGroupQuery()) {
+            // the shards group by the values of the distinct aggregates
+            HashSet<Aggregate> aggregates = New.linkedHashSet();
+            for (Expression expr : exprList) {
+                expr.isEverything(ExpressionVisitor.getAggregateVisitor(aggregates));
+            }
+            for (Expression col : selectCols) {
+                for (Aggregate aggregate : aggregates) {
+                    if (aggregate.getDistinctGroupExpression() == col) {
+                        groupBy.add(col);
+                        break;
+                    }
+                }
+            }
+        }
+        if (!groupBy.isEmpty()) {
             buff.append(" GROUP BY ");
             buff.resetCount();
-            for (Expression g : group) {
+            for (Expression g : groupBy) {
                 buff.appendExceptFirst(", ");
                 buff.append(StringUtils.unEnclose(g.getPreparedSQL(select.getSession(), params)));
             }
@@ -144,25 +173,86 @@ public class MySQLTranslator implements SQLTranslator {
             buff.append(" HAVING ").append(StringUtils.unEnclose(h.getPreparedSQL(select.getSession(), params)));
         }*/
         SortOrder sort = select.getSortOrder();
-        if (sort != null) {
+        if (sort != null && !select.isGroupQuery()) {
             buff.append(" ORDER BY ").append(sort.getSQL(exprList, visibleColumnCount));
         }
+        Expression[] sources = params.getSources();
         if (limit != null) {
             buff.append(" LIMIT ").append("?");
-            params.add(ValueInt.get(limit));
             if (offset != null) {
                 buff.append(" OFFSET ").append("?");
-                params.add(ValueInt.get(offset));
             }
+            addLimit(params, limit, offset);
         }
 
         if (select.isForUpdate()) {
             buff.append(" FOR UPDATE");
         }
-        return SQLTranslated.build().sql(buff.toString()).sqlParams(params);
+        String sql = buff.toString();
+        setTranslated(select, executionOn, shape, sql, sources);
+        return SQLTranslated.build().sql(sql).sqlParams(params);
     
     }
 
+    private static void addLimit(List<Value> params, Integer limit, Integer offset) {
+        if (limit != null) {
+            params.add(ValueInt.get(limit));
+            if (offset != null) {
+                params.add(ValueInt.get(offset));
+            }
+        }
+    }
+
+    /**
+     * Get the statement translated for the node by an earlier execution of
+     * the prepared statement, if it is still of the same shape.
+     *
+     * @param prepared the prepared statement
+     * @param node the node the statement is executed on
+     * @param shape what else the translated statement depends on
+     * @return the translated statement, or null
+     */
+    private static SQLTranslated getTranslated(Prepared prepared, ObjectNode node, Object shape) {
+        SQLTranslated translated = prepared.getTranslated(node);
+        if (translated == null || !translated.shape.equals(shape)) {
+            return null;
+        }
+        return translated;
+    }
+
+    /**
+     * Keep the translated statement for the next execution of the prepared
+     * statement, unless it depends on the data.
+     *
+     * @param prepared the prepared statement
+     * @param node the node the statement is executed on
+     * @param shape what else the translated statement depends on
+     * @param sql the translated SQL statement
+     * @param sources the expressions of the parameters, or null
+     */
+    private static void setTranslated(Prepared prepared, ObjectNode node, Object shape, String sql,
+            Expression[] sources) {
+        if (sources != null) {
+            SQLTranslated translated = SQLTranslated.build().sql(sql);
+            translated.sources = sources;
+            translated.shape = shape;
+            prepared.setTranslated(node, translated);
+        }
+    }
+
+    /**
+     * Get the shape of the values of a row: whether each value is the
+     * default, NULL or a parameter.
+     */
+    private static String getShape(Row row, int[] columnIds) {
+        char[] shape = new char[columnIds.length];
+        for (int i = 0; i < columnIds.length; i++) {
+            Value v = row.getValue(columnIds[i]);
+            shape[i] = v == null ? 'D' : isNull(v) ? 'N' : '?';
+        }
+        return new String(shape);
+    }
+
     /**
      * @see http://dev.mysql.com/doc/refman/5.7/en/select.html
      */
@@ -259,6 +349,11 @@ public class MySQLTranslator implements SQLTranslator {
             sql.append(StringUtils.enclose(translated.sql));
             params.addAll(translated.params);
         }
+        // keep the merged rows of the group node sorted for the sorted merging
+        if (items.length > 1 && DirectLookupCursor.isSortedMergingQuery(select)) {
+            SortOrder sort = select.getSortOrder();
+            sql.append(" ORDER BY ").append(sort.getSQL(selectCols, selectCols.length));
+        }
         return SQLTranslated.build().sql(sql.toString()).sqlParams(params);
     }
 
@@ -657,8 +752,13 @@ public class MySQLTranslator implements SQLTranslator {
      */
     @Override
     public SQLTranslated translate(Delete prepared, ObjectNode node) {
-
-        ArrayList<Value> params = New.arrayList();
+        Object shape = Collections.emptyList();
+        SQLTranslated cached = getTranslated(prepared, node, shape);
+        if (cached != null) {
+            return SQLTranslated.build().sql(cached.sql)
+                    .sqlParams(ParameterList.getValues(prepared.getSession(), cached.sources));
+        }
+        ParameterList params = new ParameterList();
         String forTable = node.getCompositeObjectName();
         Expression condition = prepared.getCondition();
         Expression limitExpr = prepared.getLimitExpr();
@@ -674,7 +774,9 @@ public class MySQLTranslator implements SQLTranslator {
             limitExpr.getPreparedSQL(prepared.getSession(), params);
             sql.append(" LIMIT ").append(StringUtils.unEnclose(limitExpr.getSQL()));
         }
-        return SQLTranslated.build().sql(sql.toString()).sqlParams(params);
+        String translated = sql.toString();
+        setTranslated(prepared, node, shape, translated, params.getSources());
+        return SQLTranslated.build().sql(translated).sqlParams(params);
 
     
     }
@@ -685,9 +787,24 @@ public class MySQLTranslator implements SQLTranslator {
     @Override
     public SQLTranslated translate(Insert insert, ObjectNode node, Row ... rows) {
         ArrayList<Value> params = New.arrayList();
+        Column[] columns = insert.getColumns();
+        String shape = null;
+        if (rows.length == 1) {
+            // only the statement of a single row is kept, the statements of
+            // more rows have too many shapes
+            int[] columnIds = new int[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                columnIds[i] = columns[i].getColumnId();
+            }
+            shape = getShape(rows[0], columnIds);
+            SQLTranslated cached = getTranslated(insert, node, shape);
+            if (cached != null) {
+                addValues(params, rows[0], columnIds);
+                return SQLTranslated.build().sql(cached.sql).sqlParams(params);
+            }
+        }
         StatementBuilder sql = new StatementBuilder(256);
         String forTable = node.getCompositeObjectName();
-        Column[] columns = insert.getColumns();
         sql.append("INSERT INTO ");
         sql.append(identifier(forTable)).append('(');
         for (Column c : insert.getColumns()) {
@@ -707,10 +824,23 @@ public class MySQLTranslator implements SQLTranslator {
                 sql.append(item.getValue().getSQL());
             }
         }
-        return SQLTranslated.build().sql(sql.toString()).sqlParams(params);
+        String translated = sql.toString();
+        if (shape != null) {
+            setTranslated(insert, node, shape, translated, new Expression[0]);
+        }
+        return SQLTranslated.build().sql(translated).sqlParams(params);
     
     }
 
+    private static void addValues(List<Value> params, Row row, int[] columnIds) {
+        for (int index : columnIds) {
+            Value v = row.getValue(index);
+            if (!isNull(v)) {
+                params.add(v);
+            }
+        }
+    }
+
     private void appendValues(ArrayList<Value> params, StatementBuilder sql, Column[] columns, Row... rows) {
         for (int i = 0; i < rows.length; i++) {
             Row row = rows[i];
@@ -769,8 +899,20 @@ public class MySQLTranslator implements SQLTranslator {
     @Override
     public SQLTranslated translate(Update prepared, ObjectNode node, Row row) {
         ArrayList<Value> params = New.arrayList();
-        String forTable = node.getCompositeObjectName();
         List<Column> columns = prepared.getColumns();
+        int[] columnIds = new int[columns.size()];
+        for (int i = 0; i < columnIds.length; i++) {
+            columnIds[i] = i;
+        }
+        String shape = getShape(row, columnIds);
+        SQLTranslated cached = getTranslated(prepared, node, shape);
+        if (cached != null) {
+            addValues(params, row, columnIds);
+            params.addAll(ParameterList.getValues(prepared.getSession(), cached.sources));
+            return SQLTranslated.build().sql(cached.sql).sqlParams(params);
+        }
+        ParameterList conditionParams = new ParameterList();
+        String forTable = node.getCompositeObjectName();
         Expression condition = prepared.getCondition();
         Expression limitExpr = prepared.getLimitExpr();
         StatementBuilder sql = new StatementBuilder();
@@ -793,24 +935,46 @@ public class MySQLTranslator implements SQLTranslator {
             }
         }
         if (condition != null) {
-            condition.getPreparedSQL(prepared.getSession(), params);
+            condition.getPreparedSQL(prepared.getSession(), conditionParams);
             sql.append(" WHERE ").append(StringUtils.unEnclose(condition.getSQL()));
         }
         if (limitExpr != null) {
-            limitExpr.getPreparedSQL(prepared.getSession(), params);
+            limitExpr.getPreparedSQL(prepared.getSession(), conditionParams);
             sql.append(" LIMIT ").append(StringUtils.unEnclose(limitExpr.getSQL()));
         }
-        return SQLTranslated.build().sql(sql.toString()).sqlParams(params);
+        params.addAll(conditionParams);
+        String translated = sql.toString();
+        setTranslated(prepared, node, shape, translated, conditionParams.getSources());
+        return SQLTranslated.build().sql(translated).sqlParams(params);
     }
 
     @Override
     public SQLTranslated translate(Column[] searchColumns, TableFilter filter, ObjectNode node) {
+        return translate(searchColumns, filter, filter.getFilterCondition(), node, null);
+    }
+
+    @Override
+    public SQLTranslated translate(Column[] searchColumns, TableFilter filter, Expression condition, ObjectNode node,
+            Integer limit) {
 
         // can not use the field sqlStatement because the parameter
         // indexes may be incorrect: ? may be in fact ?2 for a subquery
         // but indexes may be set manually as well
         if (node instanceof GroupObjectNode) {
-            return translate(searchColumns, filter, (GroupObjectNode) node);
+            ObjectNode[] items = ((GroupObjectNode) node).getItems();
+            List<Value> params = New.arrayList(10 * items.length);
+            StatementBuilder sql = new StatementBuilder(100 * items.length);
+            for (ObjectNode objectNode : items) {
+                SQLTranslated translated = translate(searchColumns, filter, condition, objectNode, null);
+                sql.appendExceptFirst(" UNION ALL ");
+                sql.append(StringUtils.enclose(translated.sql));
+                params.addAll(translated.params);
+            }
+            if (limit != null) {
+                sql.append(" LIMIT ?");
+                params.add(ValueInt.get(limit));
+            }
+            return SQLTranslated.build().sql(sql.toString()).sqlParams(params);
         }
         List<Value> params = New.arrayList(10);
         StatementBuilder buff = new StatementBuilder("SELECT");
@@ -825,10 +989,13 @@ public class MySQLTranslator implements SQLTranslator {
         buff.append(identifier(node.getCompositeObjectName()));
         buff.append(" AS ");
         buff.append(filter.getTableAlias());
-        Expression condition = filter.getFilterCondition();
         if (condition != null) {
             buff.append(" WHERE ").append(StringUtils.unEnclose(condition.getPreparedSQL(filter.getSession(), params)));
         }
+        if (limit != null) {
+            buff.append(" LIMIT ?");
+            params.add(ValueInt.get(limit));
+        }
         return SQLTranslated.build().sql(buff.toString()).sqlParams(params);
     
     }
@@ -836,17 +1003,7 @@ public class MySQLTranslator implements SQLTranslator {
     
     @Override
     public SQLTranslated translate(Column[] searchColumns, TableFilter filter, GroupObjectNode node) {
-        ObjectNode[] items = node.getItems();
-        List<Value> params = New.arrayList(10 * items.length);
-        StatementBuilder sql = new StatementBuilder(100 * items.length);
-        for (ObjectNode objectNode : items) {
-            SQLTranslated translated = translate(searchColumns, filter, objectNode);
-            sql.appendExceptFirst(" UNION ALL ");
-            sql.append(StringUtils.enclose(translated.sql));
-            params.addAll(translated.params);
-        }
-        return SQLTranslated.build().sql(sql.toString()).sqlParams(params);
-    
+        return translate(searchColumns, filter, filter.getFilterCondition(), (ObjectNode) node, null);
     }
 
 }
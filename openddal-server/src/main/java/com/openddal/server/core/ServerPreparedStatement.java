@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.server.core;
+
+import java.util.ArrayList;
+
+import com.openddal.command.Command;
+import com.openddal.command.expression.ParameterInterface;
+import com.openddal.engine.Session;
+import com.openddal.result.ResultInterface;
+import com.openddal.server.ServerException;
+import com.openddal.value.DataType;
+import com.openddal.value.Value;
+
+/**
+ * A statement prepared by the client with the binary protocol. The parsed
+ * command is kept until the client closes the statement, so executing it
+ * again only binds the new parameter values.
+ *
+ * @author jorgie.li
+ *
+ */
+public class ServerPreparedStatement {
+
+    private final long id;
+    private final String sql;
+    private final Session dbSession;
+    private final Command command;
+    private final int[] parameterTypes;
+
+    ServerPreparedStatement(long id, String sql, Session dbSession, Command command) {
+        this.id = id;
+        this.sql = sql;
+        this.dbSession = dbSession;
+        this.command = command;
+        this.parameterTypes = new int[command.getParameters().size()];
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public int getParameterCount() {
+        return parameterTypes.length;
+    }
+
+    /**
+     * The protocol types of the parameters sent with the last execution.
+     *
+     * @return the types, updated in place by the protocol decoder
+     */
+    public int[] getParameterTypes() {
+        return parameterTypes;
+    }
+
+    public boolean isQuery() {
+        return command.isQuery();
+    }
+
+    /**
+     * Get the column meta data of the result, or null if this is not a
+     * query.
+     *
+     * @return the meta data
+     */
+    public ResultInterface getMetaData() {
+        synchronized (dbSession) {
+            return command.isQuery() ? command.getMetaData() : null;
+        }
+    }
+
+    /**
+     * Bind the parameter values and execute the command.
+     *
+     * @param values the parameter values as Java objects
+     * @return the result
+     */
+    public QueryResult execute(Object[] values) throws ServerException {
+        try {
+            synchronized (dbSession) {
+                ArrayList<? extends ParameterInterface> params = command.getParameters();
+                for (int i = 0; i < params.size(); i++) {
+                    Value v = DataType.convertToValue(values[i], Value.UNKNOWN);
+                    params.get(i).setValue(v, false);
+                }
+                if (command.isQuery()) {
+                    return new QueryResult(command.executeQuery(0, false));
+                } else {
+                    return new QueryResult(command.executeUpdate());
+                }
+            }
+        } catch (Throwable e) {
+            throw ServerException.convert(e);
+        }
+    }
+
+    public void close() {
+        synchronized (dbSession) {
+            command.close();
+        }
+    }
+
+}
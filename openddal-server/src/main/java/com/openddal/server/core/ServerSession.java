@@ -18,6 +18,7 @@ package com.openddal.server.core;
 import java.util.Map;
 import java.util.Properties;
 
+import com.openddal.command.Command;
 import com.openddal.engine.Session;
 import com.openddal.server.NettyServer;
 import com.openddal.server.ServerException;
@@ -48,6 +49,8 @@ public class ServerSession implements AutoCloseable {
     private final long uptime;
     private Session dbSession;
     private QueryDispatcher dispatcher;
+    private final Map<Long, ServerPreparedStatement> preparedStatements = New.hashMap();
+    private long lastStatementId;
 
 
     public ServerSession(NettyServer server) {
@@ -120,6 +123,7 @@ public class ServerSession implements AutoCloseable {
     }
 
     public void close() {
+        closePreparedStatements();
         dbSession.close();
         server.removeSession(threadId);
         if (channel != null && channel.isOpen()) {
@@ -196,4 +200,45 @@ public class ServerSession implements AutoCloseable {
         QueryResult result = processor.process(query);
         return result;
     }
+
+    public ServerPreparedStatement prepareStatement(String sql) throws ServerException {
+        Command command;
+        try {
+            synchronized (dbSession) {
+                command = dbSession.prepareLocal(sql);
+            }
+        } catch (Throwable e) {
+            throw ServerException.convert(e);
+        }
+        synchronized (preparedStatements) {
+            ServerPreparedStatement stmt = new ServerPreparedStatement(++lastStatementId, sql, dbSession, command);
+            preparedStatements.put(stmt.getId(), stmt);
+            return stmt;
+        }
+    }
+
+    public ServerPreparedStatement getPreparedStatement(long id) {
+        synchronized (preparedStatements) {
+            return preparedStatements.get(id);
+        }
+    }
+
+    public void closePreparedStatement(long id) {
+        ServerPreparedStatement stmt;
+        synchronized (preparedStatements) {
+            stmt = preparedStatements.remove(id);
+        }
+        if (stmt != null) {
+            stmt.close();
+        }
+    }
+
+    private void closePreparedStatements() {
+        synchronized (preparedStatements) {
+            for (ServerPreparedStatement stmt : preparedStatements.values()) {
+                stmt.close();
+            }
+            preparedStatements.clear();
+        }
+    }
 }
@@ -30,48 +30,58 @@ import io.netty.handler.codec.ByteToMessageDecoder;
 public class MySQLServerDecoder extends ByteToMessageDecoder {
 
     private static final int FRAME_LENGTH_FIELD_LENGTH = 4;
+    private static final int MAX_PAYLOAD_SIZE = 0xFFFFFF;
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
-        // Make sure if the length field was received.
-        if (in.readableBytes() < FRAME_LENGTH_FIELD_LENGTH) {
-            // The length field was not received yet - return.
-            // This method will be invoked again when more packets are
-            // received and appended to the buffer.
-            return;
+        // A payload of 16MB - 1 or more is sent as a sequence of packets,
+        // each full packet is followed by the next until a shorter one.
+        // Make sure all packets of the payload were received, otherwise
+        // return and wait until this method is invoked again with more data.
+        int start = in.readerIndex();
+        int offset = start;
+        int payloadLength = 0;
+        int packets = 0;
+        while (true) {
+            if (in.writerIndex() - offset < FRAME_LENGTH_FIELD_LENGTH) {
+                return;
+            }
+            int length = Packet.getSize(in, offset);
+            if (in.writerIndex() - offset - FRAME_LENGTH_FIELD_LENGTH < length) {
+                return;
+            }
+            offset += FRAME_LENGTH_FIELD_LENGTH + length;
+            payloadLength += length;
+            packets++;
+            if (length < MAX_PAYLOAD_SIZE) {
+                break;
+            }
         }
-        // The length field is in the buffer.
-        // Mark the current buffer position before reading the length field
-        // because the whole frame might not be in the buffer yet.
-        // We will reset the buffer position to the marked position if
-        // there's not enough bytes in the buffer.
-        in.markReaderIndex();
-        
-        int frameLength = readLength(in);// in.readInt();
-        // Make sure if there's enough bytes in the buffer.
-        if (in.readableBytes() < frameLength) {
-            // The whole bytes were not received yet - return.
-            // This method will be invoked again when more packets are
-            // received and appended to the buffer.
-            // Reset to the marked position to read the length field again
-            // next time.
-            in.resetReaderIndex();
+        if (packets == 1) {
+            // The frame shares the memory of the cumulation buffer, it is
+            // retained because it is released by the handler thread.
+            out.add(in.readSlice(FRAME_LENGTH_FIELD_LENGTH + payloadLength).retain());
             return;
         }
-        // There's enough bytes in the buffer. Read it.
-        ByteBuf frame = in.resetReaderIndex().readSlice(frameLength + 4);
-        // Successfully decoded a frame. Add the decoded frame.
+        // Join the payloads behind the header of the last packet, the
+        // parsers read a payload up to the end of the frame.
+        ByteBuf frame = ctx.alloc().buffer(FRAME_LENGTH_FIELD_LENGTH + payloadLength);
+        int lastHeader = start;
+        for (int i = start; i < offset;) {
+            lastHeader = i;
+            int length = Packet.getSize(in, i);
+            i += FRAME_LENGTH_FIELD_LENGTH + length;
+        }
+        frame.writeBytes(in, lastHeader, FRAME_LENGTH_FIELD_LENGTH);
+        frame.setByte(0, 0xFF);
+        frame.setByte(1, 0xFF);
+        frame.setByte(2, 0xFF);
+        for (int i = start; i < offset;) {
+            int length = Packet.getSize(in, i);
+            frame.writeBytes(in, i + FRAME_LENGTH_FIELD_LENGTH, length);
+            i += FRAME_LENGTH_FIELD_LENGTH + length;
+        }
+        in.readerIndex(offset);
         out.add(frame);
     }
-
-    /**
-     * @param in
-     * @return
-     */
-    private int readLength(ByteBuf in) {
-        byte[] lens = new byte[4];
-        in.readBytes(lens);
-        int size = Packet.getSize(lens);
-        return size;
-    }
 }
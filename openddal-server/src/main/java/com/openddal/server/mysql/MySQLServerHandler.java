@@ -18,7 +18,6 @@ package com.openddal.server.mysql;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.sql.SQLException;
-import java.util.List;
 import java.util.concurrent.ThreadPoolExecutor;
 
 import org.slf4j.Logger;
@@ -29,8 +28,10 @@ import com.openddal.result.ResultInterface;
 import com.openddal.server.NettyServer;
 import com.openddal.server.ServerException;
 import com.openddal.server.core.QueryResult;
+import com.openddal.server.core.ServerPreparedStatement;
 import com.openddal.server.core.ServerSession;
 import com.openddal.server.mysql.auth.Privilege;
+import com.openddal.server.mysql.proto.ColCountPacket;
 import com.openddal.server.mysql.proto.ColumnDefinition;
 import com.openddal.server.mysql.proto.ComFieldlist;
 import com.openddal.server.mysql.proto.ComInitdb;
@@ -43,8 +44,10 @@ import com.openddal.server.mysql.proto.ComStatistics;
 import com.openddal.server.mysql.proto.ComStmtClose;
 import com.openddal.server.mysql.proto.ComStmtExecute;
 import com.openddal.server.mysql.proto.ComStmtPrepare;
+import com.openddal.server.mysql.proto.ComStmtPrepareOk;
 import com.openddal.server.mysql.proto.ComStmtReset;
 import com.openddal.server.mysql.proto.ComStmtSendLongData;
+import com.openddal.server.mysql.proto.EOF;
 import com.openddal.server.mysql.proto.ERR;
 import com.openddal.server.mysql.proto.Flags;
 import com.openddal.server.mysql.proto.Handshake;
@@ -60,6 +63,7 @@ import com.openddal.server.util.ResultColumn;
 import com.openddal.server.util.StringUtil;
 import com.openddal.util.StringUtils;
 import com.openddal.value.Value;
+import com.openddal.value.ValueNull;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
@@ -174,63 +178,63 @@ public class MySQLServerHandler extends ChannelInboundHandlerAdapter {
 
 
     private void despatchCommand(ChannelHandlerContext ctx, ByteBuf buf) throws Exception {
-        byte[] data = new byte[buf.readableBytes()];
-        buf.readBytes(data);
-        this.sequenceId = Packet.getSequenceId(data);
+        // the frequent commands are parsed from the frame buffer directly,
+        // the others from a copy
+        this.sequenceId = Packet.getSequenceId(buf);
         Packet packet = null;
 
-        byte type = Packet.getType(data);
+        byte type = Packet.getType(buf);
         switch (type) {
         case Flags.COM_INIT_DB:
-            packet = ComInitdb.loadFromPacket(data);
+            packet = ComInitdb.loadFromPacket(buf);
             init(ctx, (ComInitdb) packet);
             break;
         case Flags.COM_QUERY:
-            packet = ComQuery.loadFromPacket(data);
+            packet = ComQuery.loadFromPacket(buf);
             query(ctx, (ComQuery) packet);
             break;
         case Flags.COM_PING:
-            packet = ComPing.loadFromPacket(data);
+            packet = ComPing.loadFromPacket(buf);
             ping(ctx, (ComPing) packet);
             break;
         case Flags.COM_QUIT:
-            packet = ComQuit.loadFromPacket(data);
+            packet = ComQuit.loadFromPacket(buf);
             close(ctx, (ComQuit) packet);
             break;
         case Flags.COM_PROCESS_KILL:
-            packet = ComProcesskill.loadFromPacket(data);
+            packet = ComProcesskill.loadFromPacket(toBytes(buf));
             processKill(ctx, (ComProcesskill) packet);
             break;
         case Flags.COM_STMT_PREPARE:
-            packet = ComStmtPrepare.loadFromPacket(data);
+            packet = ComStmtPrepare.loadFromPacket(buf);
             stmtPrepare(ctx, (ComStmtPrepare) packet);
             break;
         case Flags.COM_STMT_SEND_LONG_DATA:
-            packet = ComStmtSendLongData.loadFromPacket(data);
+            packet = ComStmtSendLongData.loadFromPacket(toBytes(buf));
             stmtPrepareLongData(ctx, (ComStmtSendLongData) packet);
             break;
         case Flags.COM_STMT_EXECUTE:
-            packet = ComStmtExecute.loadFromPacket(data);
+            packet = ComStmtExecute.loadFromPacket(buf);
             stmtExecute(ctx, (ComStmtExecute) packet);
             break;
         case Flags.COM_STMT_CLOSE:
-            packet = ComStmtClose.loadFromPacket(data);
+            packet = ComStmtClose.loadFromPacket(buf);
             stmtClose(ctx, (ComStmtClose) packet);
             break;
         case Flags.COM_SHUTDOWN:
-            packet = ComShutdown.loadFromPacket(data);
+            packet = ComShutdown.loadFromPacket(toBytes(buf));
             shutdown(ctx, (ComShutdown) packet);
             break;
         case Flags.COM_STMT_RESET:
-            packet = ComStmtReset.loadFromPacket(data);
+            packet = ComStmtReset.loadFromPacket(toBytes(buf));
             stmtReset(ctx, (ComStmtReset) packet);
             break;
         case Flags.COM_FIELD_LIST:
-            packet = ComFieldlist.loadFromPacket(data);
+            packet = ComFieldlist.loadFromPacket(toBytes(buf));
             fieldList(ctx, (ComFieldlist) packet);
             break;
         case Flags.COM_STATISTICS:
-            packet = ComStatistics.loadFromPacket(data);
+            packet = ComStatistics.loadFromPacket(toBytes(buf));
             statistics(ctx, (ComStatistics) packet);
             break;
         default:
@@ -267,7 +271,7 @@ public class MySQLServerHandler extends ChannelInboundHandlerAdapter {
         }
         QueryResult result = session.executeQuery(query);
         if(result.isQuery()) {
-            sendQueryResult(ctx, result);
+            sendQueryResult(ctx, result, false);
         } else {
             sendUpdateResult(ctx, result);
         }
@@ -280,7 +284,40 @@ public class MySQLServerHandler extends ChannelInboundHandlerAdapter {
 
     private void stmtPrepare(ChannelHandlerContext ctx, ComStmtPrepare request) {
         ACCESSLOGGER.seqId(this.sequenceId).command(request.toString());
-        sendError(ctx, ErrorCode.ER_UNKNOWN_COM_ERROR, "Prepare command unsupported.");
+        if (StringUtils.isNullOrEmpty(request.query)) {
+            sendError(ctx, ErrorCode.ER_NOT_ALLOWED_COMMAND, "Empty SQL");
+            return;
+        }
+        ServerPreparedStatement stmt = session.prepareStatement(request.query);
+        ResultInterface meta = stmt.getMetaData();
+        int columnCount = meta == null ? 0 : meta.getVisibleColumnCount();
+        int paramCount = stmt.getParameterCount();
+
+        ByteBuf out = ctx.alloc().buffer();
+        ComStmtPrepareOk ok = new ComStmtPrepareOk();
+        ok.sequenceId = nextSequenceId();
+        ok.statementId = stmt.getId();
+        ok.columnsNumber = columnCount;
+        ok.parametersNumber = paramCount;
+        out.writeBytes(ok.toPacket());
+        if (paramCount > 0) {
+            for (int i = 0; i < paramCount; i++) {
+                ColumnDefinition param = new ColumnDefinition("?");
+                param.sequenceId = nextSequenceId();
+                out.writeBytes(param.toPacket());
+            }
+            out.writeBytes(eofPacket());
+        }
+        if (columnCount > 0) {
+            Resultset.characterSet = session.getCharsetIndex();
+            for (int i = 0; i < columnCount; i++) {
+                ColumnDefinition column = ResultColumn.getColumn(meta, i);
+                column.sequenceId = nextSequenceId();
+                out.writeBytes(column.toPacket());
+            }
+            out.writeBytes(eofPacket());
+        }
+        ctx.writeAndFlush(out);
     }
 
     private void stmtPrepareLongData(ChannelHandlerContext ctx, ComStmtSendLongData request) {
@@ -290,12 +327,25 @@ public class MySQLServerHandler extends ChannelInboundHandlerAdapter {
 
     private void stmtExecute(ChannelHandlerContext ctx, ComStmtExecute request) throws Exception {
         ACCESSLOGGER.seqId(this.sequenceId).command(request.toString());
-        sendError(ctx, ErrorCode.ER_UNKNOWN_COM_ERROR, "Prepare command unsupported.");
+        ServerPreparedStatement stmt = session.getPreparedStatement(request.statementId);
+        if (stmt == null) {
+            sendError(ctx, ErrorCode.ER_UNKNOWN_STMT_HANDLER,
+                    "Unknown prepared statement handler (" + request.statementId + ") given to mysqld_stmt_execute");
+            return;
+        }
+        Object[] params = request.readParameters(stmt.getParameterTypes());
+        QueryResult result = stmt.execute(params);
+        if (result.isQuery()) {
+            sendQueryResult(ctx, result, true);
+        } else {
+            sendUpdateResult(ctx, result);
+        }
     }
 
     private void stmtClose(ChannelHandlerContext ctx, ComStmtClose request) {
         ACCESSLOGGER.seqId(this.sequenceId).command(request.toString());
-        sendError(ctx, ErrorCode.ER_UNKNOWN_COM_ERROR, "Prepare command unsupported.");
+        // the client does not expect a response to COM_STMT_CLOSE
+        session.closePreparedStatement(request.statementId);
     }
 
     private void processKill(ChannelHandlerContext ctx, ComProcesskill request) {
@@ -309,7 +359,12 @@ public class MySQLServerHandler extends ChannelInboundHandlerAdapter {
     
     private void stmtReset(ChannelHandlerContext ctx, ComStmtReset request) {
         ACCESSLOGGER.seqId(this.sequenceId).command(request.toString());
-        sendError(ctx, ErrorCode.ER_UNKNOWN_COM_ERROR, "ComStmtReset command unsupported.");
+        if (session.getPreparedStatement(request.statementId) == null) {
+            sendError(ctx, ErrorCode.ER_UNKNOWN_STMT_HANDLER,
+                    "Unknown prepared statement handler (" + request.statementId + ") given to mysqld_stmt_reset");
+            return;
+        }
+        success(ctx);
     }
     
     private void statistics(ChannelHandlerContext ctx, ComStatistics request) {
@@ -322,6 +377,12 @@ public class MySQLServerHandler extends ChannelInboundHandlerAdapter {
         sendError(ctx, ErrorCode.ER_UNKNOWN_COM_ERROR, "ComFieldlist command unsupported.");
     }
 
+    private static byte[] toBytes(ByteBuf buf) {
+        byte[] data = new byte[buf.readableBytes()];
+        buf.getBytes(buf.readerIndex(), data);
+        return data;
+    }
+
     private long nextSequenceId() {
         return ++sequenceId;
     }
@@ -372,44 +433,93 @@ public class MySQLServerHandler extends ChannelInboundHandlerAdapter {
     }
     
 
-    private void sendQueryResult(ChannelHandlerContext ctx, QueryResult rs) {
-        Resultset resultset = new Resultset();
-        ByteBuf out = ctx.alloc().buffer();
+    private byte[] eofPacket() {
+        EOF eof = new EOF();
+        eof.sequenceId = nextSequenceId();
+        return eof.toPacket();
+    }
+
+    private void sendQueryResult(ChannelHandlerContext ctx, QueryResult rs, boolean binary) {
+        ResultsetWriter writer = new ResultsetWriter(ctx, nextSequenceId());
         try {
-            resultset.sequenceId = nextSequenceId();
             Resultset.characterSet = session.getCharsetIndex();
-            
+
             ResultInterface result = rs.getQueryResult();
             int columnCount = result.getVisibleColumnCount();
+            int[] columnTypes = new int[columnCount];
+            ColCountPacket colCount = new ColCountPacket();
+            colCount.sequenceId = writer.nextSequenceId();
+            colCount.colCount = columnCount;
+            writer.writePacket(colCount.toPacket());
             for (int i = 0; i < columnCount; i++) {
                 ColumnDefinition columnPacket = ResultColumn.getColumn(result, i);
-                resultset.addColumn(columnPacket);
+                columnTypes[i] = (int) (columnPacket.type & 0xff);
+                columnPacket.sequenceId = writer.nextSequenceId();
+                writer.writePacket(columnPacket.toPacket());
             }
-            while (result.next()) {
-                ResultsetRow rowPacket = new ResultsetRow();
+            writer.writeEof();
+            while (writer.isActive() && result.next()) {
                 Value[] v = result.currentRow();
-                for (int i = 0; i < columnCount; i++) {
-                    Value value = v[i];
-                    rowPacket.data.add(value.getString());
+                if (binary) {
+                    ResultsetRow rowPacket = new ResultsetRow();
+                    rowPacket.type = Flags.ROW_TYPE_BINARY;
+                    rowPacket.colTypes = columnTypes;
+                    for (int i = 0; i < columnCount; i++) {
+                        rowPacket.data.add(toBinaryObject(v[i], columnTypes[i]));
+                    }
+                    rowPacket.sequenceId = writer.nextSequenceId();
+                    writer.writePacket(rowPacket.toPacket());
+                } else {
+                    writer.writeTextRow(v, columnCount);
                 }
-                resultset.addRow(rowPacket);
-            }
-            List<byte[]> packets = resultset.toPackets();
-            for (byte[] bs : packets) {
-                out.writeBytes(bs);
             }
+            writer.writeEof();
         } catch (Exception e) {
             ERR err = new ERR();
-            err.sequenceId = resultset.sequenceId++;
+            err.sequenceId = writer.nextSequenceId();
             err.errorCode = ErrorCode.ER_UNKNOWN_ERROR;
             err.errorMessage = "write resultset error:" + e.getMessage();
-            out.writeBytes(err.toPacket());
+            writer.writePacket(err.toPacket());
         } finally {
-            ctx.writeAndFlush(out);
+            rs.close();
+            writer.finish();
         }
 
     }
 
+    private static Object toBinaryObject(Value value, int columnType) {
+        if (value == ValueNull.INSTANCE) {
+            return null;
+        }
+        switch (columnType) {
+        case Flags.MYSQL_TYPE_TINY:
+        case Flags.MYSQL_TYPE_SHORT:
+        case Flags.MYSQL_TYPE_YEAR:
+        case Flags.MYSQL_TYPE_INT24:
+        case Flags.MYSQL_TYPE_LONG:
+        case Flags.MYSQL_TYPE_LONGLONG:
+            return value.getLong();
+        case Flags.MYSQL_TYPE_FLOAT:
+            return value.getFloat();
+        case Flags.MYSQL_TYPE_DOUBLE:
+            return value.getDouble();
+        case Flags.MYSQL_TYPE_DATE:
+        case Flags.MYSQL_TYPE_DATETIME:
+        case Flags.MYSQL_TYPE_TIMESTAMP:
+            return value.getTimestamp();
+        case Flags.MYSQL_TYPE_TIME:
+            return value.getTime();
+        case Flags.MYSQL_TYPE_TINY_BLOB:
+        case Flags.MYSQL_TYPE_MEDIUM_BLOB:
+        case Flags.MYSQL_TYPE_LONG_BLOB:
+        case Flags.MYSQL_TYPE_BLOB:
+        case Flags.MYSQL_TYPE_GEOMETRY:
+            return value.getBytesNoCopy();
+        default:
+            return value.getString();
+        }
+    }
+
     
     /**
      * Execute the processor in user threads.
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.server.mysql;
+
+import com.openddal.server.mysql.proto.EOF;
+import com.openddal.server.mysql.proto.Proto;
+import com.openddal.value.Value;
+import com.openddal.value.ValueNull;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+
+/**
+ * Writes the packets of a result set to the channel in chunks. Rows are
+ * encoded directly into pooled buffers, a chunk is flushed as soon as it is
+ * full, and the writer waits for the previous chunk to be sent while the
+ * channel is not writable, so the memory used per result is bounded.
+ *
+ * @author jorgie.li
+ *
+ */
+class ResultsetWriter {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_PAYLOAD_SIZE = 0xFFFFFF;
+
+    private final ChannelHandlerContext ctx;
+    private long sequenceId;
+    private ByteBuf buf;
+    private ChannelFuture lastWrite;
+
+    ResultsetWriter(ChannelHandlerContext ctx, long sequenceId) {
+        this.ctx = ctx;
+        this.sequenceId = sequenceId;
+        this.buf = ctx.alloc().buffer(CHUNK_SIZE);
+    }
+
+    long nextSequenceId() {
+        return sequenceId++;
+    }
+
+    /**
+     * Check if the client is still connected.
+     *
+     * @return true if rows should still be written
+     */
+    boolean isActive() {
+        return ctx.channel().isActive();
+    }
+
+    void writePacket(byte[] packet) {
+        buf.writeBytes(packet);
+        flushIfFull();
+    }
+
+    /**
+     * Encode a text protocol row straight into the buffer.
+     *
+     * @param row the row
+     * @param columnCount the number of visible columns
+     */
+    void writeTextRow(Value[] row, int columnCount) {
+        int start = buf.writerIndex();
+        try {
+            buf.writeMedium(0);
+            buf.writeByte((int) sequenceId);
+            for (int i = 0; i < columnCount; i++) {
+                Value v = row[i];
+                if (v == ValueNull.INSTANCE) {
+                    buf.writeByte(0xFB);
+                } else {
+                    byte[] bytes = v.getString().getBytes(Proto.CHARSET);
+                    buf.writeBytes(Proto.build_lenenc_int(bytes.length));
+                    buf.writeBytes(bytes);
+                }
+            }
+        } catch (RuntimeException e) {
+            buf.writerIndex(start);
+            throw e;
+        }
+        int size = buf.writerIndex() - start - 4;
+        if (size >= MAX_PAYLOAD_SIZE) {
+            splitPacket(start, size);
+        } else {
+            buf.setByte(start, size);
+            buf.setByte(start + 1, size >>> 8);
+            buf.setByte(start + 2, size >>> 16);
+            sequenceId++;
+        }
+        flushIfFull();
+    }
+
+    /**
+     * Rewrite a payload of 16MB or more, which was encoded as one packet, as
+     * a sequence of packets of at most 16MB - 1 bytes.
+     */
+    private void splitPacket(int start, int size) {
+        byte[] payload = new byte[size];
+        buf.getBytes(start + 4, payload);
+        buf.writerIndex(start);
+        int offset = 0;
+        while (true) {
+            int len = Math.min(MAX_PAYLOAD_SIZE, size - offset);
+            buf.writeBytes(Proto.build_fixed_int(3, len));
+            buf.writeByte((int) sequenceId++);
+            buf.writeBytes(payload, offset, len);
+            offset += len;
+            if (len < MAX_PAYLOAD_SIZE) {
+                break;
+            }
+        }
+    }
+
+    void writeEof() {
+        EOF eof = new EOF();
+        eof.sequenceId = nextSequenceId();
+        writePacket(eof.toPacket());
+    }
+
+    /**
+     * Flush the remaining packets. The writer must not be used afterwards.
+     */
+    void finish() {
+        if (buf.isReadable()) {
+            ctx.writeAndFlush(buf);
+        } else {
+            buf.release();
+        }
+        buf = null;
+    }
+
+    private void flushIfFull() {
+        if (buf.readableBytes() < CHUNK_SIZE) {
+            return;
+        }
+        lastWrite = ctx.writeAndFlush(buf);
+        buf = ctx.alloc().buffer(CHUNK_SIZE);
+        if (!ctx.channel().isWritable()) {
+            // the outbound buffer is above the high water mark,
+            // wait until the client has read what is pending
+            lastWrite.awaitUninterruptibly();
+        }
+    }
+
+}
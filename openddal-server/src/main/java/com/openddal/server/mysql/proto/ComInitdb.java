@@ -2,6 +2,8 @@ package com.openddal.server.mysql.proto;
 
 import java.util.ArrayList;
 
+import io.netty.buffer.ByteBuf;
+
 public class ComInitdb extends Packet {
     public String schema = "";
     
@@ -14,6 +16,17 @@ public class ComInitdb extends Packet {
         return payload;
     }
     
+    public static ComInitdb loadFromPacket(ByteBuf packet) {
+        ComInitdb obj = new ComInitdb();
+        packet.skipBytes(3);
+
+        obj.sequenceId = Proto.get_fixed_int(packet, 1);
+        packet.skipBytes(1);
+        obj.schema = Proto.get_eop_str(packet);
+
+        return obj;
+    }
+
     public static ComInitdb loadFromPacket(byte[] packet) {
         ComInitdb obj = new ComInitdb();
         Proto proto = new Proto(packet, 3);
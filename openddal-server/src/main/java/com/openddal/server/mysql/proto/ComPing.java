@@ -2,6 +2,8 @@ package com.openddal.server.mysql.proto;
 
 import java.util.ArrayList;
 
+import io.netty.buffer.ByteBuf;
+
 public class ComPing extends Packet {
     
     public ArrayList<byte[]> getPayload() {
@@ -12,6 +14,15 @@ public class ComPing extends Packet {
         return payload;
     }
     
+    public static ComPing loadFromPacket(ByteBuf packet) {
+        ComPing obj = new ComPing();
+        packet.skipBytes(3);
+
+        obj.sequenceId = Proto.get_fixed_int(packet, 1);
+
+        return obj;
+    }
+
     public static ComPing loadFromPacket(byte[] packet) {
         ComPing obj = new ComPing();
         Proto proto = new Proto(packet, 3);
@@ -2,6 +2,8 @@ package com.openddal.server.mysql.proto;
 
 import java.util.ArrayList;
 
+import io.netty.buffer.ByteBuf;
+
 public class ComQuery extends Packet {
     public String query = "";
     
@@ -14,6 +16,17 @@ public class ComQuery extends Packet {
         return payload;
     }
 
+    public static ComQuery loadFromPacket(ByteBuf packet) {
+        ComQuery obj = new ComQuery();
+        packet.skipBytes(3);
+
+        obj.sequenceId = Proto.get_fixed_int(packet, 1);
+        packet.skipBytes(1);
+        obj.query = Proto.get_eop_str(packet);
+
+        return obj;
+    }
+
     public static ComQuery loadFromPacket(byte[] packet) {
         ComQuery obj = new ComQuery();
         Proto proto = new Proto(packet, 3);
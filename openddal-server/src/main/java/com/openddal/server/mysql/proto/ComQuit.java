@@ -2,6 +2,8 @@ package com.openddal.server.mysql.proto;
 
 import java.util.ArrayList;
 
+import io.netty.buffer.ByteBuf;
+
 public class ComQuit extends Packet {
     
     public ArrayList<byte[]> getPayload() {
@@ -12,6 +14,15 @@ public class ComQuit extends Packet {
         return payload;
     }
     
+    public static ComQuit loadFromPacket(ByteBuf packet) {
+        ComQuit obj = new ComQuit();
+        packet.skipBytes(3);
+
+        obj.sequenceId = Proto.get_fixed_int(packet, 1);
+
+        return obj;
+    }
+
     public static ComQuit loadFromPacket(byte[] packet) {
         ComQuit obj = new ComQuit();
         Proto proto = new Proto(packet, 3);
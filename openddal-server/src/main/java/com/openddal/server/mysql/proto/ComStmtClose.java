@@ -2,7 +2,10 @@ package com.openddal.server.mysql.proto;
 
 import java.util.ArrayList;
 
+import io.netty.buffer.ByteBuf;
+
 public class ComStmtClose extends Packet {
+    public long statementId;
     public byte[] data;
     
     public ArrayList<byte[]> getPayload() {
@@ -13,6 +16,21 @@ public class ComStmtClose extends Packet {
         return payload;
     }
     
+    public static ComStmtClose loadFromPacket(ByteBuf packet) {
+        ComStmtClose obj = new ComStmtClose();
+        packet.skipBytes(3);
+
+        obj.sequenceId = Proto.get_fixed_int(packet, 1);
+
+        obj.data = new byte[packet.readableBytes()];
+        packet.getBytes(packet.readerIndex(), obj.data);
+
+        packet.skipBytes(1);
+        obj.statementId = Proto.get_fixed_int(packet, 4);
+
+        return obj;
+    }
+
     public static ComStmtClose loadFromPacket(byte[] packet) {
         ComStmtClose obj = new ComStmtClose();
         Proto proto = new Proto(packet, 3);
@@ -24,6 +42,9 @@ public class ComStmtClose extends Packet {
         
         System.arraycopy(packet, proto.offset, obj.data, 0, size);
 
+        proto.get_filler(1);
+        obj.statementId = proto.get_fixed_int(4);
+
         return obj;
     }
 
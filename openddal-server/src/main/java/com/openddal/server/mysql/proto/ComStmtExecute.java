@@ -1,29 +1,187 @@
 package com.openddal.server.mysql.proto;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.ArrayList;
 
+import io.netty.buffer.ByteBuf;
+
 public class ComStmtExecute extends Packet {
+    public long statementId;
+    public long flags;
+    public long iterationCount;
     public byte[] data;
-    
+
     public ArrayList<byte[]> getPayload() {
         ArrayList<byte[]> payload = new ArrayList<byte[]>();
-        
+
         payload.add(this.data);
-        
+
         return payload;
     }
-    
+
+    /**
+     * Decode the parameter values that follow the statement header.
+     *
+     * @param types the parameter types (type in the low byte, 0x8000 for
+     *            unsigned); the types sent with this packet are written
+     *            back, as clients only send them when they change
+     * @return the parameter values, null for SQL NULL
+     */
+    public Object[] readParameters(int[] types) {
+        int count = types.length;
+        Object[] values = new Object[count];
+        if (count == 0) {
+            return values;
+        }
+        // command, statement id, flags, iteration count
+        Proto proto = new Proto(this.data, 1 + 4 + 1 + 4);
+        int nullBitmapStart = proto.offset;
+        proto.get_filler((count + 7) / 8);
+        if (proto.get_fixed_int(1) == 1) {
+            for (int i = 0; i < count; i++) {
+                types[i] = (int) proto.get_fixed_int(2);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if ((this.data[nullBitmapStart + i / 8] & (1 << (i % 8))) != 0) {
+                continue;
+            }
+            values[i] = readValue(proto, types[i]);
+        }
+        return values;
+    }
+
+    private static Object readValue(Proto proto, int type) {
+        boolean unsigned = (type & 0x8000) != 0;
+        switch (type & 0xFF) {
+            case Flags.MYSQL_TYPE_NULL:
+                return null;
+            case Flags.MYSQL_TYPE_TINY: {
+                long v = proto.get_fixed_int(1);
+                return unsigned ? v : (long) (byte) v;
+            }
+            case Flags.MYSQL_TYPE_SHORT:
+            case Flags.MYSQL_TYPE_YEAR: {
+                long v = proto.get_fixed_int(2);
+                return unsigned ? v : (long) (short) v;
+            }
+            case Flags.MYSQL_TYPE_LONG:
+            case Flags.MYSQL_TYPE_INT24: {
+                long v = proto.get_fixed_int(4);
+                return unsigned ? v : (long) (int) v;
+            }
+            case Flags.MYSQL_TYPE_LONGLONG: {
+                long v = proto.get_fixed_int(8);
+                if (unsigned && v < 0) {
+                    return new BigDecimal(BigInteger.valueOf(v).add(BigInteger.ONE.shiftLeft(64)));
+                }
+                return v;
+            }
+            case Flags.MYSQL_TYPE_FLOAT:
+                return Float.intBitsToFloat((int) proto.get_fixed_int(4));
+            case Flags.MYSQL_TYPE_DOUBLE:
+                return Double.longBitsToDouble(proto.get_fixed_int(8));
+            case Flags.MYSQL_TYPE_DATE:
+            case Flags.MYSQL_TYPE_DATETIME:
+            case Flags.MYSQL_TYPE_TIMESTAMP:
+                return readTimestamp(proto, type & 0xFF);
+            case Flags.MYSQL_TYPE_TIME:
+                return readTime(proto);
+            case Flags.MYSQL_TYPE_TINY_BLOB:
+            case Flags.MYSQL_TYPE_MEDIUM_BLOB:
+            case Flags.MYSQL_TYPE_LONG_BLOB:
+            case Flags.MYSQL_TYPE_BLOB:
+            case Flags.MYSQL_TYPE_GEOMETRY:
+            case Flags.MYSQL_TYPE_BIT:
+                return proto.get_lenenc_bytes();
+            case Flags.MYSQL_TYPE_DECIMAL:
+            case Flags.MYSQL_TYPE_NEWDECIMAL:
+                return new BigDecimal(proto.get_lenenc_str());
+            default:
+                return proto.get_lenenc_str();
+        }
+    }
+
+    private static Object readTimestamp(Proto proto, int type) {
+        int len = (int) proto.get_fixed_int(1);
+        long year = 0, month = 0, day = 0, hour = 0, minute = 0, second = 0, micros = 0;
+        if (len >= 4) {
+            year = proto.get_fixed_int(2);
+            month = proto.get_fixed_int(1);
+            day = proto.get_fixed_int(1);
+        }
+        if (len >= 7) {
+            hour = proto.get_fixed_int(1);
+            minute = proto.get_fixed_int(1);
+            second = proto.get_fixed_int(1);
+        }
+        if (len >= 11) {
+            micros = proto.get_fixed_int(4);
+        }
+        if (year == 0 && month == 0 && day == 0) {
+            // zero dates have no java.sql representation
+            return null;
+        }
+        String date = String.format("%04d-%02d-%02d", year, month, day);
+        if (type == Flags.MYSQL_TYPE_DATE) {
+            return java.sql.Date.valueOf(date);
+        }
+        return java.sql.Timestamp.valueOf(
+                String.format("%s %02d:%02d:%02d.%06d", date, hour, minute, second, micros));
+    }
+
+    private static Object readTime(Proto proto) {
+        int len = (int) proto.get_fixed_int(1);
+        boolean negative = false;
+        long days = 0, hour = 0, minute = 0, second = 0, micros = 0;
+        if (len >= 8) {
+            negative = proto.get_fixed_int(1) == 1;
+            days = proto.get_fixed_int(4);
+            hour = proto.get_fixed_int(1);
+            minute = proto.get_fixed_int(1);
+            second = proto.get_fixed_int(1);
+        }
+        if (len >= 12) {
+            micros = proto.get_fixed_int(4);
+        }
+        return String.format("%s%02d:%02d:%02d.%06d", negative ? "-" : "", days * 24 + hour, minute, second,
+                micros);
+    }
+
+    public static ComStmtExecute loadFromPacket(ByteBuf packet) {
+        ComStmtExecute obj = new ComStmtExecute();
+        packet.skipBytes(3);
+
+        obj.sequenceId = Proto.get_fixed_int(packet, 1);
+
+        obj.data = new byte[packet.readableBytes()];
+        packet.getBytes(packet.readerIndex(), obj.data);
+
+        packet.skipBytes(1);
+        obj.statementId = Proto.get_fixed_int(packet, 4);
+        obj.flags = Proto.get_fixed_int(packet, 1);
+        obj.iterationCount = Proto.get_fixed_int(packet, 4);
+
+        return obj;
+    }
+
     public static ComStmtExecute loadFromPacket(byte[] packet) {
         ComStmtExecute obj = new ComStmtExecute();
         Proto proto = new Proto(packet, 3);
-        
+
         obj.sequenceId = proto.get_fixed_int(1);
-        
+
         int size = packet.length - proto.offset;
         obj.data = new byte[size];
-        
+
         System.arraycopy(packet, proto.offset, obj.data, 0, size);
 
+        proto.get_filler(1);
+        obj.statementId = proto.get_fixed_int(4);
+        obj.flags = proto.get_fixed_int(1);
+        obj.iterationCount = proto.get_fixed_int(4);
+
         return obj;
     }
 
@@ -31,5 +189,5 @@ public class ComStmtExecute extends Packet {
     public String toString() {
         return "COM_STMT_EXECUTE";
     }
-    
+
 }
@@ -2,6 +2,8 @@ package com.openddal.server.mysql.proto;
 
 import java.util.ArrayList;
 
+import io.netty.buffer.ByteBuf;
+
 public class ComStmtPrepare extends Packet {
     public String query="";
     
@@ -14,6 +16,17 @@ public class ComStmtPrepare extends Packet {
         return payload;
     }
     
+    public static ComStmtPrepare loadFromPacket(ByteBuf packet) {
+        ComStmtPrepare obj = new ComStmtPrepare();
+        packet.skipBytes(3);
+
+        obj.sequenceId = Proto.get_fixed_int(packet, 1);
+        packet.skipBytes(1);
+        obj.query = Proto.get_eop_str(packet);
+
+        return obj;
+    }
+
     public static ComStmtPrepare loadFromPacket(byte[] packet) {
         ComStmtPrepare obj = new ComStmtPrepare();
         Proto proto = new Proto(packet, 3);
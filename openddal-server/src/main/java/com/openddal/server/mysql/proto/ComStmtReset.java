@@ -3,6 +3,7 @@ package com.openddal.server.mysql.proto;
 import java.util.ArrayList;
 
 public class ComStmtReset extends Packet {
+    public long statementId;
     public byte[] data;
     
     public ArrayList<byte[]> getPayload() {
@@ -24,6 +25,9 @@ public class ComStmtReset extends Packet {
         
         System.arraycopy(packet, proto.offset, obj.data, 0, size);
 
+        proto.get_filler(1);
+        obj.statementId = proto.get_fixed_int(4);
+
         return obj;
     }
 
@@ -5,6 +5,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 
+import io.netty.buffer.ByteBuf;
+
 public abstract class Packet {
         
     public long sequenceId = 0;
@@ -44,6 +46,20 @@ public abstract class Packet {
     public static long getSequenceId(byte[] packet) {
         return new Proto(packet, 3).get_fixed_int(1);
     }
+
+    public static int getSize(ByteBuf packet, int index) {
+        return packet.getUnsignedByte(index)
+                | packet.getUnsignedByte(index + 1) << 8
+                | packet.getUnsignedByte(index + 2) << 16;
+    }
+
+    public static byte getType(ByteBuf packet) {
+        return packet.getByte(packet.readerIndex() + 4);
+    }
+
+    public static long getSequenceId(ByteBuf packet) {
+        return packet.getUnsignedByte(packet.readerIndex() + 3);
+    }
     
 
     public static byte[] read_packet(InputStream in) throws IOException {
@@ -6,6 +6,8 @@ import java.util.ArrayList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.netty.buffer.ByteBuf;
+
 public class Proto {
     
     public static final Charset CHARSET = Charset.forName("UTF-8");
@@ -127,6 +129,14 @@ public class Proto {
     
     }
 
+    public static byte[] build_lenenc_bytes(byte[] bytes) {
+        byte[] size = Proto.build_lenenc_int(bytes.length);
+        byte[] packet = new byte[size.length + bytes.length];
+        System.arraycopy(size, 0, packet, 0, size.length);
+        System.arraycopy(bytes, 0, packet, size.length, bytes.length);
+        return packet;
+    }
+
     public static byte[] build_null_str(String str) {
         byte[] strByte = str.getBytes(CHARSET);
         int size = strByte.length + 1; 
@@ -216,22 +226,23 @@ public class Proto {
     public long get_lenenc_int() {
         int size = 0;
 
+        int first = this.packet[offset] & 0xFF;
         // 1 byte int
-        if (this.packet[offset] < 251) {
+        if (first < 251) {
             size = 1;
         }
         // 2 byte int
-        else if (this.packet[offset] == 252) {
+        else if (first == 252) {
             this.offset += 1;
             size = 2;
         }
         // 3 byte int
-        else if (this.packet[offset] == 253) {
+        else if (first == 253) {
             this.offset += 1;
             size = 3;
         }
         // 8 byte int
-        else if (this.packet[offset] == 254) {
+        else if (first == 254) {
             this.offset += 1;
             size = 8;
         }
@@ -292,6 +303,77 @@ public class Proto {
     }
 
 
+    public byte[] get_fixed_bytes(int len) {
+        int end = Math.min(this.offset + len, this.packet.length);
+        byte[] bytes = new byte[end - this.offset];
+        System.arraycopy(packet, offset, bytes, 0, bytes.length);
+        this.offset = end;
+        return bytes;
+    }
+
+
+    public byte[] get_lenenc_bytes() {
+        int len = (int)this.get_lenenc_int();
+        return this.get_fixed_bytes(len);
+    }
+
+
+    public static long get_fixed_int(ByteBuf buf, int size) {
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value |= (long) buf.readUnsignedByte() << (8 * i);
+        }
+        return value;
+    }
+
+
+    public static long get_lenenc_int(ByteBuf buf) {
+        int first = buf.readUnsignedByte();
+        if (first < 251) {
+            return first;
+        } else if (first == 252) {
+            return get_fixed_int(buf, 2);
+        } else if (first == 253) {
+            return get_fixed_int(buf, 3);
+        } else if (first == 254) {
+            return get_fixed_int(buf, 8);
+        }
+        logger.error("Decoding int at offset "+(buf.readerIndex() - 1)+" failed!");
+        return -1;
+    }
+
+
+    public static String get_fixed_str(ByteBuf buf, int len) {
+        len = Math.min(len, buf.readableBytes());
+        // decodes from the NIO view of the buffer, without copying to a byte[]
+        String str = buf.toString(buf.readerIndex(), len, CHARSET);
+        buf.skipBytes(len);
+        return str;
+    }
+
+
+    public static String get_null_str(ByteBuf buf) {
+        int end = buf.indexOf(buf.readerIndex(), buf.writerIndex(), (byte) 0x00);
+        if (end < 0) {
+            return get_eop_str(buf);
+        }
+        String str = get_fixed_str(buf, end - buf.readerIndex());
+        buf.skipBytes(1);
+        return str;
+    }
+
+
+    public static String get_eop_str(ByteBuf buf) {
+        return get_fixed_str(buf, buf.readableBytes());
+    }
+
+
+    public static String get_lenenc_str(ByteBuf buf) {
+        int len = (int) get_lenenc_int(buf);
+        return get_fixed_str(buf, len);
+    }
+
+
     public static byte[] arraylist_to_array(ArrayList<byte[]> input) {
         int size = 0;
         for (byte[] field: input)
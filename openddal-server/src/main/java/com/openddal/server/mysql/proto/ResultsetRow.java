@@ -1,10 +1,12 @@
 package com.openddal.server.mysql.proto;
 
 import java.util.ArrayList;
+import java.util.Calendar;
 
 public class ResultsetRow extends Packet {
     public int type = Flags.ROW_TYPE_TEXT;
     public int colType = Flags.MYSQL_TYPE_VAR_STRING;
+    public int[] colTypes;
     public ArrayList<Object> data = new ArrayList<Object>();
     
     public ResultsetRow () {}
@@ -61,6 +63,9 @@ public class ResultsetRow extends Packet {
     // Add other addData for other types here
     
     public ArrayList<byte[]> getPayload() {
+        if (this.type == Flags.ROW_TYPE_BINARY) {
+            return getBinaryPayload();
+        }
         ArrayList<byte[]> payload = new ArrayList<byte[]>();
         
         for (Object obj: this.data) {
@@ -84,6 +89,87 @@ public class ResultsetRow extends Packet {
         return payload;
     }
     
+    private ArrayList<byte[]> getBinaryPayload() {
+        ArrayList<byte[]> payload = new ArrayList<byte[]>();
+        int count = this.data.size();
+        // the null bitmap of binary rows starts at bit 2
+        byte[] nullBitmap = new byte[(count + 7 + 2) / 8];
+        for (int i = 0; i < count; i++) {
+            if (this.data.get(i) == null) {
+                nullBitmap[(i + 2) / 8] |= 1 << ((i + 2) % 8);
+            }
+        }
+        payload.add(Proto.build_byte((byte) 0x00));
+        payload.add(nullBitmap);
+        for (int i = 0; i < count; i++) {
+            Object obj = this.data.get(i);
+            if (obj != null) {
+                int colType = this.colTypes == null ? this.colType : this.colTypes[i];
+                payload.add(buildBinaryValue(colType, obj));
+            }
+        }
+        return payload;
+    }
+
+    private static byte[] buildBinaryValue(int colType, Object obj) {
+        switch (colType) {
+            case Flags.MYSQL_TYPE_TINY:
+                return Proto.build_fixed_int(1, ((Number) obj).longValue());
+            case Flags.MYSQL_TYPE_SHORT:
+            case Flags.MYSQL_TYPE_YEAR:
+                return Proto.build_fixed_int(2, ((Number) obj).longValue());
+            case Flags.MYSQL_TYPE_LONG:
+            case Flags.MYSQL_TYPE_INT24:
+                return Proto.build_fixed_int(4, ((Number) obj).longValue());
+            case Flags.MYSQL_TYPE_LONGLONG:
+                return Proto.build_fixed_int(8, ((Number) obj).longValue());
+            case Flags.MYSQL_TYPE_FLOAT:
+                return Proto.build_fixed_int(4, Float.floatToIntBits(((Number) obj).floatValue()));
+            case Flags.MYSQL_TYPE_DOUBLE:
+                return Proto.build_fixed_int(8, Double.doubleToLongBits(((Number) obj).doubleValue()));
+            case Flags.MYSQL_TYPE_DATE:
+            case Flags.MYSQL_TYPE_DATETIME:
+            case Flags.MYSQL_TYPE_TIMESTAMP:
+                return buildBinaryTimestamp((java.util.Date) obj);
+            case Flags.MYSQL_TYPE_TIME:
+                return buildBinaryTime((java.util.Date) obj);
+            default:
+                if (obj instanceof byte[]) {
+                    return Proto.build_lenenc_bytes((byte[]) obj);
+                }
+                return Proto.build_lenenc_str(obj.toString());
+        }
+    }
+
+    private static byte[] buildBinaryTimestamp(java.util.Date date) {
+        Calendar c = Calendar.getInstance();
+        c.setTime(date);
+        int micros = date instanceof java.sql.Timestamp ? ((java.sql.Timestamp) date).getNanos() / 1000 : 0;
+        ArrayList<byte[]> value = new ArrayList<byte[]>();
+        value.add(Proto.build_fixed_int(1, 11));
+        value.add(Proto.build_fixed_int(2, c.get(Calendar.YEAR)));
+        value.add(Proto.build_fixed_int(1, c.get(Calendar.MONTH) + 1));
+        value.add(Proto.build_fixed_int(1, c.get(Calendar.DAY_OF_MONTH)));
+        value.add(Proto.build_fixed_int(1, c.get(Calendar.HOUR_OF_DAY)));
+        value.add(Proto.build_fixed_int(1, c.get(Calendar.MINUTE)));
+        value.add(Proto.build_fixed_int(1, c.get(Calendar.SECOND)));
+        value.add(Proto.build_fixed_int(4, micros));
+        return Proto.arraylist_to_array(value);
+    }
+
+    private static byte[] buildBinaryTime(java.util.Date time) {
+        Calendar c = Calendar.getInstance();
+        c.setTime(time);
+        ArrayList<byte[]> value = new ArrayList<byte[]>();
+        value.add(Proto.build_fixed_int(1, 8));
+        value.add(Proto.build_fixed_int(1, 0));
+        value.add(Proto.build_fixed_int(4, 0));
+        value.add(Proto.build_fixed_int(1, c.get(Calendar.HOUR_OF_DAY)));
+        value.add(Proto.build_fixed_int(1, c.get(Calendar.MINUTE)));
+        value.add(Proto.build_fixed_int(1, c.get(Calendar.SECOND)));
+        return Proto.arraylist_to_array(value);
+    }
+
     public static ResultsetRow loadFromPacket(byte[] packet) {
         ResultsetRow obj = new ResultsetRow();
         Proto proto = new Proto(packet, 3);
@@ -5,7 +5,11 @@ import static org.junit.Assert.assertEquals;
 
 import org.junit.Test;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
 import com.openddal.server.mysql.proto.ComQuery;
+import com.openddal.server.mysql.proto.Packet;
 
 public class Com_QueryTest {
     @Test
@@ -45,4 +49,18 @@ public class Com_QueryTest {
         assertArrayEquals(packet, pkt.toPacket());
         assertEquals(pkt.query, "select @@version_comment limit 1");
     }
+
+    @Test
+    public void test4() {
+        byte[] packet = ProtoTest.packet_string_to_bytes(""
+            + "09 00 00 05 03 53 45 4c 45 43 54 20 31"
+        );
+
+        ByteBuf buf = Unpooled.wrappedBuffer(packet);
+        assertEquals(Packet.getType(buf), 0x03);
+        assertEquals(Packet.getSequenceId(buf), 5);
+        ComQuery pkt = ComQuery.loadFromPacket(buf);
+        assertArrayEquals(packet, pkt.toPacket());
+        assertEquals(pkt.query, "SELECT 1");
+    }
 }
@@ -0,0 +1,53 @@
+package com.openddal.server.mysql.proto.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.openddal.server.mysql.proto.ComStmtExecute;
+import com.openddal.server.mysql.proto.Flags;
+import com.openddal.server.mysql.proto.ResultsetRow;
+
+public class Com_StmtExecuteTest {
+    @Test
+    public void test1() {
+        byte[] packet = ProtoTest.packet_string_to_bytes(""
+            + "1e 00 00 00 17 01 00 00    00 00 01 00 00 00 04 01"
+            + "08 00 fd 00 fd 00 2a 00    00 00 00 00 00 00 03 61"
+            + "62 63                                             "
+        );
+
+        ComStmtExecute pkt = ComStmtExecute.loadFromPacket(packet);
+        assertArrayEquals(packet, pkt.toPacket());
+        assertEquals(pkt.statementId, 1);
+        assertEquals(pkt.iterationCount, 1);
+
+        int[] types = new int[3];
+        Object[] params = pkt.readParameters(types);
+        assertEquals(types[0], Flags.MYSQL_TYPE_LONGLONG);
+        assertEquals(types[1], Flags.MYSQL_TYPE_VAR_STRING);
+        assertEquals(params[0], 42L);
+        assertEquals(params[1], "abc");
+        assertNull(params[2]);
+    }
+
+    @Test
+    public void test2() {
+        byte[] packet = ProtoTest.packet_string_to_bytes(""
+            + "0e 00 00 01 00 08 2a 00    00 00 00 00 00 00 03 61"
+            + "62 63                                             "
+        );
+
+        ResultsetRow row = new ResultsetRow();
+        row.sequenceId = 1;
+        row.type = Flags.ROW_TYPE_BINARY;
+        row.colTypes = new int[] { Flags.MYSQL_TYPE_LONGLONG, Flags.MYSQL_TYPE_VAR_STRING,
+                Flags.MYSQL_TYPE_VAR_STRING };
+        row.data.add(42L);
+        row.data.add(null);
+        row.data.add("abc");
+        assertArrayEquals(packet, row.toPacket());
+    }
+}
@@ -82,9 +82,32 @@ public class BatchUpdatesTestCase extends BaseTestCase {
         testRootCause();
         testExecuteCall();
         testException();
+        testCombinedInsert();
         testCoffee();
     }
 
+    private void testCombinedInsert() throws SQLException {
+        conn = getConnection();
+        stat = conn.createStatement();
+        stat.execute("create table test(id int primary key, name varchar(255))");
+        prep = conn.prepareStatement("insert into test values(?, ?)");
+        for (int i = 0; i < 2000; i++) {
+            prep.setInt(1, i);
+            prep.setString(2, "name-" + i);
+            prep.addBatch();
+        }
+        int[] updateCounts = prep.executeBatch();
+        Assert.assertEquals(2000, updateCounts.length);
+        for (int t : updateCounts) {
+            Assert.assertEquals(1, t);
+        }
+        ResultSet rs = stat.executeQuery("select count(*) from test");
+        rs.next();
+        Assert.assertEquals(2000, rs.getInt(1));
+        stat.execute("drop table test");
+        conn.close();
+    }
+
     private void testRootCause() throws SQLException {
         conn = getConnection();
         stat = conn.createStatement();
@@ -18,15 +18,18 @@
 
 package com.openddal.test.sql.dml;
 
+import com.openddal.engine.SysProperties;
 import com.openddal.test.BaseTestCase;
 import com.openddal.util.New;
 import junit.framework.Assert;
 import org.junit.Test;
 
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Date;
 import java.util.List;
 
@@ -119,5 +122,92 @@ public class InsertTestCase extends BaseTestCase {
         }
     }
 
+    /**
+     * The rows of a batch are inserted with one statement per shard. If one
+     * of them fails, the executions whose rows are on the other shards are
+     * reported as successful, and they are in the table.
+     */
+    @Test
+    public void testBatchPartialFailure() throws SQLException {
+        long base = 900000;
+        int size = 20;
+        Connection conn = null;
+        PreparedStatement statement = null;
+        ResultSet rs = null;
+        try {
+            conn = dataSource.getConnection();
+            conn.createStatement().executeUpdate("DELETE FROM customers WHERE id BETWEEN " + base + " AND "
+                    + (base + size));
+            conn.createStatement().executeUpdate("INSERT INTO customers(id, name) VALUES(" + base + ", 'dup')");
+            statement = conn.prepareStatement("INSERT INTO customers(id, name) VALUES(?, ?)");
+            for (int i = 0; i < size; i++) {
+                statement.setLong(1, base + i);
+                statement.setString(2, "batch-" + i);
+                statement.addBatch();
+            }
+            int[] counts = null;
+            try {
+                statement.executeBatch();
+                Assert.fail();
+            } catch (BatchUpdateException e) {
+                counts = e.getUpdateCounts();
+            }
+            Assert.assertEquals(size, counts.length);
+            Assert.assertEquals(Statement.EXECUTE_FAILED, counts[0]);
+            statement.close();
+            statement = conn.prepareStatement("SELECT name FROM customers WHERE id = ?");
+            for (int i = 1; i < size; i++) {
+                statement.setLong(1, base + i);
+                rs = statement.executeQuery();
+                Assert.assertEquals(counts[i] == 1, rs.next());
+                rs.close();
+            }
+            conn.createStatement().executeUpdate("DELETE FROM customers WHERE id BETWEEN " + base + " AND "
+                    + (base + size));
+        } finally {
+            close(conn, statement, rs);
+        }
+    }
+
+    /**
+     * Copies rows between the shards with INSERT ... SELECT, streamed with
+     * auto commit and read to the end first in a transaction, with a memory
+     * limit that is smaller than the rows of a single shard.
+     */
+    @Test
+    public void testInsertSelectAcrossShards() throws SQLException {
+        long base = 910000;
+        int size = 200;
+        Connection conn = null;
+        Statement stmt = null;
+        ResultSet rs = null;
+        try {
+            conn = dataSource.getConnection();
+            stmt = conn.createStatement();
+            stmt.executeUpdate("DELETE FROM customers WHERE id BETWEEN " + base + " AND " + (base + 3 * size));
+            for (int i = 0; i < size; i++) {
+                stmt.executeUpdate("INSERT INTO customers(id, name) VALUES(" + (base + i) + ", 'c" + i + "')");
+            }
+            stmt.execute("SET MAX_MEMORY_ROWS 10");
+            Assert.assertEquals(size, stmt.executeUpdate("INSERT INTO customers(id, name) DIRECT SELECT id + "
+                    + size + ", name FROM customers WHERE id BETWEEN " + base + " AND " + (base + size - 1)));
+            conn.setAutoCommit(false);
+            Assert.assertEquals(size, stmt.executeUpdate("INSERT INTO customers(id, name) DIRECT SELECT id + "
+                    + 2 * size + ", name FROM customers WHERE id BETWEEN " + base + " AND " + (base + size - 1)));
+            conn.commit();
+            conn.setAutoCommit(true);
+            rs = stmt.executeQuery("SELECT COUNT(*), COUNT(DISTINCT name) FROM customers WHERE id BETWEEN " + base
+                    + " AND " + (base + 3 * size));
+            Assert.assertTrue(rs.next());
+            Assert.assertEquals(3 * size, rs.getInt(1));
+            Assert.assertEquals(size, rs.getInt(2));
+            stmt.executeUpdate("DELETE FROM customers WHERE id BETWEEN " + base + " AND " + (base + 3 * size));
+        } finally {
+            if (stmt != null) {
+                stmt.execute("SET MAX_MEMORY_ROWS " + SysProperties.MAX_MEMORY_ROWS);
+            }
+            close(conn, stmt, rs);
+        }
+    }
 
 }
@@ -22,11 +22,14 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.List;
 
 import org.junit.Test;
 
+import com.openddal.engine.SysProperties;
 import com.openddal.test.BaseTestCase;
+import com.openddal.util.New;
 
 import junit.framework.Assert;
 
@@ -95,4 +98,41 @@ public class JoinTestCase extends BaseTestCase {
         String sql = "SELECT * FROM orders a straight join order_items b on a.order_id=b.order_id straight join order_status c on b.order_id = c.order_id where customer_id = 1";
         this.query_Sql(sql, null);
     }
+
+    /**
+     * The customers are not on the shards of the orders, so the join is run
+     * by the engine. If they don't fit in memory, the hash join falls back to
+     * batched key lookups, which must return the same rows.
+     */
+    @Test
+    public void test_hash_join_fallback() throws SQLException {
+        String sql = "SELECT a.order_id, c.id FROM orders a inner join customers c on a.customer_id = c.id "
+                + "order by a.order_id, c.id";
+        try {
+            List<String> hashed = queryWithMaxMemoryRows(sql, 100000);
+            List<String> batched = queryWithMaxMemoryRows(sql, 1);
+            Assert.assertEquals(hashed, batched);
+        } finally {
+            queryWithMaxMemoryRows("SELECT 1, 1", SysProperties.MAX_MEMORY_ROWS);
+        }
+    }
+
+    private List<String> queryWithMaxMemoryRows(String sql, int maxMemoryRows) throws SQLException {
+        Connection conn = null;
+        Statement stmt = null;
+        ResultSet rs = null;
+        try {
+            conn = dataSource.getConnection();
+            stmt = conn.createStatement();
+            stmt.execute("SET MAX_MEMORY_ROWS " + maxMemoryRows);
+            rs = stmt.executeQuery(sql);
+            List<String> rows = New.arrayList();
+            while (rs.next()) {
+                rows.add(rs.getString(1) + "," + rs.getString(2));
+            }
+            return rows;
+        } finally {
+            close(conn, stmt, rs);
+        }
+    }
 }
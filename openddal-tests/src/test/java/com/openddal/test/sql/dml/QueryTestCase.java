@@ -22,6 +22,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.List;
 
 import org.junit.Test;
@@ -74,5 +75,56 @@ public class QueryTestCase extends BaseTestCase {
         this.query_Sql(sql, null);
     }
 
+    @Test
+    public void test_multiple_node_order_by_limit() throws SQLException {
+        Connection conn = null;
+        Statement stmt = null;
+        ResultSet rs = null;
+        try {
+            conn = dataSource.getConnection();
+            stmt = conn.createStatement();
+            rs = stmt.executeQuery("SELECT order_id FROM orders ORDER BY order_id DESC LIMIT 20 OFFSET 5");
+            long last = Long.MAX_VALUE;
+            int count = 0;
+            while (rs.next()) {
+                long orderId = rs.getLong(1);
+                Assert.assertTrue(orderId <= last);
+                last = orderId;
+                count++;
+            }
+            Assert.assertTrue(count <= 20);
+        } finally {
+            close(conn, stmt, rs);
+        }
+    }
+
+    @Test
+    public void test_multiple_node_partial_aggregate() throws SQLException {
+        Connection conn = null;
+        Statement stmt = null;
+        ResultSet rs = null;
+        try {
+            conn = dataSource.getConnection();
+            stmt = conn.createStatement();
+            rs = stmt.executeQuery("SELECT COUNT(DISTINCT customer_id), AVG(order_id), SUM(order_id), COUNT(order_id) FROM orders");
+            Assert.assertTrue(rs.next());
+            long distinctCustomers = rs.getLong(1);
+            double avg = rs.getDouble(2);
+            double sum = rs.getDouble(3);
+            long count = rs.getLong(4);
+            if (count > 0) {
+                Assert.assertEquals(sum / count, avg, 1.0);
+            }
+            rs.close();
+            rs = stmt.executeQuery("SELECT DISTINCT customer_id FROM orders WHERE customer_id IS NOT NULL");
+            long rows = 0;
+            while (rs.next()) {
+                rows++;
+            }
+            Assert.assertEquals(rows, distinctCustomers);
+        } finally {
+            close(conn, stmt, rs);
+        }
+    }
 
 }